@@ -263,83 +263,87 @@ public class MynewtSensor {
     }
 
     /**
-     * Get the data values from list of values and a sensor type. This method determines the order
-     * in which the sensor data values are listed and does not return any time values from the
-     * original values list.
-     * @param values a map of sensor values
-     * @param sensorType the sensor resource type corresponding to the list of values
-     * @return an ordered map (LinkedHashMap) of sensor data, excluding time values.
+     * Get the ordered sensor data keys for a sensor type. This determines the order in which the
+     * sensor data values are listed and does not include any time keys.
+     * @param sensorType the sensor resource type
+     * @return the ordered sensor data keys, or null if the sensor type is not a known Mynewt sensor
      */
-    private static LinkedHashMap<String, Object> getSensorDataFromValues(Map<String, Object> values, String sensorType) {
-        LinkedHashMap<String, Object> returnValues = new LinkedHashMap<>();
+    public static String[] getSensorDataKeys(String sensorType) {
         switch (sensorType) {
             case RT_LINEAR_ACCELEROMETER:
-                returnValues.put("x", values.get("x"));
-                returnValues.put("y", values.get("y"));
-                returnValues.put("z", values.get("z"));
-                break;
             case RT_ACCELEROMETER:
-                returnValues.put("x", values.get("x"));
-                returnValues.put("y", values.get("y"));
-                returnValues.put("z", values.get("z"));
-                break;
             case RT_MAGNETOMETER:
-                returnValues.put("x", values.get("x"));
-                returnValues.put("y", values.get("y"));
-                returnValues.put("z", values.get("z"));
-                break;
+            case RT_GYROSCOPE:
+            case RT_GRAVITY:
+                return new String[] {"x", "y", "z"};
             case RT_LIGHT_SENSOR:
-                returnValues.put("lux", values.get("lux"));
-                returnValues.put("ir", values.get("ir"));
-                returnValues.put("full", values.get("full"));
-                break;
+                return new String[] {"lux", "ir", "full"};
             case RT_TEMPERATURE_SENSOR:
-                returnValues.put("temp", values.get("temp"));
-                break;
             case RT_AMBIENT_TEMPERATURE_SENSOR:
-                returnValues.put("temp", values.get("temp"));
-                break;
+                return new String[] {"temp"};
             case RT_RELATIVE_HUMIDITY_SENSOR:
-                returnValues.put("humid", values.get("humid"));
-                break;
+                return new String[] {"humid"};
             case RT_PRESSURE_SENSOR:
-                returnValues.put("press", values.get("press"));
-                break;
+                return new String[] {"press"};
             case RT_COLOR_SENSOR:
-                returnValues.put("r", values.get("r"));
-                returnValues.put("g", values.get("g"));
-                returnValues.put("b", values.get("b"));
-                returnValues.put("c", values.get("c"));
-                returnValues.put("lux", values.get("lux"));
-                returnValues.put("ir", values.get("ir"));
-                returnValues.put("colortemp", values.get("colortemp"));
-                returnValues.put("cratio", values.get("cratio"));
-                returnValues.put("saturation", values.get("saturation"));
-                returnValues.put("is_sat", values.get("is_sat"));
-                break;
-            case RT_GYROSCOPE:
-                returnValues.put("x", values.get("x"));
-                returnValues.put("y", values.get("y"));
-                returnValues.put("z", values.get("z"));
-                break;
+                return new String[] {"r", "g", "b", "c", "lux", "ir", "colortemp", "cratio",
+                        "saturation", "is_sat"};
             case RT_EULER:
-                returnValues.put("h", values.get("h"));
-                returnValues.put("r", values.get("r"));
-                returnValues.put("p", values.get("p"));
-                break;
-            case RT_GRAVITY:
-                returnValues.put("x", values.get("x"));
-                returnValues.put("y", values.get("y"));
-                returnValues.put("z", values.get("z"));
-                break;
+                return new String[] {"h", "r", "p"};
             case RT_ROTATION_VECTOR:
-                returnValues.put("x", values.get("x"));
-                returnValues.put("y", values.get("y"));
-                returnValues.put("z", values.get("z"));
-                returnValues.put("w", values.get("w"));
-                break;
+                return new String[] {"x", "y", "z", "w"};
             default:
-                return new LinkedHashMap<>(values);
+                return null;
+        }
+    }
+
+    /**
+     * Get the sensor timestamp in microseconds from a map of sensor values. Mynewt sensors report
+     * the time since the board started running split into the "ts_secs" and "ts_usecs" values.
+     * @param values a map of sensor values
+     * @return the sensor timestamp in microseconds, or -1 if the values contain no timestamp
+     */
+    public static long getTimestampMicros(Map<String, Object> values) {
+        Object secs = values.get("ts_secs");
+        Object usecs = values.get("ts_usecs");
+        if (!(secs instanceof Integer) || !(usecs instanceof Integer)) {
+            return -1;
+        }
+        return (Integer) secs * 1000000L + (Integer) usecs;
+    }
+
+    /**
+     * Convert a sensor value obtained from an OcRepresentation into a double.
+     * @param value the sensor value
+     * @return the value as a double, or NaN if the value is not numeric
+     */
+    public static double toDouble(Object value) {
+        if (value instanceof Integer) {
+            return (Integer) value;
+        } else if (value instanceof Double) {
+            return (Double) value;
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Get the data values from list of values and a sensor type. This method determines the order
+     * in which the sensor data values are listed and does not return any time values from the
+     * original values list.
+     * @param values a map of sensor values
+     * @param sensorType the sensor resource type corresponding to the list of values
+     * @return an ordered map (LinkedHashMap) of sensor data, excluding time values.
+     */
+    private static LinkedHashMap<String, Object> getSensorDataFromValues(Map<String, Object> values, String sensorType) {
+        String[] keys = getSensorDataKeys(sensorType);
+        if (keys == null) {
+            return new LinkedHashMap<>(values);
+        }
+        LinkedHashMap<String, Object> returnValues = new LinkedHashMap<>();
+        for (String key : keys) {
+            returnValues.put(key, values.get(key));
         }
         return returnValues;
     }
@@ -2,12 +2,21 @@ package io.runtime.sensoroic;
 
 import android.app.Application;
 
-import com.github.mikephil.charting.data.Entry;
-
 import org.iotivity.base.OcResource;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.List;
+
+import io.runtime.sensoroic.actuation.GroupActuator;
+import io.runtime.sensoroic.health.HostHealthMonitor;
+import io.runtime.sensoroic.history.HistoryCompactor;
+import io.runtime.sensoroic.history.HistoryStore;
+import io.runtime.sensoroic.index.DeviceIndex;
+import io.runtime.sensoroic.observe.ObserveHub;
+import io.runtime.sensoroic.observe.ObserveMetrics;
+import io.runtime.sensoroic.trace.TraceRecorder;
 
 public class OicApplication extends Application {
 
@@ -18,6 +27,75 @@ public class OicApplication extends Application {
      */
     private Hashtable<String, OcResource> mDiscovered = new Hashtable<>();
 
+    /**
+     * The trace recorder used to capture observe, get and put callbacks for replay.
+     */
+    private TraceRecorder mTraceRecorder = new TraceRecorder();
+
+    /**
+     * Starts the IoTivity stack once, off the main thread.
+     */
+    private PlatformLifecycle mPlatform;
+
+    /**
+     * The health of every host, consulted before spending radio time on a host.
+     */
+    private HostHealthMonitor mHostHealthMonitor = new HostHealthMonitor();
+
+    /**
+     * The search index over the discovered resources.
+     */
+    private DeviceIndex mDeviceIndex = new DeviceIndex(mHostHealthMonitor);
+
+    /**
+     * Reconciles discovery runs with the discovered resources and expires the stale ones.
+     */
+    private ResourceRegistry mRegistry = new ResourceRegistry();
+
+    /**
+     * The observe sequence number metrics of every resource.
+     */
+    private ObserveMetrics mObserveMetrics = new ObserveMetrics();
+
+    /**
+     * The observe subscriptions shared by every consumer of a resource.
+     */
+    private ObserveHub mObserveHub = new ObserveHub(mHostHealthMonitor, mObserveMetrics);
+
+    /**
+     * The engine sending PUTs to groups of resources.
+     */
+    private GroupActuator mGroupActuator = new GroupActuator(mTraceRecorder);
+
+    /**
+     * The recorded sensor history of every resource.
+     */
+    private HistoryStore mHistoryStore;
+    private HistoryCompactor mHistoryCompactor;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // Keep the discovered table and the search index in step with the registry, before any
+        // other listener hears about a change
+        mRegistry.addOnChangeListener(new ResourceRegistry.OnChangeListener() {
+            @Override
+            public void onResourcesChanged(ResourceRegistry.Delta delta) {
+                applyDelta(delta);
+            }
+        });
+        mPlatform = new PlatformLifecycle(this);
+        mPlatform.start();
+    }
+
+    /**
+     * Get the platform lifecycle. Wait for it to be ready before using OcPlatform.
+     * @return the platform lifecycle
+     */
+    public PlatformLifecycle getPlatform() {
+        return mPlatform;
+    }
+
     /**
      * Get the table of discovered resources.
      * @return the discovered resources
@@ -29,12 +107,48 @@ public class OicApplication extends Application {
     /**
      * Put a resource into the table of discovered resources. If the resource already exists,
      * update the resource object value and return the replaced resource. If the resource did not
-     * previously exist, add the entry and return null.
+     * previously exist, add the entry and return null. Either way the resource is (re)indexed
+     * for search. Discovery runs should be reconciled as a whole with reconcileDiscovery().
      * @param res The resource to add to the discovered table
      * @return If the entry already exists, return the replaced resource. Otherwise return null;
      */
     public OcResource putResource(OcResource res) {
-        return mDiscovered.put(createUniqueId(res.getHost(), res.getUri()), res);
+        OcResource replaced = mDiscovered.get(createUniqueId(res));
+        mRegistry.reconcile(Collections.singletonList(res));
+        return replaced;
+    }
+
+    /**
+     * Reconcile the resources found by a discovery run with the discovered resources. Only what
+     * changed is added to, updated in or removed from the discovered table and the search index,
+     * and resources not discovered for longer than the registry's time to live are removed.
+     * @param resources the resources found by the run
+     * @return the changes
+     */
+    public ResourceRegistry.Delta reconcileDiscovery(List<OcResource> resources) {
+        return mRegistry.reconcile(resources);
+    }
+
+    private void applyDelta(ResourceRegistry.Delta delta) {
+        for (OcResource res : delta.getRemoved()) {
+            String id = createUniqueId(res);
+            mDiscovered.remove(id);
+            mDeviceIndex.remove(id);
+        }
+        for (OcResource res : delta.getAdded()) {
+            mDiscovered.put(createUniqueId(res), res);
+            mDeviceIndex.put(res, mRegistry.getSeenAtMillis(createUniqueId(res)));
+        }
+        for (OcResource res : delta.getChanged()) {
+            mDiscovered.put(createUniqueId(res), res);
+            mDeviceIndex.put(res, mRegistry.getSeenAtMillis(createUniqueId(res)));
+        }
+        // Unchanged resources only take the newest resource object and last seen time
+        for (OcResource res : delta.getRefreshed()) {
+            String id = createUniqueId(res);
+            mDiscovered.put(id, res);
+            mDeviceIndex.touch(id, mRegistry.getSeenAtMillis(id));
+        }
     }
 
     /**
@@ -71,17 +185,79 @@ public class OicApplication extends Application {
     }
 
     /**
-     * Historical Data
-     * // TODO finish implementing historical data
+     * Get the trace recorder. Listeners for observe, get and put callbacks should be wrapped by
+     * the recorder so that they can be captured when tracing is turned on for their resource.
+     * @return the trace recorder
+     */
+    public TraceRecorder getTraceRecorder() {
+        return mTraceRecorder;
+    }
+
+    /**
+     * Get the host health monitor. Discovery, polling and observe record the outcome of their
+     * requests here and skip hosts whose circuit is open.
+     * @return the host health monitor
+     */
+    public HostHealthMonitor getHostHealthMonitor() {
+        return mHostHealthMonitor;
+    }
+
+    /**
+     * Get the search index over the discovered resources. Resources are indexed and removed as
+     * the registry reconciles discovery runs.
+     * @return the device index
      */
+    public DeviceIndex getDeviceIndex() {
+        return mDeviceIndex;
+    }
+
+    /**
+     * Get the resource registry. Listeners added to it are told what each discovery run added,
+     * changed or expired instead of rereading the discovered table.
+     * @return the resource registry
+     */
+    public ResourceRegistry getRegistry() {
+        return mRegistry;
+    }
+
+    /**
+     * Get the observe metrics, holding the loss, duplicate and reorder counts of every observed
+     * resource.
+     * @return the observe metrics
+     */
+    public ObserveMetrics getObserveMetrics() {
+        return mObserveMetrics;
+    }
 
-    private ArrayList<Entry> mHistoricalData = new ArrayList<>();
+    /**
+     * Get the observe hub. Resources should be observed through the hub so that screens and
+     * content provider clients observing the same resource share one subscription.
+     * @return the observe hub
+     */
+    public ObserveHub getObserveHub() {
+        return mObserveHub;
+    }
 
-    public ArrayList<Entry> getHistoricalData() {
-        return mHistoricalData;
+    /**
+     * Get the group actuation engine. Its concurrency limits apply across every group, so all
+     * group actuations should go through this one instance.
+     * @return the group actuator
+     */
+    public GroupActuator getGroupActuator() {
+        return mGroupActuator;
     }
 
-    public void addHistoricalData(Entry e) {
-        mHistoricalData.add(e);
+    /**
+     * Get the store of recorded sensor history, opening it and starting its background retention
+     * and compaction on first use.
+     * @return the history store
+     */
+    public synchronized HistoryStore getHistoryStore() {
+        if (mHistoryStore == null) {
+            mHistoryStore = new HistoryStore(new File(getFilesDir(), "history"));
+            mHistoryCompactor = new HistoryCompactor(mHistoryStore);
+            mHistoryCompactor.start();
+        }
+        return mHistoryStore;
     }
 }
@@ -0,0 +1,122 @@
+package io.runtime.sensoroic;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothManager;
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.iotivity.base.ModeType;
+import org.iotivity.base.OcPlatform;
+import org.iotivity.base.PlatformConfig;
+import org.iotivity.base.QualityOfService;
+import org.iotivity.base.ServiceType;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Starts the IoTivity stack once per process. start() configures the platform on a background
+ * thread, which also loads the native library, and looks up the Bluetooth adapter meanwhile, so
+ * neither the cold start nor the main thread pays for it. Anything about to use the stack waits
+ * for the ready future first.
+ */
+public class PlatformLifecycle {
+
+    // Logging TAG
+    private static final String TAG = "PlatformLifecycle";
+
+    private final Context mContext;
+    private final FutureTask<Void> mReady;
+    private boolean mIsStarted = false;
+
+    // Looked up while prewarming, or on first use if that has not happened yet
+    private BluetoothAdapter mBluetoothAdapter;
+    private boolean mIsAdapterLookedUp = false;
+
+    /**
+     * Constructor for PlatformLifecycle.
+     * @param context context
+     */
+    public PlatformLifecycle(Context context) {
+        mContext = context.getApplicationContext();
+        mReady = new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                long start = SystemClock.elapsedRealtime();
+                getBluetoothAdapter();
+                // The first use of OcPlatform loads the native library
+                PlatformConfig platformConfig = new PlatformConfig(mContext, ServiceType.IN_PROC,
+                        ModeType.CLIENT, "0.0.0.0", 0, QualityOfService.LOW);
+                OcPlatform.Configure(platformConfig);
+                Log.d(TAG, "Platform ready after " + (SystemClock.elapsedRealtime() - start) + " ms");
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Start configuring the platform in the background. Only the first call has an effect.
+     */
+    public synchronized void start() {
+        if (mIsStarted) {
+            return;
+        }
+        mIsStarted = true;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                mReady.run();
+            }
+        }, TAG);
+        thread.start();
+    }
+
+    /**
+     * Get the future which completes once the platform is configured.
+     * @return the ready future
+     */
+    public Future<Void> getReadyFuture() {
+        return mReady;
+    }
+
+    /**
+     * Wait until the platform is configured, starting it if that has not happened yet. Must not
+     * be called on the main thread.
+     * @param timeoutMillis the maximum time to wait
+     * @return true if the platform is ready, false if it failed to start or the wait timed out
+     * @throws InterruptedException if the wait was interrupted
+     */
+    public boolean awaitReady(long timeoutMillis) throws InterruptedException {
+        start();
+        try {
+            mReady.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Platform failed to start", e.getCause());
+        } catch (TimeoutException e) {
+            Log.e(TAG, "Platform not ready after " + timeoutMillis + " ms");
+        }
+        return false;
+    }
+
+    /**
+     * Get the Bluetooth adapter.
+     * @return the adapter, or null if the device does not support Bluetooth
+     */
+    public synchronized BluetoothAdapter getBluetoothAdapter() {
+        if (!mIsAdapterLookedUp) {
+            BluetoothManager bluetoothManager =
+                    (BluetoothManager) mContext.getSystemService(Context.BLUETOOTH_SERVICE);
+            mBluetoothAdapter = bluetoothManager == null ? null : bluetoothManager.getAdapter();
+            mIsAdapterLookedUp = true;
+        }
+        return mBluetoothAdapter;
+    }
+}
@@ -0,0 +1,261 @@
+package io.runtime.sensoroic;
+
+import android.os.SystemClock;
+
+import org.iotivity.base.OcResource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reconciles each discovery run with the resources already known, so that listeners are told
+ * what changed rather than handed the whole fleet again.
+ *
+ * Every known resource carries the time it was last discovered and a signature of what
+ * discovery reports about it: its resource types, interfaces, connectivity and whether it is
+ * observable. A run is compared against these in one pass over its results: a resource not
+ * known yet is added, a known one with a different signature is changed, and one with the same
+ * signature is only refreshed. Resources which have not been discovered for longer than the
+ * time to live are removed.
+ *
+ * A resource missing from a run is not removed straight away. Runs are often partial, e.g. a
+ * rediscovery of the known hosts, a cancelled run or a Bluetooth LE scan which missed an
+ * advertisement, so absence only counts once it has lasted the time to live. Expiry is checked
+ * as each run is reconciled, when the resources have just had a chance to be seen, so leaving
+ * the app unused for a while does not empty it.
+ *
+ * Listeners are called on the thread reconciling the run, after the registry is updated.
+ */
+public class ResourceRegistry {
+
+    // Default time a resource is kept without being discovered again
+    public static final long DEFAULT_TTL_MILLIS = 30 * 60 * 1000;
+
+    private final HashMap<String, Record> mRecords = new HashMap<>();
+    private long mTtlMillis = DEFAULT_TTL_MILLIS;
+    private volatile OnChangeListener[] mListeners = new OnChangeListener[0];
+
+    /**
+     * Add a listener told about the changes of every reconciled run.
+     * @param listener the listener
+     */
+    public synchronized void addOnChangeListener(OnChangeListener listener) {
+        OnChangeListener[] listeners = Arrays.copyOf(mListeners, mListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        mListeners = listeners;
+    }
+
+    /**
+     * Remove a listener.
+     * @param listener the listener
+     */
+    public synchronized void removeOnChangeListener(OnChangeListener listener) {
+        List<OnChangeListener> listeners = new ArrayList<>(Arrays.asList(mListeners));
+        if (listeners.remove(listener)) {
+            mListeners = listeners.toArray(new OnChangeListener[listeners.size()]);
+        }
+    }
+
+    /**
+     * Set how long a resource is kept without being discovered again.
+     * @param ttlMillis the time to live in milliseconds
+     */
+    public synchronized void setTtlMillis(long ttlMillis) {
+        mTtlMillis = ttlMillis;
+    }
+
+    public synchronized long getTtlMillis() {
+        return mTtlMillis;
+    }
+
+    /**
+     * Reconcile the resources found by a discovery run, then expire the resources which have not
+     * been found for longer than the time to live.
+     * @param found the resources found by the run, possibly with duplicates
+     * @return the changes, also passed to every listener
+     */
+    public Delta reconcile(List<OcResource> found) {
+        Delta delta = new Delta();
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            HashSet<String> seen = new HashSet<>();
+            for (OcResource resource : found) {
+                String id = OicApplication.createUniqueId(resource);
+                if (!seen.add(id)) {
+                    // Reported twice by the same run, e.g. to both a multicast and a unicast request
+                    continue;
+                }
+                String signature = signatureOf(resource);
+                Record record = mRecords.get(id);
+                if (record == null) {
+                    mRecords.put(id, new Record(resource, signature, now));
+                    delta.mAdded.add(resource);
+                } else if (!record.mSignature.equals(signature)) {
+                    record.update(resource, signature, now);
+                    delta.mChanged.add(resource);
+                } else {
+                    record.update(resource, signature, now);
+                    delta.mRefreshed.add(resource);
+                }
+            }
+            expire(now, delta);
+        }
+        dispatch(delta);
+        return delta;
+    }
+
+    /**
+     * Expire the resources which have not been discovered for longer than the time to live,
+     * without a discovery run.
+     * @return the changes, also passed to every listener if there are any
+     */
+    public Delta expire() {
+        Delta delta = new Delta();
+        synchronized (this) {
+            expire(SystemClock.elapsedRealtime(), delta);
+        }
+        if (!delta.isEmpty()) {
+            dispatch(delta);
+        }
+        return delta;
+    }
+
+    private void expire(long now, Delta delta) {
+        Iterator<Record> records = mRecords.values().iterator();
+        while (records.hasNext()) {
+            Record record = records.next();
+            if (now - record.mSeenAtMillis > mTtlMillis) {
+                records.remove();
+                delta.mRemoved.add(record.mResource);
+            }
+        }
+    }
+
+    private void dispatch(Delta delta) {
+        OnChangeListener[] listeners = mListeners;
+        for (OnChangeListener listener : listeners) {
+            listener.onResourcesChanged(delta);
+        }
+    }
+
+    /**
+     * Get when a resource was last discovered.
+     * @param resourceId the resource unique id
+     * @return the elapsed realtime in milliseconds, or -1 if the resource is not known
+     */
+    public synchronized long getSeenAtMillis(String resourceId) {
+        Record record = mRecords.get(resourceId);
+        return record == null ? -1 : record.mSeenAtMillis;
+    }
+
+    /**
+     * Get the number of known resources.
+     * @return the resource count
+     */
+    public synchronized int size() {
+        return mRecords.size();
+    }
+
+    /**
+     * Summarise what discovery reports about a resource, to tell a changed resource from one
+     * which was only found again.
+     */
+    private static String signatureOf(OcResource resource) {
+        return resource.getResourceTypes() + "|" + resource.getResourceInterfaces() + "|"
+                + resource.getConnectivityTypeSet() + "|" + resource.isObservable();
+    }
+
+    /**
+     * What is known about one resource.
+     */
+    private static class Record {
+        private OcResource mResource;
+        private String mSignature;
+        private long mSeenAtMillis;
+
+        private Record(OcResource resource, String signature, long seenAtMillis) {
+            update(resource, signature, seenAtMillis);
+        }
+
+        private void update(OcResource resource, String signature, long seenAtMillis) {
+            mResource = resource;
+            mSignature = signature;
+            mSeenAtMillis = seenAtMillis;
+        }
+    }
+
+    /**
+     * The changes of one reconciled run.
+     */
+    public static class Delta {
+        private final ArrayList<OcResource> mAdded = new ArrayList<>();
+        private final ArrayList<OcResource> mChanged = new ArrayList<>();
+        private final ArrayList<OcResource> mRefreshed = new ArrayList<>();
+        private final ArrayList<OcResource> mRemoved = new ArrayList<>();
+
+        /**
+         * Get the resources discovered for the first time, or again after they expired.
+         * @return the added resources
+         */
+        public List<OcResource> getAdded() {
+            return Collections.unmodifiableList(mAdded);
+        }
+
+        /**
+         * Get the resources discovered again with different types, interfaces, connectivity or
+         * observability.
+         * @return the changed resources, as discovered by this run
+         */
+        public List<OcResource> getChanged() {
+            return Collections.unmodifiableList(mChanged);
+        }
+
+        /**
+         * Get the resources discovered again unchanged. Only their last seen time moved, and
+         * their resource objects were replaced by the ones of this run.
+         * @return the refreshed resources
+         */
+        public List<OcResource> getRefreshed() {
+            return Collections.unmodifiableList(mRefreshed);
+        }
+
+        /**
+         * Get the resources which expired.
+         * @return the removed resources, as last discovered
+         */
+        public List<OcResource> getRemoved() {
+            return Collections.unmodifiableList(mRemoved);
+        }
+
+        /**
+         * Whether or not the run added, changed or removed anything.
+         * @return true if there is nothing but refreshed resources
+         */
+        public boolean isEmpty() {
+            return mAdded.isEmpty() && mChanged.isEmpty() && mRemoved.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "+" + mAdded.size() + " ~" + mChanged.size() + " -" + mRemoved.size()
+                    + " =" + mRefreshed.size();
+        }
+    }
+
+    /**
+     * The listener told about the changes of every reconciled run.
+     */
+    public interface OnChangeListener {
+        /**
+         * Called on the thread reconciling the run, once the registry is updated. Called for
+         * every run, even if nothing but refreshed resources, so that last seen times can follow.
+         * @param delta the changes
+         */
+        void onResourcesChanged(Delta delta);
+    }
+}
@@ -0,0 +1,30 @@
+package io.runtime.sensoroic;
+
+import org.iotivity.base.OcConnectivityType;
+import org.iotivity.base.OcResource;
+
+import java.util.EnumSet;
+
+/**
+ * The transport a resource is reached over.
+ */
+public enum Transport {
+    BLE,
+    TCP,
+    IP;
+
+    /**
+     * Get the transport of a resource from its connectivity types.
+     * @param resource the resource
+     * @return the transport
+     */
+    public static Transport of(OcResource resource) {
+        EnumSet<OcConnectivityType> types = resource.getConnectivityTypeSet();
+        if (types.contains(OcConnectivityType.CT_ADAPTER_GATT_BTLE)) {
+            return BLE;
+        } else if (types.contains(OcConnectivityType.CT_ADAPTER_TCP)) {
+            return TCP;
+        }
+        return IP;
+    }
+}
@@ -0,0 +1,406 @@
+package io.runtime.sensoroic.activity;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.ArrayAdapter;
+import android.widget.GridView;
+import android.widget.TextView;
+
+import org.iotivity.base.OcHeaderOption;
+import org.iotivity.base.OcRepresentation;
+import org.iotivity.base.OcResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import io.runtime.sensoroic.MynewtSensor;
+import io.runtime.sensoroic.OicApplication;
+import io.runtime.sensoroic.R;
+import io.runtime.sensoroic.chart.RenderLoop;
+import io.runtime.sensoroic.chart.SampleRing;
+import io.runtime.sensoroic.chart.TileChartView;
+import io.runtime.sensoroic.observe.ObserveHub;
+import io.runtime.sensoroic.observe.ObserveSupervisor;
+import io.runtime.sensoroic.stream.JoinedCsvWriter;
+import io.runtime.sensoroic.stream.StreamClock;
+import io.runtime.sensoroic.stream.StreamJoin;
+
+/**
+ * Shows a grid of live charts for a chosen set of sensors. Every tile is drawn by one shared
+ * RenderLoop, so each tile redraws at most once per display frame however fast its sensor
+ * notifies. Tiles which are scrolled off-screen keep only every few samples and are unsubscribed
+ * entirely if they stay off-screen, then resubscribed when they scroll back into view.
+ *
+ * The samples of every tile can also be recorded as one CSV, aligned by a StreamJoin on a common
+ * time grid so that the sensors can be compared row by row. Tiles which are unsubscribed while
+ * recording stop holding back the join once idle and leave their columns empty.
+ */
+public class DashboardActivity extends AppCompatActivity {
+
+    // Logging TAG
+    private static final String TAG = "DashboardActivity";
+
+    // Intent extra holding the unique ids of the resources to show
+    public static final String EXTRA_RESOURCE_IDS = "resIds";
+
+    // Samples shown per tile (10 seconds at 20 Hz)
+    private static final int TILE_SAMPLES = 200;
+
+    // Largest number of channels of any Mynewt sensor (color sensor)
+    private static final int MAX_CHANNELS = 10;
+
+    // Number of channels drawn per tile
+    private static final int TILE_VISIBLE_CHANNELS = 3;
+
+    // Off-screen tiles keep one in this many samples
+    private static final int OFFSCREEN_DECIMATION = 4;
+
+    // Off-screen tiles are unsubscribed after this long
+    private static final long UNSUBSCRIBE_DELAY_MILLIS = 10000;
+
+    // Period of the subscription check
+    private static final long SUBSCRIPTION_CHECK_MILLIS = 1000;
+
+    // Row period of the aligned recording, and how long it waits for late samples
+    private static final long ALIGNED_PERIOD_MICROS = 100 * 1000L;
+    private static final long ALIGNED_LATENESS_MICROS = 500 * 1000L;
+
+    // Application
+    private OicApplication mApp;
+
+    // Tiles in grid order
+    private final ArrayList<DashboardTile> mTiles = new ArrayList<>();
+
+    // Render loop shared by all tiles
+    private RenderLoop mRenderLoop;
+
+    // Views
+    private GridView mGrid;
+
+    // Chart colors
+    private int[] mColors;
+
+    // Handler for the subscription check
+    private Handler mHandler = new Handler();
+
+    // Whether or not the activity is started
+    private boolean mIsStarted = false;
+
+    // Join and file of the aligned recording, null while not recording
+    private StreamJoin mJoin;
+    private JoinedCsvWriter mJoinWriter;
+
+    /**
+     * Periodically subscribes visible tiles and unsubscribes tiles which have been off-screen
+     * for too long.
+     */
+    private Runnable mSubscriptionCheck = new Runnable() {
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            for (DashboardTile tile : mTiles) {
+                if (tile.mIsVisible && !tile.mIsSubscribed) {
+                    tile.subscribe();
+                } else if (!tile.mIsVisible && tile.mIsSubscribed
+                        && now - tile.mHiddenSince > UNSUBSCRIBE_DELAY_MILLIS) {
+                    tile.unsubscribe();
+                }
+            }
+            // Let the recording move on past tiles which went silent
+            if (mJoin != null) {
+                mJoin.advance(StreamClock.nowMicros());
+            }
+            if (mIsStarted) {
+                mHandler.postDelayed(this, SUBSCRIPTION_CHECK_MILLIS);
+            }
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_dashboard);
+        setTitle(R.string.dashboard_title);
+
+        // Get OicApplication
+        mApp = (OicApplication) getApplication();
+        mColors = getResources().getIntArray(R.array.colors);
+
+        // Create a tile for each Mynewt sensor in the intent
+        ArrayList<String> resIds = getIntent().getStringArrayListExtra(EXTRA_RESOURCE_IDS);
+        if (resIds != null) {
+            for (String resId : resIds) {
+                OcResource resource = mApp.getResource(resId);
+                if (resource == null) {
+                    continue;
+                }
+                String sensorType = MynewtSensor.getSensorResourceType(resource.getResourceTypes());
+                String[] keys = sensorType == null ? null : MynewtSensor.getSensorDataKeys(sensorType);
+                if (keys == null) {
+                    Log.w(TAG, "Not a Mynewt sensor, skipping: " + resId);
+                    continue;
+                }
+                mTiles.add(new DashboardTile(resource, keys));
+            }
+        }
+
+        mRenderLoop = new RenderLoop(TILE_SAMPLES, MAX_CHANNELS);
+
+        // Set up the grid
+        mGrid = (GridView) findViewById(R.id.dashboard_grid);
+        mGrid.setEmptyView(findViewById(R.id.dashboard_empty_tv));
+        mGrid.setAdapter(new TileAdapter(this, mTiles));
+        mGrid.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                                 int totalItemCount) {
+                updateVisibility(firstVisibleItem, visibleItemCount);
+            }
+        });
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mIsStarted = true;
+        mRenderLoop.start();
+        mHandler.post(mSubscriptionCheck);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mIsStarted = false;
+        mRenderLoop.stop();
+        mHandler.removeCallbacks(mSubscriptionCheck);
+        for (DashboardTile tile : mTiles) {
+            if (tile.mIsSubscribed) {
+                tile.unsubscribe();
+            }
+        }
+        stopAlignedRecording();
+        invalidateOptionsMenu();
+        Log.d(TAG, "Rendered " + mRenderLoop.getFrameCount() + " frames, "
+                + mRenderLoop.getJankCount() + " late");
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.dashboard_menu, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.dashboard_menu_record_aligned).setChecked(mJoin != null);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.dashboard_menu_record_aligned) {
+            if (mJoin != null) {
+                stopAlignedRecording();
+            } else {
+                startAlignedRecording();
+            }
+            item.setChecked(mJoin != null);
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Start recording the samples of every tile, aligned on a common time grid, into a CSV file.
+     */
+    private void startAlignedRecording() {
+        File dir = getExternalFilesDir("aligned");
+        if (dir == null) {
+            dir = new File(getFilesDir(), "aligned");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "Could not create aligned recording directory " + dir);
+            return;
+        }
+        File file = new File(dir, System.currentTimeMillis() + ".csv");
+        try {
+            mJoinWriter = new JoinedCsvWriter(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not start aligned recording", e);
+            return;
+        }
+        mJoin = new StreamJoin(StreamJoin.MatchMode.LINEAR, StreamJoin.EmitMode.GRID,
+                ALIGNED_PERIOD_MICROS, ALIGNED_LATENESS_MICROS, mJoinWriter);
+        for (DashboardTile tile : mTiles) {
+            int stream = mJoin.addStream(OicApplication.createUniqueId(tile.mResource), tile.mKeys);
+            tile.mJoinListener = mJoin.createObserveListener(stream);
+        }
+        Log.d(TAG, "Recording aligned samples to " + file);
+    }
+
+    /**
+     * Stop the aligned recording and close its file.
+     */
+    private void stopAlignedRecording() {
+        if (mJoin == null) {
+            return;
+        }
+        for (DashboardTile tile : mTiles) {
+            tile.mJoinListener = null;
+        }
+        mJoinWriter.close();
+        Log.d(TAG, "Recorded " + mJoinWriter.getRowCount() + " aligned rows, "
+                + mJoin.getLateCount() + " late samples");
+        mJoin = null;
+        mJoinWriter = null;
+    }
+
+    /**
+     * Mark the tiles in the given range as visible and all others as hidden.
+     */
+    private void updateVisibility(int first, int count) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < mTiles.size(); i++) {
+            DashboardTile tile = mTiles.get(i);
+            boolean visible = i >= first && i < first + count;
+            if (tile.mIsVisible && !visible) {
+                tile.mHiddenSince = now;
+            }
+            tile.mIsVisible = visible;
+        }
+    }
+
+    /**
+     * A single dashboard tile, holding the observe subscription and samples for one resource.
+     */
+    private class DashboardTile implements OcResource.OnObserveListener,
+            ObserveSupervisor.OnStateChangeListener {
+        private final OcResource mResource;
+        private final String[] mKeys;
+        private final SampleRing mRing;
+
+        // Only touched on the observe callback thread
+        private final double[] mScratch;
+        private int mSampleCount = 0;
+
+        private volatile boolean mIsVisible = false;
+        private long mHiddenSince = 0;
+        private boolean mIsSubscribed = false;
+        private ObserveHub.Subscription mSubscription;
+        private volatile boolean mIsStale = false;
+
+        // Feeds the aligned recording, null while not recording
+        private volatile OcResource.OnObserveListener mJoinListener;
+
+        private DashboardTile(OcResource resource, String[] keys) {
+            mResource = resource;
+            mKeys = keys;
+            mRing = new SampleRing(TILE_SAMPLES, keys.length);
+            mScratch = new double[keys.length];
+        }
+
+        private void subscribe() {
+            mSubscription = mApp.getObserveHub().newSubscription(mResource, this);
+            mSubscription.setOnStateChangeListener(this);
+            mSubscription.start();
+            mIsSubscribed = true;
+        }
+
+        private void unsubscribe() {
+            mSubscription.cancel();
+            mSubscription = null;
+            mIsSubscribed = false;
+        }
+
+        @Override
+        public void onObserveStateChanged(ObserveSupervisor supervisor,
+                                          ObserveSupervisor.State state) {
+            boolean stale = state == ObserveSupervisor.State.STALE;
+            if (stale != mIsStale) {
+                mIsStale = stale;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        ((TileAdapter) mGrid.getAdapter()).notifyDataSetChanged();
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void onObserveCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation, int i) {
+            // The recording keeps every sample, whether or not the tile is on-screen
+            OcResource.OnObserveListener joinListener = mJoinListener;
+            if (joinListener != null) {
+                joinListener.onObserveCompleted(list, ocRepresentation, i);
+            }
+            if (!mIsVisible && mSampleCount++ % OFFSCREEN_DECIMATION != 0) {
+                return;
+            }
+            Map<String, Object> values = ocRepresentation.getValues();
+            for (int c = 0; c < mKeys.length; c++) {
+                mScratch[c] = MynewtSensor.toDouble(values.get(mKeys[c]));
+            }
+            mRing.add(mScratch);
+        }
+
+        @Override
+        public void onObserveFailed(Throwable throwable) {
+            Log.i(TAG, "Observe failed for " + OicApplication.createUniqueId(mResource));
+        }
+    }
+
+    /**
+     * Array Adapter for the dashboard tiles.
+     */
+    private class TileAdapter extends ArrayAdapter<DashboardTile> {
+
+        private TileAdapter(@NonNull Context context, @NonNull List<DashboardTile> tiles) {
+            super(context, R.layout.list_item_dashboard_tile, tiles);
+        }
+
+        @NonNull
+        @Override
+        public View getView(int position, @Nullable View view, @NonNull ViewGroup parent) {
+            if (view == null) {
+                view = LayoutInflater.from(getContext())
+                        .inflate(R.layout.list_item_dashboard_tile, parent, false);
+                ((TileChartView) view.findViewById(R.id.dashboard_tile_chart))
+                        .setRenderLoop(mRenderLoop);
+            }
+            DashboardTile tile = getItem(position);
+            TextView title = (TextView) view.findViewById(R.id.dashboard_tile_title);
+            TextView subtitle = (TextView) view.findViewById(R.id.dashboard_tile_subtitle);
+            TileChartView chart = (TileChartView) view.findViewById(R.id.dashboard_tile_chart);
+
+            title.setText(MynewtSensor.getReadableName(tile.mResource));
+            if (tile.mIsStale) {
+                subtitle.setText(tile.mResource.getHost() + " · "
+                        + getString(R.string.observe_stale_short));
+            } else {
+                subtitle.setText(tile.mResource.getHost());
+            }
+            chart.setVisibleChannels(TILE_VISIBLE_CHANNELS);
+            chart.setRing(tile.mRing, mColors);
+            return view;
+        }
+    }
+}
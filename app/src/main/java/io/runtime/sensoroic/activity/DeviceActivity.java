@@ -1,36 +1,44 @@
 package io.runtime.sensoroic.activity;
 
 import android.app.ProgressDialog;
-import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v7.app.ActionBar;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
-import android.widget.ListView;
 import android.widget.TextView;
 
 import org.iotivity.base.OcResource;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import io.runtime.sensoroic.MynewtSensor;
 import io.runtime.sensoroic.OicApplication;
 import io.runtime.sensoroic.R;
+import io.runtime.sensoroic.ResourceRegistry;
+import io.runtime.sensoroic.Transport;
+import io.runtime.sensoroic.index.DeviceIndex;
 import io.runtime.sensoroic.task.DiscoveryTask;
+import io.runtime.sensoroic.task.KnownHosts;
 
 import static io.runtime.sensoroic.R.id.fab;
 
@@ -52,10 +60,28 @@ public class DeviceActivity extends AppCompatActivity implements DiscoveryTask.O
     private ArrayList<OcResource> mSensors = new ArrayList<>();
 
     // Views
-    private ListView mSmartDeviceList;
-    private ListView mSensorList;
+    private RecyclerView mSmartDeviceList;
+    private RecyclerView mSensorList;
+    private TextView mSmartDevicesEmpty;
+    private TextView mSensorsEmpty;
     private FloatingActionButton mDiscoverButton;
 
+    // Adapters of the device lists
+    private DeviceListAdapter mSmartDeviceAdapter;
+    private DeviceListAdapter mSensorAdapter;
+
+    // Builds the list rows and diffs them against the shown rows off the main thread
+    private final ExecutorService mListWorker = Executors.newSingleThreadExecutor();
+
+    // Incremented for every list update, so only the latest update is applied
+    private int mListGeneration = 0;
+
+    // Text typed into the search view, empty to list every resource
+    private String mSearchText = "";
+
+    // Title shown for binary switches, resolved once
+    private String mSwitchTitle;
+
     // Discovery Dialog
     private ProgressDialog mDiscoveryDialog;
 
@@ -94,20 +120,21 @@ public class DeviceActivity extends AppCompatActivity implements DiscoveryTask.O
         mDiscoverButton = (FloatingActionButton) findViewById(fab);
 
         // Set up TextView for empty Lists
-        TextView smartDevicesEmpty = (TextView) findViewById(R.id.dev_smart_devices_empty_tv);
-        TextView sensorsEmpty = (TextView) findViewById(R.id.dev_sensors_empty_tv);
-
-        // Set up ListViews
-        mSmartDeviceList = (ListView) findViewById(R.id.dev_smart_device_list);
-        mSmartDeviceList.setEmptyView(smartDevicesEmpty);
-        mSensorList = (ListView) findViewById(R.id.dev_sensor_list);
-        mSensorList.setEmptyView(sensorsEmpty);
-
-        // Create and set adapters for ListViews
-        DeviceListAdapter smartDeviceAdapter = new DeviceListAdapter(this, R.layout.list_item_device, mSmartDevices);
-        DeviceListAdapter sensorAdapter = new DeviceListAdapter(this, R.layout.list_item_device, mSensors);
-        mSmartDeviceList.setAdapter(smartDeviceAdapter);
-        mSensorList.setAdapter(sensorAdapter);
+        mSmartDevicesEmpty = (TextView) findViewById(R.id.dev_smart_devices_empty_tv);
+        mSensorsEmpty = (TextView) findViewById(R.id.dev_sensors_empty_tv);
+        mSwitchTitle = getString(R.string.binary_switch);
+
+        // Set up RecyclerViews
+        mSmartDeviceList = (RecyclerView) findViewById(R.id.dev_smart_device_list);
+        mSmartDeviceList.setLayoutManager(new LinearLayoutManager(this));
+        mSensorList = (RecyclerView) findViewById(R.id.dev_sensor_list);
+        mSensorList.setLayoutManager(new LinearLayoutManager(this));
+
+        // Create and set adapters for RecyclerViews
+        mSmartDeviceAdapter = new DeviceListAdapter();
+        mSensorAdapter = new DeviceListAdapter();
+        mSmartDeviceList.setAdapter(mSmartDeviceAdapter);
+        mSensorList.setAdapter(mSensorAdapter);
 
         // Set up DiscoveryDialog
         mDiscoveryDialog = new ProgressDialog(this, R.style.ProgressDialog);
@@ -118,7 +145,7 @@ public class DeviceActivity extends AppCompatActivity implements DiscoveryTask.O
     }
 
     /**
-     * Initializes listeners for DeviceActivity's views, specifically the OnItemClickListeners for
+     * Initializes listeners for DeviceActivity's views, specifically the item click listeners for
      * the sensor and smart device lists. This method should be called after initViews to avoid
      * NullPointerExceptions.
      */
@@ -131,26 +158,23 @@ public class DeviceActivity extends AppCompatActivity implements DiscoveryTask.O
             }
         });
 
-        // Set up the Sensor List OnItemClickListener
-        mSensorList.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Set up the Sensor List item click listener
+        mSensorAdapter.setOnItemClickListener(new OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                OcResource res = mSensors.get(position);
+            public void onItemClick(DeviceItem item) {
                 Intent i = new Intent(getApplicationContext(), SensorActivity.class);
-                i.putExtra("resId", OicApplication.createUniqueId(res.getHost(), res.getUri()));
+                i.putExtra("resId", item.mResourceId);
                 startActivity(i);
             }
         });
 
-        // Set up the Smart Device List OnItemClickListener
-        mSmartDeviceList.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Set up the Smart Device List item click listener
+        mSmartDeviceAdapter.setOnItemClickListener(new OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                OcResource res = mSmartDevices.get(position);
-                ArrayList<String> rts = new ArrayList<>(res.getResourceTypes());
-                if (rts.contains(RT_BINARY_SWITCH)) {
+            public void onItemClick(DeviceItem item) {
+                if (item.mIsSwitch) {
                     Intent i = new Intent(getApplicationContext(), LightActivity.class);
-                    i.putExtra("resId", OicApplication.createUniqueId(res.getHost(), res.getUri()));
+                    i.putExtra("resId", item.mResourceId);
                     startActivity(i);
                 }
             }
@@ -168,49 +192,245 @@ public class DeviceActivity extends AppCompatActivity implements DiscoveryTask.O
         });
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.device_menu, menu);
+
+        // Filter the lists as the user types
+        SearchView searchView = (SearchView) menu.findItem(R.id.device_menu_search).getActionView();
+        menu.findItem(R.id.device_menu_known_only).setChecked(new KnownHosts(this).isKnownOnly());
+
+        searchView.setQueryHint(getString(R.string.device_search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mSearchText = newText;
+                populateListViews();
+                return true;
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.device_menu_dashboard:
+                showDashboardDialog();
+                return true;
+            case R.id.device_menu_fleet:
+                startActivity(new Intent(getApplicationContext(), FleetActivity.class));
+                return true;
+            case R.id.device_menu_group_control:
+                ArrayList<String> resIds = new ArrayList<>();
+                for (OcResource res : mSmartDevices) {
+                    resIds.add(OicApplication.createUniqueId(res));
+                }
+                Intent i = new Intent(getApplicationContext(), GroupActuationActivity.class);
+                i.putStringArrayListExtra(GroupActuationActivity.EXTRA_RESOURCE_IDS, resIds);
+                startActivity(i);
+                return true;
+            case R.id.device_menu_full_discovery:
+                discover(false);
+                return true;
+            case R.id.device_menu_known_only:
+                item.setChecked(!item.isChecked());
+                new KnownHosts(this).setKnownOnly(item.isChecked());
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
     /**
-     * Starts the discovery task
+     * Shows a dialog to choose the sensors to show on the dashboard, then opens the dashboard.
+     * All sensors are selected by default.
+     */
+    private void showDashboardDialog() {
+        final ArrayList<OcResource> sensors = new ArrayList<>(mSensors);
+        CharSequence[] names = new CharSequence[sensors.size()];
+        final boolean[] checked = new boolean[sensors.size()];
+        for (int i = 0; i < sensors.size(); i++) {
+            OcResource res = sensors.get(i);
+            names[i] = MynewtSensor.getReadableName(res) + " (" + res.getHost() + ")";
+            checked[i] = true;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.dashboard_select_title)
+                .setMultiChoiceItems(names, checked, new DialogInterface.OnMultiChoiceClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+                        checked[which] = isChecked;
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .setPositiveButton(R.string.dashboard_open, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        ArrayList<String> resIds = new ArrayList<>();
+                        for (int i = 0; i < sensors.size(); i++) {
+                            if (checked[i]) {
+                                resIds.add(OicApplication.createUniqueId(sensors.get(i)));
+                            }
+                        }
+                        Intent i = new Intent(getApplicationContext(), DashboardActivity.class);
+                        i.putStringArrayListExtra(DashboardActivity.EXTRA_RESOURCE_IDS, resIds);
+                        startActivity(i);
+                    }
+                })
+                .create().show();
+    }
+
+    /**
+     * Starts the discovery task. Only the devices found in previous runs are refreshed if the
+     * known devices only mode was enabled for a fixed installation, otherwise every transport is
+     * searched for new devices.
      */
     private void discover() {
+        discover(new KnownHosts(this).isKnownOnly());
+    }
+
+    /**
+     * Starts the discovery task
+     * @param knownHosts whether or not to only refresh the devices found in previous runs
+     */
+    private void discover(boolean knownHosts) {
         // Example of using a whitelist to discover a single, known ble device.
 //        ArrayList<String> whitelist = new ArrayList<>(Arrays.asList("BB:F2:5A:03:98:1C"));
 //        mDiscoveryTask = new DiscoveryTask(this, this, true, false, mDiscoveryDialog, whitelist);
 
-        // General, multi-transport, resource discovery with dialog to report progress.
-        mDiscoveryTask = new DiscoveryTask(this, this, true, true, mDiscoveryDialog);
+        // Unicast discovery of the known devices, which takes a single round trip. Only used
+        // when asked for, since it never finds new devices.
+        mDiscoveryTask = null;
+        if (knownHosts) {
+            mDiscoveryTask = DiscoveryTask.forKnownHosts(this, this, mDiscoveryDialog);
+        }
+        // General, multi-transport, resource discovery with dialog to report progress. The BLE
+        // scan ends as soon as as many devices as were found before have been seen.
+        if (mDiscoveryTask == null) {
+            mDiscoveryTask = new DiscoveryTask(this, this, true, true, mDiscoveryDialog);
+            mDiscoveryTask.setExpectedBleDevices(new KnownHosts(this).getBleAddresses().size());
+        }
         mDiscoveryTask.execute();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mListWorker.shutdownNow();
+    }
+
+    /**
+     * Update the device lists from the discovered resources, or from the matches of the search
+     * if there is one. Sorting the resources into sensors and smart devices, building their rows
+     * and diffing them against the rows shown happens off the main thread; only the rows which
+     * changed are then rebound.
+     */
     private void populateListViews() {
-        // Loop through the list of discovered resources and sort by whether the resource
-        // is a Mynewt sensor or smart device (i.e. binary switch)
-        Set<String> keys = mApp.getDiscovered().keySet();
-        mSensors.clear();
-        mSmartDevices.clear();
-        for (String key : keys) {
-            Log.d(TAG, key);
-            OcResource res = mApp.getResource(key);
-            if (MynewtSensor.isMynewtSensor(res)) {
-                mSensors.add(res);
-            } else if (res.getResourceTypes().contains((RT_BINARY_SWITCH))) {
-                mSmartDevices.add(res);
+        mDiscoveryDialog.dismiss();
+        if (mListWorker.isShutdown()) {
+            return;
+        }
+        final List<OcResource> resources;
+        final boolean ranked;
+        DeviceIndex.Query query = DeviceIndex.Query.parse(mSearchText);
+        ActionBar actionBar = getSupportActionBar();
+        if (query.isEmpty()) {
+            resources = new ArrayList<>(mApp.getDiscovered().values());
+            ranked = false;
+            if (actionBar != null) {
+                actionBar.setSubtitle(null);
+            }
+        } else {
+            // The index answers within a frame, only the rows are built on the worker
+            DeviceIndex.Result result = mApp.getDeviceIndex().search(query);
+            resources = result.getResources();
+            ranked = true;
+            if (actionBar != null) {
+                actionBar.setSubtitle(describeMatches(result));
             }
         }
-        ((DeviceListAdapter) mSmartDeviceList.getAdapter()).notifyDataSetChanged();
-        ((DeviceListAdapter) mSensorList.getAdapter()).notifyDataSetChanged();
-        mDiscoveryDialog.dismiss();
+        final List<DeviceItem> oldSmartDevices = mSmartDeviceAdapter.mItems;
+        final List<DeviceItem> oldSensors = mSensorAdapter.mItems;
+        final int generation = ++mListGeneration;
+        mListWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Sort by whether the resource is a Mynewt sensor or smart device (i.e. binary
+                // switch), in a stable order so that rediscovered resources keep their rows
+                final ArrayList<DeviceItem> smartDevices = new ArrayList<>();
+                final ArrayList<DeviceItem> sensors = new ArrayList<>();
+                for (OcResource res : resources) {
+                    if (MynewtSensor.isMynewtSensor(res)) {
+                        sensors.add(new DeviceItem(res, mSwitchTitle));
+                    } else if (res.getResourceTypes().contains(RT_BINARY_SWITCH)) {
+                        smartDevices.add(new DeviceItem(res, mSwitchTitle));
+                    }
+                }
+                if (!ranked) {
+                    Collections.sort(smartDevices, DeviceItem.ORDER);
+                    Collections.sort(sensors, DeviceItem.ORDER);
+                }
+                // Search results are reordered as the user types, so look for moved rows then
+                final DiffUtil.DiffResult smartDeviceDiff = DiffUtil.calculateDiff(
+                        new DeviceDiff(oldSmartDevices, smartDevices), ranked);
+                final DiffUtil.DiffResult sensorDiff = DiffUtil.calculateDiff(
+                        new DeviceDiff(oldSensors, sensors), ranked);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer update was diffed against the same rows, so this one is dropped
+                        if (generation != mListGeneration || isDestroyed()) {
+                            return;
+                        }
+                        mSmartDeviceAdapter.setItems(smartDevices, smartDeviceDiff);
+                        mSensorAdapter.setItems(sensors, sensorDiff);
+                        mSmartDevices.clear();
+                        for (DeviceItem item : smartDevices) {
+                            mSmartDevices.add(item.mResource);
+                        }
+                        mSensors.clear();
+                        for (DeviceItem item : sensors) {
+                            mSensors.add(item.mResource);
+                        }
+                        mSmartDevicesEmpty.setVisibility(smartDevices.isEmpty() ? View.VISIBLE : View.GONE);
+                        mSensorsEmpty.setVisibility(sensors.isEmpty() ? View.VISIBLE : View.GONE);
+                    }
+                });
+            }
+        });
         // Start Historical Data Service
 //            Intent i = new Intent(this, HistoricalDataService.class);
 //            startService(i);
     }
 
+    /**
+     * Summarise the matches of a search and how they split across transports.
+     */
+    private String describeMatches(DeviceIndex.Result result) {
+        StringBuilder sb = new StringBuilder(getString(R.string.device_search_matches,
+                result.getMatches().size()));
+        for (Map.Entry<Transport, Integer> count : result.getTransportCounts().entrySet()) {
+            sb.append(" · ").append(count.getKey()).append(' ').append(count.getValue());
+        }
+        return sb.toString();
+    }
+
     @Override
     public void OnDiscoveryCompleted(List<OcResource> resources) {
-        // Populate discovered table
-        for (OcResource resource : resources) {
-            mApp.putResource(resource);
+        // Reconcile the run with the discovered table, rebuilding the lists only if it changed
+        ResourceRegistry.Delta delta = mApp.reconcileDiscovery(resources);
+        Log.d(TAG, "Discovery reconciled: " + delta);
+        if (delta.isEmpty()) {
+            mDiscoveryDialog.dismiss();
+        } else {
+            populateListViews();
         }
-        populateListViews();
     }
 
     @Override
@@ -227,7 +447,7 @@ public class DeviceActivity extends AppCompatActivity implements DiscoveryTask.O
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
                         dialog.dismiss();
-                        discover();
+                        discover(false);
                     }
                 })
                 .setTitle("No Devices Found")
@@ -238,52 +458,152 @@ public class DeviceActivity extends AppCompatActivity implements DiscoveryTask.O
     }
 
     /**
-     * Array Adapter for displaying devices found by discovery.
+     * The row of one discovered resource, built once per discovery rather than on every bind.
      */
-    private class DeviceListAdapter extends ArrayAdapter<OcResource> {
-        ArrayList<OcResource> mResources = new ArrayList<>();
+    private static class DeviceItem {
 
-        public DeviceListAdapter(@NonNull Context context, int resource, @NonNull List<OcResource> objects) {
-            super(context, resource, objects);
-            mResources = (ArrayList<OcResource>) objects;
+        private static final Comparator<DeviceItem> ORDER = new Comparator<DeviceItem>() {
+            @Override
+            public int compare(DeviceItem a, DeviceItem b) {
+                return a.mResourceId.compareTo(b.mResourceId);
+            }
+        };
+
+        private final OcResource mResource;
+        private final String mResourceId;
+        private final String mTitle;
+        private final String mSubtitle;
+        private final boolean mIsSwitch;
+
+        private DeviceItem(OcResource res, String switchTitle) {
+            mResource = res;
+            mResourceId = OicApplication.createUniqueId(res);
+            mIsSwitch = res.getResourceTypes().contains(RT_BINARY_SWITCH);
+            if (mIsSwitch) {
+                mTitle = switchTitle;
+                mSubtitle = "LED";
+            } else {
+                String uri = res.getUri();
+                mTitle = MynewtSensor.getReadableName(res);
+                mSubtitle = uri.substring(1, uri.lastIndexOf('/'));
+            }
+        }
+
+        private boolean hasSameContents(DeviceItem other) {
+            return mIsSwitch == other.mIsSwitch && mTitle.equals(other.mTitle)
+                    && mSubtitle.equals(other.mSubtitle);
+        }
+    }
+
+    /**
+     * Compares the rows shown with the rows of the latest discovery. Rows are the same item if
+     * they are for the same resource.
+     */
+    private static class DeviceDiff extends DiffUtil.Callback {
+        private final List<DeviceItem> mOld;
+        private final List<DeviceItem> mNew;
+
+        private DeviceDiff(List<DeviceItem> oldItems, List<DeviceItem> newItems) {
+            mOld = oldItems;
+            mNew = newItems;
         }
 
-        @NonNull
         @Override
-        public View getView(int position, @Nullable View view, @NonNull ViewGroup parent) {
-            if (view == null) {
-                view = LayoutInflater.from(getContext())
-                        .inflate(R.layout.list_item_device, parent, false);
-            }
+        public int getOldListSize() {
+            return mOld.size();
+        }
 
-            ImageView img = (ImageView) view.findViewById(R.id.list_item_device_img);
-            TextView title = (TextView) view.findViewById(R.id.list_item_device_name);
-            TextView subtitle = (TextView) view.findViewById(R.id.list_item_device_subtitle);
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
 
-            OcResource res = mResources.get(position);
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return mOld.get(oldPosition).mResourceId.equals(mNew.get(newPosition).mResourceId);
+        }
 
-            // Get the resource URI
-            String uri = res.getUri();
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return mOld.get(oldPosition).hasSameContents(mNew.get(newPosition));
+        }
+    }
+
+    /**
+     * The listener told when a row of a device list is clicked.
+     */
+    private interface OnItemClickListener {
+        void onItemClick(DeviceItem item);
+    }
 
-            // Get the resource types from the resource at the given position
-            ArrayList<String> rts = new ArrayList<>(res.getResourceTypes());
+    /**
+     * RecyclerView Adapter for displaying devices found by discovery.
+     */
+    private static class DeviceListAdapter extends RecyclerView.Adapter<DeviceViewHolder> {
 
-            title.setText(MynewtSensor.getReadableName(res));
-            subtitle.setText(uri.substring(1, uri.lastIndexOf('/')));
+        // The rows shown, replaced as a whole on the main thread
+        private List<DeviceItem> mItems = Collections.emptyList();
+        private OnItemClickListener mListener;
 
-            if (rts.contains(RT_BINARY_SWITCH)) {
-                title.setText(R.string.binary_switch);
-                subtitle.setText("LED");
-            }
+        private void setOnItemClickListener(OnItemClickListener listener) {
+            mListener = listener;
+        }
 
-            if (rts.contains(RT_BINARY_SWITCH)) {
-                img.setImageResource(R.drawable.ic_light_mynewt);
-            } else {
-                img.setImageResource(R.drawable.ic_device_mynewt);
-            }
+        /**
+         * Show new rows, rebinding only the rows the diff found changed.
+         * @param items the new rows
+         * @param diff  the diff from the rows shown to the new rows
+         */
+        private void setItems(List<DeviceItem> items, DiffUtil.DiffResult diff) {
+            mItems = items;
+            diff.dispatchUpdatesTo(this);
+        }
+
+        @Override
+        public DeviceViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            View view = LayoutInflater.from(parent.getContext())
+                    .inflate(R.layout.list_item_device, parent, false);
+            final DeviceViewHolder holder = new DeviceViewHolder(view);
+            view.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    int position = holder.getAdapterPosition();
+                    if (position != RecyclerView.NO_POSITION && mListener != null) {
+                        mListener.onItemClick(mItems.get(position));
+                    }
+                }
+            });
+            return holder;
+        }
+
+        @Override
+        public void onBindViewHolder(DeviceViewHolder holder, int position) {
+            DeviceItem item = mItems.get(position);
+            holder.mTitle.setText(item.mTitle);
+            holder.mSubtitle.setText(item.mSubtitle);
+            holder.mImage.setImageResource(item.mIsSwitch ? R.drawable.ic_light_mynewt
+                    : R.drawable.ic_device_mynewt);
+        }
 
-            return view;
+        @Override
+        public int getItemCount() {
+            return mItems.size();
         }
     }
 
+    /**
+     * Holds the views of a device row.
+     */
+    private static class DeviceViewHolder extends RecyclerView.ViewHolder {
+        private final ImageView mImage;
+        private final TextView mTitle;
+        private final TextView mSubtitle;
+
+        private DeviceViewHolder(View view) {
+            super(view);
+            mImage = (ImageView) view.findViewById(R.id.list_item_device_img);
+            mTitle = (TextView) view.findViewById(R.id.list_item_device_name);
+            mSubtitle = (TextView) view.findViewById(R.id.list_item_device_subtitle);
+        }
+    }
 }
@@ -0,0 +1,309 @@
+package io.runtime.sensoroic.activity;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import org.iotivity.base.OcHeaderOption;
+import org.iotivity.base.OcRepresentation;
+import org.iotivity.base.OcResource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import io.runtime.sensoroic.MynewtSensor;
+import io.runtime.sensoroic.OicApplication;
+import io.runtime.sensoroic.R;
+import io.runtime.sensoroic.ResourceRegistry;
+import io.runtime.sensoroic.analysis.FleetAggregator;
+import io.runtime.sensoroic.observe.ObserveHub;
+
+/**
+ * Shows the aggregates of every channel across all discovered sensors of the same type, e.g. the
+ * mean temperature across a building. Every sensor is observed through the observe hub while the
+ * activity is started and each notification updates its group's aggregates incrementally. The
+ * list itself is only refreshed once per REFRESH_MILLIS, however many sensors notify.
+ *
+ * The fleet follows the resource registry: sensors discovered while the activity exists join
+ * their group, and sensors which expire or change leave it, so the aggregates only ever cover
+ * the sensors currently known.
+ */
+public class FleetActivity extends AppCompatActivity {
+
+    // Logging TAG
+    private static final String TAG = "FleetActivity";
+
+    // Period of the list refresh
+    private static final long REFRESH_MILLIS = 1000;
+
+    // Application
+    private OicApplication mApp;
+
+    // Aggregates of every sensor type, and the sensors feeding them by resource unique id
+    private final FleetAggregator mAggregator = new FleetAggregator();
+    private final HashMap<String, FleetSensor> mSensors = new HashMap<>();
+
+    // Readable name of each sensor type
+    private final HashMap<String, String> mTitles = new HashMap<>();
+
+    // Views
+    private GroupAdapter mAdapter;
+
+    // Handler for the list refresh
+    private Handler mHandler = new Handler();
+
+    // Whether or not the activity is started
+    private boolean mIsStarted = false;
+
+    private Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            mAdapter.notifyDataSetChanged();
+            if (mIsStarted) {
+                mHandler.postDelayed(this, REFRESH_MILLIS);
+            }
+        }
+    };
+
+    private ResourceRegistry.OnChangeListener mRegistryListener =
+            new ResourceRegistry.OnChangeListener() {
+        @Override
+        public void onResourcesChanged(final ResourceRegistry.Delta delta) {
+            if (delta.isEmpty()) {
+                return;
+            }
+            // Runs are reconciled on discovery threads, the sensors are only touched on the UI
+            // thread
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    applyDelta(delta);
+                }
+            });
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_fleet);
+        setTitle(R.string.fleet_title);
+
+        // Get OicApplication
+        mApp = (OicApplication) getApplication();
+
+        // Follow the registry before taking the discovered resources, so no change is missed;
+        // a change already covered by the discovered resources is applied as a no-op
+        mApp.getRegistry().addOnChangeListener(mRegistryListener);
+        for (OcResource resource : new ArrayList<>(mApp.getDiscovered().values())) {
+            addSensor(resource);
+        }
+
+        ListView list = (ListView) findViewById(R.id.fleet_group_list);
+        list.setEmptyView(findViewById(R.id.fleet_empty_tv));
+        mAdapter = new GroupAdapter(this, mAggregator.getGroups());
+        list.setAdapter(mAdapter);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mIsStarted = true;
+        for (FleetSensor sensor : mSensors.values()) {
+            sensor.subscribe();
+        }
+        mHandler.post(mRefresh);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mIsStarted = false;
+        mHandler.removeCallbacks(mRefresh);
+        for (FleetSensor sensor : mSensors.values()) {
+            sensor.unsubscribe();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mApp.getRegistry().removeOnChangeListener(mRegistryListener);
+        mHandler.removeCallbacksAndMessages(null);
+    }
+
+    /**
+     * Add an observable Mynewt sensor to the group of its type, subscribing to it if the activity
+     * is started.
+     * @param resource the resource
+     * @return true if the sensor was added, false if it is not a fleet sensor or already added
+     */
+    private boolean addSensor(OcResource resource) {
+        String id = OicApplication.createUniqueId(resource);
+        if (!resource.isObservable() || mSensors.containsKey(id)) {
+            return false;
+        }
+        String sensorType = MynewtSensor.getSensorResourceType(resource.getResourceTypes());
+        FleetAggregator.Member member = mAggregator.addMember(id, sensorType);
+        if (member == null) {
+            return false;
+        }
+        FleetSensor sensor = new FleetSensor(resource, member);
+        mSensors.put(id, sensor);
+        if (!mTitles.containsKey(sensorType)) {
+            mTitles.put(sensorType, MynewtSensor.getReadableName(resource));
+        }
+        if (mIsStarted) {
+            sensor.subscribe();
+        }
+        return true;
+    }
+
+    /**
+     * Take a sensor out of its group and stop observing it.
+     * @param resource the resource
+     * @return true if the sensor was removed, false if it was not part of the fleet
+     */
+    private boolean removeSensor(OcResource resource) {
+        FleetSensor sensor = mSensors.remove(OicApplication.createUniqueId(resource));
+        if (sensor == null) {
+            return false;
+        }
+        sensor.unsubscribe();
+        sensor.mMember.remove();
+        return true;
+    }
+
+    /**
+     * Apply the changes of a reconciled discovery run to the fleet. A changed resource may have
+     * become or stopped being an observable sensor, so it is removed and added again.
+     */
+    private void applyDelta(ResourceRegistry.Delta delta) {
+        boolean changed = false;
+        for (OcResource resource : delta.getRemoved()) {
+            changed |= removeSensor(resource);
+        }
+        for (OcResource resource : delta.getChanged()) {
+            changed |= removeSensor(resource);
+            changed |= addSensor(resource);
+        }
+        for (OcResource resource : delta.getAdded()) {
+            changed |= addSensor(resource);
+        }
+        if (changed) {
+            Log.d(TAG, "Fleet changed: " + delta + ", " + mSensors.size() + " sensors");
+            // Pick up any group created for a new sensor type
+            mAdapter.setNotifyOnChange(false);
+            mAdapter.clear();
+            mAdapter.addAll(mAggregator.getGroups());
+            mAdapter.notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * One sensor of the fleet, passing its notifications on to its group.
+     */
+    private class FleetSensor implements OcResource.OnObserveListener {
+        private final OcResource mResource;
+        private final FleetAggregator.Member mMember;
+        private ObserveHub.Subscription mSubscription;
+
+        private FleetSensor(OcResource resource, FleetAggregator.Member member) {
+            mResource = resource;
+            mMember = member;
+        }
+
+        private void subscribe() {
+            mSubscription = mApp.getObserveHub().newSubscription(mResource, this);
+            mSubscription.start();
+        }
+
+        private void unsubscribe() {
+            if (mSubscription != null) {
+                mSubscription.cancel();
+                mSubscription = null;
+            }
+        }
+
+        @Override
+        public void onObserveCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation, int i) {
+            mMember.update(ocRepresentation.getValues());
+        }
+
+        @Override
+        public void onObserveFailed(Throwable throwable) {
+            Log.i(TAG, "Observe failed for " + mMember.getResourceId());
+        }
+    }
+
+    /**
+     * Array Adapter for the sensor type groups.
+     */
+    private class GroupAdapter extends ArrayAdapter<FleetAggregator.Group> {
+
+        // Statistics of the group being bound, reused for every row
+        private double[] mStats = new double[0];
+
+        private GroupAdapter(@NonNull Context context, @NonNull List<FleetAggregator.Group> groups) {
+            super(context, R.layout.list_item_fleet_group, groups);
+        }
+
+        @NonNull
+        @Override
+        public View getView(int position, @Nullable View view, @NonNull ViewGroup parent) {
+            if (view == null) {
+                view = LayoutInflater.from(getContext())
+                        .inflate(R.layout.list_item_fleet_group, parent, false);
+            }
+            FleetAggregator.Group group = getItem(position);
+            TextView title = (TextView) view.findViewById(R.id.fleet_group_title);
+            TextView subtitle = (TextView) view.findViewById(R.id.fleet_group_subtitle);
+            TextView stats = (TextView) view.findViewById(R.id.fleet_group_stats);
+
+            int channels = group.getChannelCount();
+            if (mStats.length < channels * FleetAggregator.STATS) {
+                mStats = new double[channels * FleetAggregator.STATS];
+            }
+            group.copyStats(mStats);
+
+            int reporting = 0;
+            StringBuilder sb = new StringBuilder();
+            String[] keys = group.getKeys();
+            for (int c = 0; c < channels; c++) {
+                int base = c * FleetAggregator.STATS;
+                int count = (int) mStats[base + FleetAggregator.STAT_COUNT];
+                reporting = Math.max(reporting, count);
+                if (c > 0) {
+                    sb.append('\n');
+                }
+                sb.append(String.format(Locale.US, "%-10s", keys[c]));
+                if (count == 0) {
+                    sb.append(" -");
+                    continue;
+                }
+                sb.append(String.format(Locale.US, " mean %.4g ± %.3g  [%.4g, %.4g]",
+                        mStats[base + FleetAggregator.STAT_MEAN],
+                        mStats[base + FleetAggregator.STAT_SPREAD],
+                        mStats[base + FleetAggregator.STAT_MIN],
+                        mStats[base + FleetAggregator.STAT_MAX]));
+            }
+
+            title.setText(mTitles.get(group.getSensorType()));
+            subtitle.setText(getString(R.string.fleet_members, group.getMemberCount(), reporting));
+            stats.setText(sb);
+            return view;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package io.runtime.sensoroic.activity;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import org.iotivity.base.OcException;
+import org.iotivity.base.OcRepresentation;
+import org.iotivity.base.OcResource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import io.runtime.sensoroic.OicApplication;
+import io.runtime.sensoroic.R;
+import io.runtime.sensoroic.actuation.GroupActuator;
+import io.runtime.sensoroic.actuation.GroupResult;
+import io.runtime.sensoroic.actuation.TargetResult;
+
+/**
+ * Switches a chosen set of binary switches on or off together. The requests are sent in parallel
+ * through the application's GroupActuator and the outcome of each switch is shown as it arrives,
+ * followed by a summary with the total time taken.
+ */
+public class GroupActuationActivity extends AppCompatActivity
+        implements GroupActuator.OnGroupActuationListener {
+
+    // Logging TAG
+    private static final String TAG = "GroupActuationActivity";
+
+    // Intent extra holding the unique ids of the switches
+    public static final String EXTRA_RESOURCE_IDS = "resIds";
+
+    // Application
+    private OicApplication mApp;
+
+    // Rows in list order, and by resource unique id
+    private final ArrayList<TargetRow> mRows = new ArrayList<>();
+    private final HashMap<String, TargetRow> mRowsById = new HashMap<>();
+
+    // Views
+    private TargetAdapter mAdapter;
+    private TextView mSummaryView;
+    private Button mOnButton;
+    private Button mOffButton;
+
+    // Actuation in progress
+    private GroupActuator.Group mGroup;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_group_actuation);
+        setTitle(R.string.group_title);
+
+        // Get OicApplication
+        mApp = (OicApplication) getApplication();
+
+        ArrayList<String> resIds = getIntent().getStringArrayListExtra(EXTRA_RESOURCE_IDS);
+        if (resIds != null) {
+            for (String resId : resIds) {
+                OcResource resource = mApp.getResource(resId);
+                if (resource != null) {
+                    TargetRow row = new TargetRow(resId, resource);
+                    mRows.add(row);
+                    mRowsById.put(resId, row);
+                }
+            }
+        }
+
+        // Set up views
+        ListView list = (ListView) findViewById(R.id.group_target_list);
+        list.setEmptyView(findViewById(R.id.group_empty_tv));
+        mAdapter = new TargetAdapter(this, mRows);
+        list.setAdapter(mAdapter);
+        mSummaryView = (TextView) findViewById(R.id.group_summary_tv);
+        mOnButton = (Button) findViewById(R.id.group_on_button);
+        mOffButton = (Button) findViewById(R.id.group_off_button);
+        mOnButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                actuate(true);
+            }
+        });
+        mOffButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                actuate(false);
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mGroup != null) {
+            mGroup.cancel();
+        }
+    }
+
+    /**
+     * Switch every checked switch on or off.
+     */
+    private void actuate(boolean on) {
+        ArrayList<OcResource> targets = new ArrayList<>();
+        for (TargetRow row : mRows) {
+            if (row.mIsChecked) {
+                targets.add(row.mResource);
+                row.mStatus = getString(R.string.group_sending);
+            }
+        }
+        if (targets.isEmpty()) {
+            return;
+        }
+        OcRepresentation rep = new OcRepresentation();
+        try {
+            // The LED is active low, as in LightActivity
+            rep.setValue("value", !on);
+        } catch (OcException e) {
+            Log.e(TAG, "Failed to create representation", e);
+            return;
+        }
+        setButtonsEnabled(false);
+        mSummaryView.setText("");
+        mAdapter.notifyDataSetChanged();
+        mGroup = mApp.getGroupActuator().put(targets, rep, this);
+    }
+
+    private void setButtonsEnabled(boolean enabled) {
+        mOnButton.setEnabled(enabled);
+        mOffButton.setEnabled(enabled);
+    }
+
+    @Override
+    public void onTargetCompleted(final TargetResult result) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                TargetRow row = mRowsById.get(result.getResourceId());
+                if (row == null) {
+                    return;
+                }
+                switch (result.getStatus()) {
+                    case SUCCEEDED:
+                        row.mStatus = getString(R.string.group_status_ok, result.getLatencyMillis());
+                        break;
+                    case FAILED:
+                        row.mStatus = getString(R.string.group_status_failed);
+                        break;
+                    case TIMED_OUT:
+                        row.mStatus = getString(R.string.group_status_timed_out,
+                                result.getLatencyMillis());
+                        break;
+                    case CANCELLED:
+                        row.mStatus = getString(R.string.group_status_cancelled);
+                        break;
+                }
+                mAdapter.notifyDataSetChanged();
+            }
+        });
+    }
+
+    @Override
+    public void onGroupCompleted(final GroupResult result) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mGroup = null;
+                setButtonsEnabled(true);
+                mSummaryView.setText(getString(R.string.group_summary, result.getSuccessCount(),
+                        result.getResults().size(), result.getElapsedMillis()));
+            }
+        });
+    }
+
+    /**
+     * A switch in the list, whether it is selected and its last outcome.
+     */
+    private static class TargetRow {
+        private final String mResId;
+        private final OcResource mResource;
+        private boolean mIsChecked = true;
+        private String mStatus;
+
+        private TargetRow(String resId, OcResource resource) {
+            mResId = resId;
+            mResource = resource;
+        }
+    }
+
+    /**
+     * Array Adapter for the switches.
+     */
+    private class TargetAdapter extends ArrayAdapter<TargetRow> {
+
+        public TargetAdapter(@NonNull Context context, @NonNull List<TargetRow> objects) {
+            super(context, R.layout.list_item_group_target, objects);
+        }
+
+        @NonNull
+        @Override
+        public View getView(int position, @Nullable View view, @NonNull ViewGroup parent) {
+            if (view == null) {
+                view = LayoutInflater.from(getContext())
+                        .inflate(R.layout.list_item_group_target, parent, false);
+            }
+            final TargetRow row = getItem(position);
+            CheckBox check = (CheckBox) view.findViewById(R.id.group_target_check);
+            TextView name = (TextView) view.findViewById(R.id.group_target_name);
+            TextView status = (TextView) view.findViewById(R.id.group_target_status);
+
+            check.setOnCheckedChangeListener(null);
+            check.setChecked(row.mIsChecked);
+            check.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+                @Override
+                public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                    row.mIsChecked = isChecked;
+                }
+            });
+            name.setText(row.mResId);
+            status.setText(row.mStatus);
+            return view;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package io.runtime.sensoroic.activity;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.TextView;
+
+import java.io.IOException;
+
+import io.runtime.sensoroic.OicApplication;
+import io.runtime.sensoroic.R;
+import io.runtime.sensoroic.analysis.AnomalyDetector;
+import io.runtime.sensoroic.chart.HistoryChartView;
+import io.runtime.sensoroic.history.BlockStore;
+import io.runtime.sensoroic.history.ResourceHistory;
+import io.runtime.sensoroic.history.Rollup;
+import io.runtime.sensoroic.stream.StreamClock;
+
+/**
+ * Charts the recorded history of a resource over a selectable time range. Each range is read
+ * from the coarsest rollup tier which still gives one bucket per pixel, so the number of rows
+ * read stays around the chart width whether the range is a minute or a month. Loading happens
+ * on a background thread and only the most recent request is served while the user pans.
+ */
+public class HistoryActivity extends AppCompatActivity
+        implements HistoryChartView.OnRangeChangeListener {
+
+    // Logging TAG
+    private static final String TAG = "HistoryActivity";
+
+    // Intent extra holding the unique id of the resource
+    public static final String EXTRA_RESOURCE_ID = "resId";
+
+    private static final long HOUR_MICROS = 3600 * 1000000L;
+
+    // Number of channels shown initially
+    private static final int VISIBLE_CHANNELS = 3;
+
+    // Application
+    private OicApplication mApp;
+    private String mResId;
+
+    // Views
+    private HistoryChartView mChart;
+    private TextView mStatusView;
+
+    // Loader thread, requests replace each other so only the latest range is read
+    private HandlerThread mLoaderThread;
+    private Handler mLoader;
+    private Handler mHandler = new Handler();
+    private ResourceHistory mHistory;
+    private ResourceHistory mAnomalies;
+    private long mSpanMicros = HOUR_MICROS;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_history);
+        mApp = (OicApplication) getApplication();
+        mResId = getIntent().getStringExtra(EXTRA_RESOURCE_ID);
+        setTitle(R.string.history_title);
+
+        mChart = (HistoryChartView) findViewById(R.id.history_chart);
+        mChart.setColors(getResources().getIntArray(R.array.colors));
+        mChart.setOnRangeChangeListener(this);
+        mStatusView = (TextView) findViewById(R.id.history_status_tv);
+
+        mLoaderThread = new HandlerThread(TAG);
+        mLoaderThread.start();
+        mLoader = new Handler(mLoaderThread.getLooper());
+        mLoader.post(new Runnable() {
+            @Override
+            public void run() {
+                openHistory();
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mLoaderThread.quit();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.history_menu, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case android.R.id.home:
+                onBackPressed();
+                return true;
+            case R.id.history_menu_hour:
+                showLatest(HOUR_MICROS);
+                return true;
+            case R.id.history_menu_day:
+                showLatest(24 * HOUR_MICROS);
+                return true;
+            case R.id.history_menu_week:
+                showLatest(7 * 24 * HOUR_MICROS);
+                return true;
+            case R.id.history_menu_month:
+                showLatest(30 * 24 * HOUR_MICROS);
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    @Override
+    public void onRangeChanged(long fromMicros, long toMicros) {
+        requestRange(fromMicros, toMicros);
+    }
+
+    /**
+     * Open the history on the loader thread and show its most recent hour.
+     */
+    private void openHistory() {
+        try {
+            mHistory = mApp.getHistoryStore().get(mResId);
+            mAnomalies = mApp.getHistoryStore().get(AnomalyDetector.getHistoryId(mResId));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open history of " + mResId, e);
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mHistory == null) {
+                    mStatusView.setText(R.string.history_empty);
+                    return;
+                }
+                for (int c = VISIBLE_CHANNELS; c < mHistory.getChannelNames().length; c++) {
+                    mChart.setChannelVisible(c, false);
+                }
+                showLatest(mSpanMicros);
+            }
+        });
+    }
+
+    /**
+     * Show a range of the given length ending at the most recent sample.
+     */
+    private void showLatest(long spanMicros) {
+        if (mHistory == null) {
+            return;
+        }
+        mSpanMicros = spanMicros;
+        long last = mHistory.getRaw().getLastTimeMicros();
+        long to = last < 0 ? StreamClock.nowMicros() : last;
+        mChart.setRange(to - spanMicros, to);
+        requestRange(to - spanMicros, to);
+    }
+
+    private void requestRange(final long fromMicros, final long toMicros) {
+        if (mHistory == null) {
+            return;
+        }
+        final int columns = Math.max(1, mChart.getWidth());
+        mLoader.removeCallbacksAndMessages(null);
+        mLoader.post(new Runnable() {
+            @Override
+            public void run() {
+                load(fromMicros, toMicros, columns);
+            }
+        });
+    }
+
+    /**
+     * Read a range from the coarsest suitable tier into a chart frame. Runs on the loader thread.
+     */
+    private void load(long fromMicros, long toMicros, int columns) {
+        long start = System.nanoTime();
+        final int tier = mHistory.selectTier(fromMicros, toMicros, columns);
+        final HistoryChartView.Frame frame = new HistoryChartView.Frame(fromMicros, toMicros,
+                columns, mHistory.getChannelNames().length);
+        try {
+            mHistory.queryBuckets(tier, fromMicros, toMicros, new BlockStore.RowVisitor() {
+                @Override
+                public boolean onRow(long timeMicros, double[] values) {
+                    frame.add(timeMicros, values);
+                    return true;
+                }
+            });
+            if (mAnomalies != null) {
+                mAnomalies.getRaw().query(fromMicros, toMicros, new BlockStore.RowVisitor() {
+                    @Override
+                    public boolean onRow(long timeMicros, double[] values) {
+                        frame.addAnomaly(timeMicros);
+                        return true;
+                    }
+                });
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read history of " + mResId, e);
+            return;
+        }
+        final long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mChart.setFrame(frame);
+                mStatusView.setText(getString(R.string.history_status, Rollup.getTierName(tier),
+                        frame.getRowCount(), elapsedMillis));
+                mStatusView.setVisibility(View.VISIBLE);
+            }
+        });
+    }
+}
@@ -5,30 +5,33 @@ import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
 import android.widget.Switch;
+import android.widget.TextView;
 
-import org.iotivity.base.OcException;
 import org.iotivity.base.OcHeaderOption;
 import org.iotivity.base.OcRepresentation;
 import org.iotivity.base.OcResource;
-import org.iotivity.base.QualityOfService;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import io.runtime.sensoroic.OicApplication;
 import io.runtime.sensoroic.R;
+import io.runtime.sensoroic.actuation.WritePipeline;
+import io.runtime.sensoroic.observe.ObserveHub;
+import io.runtime.sensoroic.observe.ObserveSupervisor;
 import io.runtime.sensoroic.task.ObserveTask;
 
 public class LightActivity extends AppCompatActivity implements
         OcResource.OnObserveListener,
-        OcResource.OnPutListener {
+        WritePipeline.Listener,
+        ObserveSupervisor.OnStateChangeListener {
 
     // Logging TAG
     private final static String TAG = "LightActivity";
 
     // Views
     private Switch mSwitch;
+    private TextView mStatusView;
 
     // Application
     private OicApplication mApp;
@@ -36,12 +39,13 @@ public class LightActivity extends AppCompatActivity implements
     // Resource and Representation
     private OcResource mResource;
 
-    // Map of resource values
-    private HashMap<String, Object> mValueMap = new HashMap<>();
+    // Write pipeline which coalesces taps into one PUT at a time and filters stale observe
+    // notifications, so that fast toggling does not make the switch flip back and forth
+    private WritePipeline mWritePipeline;
 
-    // Flag set when the user manually sets the switch such that observe doesnt override the
-    // setting and change the value back to the original
-    private boolean mIsPutting = false;
+    // Subscription to the shared observe stream, which resubscribes when the stream stalls
+    private ObserveHub.Subscription mSubscription;
+    private volatile boolean mIsStale = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -51,18 +55,12 @@ public class LightActivity extends AppCompatActivity implements
 
         // Set up views
         mSwitch = (Switch) findViewById(R.id.light_switch);
+        mStatusView = (TextView) findViewById(R.id.light_status_tv);
         mSwitch.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                try {
-                    boolean isChecked = ((Switch)v).isChecked();
-                    OcRepresentation rep = new OcRepresentation();
-                    rep.setValue("value", !isChecked);
-                    mResource.put(rep, new HashMap<String, String>(), LightActivity.this);
-                    mIsPutting = true;
-                } catch (OcException e) {
-                    e.printStackTrace();
-                }
+                boolean isChecked = ((Switch)v).isChecked();
+                mWritePipeline.write("value", !isChecked);
             }
         });
 
@@ -74,20 +72,29 @@ public class LightActivity extends AppCompatActivity implements
 
         // Get OcResource using ID from Application
         mResource = mApp.getResource(resId);
+        mWritePipeline = new WritePipeline(mResource, mApp.getTraceRecorder());
+        mWritePipeline.setListener(this);
 
         // Get values from resource and observe on callback
         if (mResource.isObservable()) {
-            new ObserveTask(this, mResource, this).execute();
+            ObserveTask task = new ObserveTask(this, mResource, this);
+            mSubscription = task.getSubscription();
+            mSubscription.setOnStateChangeListener(this);
+            task.execute();
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mWritePipeline.close();
+    }
+
     @Override
     protected void onStop() {
         super.onStop();
-        try {
-            mResource.cancelObserve(QualityOfService.LOW);
-        } catch (OcException e) {
-            e.printStackTrace();
+        if (mSubscription != null) {
+            mSubscription.cancel();
         }
     }
 
@@ -95,34 +102,58 @@ public class LightActivity extends AppCompatActivity implements
     public void onObserveCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation, int i) {
         final Map<String, Object> values = ocRepresentation.getValues();
         Log.d(TAG, String.valueOf(values));
+        mWritePipeline.onObserved(values);
+    }
+
+    @Override
+    public void onObserveFailed(Throwable throwable) {
 
-        mValueMap.putAll(values);
-        final boolean value = (boolean)mValueMap.get("value");
+    }
 
+    @Override
+    public void onStateChanged(final WritePipeline pipeline) {
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                if (!mIsPutting) {
-                    mSwitch.setChecked(!value);
+                Object value = pipeline.getValue("value");
+                if (value instanceof Boolean) {
+                    // The LED is active low
+                    mSwitch.setChecked(!(Boolean) value);
                 }
+                updateStatus();
             }
         });
     }
 
     @Override
-    public void onObserveFailed(Throwable throwable) {
-
+    public void onObserveStateChanged(ObserveSupervisor supervisor, ObserveSupervisor.State state) {
+        mIsStale = state == ObserveSupervisor.State.STALE;
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                updateStatus();
+            }
+        });
     }
 
-    @Override
-    public void onPutCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
-        Log.d(TAG, "Put completed");
-        mIsPutting = false;
+    private void updateStatus() {
+        if (!mWritePipeline.isConfirmed()) {
+            mStatusView.setText(R.string.light_updating);
+        } else if (mIsStale) {
+            mStatusView.setText(R.string.observe_stale);
+        } else {
+            mStatusView.setText("");
+        }
     }
 
     @Override
-    public void onPutFailed(Throwable throwable) {
-        Log.d(TAG, "Put failed");
-        mIsPutting = false;
+    public void onWriteFailed(long version, Throwable error) {
+        Log.d(TAG, "Put failed", error);
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mStatusView.setText(R.string.light_update_failed);
+            }
+        });
     }
 }
@@ -1,9 +1,12 @@
 package io.runtime.sensoroic.activity;
 
 import android.content.Context;
+import android.content.Intent;
 import android.graphics.Color;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v7.app.ActionBar;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.util.Log;
@@ -28,56 +31,153 @@ import com.github.mikephil.charting.data.LineData;
 import com.github.mikephil.charting.data.LineDataSet;
 import com.github.mikephil.charting.interfaces.datasets.ILineDataSet;
 
-import org.iotivity.base.OcException;
 import org.iotivity.base.OcHeaderOption;
 import org.iotivity.base.OcRepresentation;
 import org.iotivity.base.OcResource;
-import org.iotivity.base.QualityOfService;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.runtime.sensoroic.MynewtSensor;
 import io.runtime.sensoroic.OicApplication;
 import io.runtime.sensoroic.R;
+import io.runtime.sensoroic.analysis.AnomalyDetector;
+import io.runtime.sensoroic.analysis.SpectrumAnalyzer;
+import io.runtime.sensoroic.chart.RenderLoop;
+import io.runtime.sensoroic.chart.SampleRing;
+import io.runtime.sensoroic.chart.SpectrogramView;
+import io.runtime.sensoroic.chart.StreamingChartView;
+import io.runtime.sensoroic.observe.ObserveHub;
+import io.runtime.sensoroic.observe.ObserveSupervisor;
+import io.runtime.sensoroic.observe.SequenceTracker;
+import io.runtime.sensoroic.stream.DecodePipeline;
+import io.runtime.sensoroic.stream.Sample;
+import io.runtime.sensoroic.stream.SnapshotPublisher;
 import io.runtime.sensoroic.task.ObserveTask;
-
-
+import io.runtime.sensoroic.trace.TraceRecorder;
+import io.runtime.sensoroic.trace.TraceReplayer;
+
+
+/**
+ * Charts the values of a single Mynewt sensor while observing it.
+ *
+ * Instead of observing the live resource, the activity can replay a trace recorded with the
+ * "Record Trace" menu item by passing EXTRA_TRACE_PATH (and optionally EXTRA_TRACE_SPEED) in the
+ * intent. Since the resource may not have been discovered when replaying, EXTRA_RESOURCE_TYPE can
+ * be used to give its sensor type.
+ *
+ * For the motion sensors a spectrogram can be shown instead of the time series. Its window size
+ * and hop, in samples, can be set with EXTRA_SPECTRUM_WINDOW and EXTRA_SPECTRUM_HOP.
+ */
 public class SensorActivity extends AppCompatActivity implements OcResource.OnObserveListener {
 
     // Logging TAG
     private static final String TAG = "SensorActivity";
+
+    // Intent extras for replaying a trace
+    public static final String EXTRA_TRACE_PATH = "tracePath";
+    public static final String EXTRA_TRACE_SPEED = "traceSpeed";
+    public static final String EXTRA_RESOURCE_TYPE = "resType";
+
+    // Intent extras for the spectrum analysis
+    public static final String EXTRA_SPECTRUM_WINDOW = "spectrumWindow";
+    public static final String EXTRA_SPECTRUM_HOP = "spectrumHop";
+
     private static final int DATA_X_RANGE = 15;
 
+    // Samples shown by the high-rate chart (10 seconds at 100 Hz)
+    private static final int HIGH_RATE_SAMPLES = 1000;
+
+    // Spectrum window (1.28 seconds at 200 Hz) and hop (6 spectra per second at 200 Hz)
+    private static final int DEFAULT_SPECTRUM_WINDOW = 256;
+    private static final int DEFAULT_SPECTRUM_HOP = 32;
+
+    // Notifications which can wait to be decoded (a few seconds at 100 Hz)
+    private static final int DECODE_QUEUE_CAPACITY = 256;
+
     // Application
     private OicApplication mApp;
 
     // Resource and Resource Type
+    private String mResId;
     private OcResource mResource;
     private String mResourceType;
 
-    // Mynewt Sensor Object
-    private MynewtSensor mSensor;
+    // Decodes the notifications off the observe callback thread
+    private DecodePipeline mDecodePipeline;
+
+    // Latest sample, published by the decode worker and read by the UI thread without locking
+    private volatile SnapshotPublisher mLatest;
+    private final AtomicBoolean mIsRefreshPending = new AtomicBoolean();
+
+    // Sensor value keys and the values shown, only touched on the UI thread
+    private final ArrayList<String> mSensorDataKeys = new ArrayList<>();
+    private SnapshotPublisher.Snapshot mShown;
 
-    // ArrayList of Sensor Value keys
-    private ArrayList<String> mSensorDataKeys = new ArrayList<>();
-    // ArrayList of Sensor Value values
-    private ArrayList<Object> mSensorDataValues = new ArrayList<>();
+    // Spectrum analysis, only touched on the decode worker. Each published spectrum holds the
+    // bin width, the dominant frequency of each channel and the magnitudes of each channel.
+    private SpectrumAnalyzer mSpectrumAnalyzer;
+    private double[] mSpectrumRow;
+    private volatile SnapshotPublisher mSpectrum;
+    private int mSpectrumWindow;
+    private int mSpectrumHop;
 
-    private boolean mIsObserving;
+    // Anomaly detection, only touched on the decode worker
+    private AnomalyDetector mAnomalyDetector;
+    private int[] mAnomalyFlags;
+    private int[] mPrevAnomalyFlags;
+    private double[] mAnomalyRow;
+
+    // Channels with a new anomaly, one bit each, marked on the line chart by the UI thread
+    private final AtomicInteger mAnomalyChannels = new AtomicInteger();
+
+    private volatile boolean mIsObserving;
+
+    // Whether observing was stopped by onStop() rather than by the user, to restart in onStart()
+    private boolean mIsObservingPaused = false;
+
+    // Whether trace capture was stopped by onStop() rather than by the user, to resume in
+    // onStart()
+    private boolean mIsCapturePaused = false;
+
+    // Subscription to the shared observe stream, which resubscribes when the stream stalls
+    private ObserveHub.Subscription mSubscription;
+
+    // Whether or not notifications were lost before the next one, only touched on the observe
+    // callback thread
+    private boolean mIsGapPending = false;
+
+    // Replayer used instead of observing when replaying a trace
+    private TraceReplayer mReplayer;
+    private File mTraceFile;
+    private float mTraceSpeed;
 
     // Chart Object
     private LineChart mChart;
 
+    // High-rate chart, its samples and the render loop driving it
+    private StreamingChartView mStreamingChart;
+    private SampleRing mHighRateRing;
+    private RenderLoop mRenderLoop;
+    private volatile boolean mIsHighRate = false;
+    private boolean mIsStreamingChartBound = false;
+
+    // Spectrogram of the motion sensors, shown instead of the other charts
+    private SpectrogramView mSpectrogram;
+    private boolean mIsSpectrum = false;
+    private boolean mIsSpectrogramBound = false;
+
     // Views
     private ListView mSensorValueListView;
 
     // Adapter for mSensorValueListView
     private SensorValueAdapter mSensorValueListAdapter;
 
-    // X value for chart
-    private volatile int mCurrentX = 0;
-
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -87,32 +187,69 @@ public class SensorActivity extends AppCompatActivity implements OcResource.OnOb
         mApp = (OicApplication) getApplication();
 
         // Get resource ID from intent
-        String resId = getIntent().getStringExtra("resId");
+        mResId = getIntent().getStringExtra("resId");
+        String tracePath = getIntent().getStringExtra(EXTRA_TRACE_PATH);
+        if (tracePath != null) {
+            mTraceFile = new File(tracePath);
+            mTraceSpeed = getIntent().getFloatExtra(EXTRA_TRACE_SPEED, 1);
+        }
+        mSpectrumWindow = getIntent().getIntExtra(EXTRA_SPECTRUM_WINDOW, DEFAULT_SPECTRUM_WINDOW);
+        mSpectrumHop = getIntent().getIntExtra(EXTRA_SPECTRUM_HOP, DEFAULT_SPECTRUM_HOP);
 
         // Get OcResource object using ID from Application
-        mResource = mApp.getResource(resId);
-        setTitle(MynewtSensor.getReadableName(mResource));
+        mResource = mApp.getResource(mResId);
+        if (mResource != null) {
+            setTitle(MynewtSensor.getReadableName(mResource));
 
-        // Get the sensor resource type
-        mResourceType = MynewtSensor.getSensorResourceType(mResource.getResourceTypes());
+            // Get the sensor resource type
+            mResourceType = MynewtSensor.getSensorResourceType(mResource.getResourceTypes());
 
-        if (mResourceType == null) {
-            mResourceType = mResource.getResourceTypes().get(0);
+            if (mResourceType == null) {
+                mResourceType = mResource.getResourceTypes().get(0);
+            }
+        } else if (mTraceFile != null) {
+            setTitle(mResId);
+            mResourceType = getIntent().getStringExtra(EXTRA_RESOURCE_TYPE);
+            if (mResourceType == null) {
+                // Chart every value in the trace
+                mResourceType = "";
+            }
+        } else {
+            Log.e(TAG, "Unknown resource " + mResId);
+            finish();
+            return;
         }
 
         // Set up Views
         mSensorValueListView = (ListView) findViewById(R.id.sensor_value_list);
 
         //Set Adapter for mSensorValueListView
-        mSensorValueListAdapter = new SensorValueAdapter(this, R.layout.list_item_sensor_value, mSensorDataValues);
+        mSensorValueListAdapter = new SensorValueAdapter(this, R.layout.list_item_sensor_value, mSensorDataKeys);
         mSensorValueListView.setAdapter(mSensorValueListAdapter);
 
         initChart();
+        mStreamingChart = (StreamingChartView) findViewById(R.id.sensor_streaming_chart);
+        // The high-rate chart keeps its own buffers, so the loop needs no shared ones
+        mRenderLoop = new RenderLoop(0, 0);
+        mStreamingChart.setRenderLoop(mRenderLoop);
+        mSpectrogram = (SpectrogramView) findViewById(R.id.sensor_spectrogram);
+        mSpectrogram.setRenderLoop(mRenderLoop);
+
+        mDecodePipeline = new DecodePipeline(mResourceType, DECODE_QUEUE_CAPACITY);
+        // Detect anomalies before the sample is published, so the UI marks it with its sample
+        mDecodePipeline.addConsumer(mAnomalyConsumer);
+        mDecodePipeline.addConsumer(mDisplayConsumer);
+        if (SpectrumAnalyzer.isSupported(mResourceType)) {
+            mDecodePipeline.addConsumer(mSpectrumConsumer);
+        }
+        if (mTraceFile == null) {
+            // Replayed samples are already in the history
+            mDecodePipeline.addConsumer(mHistoryConsumer);
+        }
 
         // Observe the resource
-        if (mResource.isObservable()) {
-            new ObserveTask(this, mResource, this).execute();
-            mIsObserving = true;
+        if (mTraceFile != null || mResource.isObservable()) {
+            startObserving();
         } else {
             //TODO show dialog
         }
@@ -120,17 +257,168 @@ public class SensorActivity extends AppCompatActivity implements OcResource.OnOb
 
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (mIsObservingPaused) {
+            mIsObservingPaused = false;
+            startObserving();
+        }
+        if (mIsCapturePaused) {
+            mIsCapturePaused = false;
+            startCapture();
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mRenderLoop.start();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mRenderLoop.stop();
+    }
+
     @Override
     protected void onStop() {
         super.onStop();
         Log.d(TAG, "onStop()");
-        try {
-            //TODO bug, where closing the app manually very quickly doesnt cancel the observe
-            if (mIsObserving) {
-                mResource.cancelObserve(QualityOfService.LOW);
+        //TODO bug, where closing the app manually very quickly doesnt cancel the observe
+        if (mIsObserving) {
+            stopObserving();
+            mIsObservingPaused = true;
+        }
+        // Stop capturing this resource, other resources may still be recorded
+        if (mApp.getTraceRecorder().isCapturing(mResId)) {
+            stopCapture();
+            mIsCapturePaused = true;
+        }
+        mApp.getHistoryStore().flushInBackground();
+    }
+
+    /**
+     * Start observing the resource, or replaying the trace if one was given.
+     */
+    private void startObserving() {
+        mDecodePipeline.start();
+        if (mTraceFile != null) {
+            mReplayer = new TraceReplayer(mTraceFile, mTraceSpeed);
+            mReplayer.setObserveListener(null, this);
+            mReplayer.start();
+        } else {
+            ObserveTask task = new ObserveTask(this, mResource, this);
+            mSubscription = task.getSubscription();
+            mSubscription.setOnStateChangeListener(mObserveStateListener);
+            mSubscription.setOnGapListener(new ObserveSupervisor.OnGapListener() {
+                @Override
+                public void onNotificationsLost(ObserveSupervisor supervisor, int count) {
+                    Log.d(TAG, count + " notifications lost");
+                    mIsGapPending = true;
+                }
+            });
+            task.execute();
+        }
+        mIsObserving = true;
+    }
+
+    /**
+     * Stop observing the resource, or replaying the trace if one was given.
+     */
+    private void stopObserving() {
+        if (mReplayer != null) {
+            mReplayer.stop();
+            mReplayer = null;
+        } else if (mSubscription != null) {
+            mSubscription.cancel();
+            mSubscription = null;
+        }
+        mDecodePipeline.stop();
+        mIsObserving = false;
+        showStale(false);
+    }
+
+    /**
+     * Shows the stream as stale while the observe supervisor is reconnecting.
+     */
+    private final ObserveSupervisor.OnStateChangeListener mObserveStateListener =
+            new ObserveSupervisor.OnStateChangeListener() {
+                @Override
+                public void onObserveStateChanged(ObserveSupervisor supervisor,
+                                                  final ObserveSupervisor.State state) {
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            showStale(mIsObserving && state == ObserveSupervisor.State.STALE);
+                        }
+                    });
+                }
+            };
+
+    /**
+     * Dims the charts and shows a subtitle while the data is stale.
+     */
+    private void showStale(boolean stale) {
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar != null) {
+            actionBar.setSubtitle(stale ? getString(R.string.observe_stale) : null);
+        }
+        float alpha = stale ? 0.4f : 1f;
+        mChart.setAlpha(alpha);
+        mStreamingChart.setAlpha(alpha);
+        mSpectrogram.setAlpha(alpha);
+    }
+
+    /**
+     * Start or stop capturing this resource's observe callbacks into a trace file.
+     */
+    private void toggleTraceRecording(MenuItem item) {
+        if (mApp.getTraceRecorder().isCapturing(mResId)) {
+            stopCapture();
+            item.setChecked(false);
+        } else {
+            item.setChecked(startCapture());
+        }
+    }
+
+    /**
+     * Capture this resource's callbacks, into the trace already being recorded if there is one
+     * or else into a new trace file.
+     * @return true if the resource is being captured
+     */
+    private boolean startCapture() {
+        TraceRecorder recorder = mApp.getTraceRecorder();
+        if (!recorder.isRecording()) {
+            File dir = getExternalFilesDir("traces");
+            if (dir == null) {
+                dir = new File(getFilesDir(), "traces");
+            }
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                Log.e(TAG, "Could not create trace directory " + dir);
+                return false;
+            }
+            try {
+                recorder.start(new File(dir, System.currentTimeMillis() + ".trace"));
+            } catch (IOException e) {
+                Log.e(TAG, "Could not start trace recording", e);
+                return false;
             }
-        } catch (OcException e) {
-            e.printStackTrace();
+        }
+        recorder.setCaptured(mResId, true);
+        return true;
+    }
+
+    /**
+     * Stop capturing this resource's callbacks, ending the trace if no other resource is being
+     * captured.
+     */
+    private void stopCapture() {
+        TraceRecorder recorder = mApp.getTraceRecorder();
+        recorder.setCaptured(mResId, false);
+        if (!recorder.isCapturingAny()) {
+            recorder.stop();
         }
     }
 
@@ -141,6 +429,19 @@ public class SensorActivity extends AppCompatActivity implements OcResource.OnOb
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.sensor_menu_toggle_observe).setTitle(
+                mIsObserving ? R.string.stop_observe : R.string.start_observe);
+        menu.findItem(R.id.sensor_menu_high_rate).setChecked(mIsHighRate);
+        menu.findItem(R.id.sensor_menu_record_trace).setChecked(
+                mApp.getTraceRecorder().isCapturing(mResId));
+        MenuItem spectrum = menu.findItem(R.id.sensor_menu_spectrum);
+        spectrum.setVisible(SpectrumAnalyzer.isSupported(mResourceType));
+        spectrum.setChecked(mIsSpectrum);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
@@ -149,25 +450,71 @@ public class SensorActivity extends AppCompatActivity implements OcResource.OnOb
                 break;
             case R.id.sensor_menu_toggle_observe:
                 if (mIsObserving) {
-                    try {
-                        mResource.cancelObserve(QualityOfService.LOW);
-                        item.setTitle(R.string.start_observe);
-                        mIsObserving = false;
-                    } catch (OcException e) {
-                        e.printStackTrace();
-                    }
+                    stopObserving();
+                    item.setTitle(R.string.start_observe);
                 } else {
                     item.setTitle(R.string.stop_observe);
-                    new ObserveTask(this, mResource, this).execute();
-                    mIsObserving = true;
+                    startObserving();
                 }
                 break;
+            case R.id.sensor_menu_record_trace:
+                toggleTraceRecording(item);
+                break;
+            case R.id.sensor_menu_history:
+                // Queries include the unflushed samples, so nothing needs writing first
+                Intent history = new Intent(this, HistoryActivity.class);
+                history.putExtra(HistoryActivity.EXTRA_RESOURCE_ID, mResId);
+                startActivity(history);
+                break;
+            case R.id.sensor_menu_stream_stats:
+                showStreamStats();
+                break;
+            case R.id.sensor_menu_high_rate:
+                setChartMode(!item.isChecked(), false);
+                break;
+            case R.id.sensor_menu_spectrum:
+                setChartMode(false, !item.isChecked());
+                break;
             default:
                 break;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Shows the observe sequence number metrics of this resource.
+     */
+    private void showStreamStats() {
+        SequenceTracker tracker = mApp.getObserveMetrics().getTracker(mResId);
+        ObserveSupervisor supervisor = mSubscription == null ? null : mSubscription.getSupervisor();
+        int resubscribes = supervisor == null ? 0 : supervisor.getResubscribeCount();
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.stream_stats_title)
+                .setMessage(getString(R.string.stream_stats_message,
+                        tracker.getDeliveredCount(),
+                        tracker.getLostCount(), tracker.getLossRate() * 100,
+                        tracker.getReorderedCount(), tracker.getReorderRate() * 100,
+                        tracker.getDuplicateCount(), tracker.getGapCount(), resubscribes,
+                        mDecodePipeline.getDepth(), mDecodePipeline.getCapacity(),
+                        mDecodePipeline.getDropCount()))
+                .setPositiveButton(android.R.string.ok, null)
+                .create().show();
+    }
+
+    /**
+     * Switch between the MPAndroidChart line chart, the lightweight high-rate chart and the
+     * spectrogram. While another chart is shown no chart entries are created for the line chart.
+     */
+    private void setChartMode(boolean highRate, boolean spectrum) {
+        mIsHighRate = highRate;
+        mIsSpectrum = spectrum;
+        boolean line = !highRate && !spectrum;
+        mChart.setVisibility(line ? View.VISIBLE : View.GONE);
+        mStreamingChart.setVisibility(highRate ? View.VISIBLE : View.GONE);
+        mSpectrogram.setVisibility(spectrum ? View.VISIBLE : View.GONE);
+        invalidateOptionsMenu();
+    }
+
     private void initChart() {
         mChart = (LineChart) findViewById(R.id.sensor_line_chart);
         Description desc = new Description();
@@ -194,9 +541,9 @@ public class SensorActivity extends AppCompatActivity implements OcResource.OnOb
         mChart.setData(data);
     }
 
-    private synchronized void createDataSets(LineData data) {
+    private void createDataSets(LineData data) {
         int[] colors = getResources().getIntArray(R.array.colors);
-        for (int i = 0; i < mSensor.getSensorDataCount(); i++) {
+        for (int i = 0; i < mSensorDataKeys.size(); i++) {
             LineDataSet set = new LineDataSet(null, mSensorDataKeys.get(i).toUpperCase());
             set.setColor(colors[i]);
             set.setDrawValues(false);
@@ -212,73 +559,231 @@ public class SensorActivity extends AppCompatActivity implements OcResource.OnOb
                 data.getDataSetByIndex(i).setVisible(false);
             }
         }
+
+        // Anomalies are drawn as circles on top of the channel lines, without a line of their own
+        LineDataSet anomalies = new LineDataSet(null, getString(R.string.sensor_anomaly_label));
+        anomalies.setColor(Color.TRANSPARENT);
+        anomalies.setDrawValues(false);
+        anomalies.setCircleColor(Color.RED);
+        anomalies.setDrawCircleHole(false);
+        anomalies.setCircleRadius(5f);
+        anomalies.setAxisDependency(YAxis.AxisDependency.RIGHT);
+        data.addDataSet(anomalies);
     }
     @Override
-    public synchronized void onObserveCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation, int i) {
-        // If we have not yet received an Observe response, create a new MynewtSensor object.
-        // Otherwise update the data values inside the MynewtSensor object.
+    public void onObserveCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation, int i) {
+        // Only hand the values over, so the IoTivity receive thread is never held up by the
+        // consumers. Everything else happens on the decode worker.
+        mDecodePipeline.offer(ocRepresentation.getValues(), mIsGapPending);
+        mIsGapPending = false;
+    }
 
-        if (mSensor == null) {
-            mSensor = new MynewtSensor(ocRepresentation, mResourceType);
-            mSensorDataKeys = new ArrayList<>(mSensor.getSensorDataKeySet());
+    /**
+     * Records live samples into the history store. Runs on the decode worker.
+     */
+    private final DecodePipeline.Consumer mHistoryConsumer = new DecodePipeline.Consumer() {
+        @Override
+        public void onSample(Sample sample) {
+            if (sample.isGapBefore()) {
+                // Mark the lost notifications so the history chart does not join across them
+                mApp.getHistoryStore().appendGap(mResId, sample.getKeys(),
+                        sample.getTimeMicros() - 1);
+            }
+            mApp.getHistoryStore().append(mResId, sample.getKeys(), sample.getTimeMicros(),
+                    sample.getValues());
+        }
+    };
 
-            Log.d(TAG, "MynewtSensor Created:");
-            Log.d(TAG, "\tkeys = " + mSensor.getSensorDataKeySet());
-            Log.d(TAG, "\tvalues = " + mSensor.getSensorDataValues());
-        } else {
-            mSensor.updateSensor(ocRepresentation);
+    /**
+     * Checks samples for spikes, stuck values, implausible rates of change and saturation. Live
+     * anomalies are recorded in a companion history so the history chart can mark them. Runs on
+     * the decode worker.
+     */
+    private final DecodePipeline.Consumer mAnomalyConsumer = new DecodePipeline.Consumer() {
+        @Override
+        public void onSample(Sample sample) {
+            if (!mIsObserving) {
+                return;
+            }
+            int n = sample.getChannelCount();
+            if (mAnomalyDetector == null) {
+                mAnomalyDetector = new AnomalyDetector(mResourceType, sample.getKeys());
+                mAnomalyFlags = new int[n];
+                mPrevAnomalyFlags = new int[n];
+                mAnomalyRow = new double[n];
+            }
+            if (sample.isGapBefore()) {
+                // The statistics do not carry across lost notifications
+                mAnomalyDetector.reset();
+            }
+            int all = mAnomalyDetector.update(sample.getTimeMicros(), sample.getValues(),
+                    mAnomalyFlags);
+            if (all != 0 && mTraceFile == null) {
+                for (int i = 0; i < n; i++) {
+                    mAnomalyRow[i] = mAnomalyFlags[i] == 0 ? Double.NaN : mAnomalyFlags[i];
+                }
+                mApp.getHistoryStore().append(AnomalyDetector.getHistoryId(mResId),
+                        sample.getKeys(), sample.getTimeMicros(), mAnomalyRow);
+            }
+
+            // Only the onset of an anomaly is marked, not every sample while it lasts
+            int channels = 0;
+            for (int i = 0; i < n; i++) {
+                int onset = mAnomalyFlags[i] & ~mPrevAnomalyFlags[i];
+                if (onset != 0) {
+                    Log.i(TAG, "Anomaly on " + mResId + " " + sample.getKeys()[i] + ": "
+                            + AnomalyDetector.describe(onset));
+                    if (i < Integer.SIZE) {
+                        channels |= 1 << i;
+                    }
+                }
+                mPrevAnomalyFlags[i] = mAnomalyFlags[i];
+            }
+            if (channels != 0) {
+                int prev;
+                do {
+                    prev = mAnomalyChannels.get();
+                } while (!mAnomalyChannels.compareAndSet(prev, prev | channels));
+            }
         }
-        Log.d(TAG, "Observe completed - values = " + ocRepresentation.getValues());
-        if (!mIsObserving) {
+    };
+
+    /**
+     * Computes the spectra of the motion sensors and publishes them for the spectrogram. Runs on
+     * the decode worker.
+     */
+    private final DecodePipeline.Consumer mSpectrumConsumer = new DecodePipeline.Consumer() {
+        @Override
+        public void onSample(Sample sample) {
+            if (!mIsObserving) {
+                return;
+            }
+            int n = sample.getChannelCount();
+            if (mSpectrumAnalyzer == null) {
+                mSpectrumAnalyzer = new SpectrumAnalyzer(n, mSpectrumWindow, mSpectrumHop);
+                mSpectrumRow = new double[1 + n + n * mSpectrumAnalyzer.getBinCount()];
+            }
+            if (sample.isGapBefore()) {
+                // A window across lost notifications would smear the spectrum
+                mSpectrumAnalyzer.reset();
+            }
+            if (!mSpectrumAnalyzer.add(sample.getTimeMicros(), sample.getValues())) {
+                return;
+            }
+            double[] magnitudes = mSpectrumAnalyzer.getMagnitudes();
+            mSpectrumRow[0] = mSpectrumAnalyzer.getBinWidth();
+            System.arraycopy(mSpectrumAnalyzer.getDominantFrequencies(), 0, mSpectrumRow, 1, n);
+            System.arraycopy(magnitudes, 0, mSpectrumRow, 1 + n, magnitudes.length);
+            if (mSpectrum == null) {
+                mSpectrum = new SnapshotPublisher(mSpectrumRow.length);
+            }
+            mSpectrum.publish(mSpectrumAnalyzer.getSpectrumTimeMicros(), mSpectrumRow);
+        }
+    };
+
+    /**
+     * Feeds the high-rate chart and publishes the sample for the list and line chart. Runs on the
+     * decode worker.
+     */
+    private final DecodePipeline.Consumer mDisplayConsumer = new DecodePipeline.Consumer() {
+        @Override
+        public void onSample(Sample sample) {
+            if (!mIsObserving) {
+                return;
+            }
+            if (mLatest == null) {
+                mHighRateRing = new SampleRing(HIGH_RATE_SAMPLES, sample.getChannelCount());
+                mLatest = new SnapshotPublisher(sample.getChannelCount());
+            }
+
+            // Feed the high-rate chart, which is redrawn by the render loop
+            mHighRateRing.add(sample.getValues());
+
+            mLatest.publish(sample.getTimeMicros(), sample.getValues());
+            // Samples arriving before the UI got to the last refresh are picked up by it
+            if (mIsRefreshPending.compareAndSet(false, true)) {
+                runOnUiThread(mRefresh);
+            }
+        }
+    };
+
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            mIsRefreshPending.set(false);
+            showLatest();
+        }
+    };
+
+    /**
+     * Update the value list and line chart with the latest sample. Runs on the UI thread.
+     */
+    private void showLatest() {
+        SnapshotPublisher latest = mLatest;
+        if (latest == null) {
             return;
         }
-        mCurrentX++;
-
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                // Update the chart
-                // Get the data obj from the chart
-                synchronized (SensorActivity.this) {
-
-                    mSensorDataValues.clear();
-                    mSensorDataValues.addAll(mSensor.getSensorDataValues());
-
-                    LineData data = mChart.getData();
-                    if (data != null) {
-                        ILineDataSet set = data.getDataSetByIndex(0);
-                        if (set == null) {
-                            // If there is no data yet, create the data sets
-                            createDataSets(data);
-                        }
+        if (mShown == null) {
+            mShown = latest.newSnapshot();
+            Collections.addAll(mSensorDataKeys, mDecodePipeline.getKeys());
+        }
+        if (!latest.read(mShown)) {
+            return;
+        }
+        double[] values = mShown.getValues();
 
-                        // Add the new data entries
-                        for (int i = 0; i < mSensor.getSensorDataCount(); i++) {
-                            double val = 0;
-                            if (mSensorDataValues.get(i) instanceof Integer) {
-                                // Make the cast to Integer
-                                val = (Integer) mSensorDataValues.get(i);
-                            } else if (mSensorDataValues.get(i) instanceof Double) {
-                                // Make the cast to Double
-                                val = (Double) mSensorDataValues.get(i);
-                            } else {
-                                Log.e(TAG, "Could not cast value to double");
-                                continue;
-                            }
-                            data.addEntry(new Entry(mCurrentX, (float) val), i);
-                        }
-                        data.notifyDataChanged();
+        if (!mIsStreamingChartBound) {
+            mIsStreamingChartBound = true;
+            mStreamingChart.setRing(mHighRateRing, getResources().getIntArray(R.array.colors));
+            for (int i = 3; i < values.length; i++) {
+                mStreamingChart.setChannelVisible(i, false);
+            }
+        }
 
-                        // let the chart know it's data has changed
-                        mChart.notifyDataSetChanged();
-                        mChart.setVisibleXRangeMaximum(DATA_X_RANGE);
-                        mChart.moveViewToX(data.getXMax());
-                    }
+        SnapshotPublisher spectrum = mSpectrum;
+        if (!mIsSpectrogramBound && spectrum != null) {
+            mIsSpectrogramBound = true;
+            mSpectrogram.setSpectrum(spectrum, mDecodePipeline.getKeys(),
+                    mSpectrumAnalyzer.getBinCount(), getResources().getIntArray(R.array.colors));
+            for (int i = 3; i < values.length; i++) {
+                mSpectrogram.setChannelVisible(i, false);
+            }
+        }
+
+        int anomalies = mAnomalyChannels.getAndSet(0);
+        LineData data = mChart.getData();
+        if (data != null && !mIsHighRate && !mIsSpectrum) {
+            ILineDataSet set = data.getDataSetByIndex(0);
+            if (set == null) {
+                // If there is no data yet, create the data sets
+                createDataSets(data);
+            }
+
+            // Add the new data entries, one x step per sample received
+            for (int i = 0; i < values.length; i++) {
+                if (Double.isNaN(values[i])) {
+                    continue;
+                }
+                data.addEntry(new Entry(mShown.getVersion(), (float) values[i]), i);
+            }
 
-                    mSensorValueListAdapter.notifyDataSetChanged();
+            // Mark new anomalies on the visible channels
+            for (int i = 0; anomalies != 0 && i < values.length && i < Integer.SIZE; i++) {
+                if ((anomalies & (1 << i)) != 0 && !Double.isNaN(values[i])
+                        && data.getDataSetByIndex(i).isVisible()) {
+                    data.addEntry(new Entry(mShown.getVersion(), (float) values[i]),
+                            mSensorDataKeys.size());
                 }
             }
-        });
+            data.notifyDataChanged();
+
+            // let the chart know it's data has changed
+            mChart.notifyDataSetChanged();
+            mChart.setVisibleXRangeMaximum(DATA_X_RANGE);
+            mChart.moveViewToX(data.getXMax());
+        }
+
+        mSensorValueListAdapter.notifyDataSetChanged();
     }
 
     @Override
@@ -286,13 +791,10 @@ public class SensorActivity extends AppCompatActivity implements OcResource.OnOb
         Log.i(TAG, "Observe failed");
     }
 
-    private class SensorValueAdapter extends ArrayAdapter {
+    private class SensorValueAdapter extends ArrayAdapter<String> {
 
-        private ArrayList<Object> mValues;
-
-        private SensorValueAdapter(Context context, int resource, ArrayList<Object> values) {
-            super(context, resource, values);
-            mValues = values;
+        private SensorValueAdapter(Context context, int resource, ArrayList<String> keys) {
+            super(context, resource, keys);
         }
 
         @NonNull
@@ -320,6 +822,12 @@ public class SensorActivity extends AppCompatActivity implements OcResource.OnOb
                                 mChart.invalidate();
                             }
                         }
+                        if (mStreamingChart != null) {
+                            mStreamingChart.setChannelVisible(position, isChecked);
+                        }
+                        if (mSpectrogram != null) {
+                            mSpectrogram.setChannelVisible(position, isChecked);
+                        }
                     }
                 });
                 if (position < 3) {
@@ -327,14 +835,22 @@ public class SensorActivity extends AppCompatActivity implements OcResource.OnOb
                 }
             }
             valueView = (TextView) view.findViewById(R.id.list_item_sensor_value_value);
-            synchronized(SensorActivity.this) {
-                valueView.setText(shaveDoubleString(String.valueOf(mValues.get(position))));
+            if (mShown != null) {
+                valueView.setText(shaveDoubleString(formatValue(mShown.getValues()[position])));
             }
             return view;
         }
     }
 
     // Util
+    String formatValue(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            // Integer values are decoded as doubles, show them without the ".0"
+            return String.valueOf((long) value);
+        }
+        return String.valueOf(value);
+    }
+
     String shaveDoubleString(String dStr) {
         if (dStr.length() < 7) return dStr;
         return dStr.startsWith("-") ? dStr.substring(0, 7) : dStr.substring(0, 6);
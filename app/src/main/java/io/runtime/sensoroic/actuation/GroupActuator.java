@@ -0,0 +1,293 @@
+package io.runtime.sensoroic.actuation;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.iotivity.base.OcException;
+import org.iotivity.base.OcHeaderOption;
+import org.iotivity.base.OcRepresentation;
+import org.iotivity.base.OcResource;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.runtime.sensoroic.OicApplication;
+import io.runtime.sensoroic.Transport;
+import io.runtime.sensoroic.trace.TraceRecorder;
+
+/**
+ * Sends the same PUT to a group of resources in parallel. Requests are queued per transport and
+ * at most a fixed number are in flight on each transport at once, across all groups, so a large
+ * group cannot flood the BLE stack while IP targets still go out together. Every target has its
+ * own timeout; a target which times out frees its slot for the next one even though the stack may
+ * still deliver a late response, which is then ignored. Results are reported per target as they
+ * arrive and aggregated once every target of the group has completed.
+ */
+public class GroupActuator {
+
+    // Logging TAG
+    private static final String TAG = "GroupActuator";
+
+    // Default time allowed for each target to confirm a request
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+    // Recorder wrapping the put listeners, may be null
+    private final TraceRecorder mTraceRecorder;
+
+    // Per transport request queue, requests in flight and concurrency cap
+    private final EnumMap<Transport, ArrayDeque<Target>> mQueues = new EnumMap<>(Transport.class);
+    private final EnumMap<Transport, Integer> mInFlight = new EnumMap<>(Transport.class);
+    private final EnumMap<Transport, Integer> mLimits = new EnumMap<>(Transport.class);
+
+    // Runs the target timeouts
+    private final ScheduledExecutorService mTimer = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Constructor for GroupActuator.
+     * @param traceRecorder the recorder to capture put callbacks with, or null
+     */
+    public GroupActuator(TraceRecorder traceRecorder) {
+        mTraceRecorder = traceRecorder;
+        for (Transport transport : Transport.values()) {
+            mQueues.put(transport, new ArrayDeque<Target>());
+            mInFlight.put(transport, 0);
+        }
+        // BLE requests each need a connection to a different device, keep few in flight
+        mLimits.put(Transport.BLE, 4);
+        mLimits.put(Transport.TCP, 8);
+        mLimits.put(Transport.IP, 16);
+    }
+
+    /**
+     * Set the maximum number of requests in flight on a transport.
+     * @param transport the transport
+     * @param limit     the maximum number of concurrent requests, at least 1
+     */
+    public synchronized void setConcurrencyLimit(Transport transport, int limit) {
+        mLimits.put(transport, Math.max(1, limit));
+    }
+
+    /**
+     * Send a PUT to every target with the default timeout.
+     * @see #put(Collection, OcRepresentation, long, OnGroupActuationListener)
+     */
+    public Group put(Collection<OcResource> targets, OcRepresentation representation,
+                     OnGroupActuationListener listener) {
+        return put(targets, representation, DEFAULT_TIMEOUT_MILLIS, listener);
+    }
+
+    /**
+     * Send a PUT to every target.
+     * @param targets           the resources to send the request to
+     * @param representation    the representation to put
+     * @param timeoutMillis     the time each target is given to confirm
+     * @param listener          notified as targets complete and when the group is done, on
+     *                          whichever thread completed the target
+     * @return the group, which can be used to cancel targets not yet sent
+     */
+    public Group put(Collection<OcResource> targets, OcRepresentation representation,
+                     long timeoutMillis, OnGroupActuationListener listener) {
+        Group group = new Group(representation, timeoutMillis, listener, targets.size());
+        synchronized (this) {
+            for (OcResource resource : targets) {
+                Target target = new Target(group, resource);
+                mQueues.get(target.mTransport).add(target);
+            }
+        }
+        if (targets.isEmpty()) {
+            listener.onGroupCompleted(new GroupResult(new ArrayList<TargetResult>(), 0));
+        }
+        dispatch();
+        return group;
+    }
+
+    /**
+     * Send queued requests while their transport has free slots.
+     */
+    private void dispatch() {
+        List<Target> toSend = new ArrayList<>();
+        List<Target> cancelled = new ArrayList<>();
+        synchronized (this) {
+            for (Transport transport : Transport.values()) {
+                ArrayDeque<Target> queue = mQueues.get(transport);
+                while (!queue.isEmpty() && mInFlight.get(transport) < mLimits.get(transport)) {
+                    Target target = queue.poll();
+                    if (target.mGroup.mIsCancelled) {
+                        cancelled.add(target);
+                        continue;
+                    }
+                    mInFlight.put(transport, mInFlight.get(transport) + 1);
+                    target.mIsSent = true;
+                    target.mStartMillis = SystemClock.elapsedRealtime();
+                    toSend.add(target);
+                }
+            }
+        }
+        for (Target target : cancelled) {
+            complete(target, TargetResult.Status.CANCELLED, null);
+        }
+        for (final Target target : toSend) {
+            target.mTimeout = mTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    complete(target, TargetResult.Status.TIMED_OUT, null);
+                }
+            }, target.mGroup.mTimeoutMillis, TimeUnit.MILLISECONDS);
+            try {
+                OcResource.OnPutListener listener = target;
+                if (mTraceRecorder != null) {
+                    listener = mTraceRecorder.wrapPut(target.mResourceId, target);
+                }
+                target.mResource.put(target.mGroup.mRepresentation,
+                        new HashMap<String, String>(), listener);
+            } catch (OcException e) {
+                Log.e(TAG, "Failed to send put to " + target.mResourceId, e);
+                complete(target, TargetResult.Status.FAILED, e);
+            }
+        }
+    }
+
+    /**
+     * Record the outcome of a target, free its slot and send the next queued requests.
+     */
+    private void complete(Target target, TargetResult.Status status, Throwable error) {
+        Group group = target.mGroup;
+        TargetResult result;
+        GroupResult groupResult = null;
+        synchronized (this) {
+            if (target.mIsDone) {
+                // Late response after a timeout, or a timeout racing a response
+                return;
+            }
+            target.mIsDone = true;
+            if (target.mTimeout != null) {
+                target.mTimeout.cancel(false);
+            }
+            long latency = 0;
+            if (target.mIsSent) {
+                mInFlight.put(target.mTransport, mInFlight.get(target.mTransport) - 1);
+                latency = SystemClock.elapsedRealtime() - target.mStartMillis;
+            }
+            result = new TargetResult(target.mResourceId, status, error, latency);
+            group.mResults.add(result);
+            if (group.mResults.size() == group.mTargetCount) {
+                groupResult = new GroupResult(group.mResults,
+                        SystemClock.elapsedRealtime() - group.mStartMillis);
+            }
+        }
+        group.mListener.onTargetCompleted(result);
+        if (groupResult != null) {
+            Log.d(TAG, "Group completed, " + groupResult.getSuccessCount() + "/"
+                    + group.mTargetCount + " in " + groupResult.getElapsedMillis() + " ms");
+            group.mListener.onGroupCompleted(groupResult);
+        }
+        dispatch();
+    }
+
+    /**
+     * Cancel the targets of a group which have not been sent yet.
+     */
+    private void cancel(Group group) {
+        List<Target> cancelled = new ArrayList<>();
+        synchronized (this) {
+            group.mIsCancelled = true;
+            for (ArrayDeque<Target> queue : mQueues.values()) {
+                for (Target target : queue) {
+                    if (target.mGroup == group) {
+                        cancelled.add(target);
+                    }
+                }
+                queue.removeAll(cancelled);
+            }
+        }
+        for (Target target : cancelled) {
+            complete(target, TargetResult.Status.CANCELLED, null);
+        }
+    }
+
+    /**
+     * A group actuation in progress.
+     */
+    public class Group {
+
+        private final OcRepresentation mRepresentation;
+        private final long mTimeoutMillis;
+        private final OnGroupActuationListener mListener;
+        private final int mTargetCount;
+        private final long mStartMillis = SystemClock.elapsedRealtime();
+        private final ArrayList<TargetResult> mResults = new ArrayList<>();
+        private volatile boolean mIsCancelled = false;
+
+        private Group(OcRepresentation representation, long timeoutMillis,
+                      OnGroupActuationListener listener, int targetCount) {
+            mRepresentation = representation;
+            mTimeoutMillis = timeoutMillis;
+            mListener = listener;
+            mTargetCount = targetCount;
+        }
+
+        /**
+         * Cancel the targets not sent yet. Requests already sent still complete normally.
+         */
+        public void cancel() {
+            GroupActuator.this.cancel(this);
+        }
+    }
+
+    /**
+     * One target of a group, which is also the put listener for its request.
+     */
+    private class Target implements OcResource.OnPutListener {
+
+        private final Group mGroup;
+        private final OcResource mResource;
+        private final String mResourceId;
+        private final Transport mTransport;
+        private long mStartMillis;
+        private ScheduledFuture<?> mTimeout;
+        private boolean mIsSent = false;
+        private boolean mIsDone = false;
+
+        private Target(Group group, OcResource resource) {
+            mGroup = group;
+            mResource = resource;
+            mResourceId = OicApplication.createUniqueId(resource);
+            mTransport = Transport.of(resource);
+        }
+
+        @Override
+        public void onPutCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
+            complete(this, TargetResult.Status.SUCCEEDED, null);
+        }
+
+        @Override
+        public void onPutFailed(Throwable throwable) {
+            complete(this, TargetResult.Status.FAILED, throwable);
+        }
+    }
+
+    /**
+     * The listener for GroupActuator.
+     */
+    public interface OnGroupActuationListener {
+        /**
+         * Called when a target confirms, fails, times out or is cancelled.
+         * @param result the result of the target
+         */
+        void onTargetCompleted(TargetResult result);
+
+        /**
+         * Called once every target of the group has completed.
+         * @param result the aggregated result
+         */
+        void onGroupCompleted(GroupResult result);
+    }
+}
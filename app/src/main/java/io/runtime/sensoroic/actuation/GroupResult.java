@@ -0,0 +1,58 @@
+package io.runtime.sensoroic.actuation;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The aggregated outcome of a group actuation.
+ */
+public class GroupResult {
+
+    private final List<TargetResult> mResults;
+    private final long mElapsedMillis;
+    private final int mSuccessCount;
+
+    GroupResult(List<TargetResult> results, long elapsedMillis) {
+        mResults = Collections.unmodifiableList(results);
+        mElapsedMillis = elapsedMillis;
+        int successes = 0;
+        for (TargetResult result : results) {
+            if (result.isSuccess()) {
+                successes++;
+            }
+        }
+        mSuccessCount = successes;
+    }
+
+    /**
+     * Get the result of every target, in order of completion.
+     * @return the target results
+     */
+    public List<TargetResult> getResults() {
+        return mResults;
+    }
+
+    /**
+     * Get the number of targets which confirmed the request.
+     * @return the success count
+     */
+    public int getSuccessCount() {
+        return mSuccessCount;
+    }
+
+    /**
+     * Get the number of targets which did not confirm the request.
+     * @return the failure count
+     */
+    public int getFailureCount() {
+        return mResults.size() - mSuccessCount;
+    }
+
+    /**
+     * Get the time from starting the actuation to the last target completing.
+     * @return the total latency in milliseconds
+     */
+    public long getElapsedMillis() {
+        return mElapsedMillis;
+    }
+}
@@ -0,0 +1,66 @@
+package io.runtime.sensoroic.actuation;
+
+/**
+ * The outcome of a group actuation for one target resource.
+ */
+public class TargetResult {
+
+    public enum Status {
+        SUCCEEDED,
+        FAILED,
+        TIMED_OUT,
+        CANCELLED
+    }
+
+    private final String mResourceId;
+    private final Status mStatus;
+    private final Throwable mError;
+    private final long mLatencyMillis;
+
+    TargetResult(String resourceId, Status status, Throwable error, long latencyMillis) {
+        mResourceId = resourceId;
+        mStatus = status;
+        mError = error;
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * Get the unique id of the target resource.
+     * @return the resource unique id
+     */
+    public String getResourceId() {
+        return mResourceId;
+    }
+
+    /**
+     * Get the outcome.
+     * @return the status
+     */
+    public Status getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * Whether or not the request succeeded.
+     * @return true if the target confirmed the request
+     */
+    public boolean isSuccess() {
+        return mStatus == Status.SUCCEEDED;
+    }
+
+    /**
+     * Get the failure reported for the target.
+     * @return the error, or null if the request did not fail with one
+     */
+    public Throwable getError() {
+        return mError;
+    }
+
+    /**
+     * Get the time from sending the request to its outcome.
+     * @return the latency in milliseconds, 0 if the request was never sent
+     */
+    public long getLatencyMillis() {
+        return mLatencyMillis;
+    }
+}
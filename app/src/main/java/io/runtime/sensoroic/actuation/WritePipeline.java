@@ -0,0 +1,319 @@
+package io.runtime.sensoroic.actuation;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.iotivity.base.OcException;
+import org.iotivity.base.OcHeaderOption;
+import org.iotivity.base.OcRepresentation;
+import org.iotivity.base.OcResource;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.runtime.sensoroic.OicApplication;
+import io.runtime.sensoroic.trace.TraceRecorder;
+
+/**
+ * Last-writer-wins PUT pipeline for one resource.
+ *
+ * Every write gets an increasing version and immediately becomes part of the displayed state, so
+ * the UI can show it optimistically. At most one PUT is in flight: writes made meanwhile are
+ * coalesced into the latest desired value of each key and sent as one PUT when the current one
+ * completes, and a response to a PUT which has since been superseded is not reported as the
+ * confirmed state. While any write is unconfirmed, and for a short settle time after its
+ * confirmation, observe notifications disagreeing with the written values are treated as stale
+ * and ignored, so the state does not flip back and forth. After that the resource's notifications
+ * are taken as the truth again.
+ */
+public class WritePipeline {
+
+    // Logging TAG
+    private static final String TAG = "WritePipeline";
+
+    // Time allowed for a PUT to complete before the next write is sent regardless
+    private static final long PUT_TIMEOUT_MILLIS = 5000;
+
+    // Notifications disagreeing with a write are ignored this long after its confirmation
+    private static final long SETTLE_MILLIS = 1000;
+
+    // Runs the PUT timeouts of every pipeline
+    private static final ScheduledExecutorService TIMER =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private final OcResource mResource;
+    private final String mResourceId;
+    private final TraceRecorder mTraceRecorder;
+    private Listener mListener;
+
+    // State last reported by the resource or confirmed by a PUT
+    private final HashMap<String, Object> mConfirmed = new HashMap<>();
+
+    // Values written but not confirmed yet, with the version of the latest write
+    private final HashMap<String, Object> mDesired = new HashMap<>();
+    private long mDesiredVersion = 0;
+
+    // The PUT in flight, if any
+    private Put mInFlight;
+    private long mSentVersion = 0;
+
+    // Values confirmed last and when, to recognise stale notifications
+    private final HashMap<String, Object> mSettling = new HashMap<>();
+    private long mSettleUntilMillis = 0;
+
+    private boolean mIsClosed = false;
+
+    /**
+     * Constructor for WritePipeline.
+     * @param resource      the resource to write to
+     * @param traceRecorder the recorder to capture put callbacks with, or null
+     */
+    public WritePipeline(OcResource resource, TraceRecorder traceRecorder) {
+        mResource = resource;
+        mResourceId = OicApplication.createUniqueId(resource);
+        mTraceRecorder = traceRecorder;
+    }
+
+    /**
+     * Set the listener told about state changes, called on whichever thread caused the change.
+     * @param listener the listener
+     */
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Write a value. The value is part of the displayed state straight away and is sent once any
+     * PUT in flight has completed, together with any other writes made in the meantime.
+     * @param key   the representation key
+     * @param value the value, an Integer, Double, Boolean or String
+     * @return the version of the write
+     */
+    public long write(String key, Object value) {
+        long version;
+        synchronized (this) {
+            if (mIsClosed) {
+                return -1;
+            }
+            mDesired.put(key, value);
+            version = ++mDesiredVersion;
+        }
+        notifyStateChanged();
+        sendIfIdle();
+        return version;
+    }
+
+    /**
+     * Feed an observe notification of the resource. Values disagreeing with an unconfirmed or
+     * just confirmed write are ignored as stale.
+     * @param values the representation values
+     */
+    public void onObserved(Map<String, Object> values) {
+        boolean changed = false;
+        synchronized (this) {
+            boolean settling = SystemClock.elapsedRealtime() < mSettleUntilMillis;
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
+                if (mDesired.containsKey(key)) {
+                    continue;
+                }
+                if (settling && mSettling.containsKey(key) && !mSettling.get(key).equals(value)) {
+                    continue;
+                }
+                Object old = mConfirmed.put(key, value);
+                changed |= old == null || !old.equals(value);
+            }
+        }
+        if (changed) {
+            notifyStateChanged();
+        }
+    }
+
+    /**
+     * Get the displayed value of a key: the latest write if one is unconfirmed, otherwise the
+     * confirmed value.
+     * @param key the representation key
+     * @return the value, or null if nothing is known for the key
+     */
+    public synchronized Object getValue(String key) {
+        return mDesired.containsKey(key) ? mDesired.get(key) : mConfirmed.get(key);
+    }
+
+    /**
+     * Whether or not every write has been confirmed.
+     * @return true if the displayed state is the confirmed state
+     */
+    public synchronized boolean isConfirmed() {
+        return mDesired.isEmpty();
+    }
+
+    /**
+     * Stop the pipeline. Unsent writes are dropped and responses to a PUT in flight are ignored.
+     */
+    public void close() {
+        synchronized (this) {
+            mIsClosed = true;
+            mDesired.clear();
+            if (mInFlight != null) {
+                mInFlight.cancelTimeout();
+                mInFlight = null;
+            }
+            mListener = null;
+        }
+    }
+
+    /**
+     * Send the desired values if no PUT is in flight and there is something new to send.
+     */
+    private void sendIfIdle() {
+        Put put;
+        synchronized (this) {
+            if (mIsClosed || mInFlight != null || mDesiredVersion == mSentVersion
+                    || mDesired.isEmpty()) {
+                return;
+            }
+            put = new Put(mDesiredVersion, new HashMap<>(mDesired));
+            mInFlight = put;
+            mSentVersion = mDesiredVersion;
+        }
+        try {
+            OcRepresentation rep = new OcRepresentation();
+            for (Map.Entry<String, Object> entry : put.mValues.entrySet()) {
+                setValue(rep, entry.getKey(), entry.getValue());
+            }
+            OcResource.OnPutListener listener = put;
+            if (mTraceRecorder != null) {
+                listener = mTraceRecorder.wrapPut(mResourceId, put);
+            }
+            put.scheduleTimeout();
+            mResource.put(rep, new HashMap<String, String>(), listener);
+        } catch (OcException e) {
+            Log.e(TAG, "Failed to send put to " + mResourceId, e);
+            onPutDone(put, false, e);
+        }
+    }
+
+    /**
+     * Handle the outcome of a PUT and send the next one if writes were made meanwhile.
+     */
+    private void onPutDone(Put put, boolean success, Throwable error) {
+        Listener listener;
+        boolean failed = false;
+        synchronized (this) {
+            if (mInFlight != put) {
+                // Timed out already, or the pipeline was closed
+                return;
+            }
+            put.cancelTimeout();
+            mInFlight = null;
+            listener = mListener;
+            boolean superseded = mDesiredVersion > put.mVersion;
+            if (success) {
+                mConfirmed.putAll(put.mValues);
+                mSettling.clear();
+                mSettling.putAll(put.mValues);
+                mSettleUntilMillis = SystemClock.elapsedRealtime() + SETTLE_MILLIS;
+                if (!superseded) {
+                    mDesired.clear();
+                }
+            } else if (!superseded) {
+                // Nothing newer to send, fall back to the confirmed state
+                mDesired.clear();
+                failed = true;
+            }
+        }
+        if (failed && listener != null) {
+            listener.onWriteFailed(put.mVersion, error);
+        }
+        notifyStateChanged();
+        sendIfIdle();
+    }
+
+    private void notifyStateChanged() {
+        Listener listener;
+        synchronized (this) {
+            listener = mListener;
+        }
+        if (listener != null) {
+            listener.onStateChanged(this);
+        }
+    }
+
+    private static void setValue(OcRepresentation rep, String key, Object value)
+            throws OcException {
+        if (value instanceof Integer) {
+            rep.setValue(key, (int) (Integer) value);
+        } else if (value instanceof Double) {
+            rep.setValue(key, (double) (Double) value);
+        } else if (value instanceof Boolean) {
+            rep.setValue(key, (boolean) (Boolean) value);
+        } else {
+            rep.setValue(key, String.valueOf(value));
+        }
+    }
+
+    /**
+     * One PUT, which is also the put listener for its request.
+     */
+    private class Put implements OcResource.OnPutListener, Runnable {
+
+        private final long mVersion;
+        private final HashMap<String, Object> mValues;
+        private ScheduledFuture<?> mTimeout;
+
+        private Put(long version, HashMap<String, Object> values) {
+            mVersion = version;
+            mValues = values;
+        }
+
+        private void scheduleTimeout() {
+            mTimeout = TIMER.schedule(this, PUT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        private void cancelTimeout() {
+            if (mTimeout != null) {
+                mTimeout.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            Log.w(TAG, "Put " + mVersion + " to " + mResourceId + " timed out");
+            onPutDone(this, false, new Exception("Put timed out"));
+        }
+
+        @Override
+        public void onPutCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
+            onPutDone(this, true, null);
+        }
+
+        @Override
+        public void onPutFailed(Throwable throwable) {
+            onPutDone(this, false, throwable);
+        }
+    }
+
+    /**
+     * The listener for WritePipeline.
+     */
+    public interface Listener {
+        /**
+         * Called when the displayed or confirmed state changes.
+         * @param pipeline the pipeline, to read the state from
+         */
+        void onStateChanged(WritePipeline pipeline);
+
+        /**
+         * Called when the latest write failed and the state fell back to the confirmed state.
+         * @param version   the version of the failed write
+         * @param error     the failure
+         */
+        void onWriteFailed(long version, Throwable error);
+    }
+}
@@ -0,0 +1,263 @@
+package io.runtime.sensoroic.analysis;
+
+import java.util.Arrays;
+
+import io.runtime.sensoroic.MynewtSensor;
+
+/**
+ * Incremental anomaly detection for every channel of one sensor stream. Each sample costs O(1)
+ * per channel and only touches preallocated primitive state, so the detector can run on every
+ * observed stream all the time.
+ *
+ * Four checks are made per channel:
+ * - SPIKE: the value is more than Z_THRESHOLD standard deviations from the exponentially
+ *   weighted mean, once WARMUP_SAMPLES have been seen.
+ * - STUCK: the value has not changed at all for STUCK_MICROS and at least STUCK_SAMPLES samples.
+ *   Real sensors always show some noise, so a perfectly flat line means a hung sensor or driver.
+ * - RATE: the value changed faster than the channel's physical rate limit, per second.
+ * - SATURATED: the value is at or beyond the channel's full scale, or the sensor reports
+ *   saturation itself, as the color sensor does with is_sat.
+ * Limits which make no sense for a sensor type are not set, e.g. ambient light may well stay
+ * flat in the dark, so it is not checked for being stuck.
+ *
+ * Not thread safe; feed it from one thread, e.g. the decode worker.
+ */
+public class AnomalyDetector {
+
+    // Flags reported per channel
+    public static final int FLAG_SPIKE = 1;
+    public static final int FLAG_STUCK = 1 << 1;
+    public static final int FLAG_RATE = 1 << 2;
+    public static final int FLAG_SATURATED = 1 << 3;
+
+    // Suffix of the history resource id anomalies are recorded under
+    private static final String HISTORY_SUFFIX = "#anomalies";
+
+    private static final double Z_THRESHOLD = 4;
+    private static final double ALPHA = 0.05;
+    private static final int WARMUP_SAMPLES = 30;
+    private static final long STUCK_MICROS = 60 * 1000000L;
+    private static final int STUCK_SAMPLES = 20;
+
+    private final String[] mKeys;
+    private final int mChannels;
+
+    // Limits per channel, NaN where not checked
+    private final double[] mRateLimit;
+    private final double[] mFullScaleMin;
+    private final double[] mFullScaleMax;
+    private final boolean[] mStuckCheck;
+
+    // Channel whose non-zero value means the whole sample is saturated, or -1
+    private int mSaturationFlagChannel = -1;
+
+    // State per channel
+    private final double[] mMean;
+    private final double[] mVariance;
+    private final int[] mCount;
+    private final double[] mLast;
+    private final long[] mLastTime;
+    private final long[] mUnchangedSince;
+    private final int[] mUnchangedCount;
+
+    /**
+     * Constructor for AnomalyDetector, with limits suited to the sensor type.
+     * @param sensorType    the Mynewt sensor resource type
+     * @param keys          the channel names
+     */
+    public AnomalyDetector(String sensorType, String[] keys) {
+        mKeys = keys;
+        mChannels = keys.length;
+        mRateLimit = new double[mChannels];
+        mFullScaleMin = new double[mChannels];
+        mFullScaleMax = new double[mChannels];
+        mStuckCheck = new boolean[mChannels];
+        mMean = new double[mChannels];
+        mVariance = new double[mChannels];
+        mCount = new int[mChannels];
+        mLast = new double[mChannels];
+        mLastTime = new long[mChannels];
+        mUnchangedSince = new long[mChannels];
+        mUnchangedCount = new int[mChannels];
+        Arrays.fill(mRateLimit, Double.NaN);
+        Arrays.fill(mFullScaleMin, Double.NaN);
+        Arrays.fill(mFullScaleMax, Double.NaN);
+        applyDefaults(sensorType == null ? "" : sensorType);
+        reset();
+    }
+
+    private void applyDefaults(String sensorType) {
+        boolean noisy = true;
+        switch (sensorType) {
+            case MynewtSensor.RT_TEMPERATURE_SENSOR:
+            case MynewtSensor.RT_AMBIENT_TEMPERATURE_SENSOR:
+                // Degrees Celsius per second
+                setRateLimit("temp", 5);
+                break;
+            case MynewtSensor.RT_RELATIVE_HUMIDITY_SENSOR:
+                // Percent per second
+                setRateLimit("humid", 20);
+                setFullScale("humid", 0, 100);
+                break;
+            case MynewtSensor.RT_LIGHT_SENSOR:
+                // The raw channels are 16 bit counts
+                setFullScale("full", Double.NaN, 65535);
+                setFullScale("ir", Double.NaN, 65535);
+                noisy = false;
+                break;
+            case MynewtSensor.RT_COLOR_SENSOR:
+                mSaturationFlagChannel = indexOf("is_sat");
+                noisy = false;
+                break;
+            case "":
+                // Unknown channels, only the statistical checks apply
+                noisy = false;
+                break;
+            default:
+                break;
+        }
+        Arrays.fill(mStuckCheck, noisy);
+    }
+
+    /**
+     * Set the maximum rate of change of a channel.
+     * @param key           the channel name
+     * @param perSecond     the limit in channel units per second, NaN to not check the rate
+     */
+    public void setRateLimit(String key, double perSecond) {
+        int c = indexOf(key);
+        if (c >= 0) {
+            mRateLimit[c] = perSecond;
+        }
+    }
+
+    /**
+     * Set the full scale of a channel. Values at or beyond either end are flagged as saturated.
+     * @param key   the channel name
+     * @param min   the lowest value the sensor can report, NaN if not checked
+     * @param max   the highest value the sensor can report, NaN if not checked
+     */
+    public void setFullScale(String key, double min, double max) {
+        int c = indexOf(key);
+        if (c >= 0) {
+            mFullScaleMin[c] = min;
+            mFullScaleMax[c] = max;
+        }
+    }
+
+    /**
+     * Forget the learned statistics, e.g. when the stream was interrupted.
+     */
+    public void reset() {
+        Arrays.fill(mCount, 0);
+        Arrays.fill(mUnchangedCount, 0);
+    }
+
+    /**
+     * Check a sample and fold it into the statistics.
+     * @param timeMicros    the sample time in microseconds
+     * @param values        one value per channel, NaN for missing values
+     * @param flags         receives the anomaly flags of each channel, 0 for none
+     * @return the flags of every channel or-ed together, 0 if the sample looks normal
+     */
+    public int update(long timeMicros, double[] values, int[] flags) {
+        int all = 0;
+        boolean saturated = mSaturationFlagChannel >= 0
+                && values[mSaturationFlagChannel] != 0
+                && !Double.isNaN(values[mSaturationFlagChannel]);
+        for (int c = 0; c < mChannels; c++) {
+            double x = values[c];
+            int f = 0;
+            if (Double.isNaN(x)) {
+                flags[c] = 0;
+                continue;
+            }
+            if (saturated || x >= mFullScaleMax[c] || x <= mFullScaleMin[c]) {
+                f |= FLAG_SATURATED;
+            }
+            if (mCount[c] == 0) {
+                mMean[c] = x;
+                mVariance[c] = 0;
+                mUnchangedSince[c] = timeMicros;
+                mUnchangedCount[c] = 0;
+            } else {
+                double delta = x - mMean[c];
+                if (mCount[c] >= WARMUP_SAMPLES && mVariance[c] > 0
+                        && delta * delta > Z_THRESHOLD * Z_THRESHOLD * mVariance[c]) {
+                    f |= FLAG_SPIKE;
+                }
+                // Exponentially weighted mean and variance
+                double increment = ALPHA * delta;
+                mMean[c] += increment;
+                mVariance[c] = (1 - ALPHA) * (mVariance[c] + delta * increment);
+
+                long dt = timeMicros - mLastTime[c];
+                double change = x - mLast[c];
+                if (dt > 0 && Math.abs(change) * 1e6 > mRateLimit[c] * dt) {
+                    f |= FLAG_RATE;
+                }
+                if (change == 0) {
+                    mUnchangedCount[c]++;
+                    if (mStuckCheck[c] && mUnchangedCount[c] >= STUCK_SAMPLES
+                            && timeMicros - mUnchangedSince[c] >= STUCK_MICROS) {
+                        f |= FLAG_STUCK;
+                    }
+                } else {
+                    mUnchangedSince[c] = timeMicros;
+                    mUnchangedCount[c] = 0;
+                }
+            }
+            mCount[c]++;
+            mLast[c] = x;
+            mLastTime[c] = timeMicros;
+            flags[c] = f;
+            all |= f;
+        }
+        return all;
+    }
+
+    public String[] getKeys() {
+        return mKeys;
+    }
+
+    private int indexOf(String key) {
+        for (int c = 0; c < mChannels; c++) {
+            if (mKeys[c].equals(key)) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the id anomalies of a resource are recorded under in the history store. Each row holds
+     * the flags of every channel, NaN where the channel was normal.
+     * @param resourceId the resource unique id
+     * @return the history resource id
+     */
+    public static String getHistoryId(String resourceId) {
+        return resourceId + HISTORY_SUFFIX;
+    }
+
+    /**
+     * Describe a set of flags, e.g. for a log message.
+     * @param flags the flags
+     * @return the names of the flags set
+     */
+    public static String describe(int flags) {
+        StringBuilder sb = new StringBuilder();
+        if ((flags & FLAG_SPIKE) != 0) {
+            sb.append("spike ");
+        }
+        if ((flags & FLAG_STUCK) != 0) {
+            sb.append("stuck ");
+        }
+        if ((flags & FLAG_RATE) != 0) {
+            sb.append("rate ");
+        }
+        if ((flags & FLAG_SATURATED) != 0) {
+            sb.append("saturated ");
+        }
+        return sb.toString().trim();
+    }
+}
@@ -0,0 +1,82 @@
+package io.runtime.sensoroic.analysis;
+
+/**
+ * An in-place radix-2 complex FFT of a fixed size. The twiddle factors and the bit reversal
+ * permutation are computed once in the constructor, so a transform only does arithmetic on the
+ * caller's arrays and never allocates.
+ */
+public class Fft {
+
+    private final int mSize;
+
+    // cos and -sin of 2 * pi * k / size for k < size / 2
+    private final double[] mCos;
+    private final double[] mSin;
+
+    // Index each element is swapped with before the butterflies
+    private final int[] mReversed;
+
+    /**
+     * Constructor for Fft.
+     * @param size the transform size, a power of two of at least 2
+     */
+    public Fft(int size) {
+        if (size < 2 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+        }
+        mSize = size;
+        mCos = new double[size / 2];
+        mSin = new double[size / 2];
+        for (int k = 0; k < size / 2; k++) {
+            double angle = 2 * Math.PI * k / size;
+            mCos[k] = Math.cos(angle);
+            mSin[k] = -Math.sin(angle);
+        }
+        int bits = Integer.numberOfTrailingZeros(size);
+        mReversed = new int[size];
+        for (int i = 0; i < size; i++) {
+            mReversed[i] = Integer.reverse(i) >>> (Integer.SIZE - bits);
+        }
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Transform a signal into its spectrum, in place.
+     * @param re the real parts, replaced by the real parts of the spectrum
+     * @param im the imaginary parts, replaced by the imaginary parts of the spectrum
+     */
+    public void transform(double[] re, double[] im) {
+        int n = mSize;
+        for (int i = 0; i < n; i++) {
+            int j = mReversed[i];
+            if (j > i) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        for (int half = 1; half < n; half <<= 1) {
+            int step = n / (half << 1);
+            for (int start = 0; start < n; start += half << 1) {
+                for (int k = 0, t = 0; k < half; k++, t += step) {
+                    int a = start + k;
+                    int b = a + half;
+                    double wr = mCos[t];
+                    double wi = mSin[t];
+                    double xr = re[b] * wr - im[b] * wi;
+                    double xi = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - xr;
+                    im[b] = im[a] - xi;
+                    re[a] += xr;
+                    im[a] += xi;
+                }
+            }
+        }
+    }
+}
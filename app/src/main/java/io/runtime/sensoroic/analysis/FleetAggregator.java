@@ -0,0 +1,344 @@
+package io.runtime.sensoroic.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.runtime.sensoroic.MynewtSensor;
+
+/**
+ * Running aggregates per channel across every sensor of the same type, e.g. the mean temperature
+ * of all the ambient temperature sensors in a building.
+ *
+ * Each group keeps the latest value of every member and channel. A notification replaces a
+ * member's values and updates the aggregates by the difference instead of recomputing them:
+ * the sum and sum of squares in O(1), and the minimum and maximum through a tree over the members
+ * in O(log n). The cost of an update barely changes between the 2nd and the 200th sensor and
+ * nothing is allocated per notification.
+ *
+ * The sums are taken relative to the first value seen in each channel, which keeps the spread of
+ * large values such as pressure accurate, and are recomputed exactly every RESUM_INTERVAL updates
+ * so that rounding errors cannot build up.
+ */
+public class FleetAggregator {
+
+    // Layout of the statistics of one channel
+    public static final int STAT_COUNT = 0;
+    public static final int STAT_MIN = 1;
+    public static final int STAT_MAX = 2;
+    public static final int STAT_MEAN = 3;
+    public static final int STAT_SPREAD = 4;
+    public static final int STATS = 5;
+
+    // Updates between exact recomputations of the sums
+    private static final int RESUM_INTERVAL = 4096;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final LinkedHashMap<String, Group> mGroups = new LinkedHashMap<>();
+
+    /**
+     * Add a sensor to the group of its type, creating the group if needed.
+     * @param resourceId    the resource unique id
+     * @param sensorType    the Mynewt sensor resource type
+     * @return the member to report the sensor's notifications to, or null for unknown types
+     */
+    public synchronized Member addMember(String resourceId, String sensorType) {
+        Group group = mGroups.get(sensorType);
+        if (group == null) {
+            String[] keys = sensorType == null ? null : MynewtSensor.getSensorDataKeys(sensorType);
+            if (keys == null) {
+                return null;
+            }
+            group = new Group(sensorType, keys);
+            mGroups.put(sensorType, group);
+        }
+        return group.add(resourceId);
+    }
+
+    /**
+     * Get the groups, in the order their first member was added.
+     * @return a copy of the groups
+     */
+    public synchronized List<Group> getGroups() {
+        return new ArrayList<>(mGroups.values());
+    }
+
+    /**
+     * The sensors of one type and their aggregates.
+     */
+    public static class Group {
+
+        private final String mSensorType;
+        private final String[] mKeys;
+        private final int mChannels;
+
+        // Slots of removed members, reused by new members
+        private int[] mFreeSlots = new int[0];
+        private int mFreeCount = 0;
+        private int mSlotCount = 0;
+        private int mMemberCount = 0;
+
+        // Leaves per tree, a power of two
+        private int mCapacity = 0;
+
+        // Per channel: the latest value of each slot, NaN if none, and trees of the minimum and
+        // maximum with the slots as leaves at mCapacity + slot and each parent at index / 2
+        private double[][] mValues;
+        private double[][] mMin;
+        private double[][] mMax;
+
+        // Per channel: the number of values and the sums of their offsets from mShift
+        private final int[] mCount;
+        private final double[] mShift;
+        private final double[] mSum;
+        private final double[] mSumSquares;
+        private final int[] mUpdates;
+
+        private Group(String sensorType, String[] keys) {
+            mSensorType = sensorType;
+            mKeys = keys;
+            mChannels = keys.length;
+            mCount = new int[mChannels];
+            mShift = new double[mChannels];
+            mSum = new double[mChannels];
+            mSumSquares = new double[mChannels];
+            mUpdates = new int[mChannels];
+            Arrays.fill(mShift, Double.NaN);
+            grow(INITIAL_CAPACITY);
+        }
+
+        private synchronized Member add(String resourceId) {
+            int slot;
+            if (mFreeCount > 0) {
+                slot = mFreeSlots[--mFreeCount];
+            } else {
+                if (mSlotCount == mCapacity) {
+                    grow(mCapacity * 2);
+                }
+                slot = mSlotCount++;
+            }
+            mMemberCount++;
+            return new Member(this, slot, resourceId);
+        }
+
+        private synchronized void remove(int slot) {
+            for (int c = 0; c < mChannels; c++) {
+                set(c, slot, Double.NaN);
+            }
+            if (mFreeCount == mFreeSlots.length) {
+                mFreeSlots = Arrays.copyOf(mFreeSlots, Math.max(4, mFreeCount * 2));
+            }
+            mFreeSlots[mFreeCount++] = slot;
+            mMemberCount--;
+        }
+
+        /**
+         * Grow every tree to a new number of leaves. Amortised over the members added, so adding
+         * a member stays O(1) on average.
+         */
+        private void grow(int capacity) {
+            double[][] values = new double[mChannels][capacity];
+            mMin = new double[mChannels][2 * capacity];
+            mMax = new double[mChannels][2 * capacity];
+            for (int c = 0; c < mChannels; c++) {
+                Arrays.fill(values[c], Double.NaN);
+                if (mValues != null) {
+                    System.arraycopy(mValues[c], 0, values[c], 0, mCapacity);
+                }
+                double[] min = mMin[c];
+                double[] max = mMax[c];
+                for (int slot = 0; slot < capacity; slot++) {
+                    double v = values[c][slot];
+                    min[capacity + slot] = Double.isNaN(v) ? Double.POSITIVE_INFINITY : v;
+                    max[capacity + slot] = Double.isNaN(v) ? Double.NEGATIVE_INFINITY : v;
+                }
+                for (int i = capacity - 1; i > 0; i--) {
+                    min[i] = Math.min(min[2 * i], min[2 * i + 1]);
+                    max[i] = Math.max(max[2 * i], max[2 * i + 1]);
+                }
+            }
+            mValues = values;
+            mCapacity = capacity;
+        }
+
+        private synchronized void update(int slot, double[] values) {
+            for (int c = 0; c < mChannels; c++) {
+                set(c, slot, values[c]);
+            }
+        }
+
+        /**
+         * Replace one value and update the aggregates of its channel by the difference.
+         */
+        private void set(int c, int slot, double value) {
+            double old = mValues[c][slot];
+            if (Double.isNaN(old) && Double.isNaN(value)) {
+                return;
+            }
+            mValues[c][slot] = value;
+
+            if (Double.isNaN(mShift[c])) {
+                mShift[c] = value;
+            }
+            if (!Double.isNaN(old)) {
+                double d = old - mShift[c];
+                mSum[c] -= d;
+                mSumSquares[c] -= d * d;
+                mCount[c]--;
+            }
+            if (!Double.isNaN(value)) {
+                double d = value - mShift[c];
+                mSum[c] += d;
+                mSumSquares[c] += d * d;
+                mCount[c]++;
+            }
+            if (++mUpdates[c] >= RESUM_INTERVAL) {
+                resum(c);
+            }
+
+            // Walk up the trees from the leaf, stopping once a node is unchanged
+            double[] min = mMin[c];
+            double[] max = mMax[c];
+            int i = mCapacity + slot;
+            min[i] = Double.isNaN(value) ? Double.POSITIVE_INFINITY : value;
+            max[i] = Double.isNaN(value) ? Double.NEGATIVE_INFINITY : value;
+            for (i >>= 1; i > 0; i >>= 1) {
+                double newMin = Math.min(min[2 * i], min[2 * i + 1]);
+                double newMax = Math.max(max[2 * i], max[2 * i + 1]);
+                if (newMin == min[i] && newMax == max[i]) {
+                    break;
+                }
+                min[i] = newMin;
+                max[i] = newMax;
+            }
+        }
+
+        private void resum(int c) {
+            mUpdates[c] = 0;
+            mSum[c] = 0;
+            mSumSquares[c] = 0;
+            mCount[c] = 0;
+            double[] values = mValues[c];
+            for (int slot = 0; slot < mSlotCount; slot++) {
+                if (!Double.isNaN(values[slot])) {
+                    double d = values[slot] - mShift[c];
+                    mSum[c] += d;
+                    mSumSquares[c] += d * d;
+                    mCount[c]++;
+                }
+            }
+        }
+
+        /**
+         * Copy the statistics of every channel. The statistics of channel c start at c * STATS.
+         * The minimum, maximum, mean and spread (standard deviation) are NaN for a channel without
+         * values.
+         * @param out receives the statistics, at least getChannelCount() * STATS long
+         */
+        public synchronized void copyStats(double[] out) {
+            for (int c = 0; c < mChannels; c++) {
+                int base = c * STATS;
+                int n = mCount[c];
+                out[base + STAT_COUNT] = n;
+                if (n == 0) {
+                    out[base + STAT_MIN] = Double.NaN;
+                    out[base + STAT_MAX] = Double.NaN;
+                    out[base + STAT_MEAN] = Double.NaN;
+                    out[base + STAT_SPREAD] = Double.NaN;
+                    continue;
+                }
+                double mean = mSum[c] / n;
+                double variance = Math.max(0, mSumSquares[c] / n - mean * mean);
+                out[base + STAT_MIN] = mMin[c][1];
+                out[base + STAT_MAX] = mMax[c][1];
+                out[base + STAT_MEAN] = mShift[c] + mean;
+                out[base + STAT_SPREAD] = Math.sqrt(variance);
+            }
+        }
+
+        public String getSensorType() {
+            return mSensorType;
+        }
+
+        public String[] getKeys() {
+            return mKeys;
+        }
+
+        public int getChannelCount() {
+            return mChannels;
+        }
+
+        /**
+         * Get the number of sensors in the group, whether or not they have reported yet.
+         * @return the member count
+         */
+        public synchronized int getMemberCount() {
+            return mMemberCount;
+        }
+    }
+
+    /**
+     * One sensor's membership of its group.
+     */
+    public static class Member {
+
+        private final Group mGroup;
+        private final int mSlot;
+        private final String mResourceId;
+
+        // Values of the latest notification, only touched on the sensor's observe callback thread
+        private final double[] mScratch;
+        private boolean mIsRemoved = false;
+
+        private Member(Group group, int slot, String resourceId) {
+            mGroup = group;
+            mSlot = slot;
+            mResourceId = resourceId;
+            mScratch = new double[group.mChannels];
+            Arrays.fill(mScratch, Double.NaN);
+        }
+
+        /**
+         * Report a notification of the sensor. Channels missing from the values keep their
+         * previous value.
+         * @param values the representation values
+         */
+        public void update(Map<String, Object> values) {
+            String[] keys = mGroup.mKeys;
+            for (int c = 0; c < keys.length; c++) {
+                Object value = values.get(keys[c]);
+                if (value != null) {
+                    mScratch[c] = MynewtSensor.toDouble(value);
+                }
+            }
+            synchronized (mGroup) {
+                if (!mIsRemoved) {
+                    mGroup.update(mSlot, mScratch);
+                }
+            }
+        }
+
+        /**
+         * Take the sensor out of its group's aggregates.
+         */
+        public void remove() {
+            synchronized (mGroup) {
+                if (!mIsRemoved) {
+                    mIsRemoved = true;
+                    mGroup.remove(mSlot);
+                }
+            }
+        }
+
+        public Group getGroup() {
+            return mGroup;
+        }
+
+        public String getResourceId() {
+            return mResourceId;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package io.runtime.sensoroic.analysis;
+
+import java.util.Arrays;
+
+import io.runtime.sensoroic.MynewtSensor;
+
+/**
+ * A streaming short-time Fourier transform over every channel of a sensor stream, for seeing the
+ * frequency content of vibration on the motion sensors.
+ *
+ * Each channel keeps a sliding window of its latest samples. Once the window is full, a spectrum
+ * is computed every hop samples: the window's mean is removed, a Hann window is applied and the
+ * FFT magnitudes are scaled to the amplitude of a sine at each bin. The dominant frequency of
+ * each channel is the strongest bin above DC, refined by fitting a parabola through it and its
+ * neighbours.
+ *
+ * The sample rate is estimated from the sample times, so bin frequencies follow whatever rate the
+ * sensor is configured for. All buffers are allocated in the constructor; adding samples and
+ * computing spectra never allocates, so the analyzer keeps up with a 200 Hz stream without
+ * causing garbage collection. Not thread safe; feed it from one thread, e.g. the decode worker.
+ */
+public class SpectrumAnalyzer {
+
+    // Weight of a new sample interval in the sample rate estimate
+    private static final double RATE_ALPHA = 0.02;
+
+    private final int mChannels;
+    private final int mWindowSize;
+    private final int mHop;
+    private final int mBins;
+    private final Fft mFft;
+
+    // Window function and the amplitude scale it implies
+    private final double[] mWindow;
+    private final double mScale;
+
+    // Latest window of samples per channel, channel-major, written circularly at mPosition
+    private final double[] mHistory;
+    private final double[] mLast;
+    private int mPosition = 0;
+    private int mFilled = 0;
+    private int mSinceSpectrum = 0;
+
+    // FFT work buffers
+    private final double[] mRe;
+    private final double[] mIm;
+
+    // Results, magnitudes channel-major
+    private final double[] mMagnitudes;
+    private final double[] mDominantFrequency;
+    private final double[] mDominantMagnitude;
+    private long mSpectrumCount = 0;
+    private long mSpectrumTimeMicros = 0;
+
+    // Sample rate estimate
+    private long mLastTimeMicros = -1;
+    private double mIntervalMicros = 0;
+
+    /**
+     * Constructor for SpectrumAnalyzer.
+     * @param channels      the number of channels per sample
+     * @param windowSize    the number of samples per spectrum, rounded up to a power of two
+     * @param hop           the number of samples between spectra, at most the window size
+     */
+    public SpectrumAnalyzer(int channels, int windowSize, int hop) {
+        int size = Integer.highestOneBit(Math.max(2, windowSize) - 1) << 1;
+        mChannels = channels;
+        mWindowSize = size;
+        mHop = Math.max(1, Math.min(hop, size));
+        mBins = size / 2 + 1;
+        mFft = new Fft(size);
+
+        mWindow = new double[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            mWindow[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / size);
+            sum += mWindow[i];
+        }
+        // A sine of amplitude a gives a peak of a * sum / 2
+        mScale = 2 / sum;
+
+        mHistory = new double[channels * size];
+        mLast = new double[channels];
+        mRe = new double[size];
+        mIm = new double[size];
+        mMagnitudes = new double[channels * mBins];
+        mDominantFrequency = new double[channels];
+        mDominantMagnitude = new double[channels];
+        reset();
+    }
+
+    /**
+     * Whether or not the spectrum of a sensor type is of interest.
+     * @param sensorType the Mynewt sensor resource type
+     * @return true for the accelerometers and the gyroscope
+     */
+    public static boolean isSupported(String sensorType) {
+        return MynewtSensor.RT_ACCELEROMETER.equals(sensorType)
+                || MynewtSensor.RT_LINEAR_ACCELEROMETER.equals(sensorType)
+                || MynewtSensor.RT_GYROSCOPE.equals(sensorType);
+    }
+
+    /**
+     * Start filling the window again, e.g. after notifications were lost. The sample rate
+     * estimate is kept.
+     */
+    public void reset() {
+        mFilled = 0;
+        mSinceSpectrum = 0;
+        mLastTimeMicros = -1;
+        Arrays.fill(mLast, 0);
+    }
+
+    /**
+     * Add a sample to the window of every channel.
+     * @param timeMicros    the sample time in microseconds
+     * @param values        one value per channel, NaN repeats the channel's previous value
+     * @return true if a new spectrum was computed
+     */
+    public boolean add(long timeMicros, double[] values) {
+        if (mLastTimeMicros >= 0 && timeMicros > mLastTimeMicros) {
+            long interval = timeMicros - mLastTimeMicros;
+            mIntervalMicros = mIntervalMicros == 0 ? interval
+                    : mIntervalMicros + RATE_ALPHA * (interval - mIntervalMicros);
+        }
+        mLastTimeMicros = timeMicros;
+
+        for (int c = 0; c < mChannels; c++) {
+            double v = values[c];
+            if (Double.isNaN(v)) {
+                v = mLast[c];
+            }
+            mLast[c] = v;
+            mHistory[c * mWindowSize + mPosition] = v;
+        }
+        mPosition = (mPosition + 1) & (mWindowSize - 1);
+        if (mFilled < mWindowSize) {
+            mFilled++;
+        }
+        mSinceSpectrum++;
+        if (mFilled < mWindowSize || mSinceSpectrum < mHop || mIntervalMicros == 0) {
+            return false;
+        }
+        mSinceSpectrum = 0;
+        for (int c = 0; c < mChannels; c++) {
+            computeSpectrum(c);
+        }
+        mSpectrumCount++;
+        mSpectrumTimeMicros = timeMicros;
+        return true;
+    }
+
+    private void computeSpectrum(int channel) {
+        int n = mWindowSize;
+        int base = channel * n;
+        double mean = 0;
+        for (int i = 0; i < n; i++) {
+            mean += mHistory[base + i];
+        }
+        mean /= n;
+        // Oldest sample first, starting at the write position
+        for (int i = 0; i < n; i++) {
+            mRe[i] = (mHistory[base + ((mPosition + i) & (n - 1))] - mean) * mWindow[i];
+            mIm[i] = 0;
+        }
+        mFft.transform(mRe, mIm);
+
+        int out = channel * mBins;
+        int peak = 1;
+        for (int k = 0; k < mBins; k++) {
+            double magnitude = Math.sqrt(mRe[k] * mRe[k] + mIm[k] * mIm[k]) * mScale;
+            mMagnitudes[out + k] = magnitude;
+            if (k > 0 && magnitude > mMagnitudes[out + peak]) {
+                peak = k;
+            }
+        }
+
+        // Parabolic interpolation between the neighbouring bins
+        double offset = 0;
+        if (peak > 0 && peak < mBins - 1) {
+            double left = mMagnitudes[out + peak - 1];
+            double middle = mMagnitudes[out + peak];
+            double right = mMagnitudes[out + peak + 1];
+            double denominator = left - 2 * middle + right;
+            if (denominator != 0) {
+                offset = 0.5 * (left - right) / denominator;
+            }
+        }
+        mDominantFrequency[channel] = (peak + offset) * getBinWidth();
+        mDominantMagnitude[channel] = mMagnitudes[out + peak];
+    }
+
+    public int getChannelCount() {
+        return mChannels;
+    }
+
+    public int getWindowSize() {
+        return mWindowSize;
+    }
+
+    public int getHop() {
+        return mHop;
+    }
+
+    /**
+     * Get the number of frequency bins per channel, from DC to the Nyquist frequency.
+     * @return the number of bins
+     */
+    public int getBinCount() {
+        return mBins;
+    }
+
+    /**
+     * Get the estimated sample rate.
+     * @return the rate in Hz, 0 until two samples were added
+     */
+    public double getSampleRate() {
+        return mIntervalMicros == 0 ? 0 : 1e6 / mIntervalMicros;
+    }
+
+    /**
+     * Get the frequency step between bins.
+     * @return the bin width in Hz
+     */
+    public double getBinWidth() {
+        return getSampleRate() / mWindowSize;
+    }
+
+    /**
+     * Get the magnitudes of the latest spectrum, the bins of channel c at c * getBinCount().
+     * The array is reused for every spectrum.
+     * @return the amplitude of each bin in channel units
+     */
+    public double[] getMagnitudes() {
+        return mMagnitudes;
+    }
+
+    /**
+     * Get the dominant frequency of each channel in the latest spectrum. The array is reused.
+     * @return the frequencies in Hz
+     */
+    public double[] getDominantFrequencies() {
+        return mDominantFrequency;
+    }
+
+    /**
+     * Get the amplitude at the dominant frequency of each channel. The array is reused.
+     * @return the amplitudes in channel units
+     */
+    public double[] getDominantMagnitudes() {
+        return mDominantMagnitude;
+    }
+
+    /**
+     * Get the number of spectra computed.
+     * @return the spectrum count
+     */
+    public long getSpectrumCount() {
+        return mSpectrumCount;
+    }
+
+    /**
+     * Get the time of the last sample in the latest spectrum.
+     * @return the time in microseconds
+     */
+    public long getSpectrumTimeMicros() {
+        return mSpectrumTimeMicros;
+    }
+}
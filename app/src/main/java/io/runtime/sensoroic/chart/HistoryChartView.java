@@ -0,0 +1,390 @@
+package io.runtime.sensoroic.chart;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+import io.runtime.sensoroic.history.Rollup;
+
+/**
+ * A chart of recorded history. The data is prepared off the UI thread as a Frame holding the
+ * minimum, maximum and mean of every channel for each pixel column, so drawing costs the same
+ * however long the time range is. Each channel is drawn as a min/max band with its mean on top.
+ *
+ * Gap markers in the history, rows with every value missing, break the lines so samples either
+ * side of lost data are not joined. Columns holding a detected anomaly get a tick along the top.
+ *
+ * Dragging horizontally pans the time range; the frame already drawn is shifted until the
+ * listener supplies a frame for the new range.
+ */
+public class HistoryChartView extends View {
+
+    // Alpha of the min/max band
+    private static final int BAND_ALPHA = 0x50;
+
+    // Data
+    private Frame mFrame;
+    private boolean[] mChannelVisible = new boolean[0];
+    private int[] mColors = new int[] {Color.BLUE};
+
+    // Time range currently shown, which may be ahead of mFrame while panning
+    private long mFromMicros;
+    private long mToMicros;
+    private float mLastTouchX;
+    private OnRangeChangeListener mListener;
+
+    // Axis
+    private float mAxisMin;
+    private float mAxisMax;
+    private String mMinLabel = "";
+    private String mMaxLabel = "";
+    private String mFromLabel = "";
+    private String mToLabel = "";
+
+    // Line segments, reallocated only when the view size changes
+    private float[] mBand = new float[0];
+    private float[] mLines = new float[0];
+
+    private final Paint mLinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mBandPaint = new Paint();
+    private final Paint mAxisPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mAnomalyPaint = new Paint();
+    private float mAnomalyTickHeight;
+
+    public HistoryChartView(Context context) {
+        super(context);
+        init();
+    }
+
+    public HistoryChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        float density = getResources().getDisplayMetrics().density;
+        mLinePaint.setStyle(Paint.Style.STROKE);
+        mLinePaint.setStrokeWidth(density * 1.5f);
+        mBandPaint.setStyle(Paint.Style.STROKE);
+        mBandPaint.setStrokeWidth(1);
+        mAxisPaint.setColor(Color.DKGRAY);
+        mAxisPaint.setTextSize(density * 10);
+        mAnomalyPaint.setColor(Color.RED);
+        mAnomalyPaint.setStrokeWidth(density * 2);
+        mAnomalyTickHeight = density * 8;
+    }
+
+    /**
+     * Set the colors of the channels.
+     * @param colors one color per channel, reused if there are more channels than colors
+     */
+    public void setColors(int[] colors) {
+        mColors = colors;
+        invalidate();
+    }
+
+    /**
+     * Set the listener told when the user pans the chart.
+     * @param listener the listener
+     */
+    public void setOnRangeChangeListener(OnRangeChangeListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Set the time range shown, e.g. while the frame for it is being prepared.
+     * @param fromMicros    the start of the range in epoch microseconds
+     * @param toMicros      the end of the range in epoch microseconds
+     */
+    public void setRange(long fromMicros, long toMicros) {
+        mFromMicros = fromMicros;
+        mToMicros = toMicros;
+        invalidate();
+    }
+
+    /**
+     * Show or hide a channel.
+     * @param channel   the channel index
+     * @param visible   whether or not to draw the channel
+     */
+    public void setChannelVisible(int channel, boolean visible) {
+        if (channel >= mChannelVisible.length) {
+            boolean[] old = mChannelVisible;
+            mChannelVisible = new boolean[channel + 1];
+            Arrays.fill(mChannelVisible, true);
+            System.arraycopy(old, 0, mChannelVisible, 0, old.length);
+        }
+        mChannelVisible[channel] = visible;
+        if (mFrame != null) {
+            updateAxis();
+        }
+        invalidate();
+    }
+
+    /**
+     * Set the data to draw.
+     * @param frame the frame, prepared for the current width of this view
+     */
+    public void setFrame(Frame frame) {
+        mFrame = frame;
+        updateAxis();
+        DateFormat format = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+        mFromLabel = format.format(new Date(frame.mFromMicros / 1000));
+        mToLabel = format.format(new Date(frame.mToMicros / 1000));
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mBand = new float[(w + 1) * 4];
+        mLines = new float[(w + 1) * 4];
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mLastTouchX = event.getX();
+                getParent().requestDisallowInterceptTouchEvent(true);
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                float dx = event.getX() - mLastTouchX;
+                mLastTouchX = event.getX();
+                long shift = (long) (dx * (mToMicros - mFromMicros) / Math.max(1, getWidth()));
+                if (shift != 0) {
+                    mFromMicros -= shift;
+                    mToMicros -= shift;
+                    invalidate();
+                    if (mListener != null) {
+                        mListener.onRangeChanged(mFromMicros, mToMicros);
+                    }
+                }
+                return true;
+            default:
+                return super.onTouchEvent(event);
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        Frame frame = mFrame;
+        if (frame == null || mAxisMax <= mAxisMin) {
+            return;
+        }
+        float left = getPaddingLeft();
+        float top = getPaddingTop();
+        float height = getHeight() - top - getPaddingBottom();
+        float yScale = height / (mAxisMax - mAxisMin);
+
+        canvas.drawText(mMaxLabel, left, top + mAxisPaint.getTextSize(), mAxisPaint);
+        canvas.drawText(mMinLabel, left, top + height, mAxisPaint);
+        canvas.drawText(mFromLabel, left, top + height / 2, mAxisPaint);
+        canvas.drawText(mToLabel, getWidth() - getPaddingRight()
+                - mAxisPaint.measureText(mToLabel), top + height / 2, mAxisPaint);
+
+        // Shift the frame if the range has been panned since it was prepared
+        float pan = 0;
+        long span = frame.mToMicros - frame.mFromMicros;
+        if (span > 0) {
+            pan = (float) (frame.mFromMicros - mFromMicros) * frame.mColumns / span;
+        }
+        canvas.save();
+        canvas.translate(left + pan, 0);
+        int columns = Math.min(frame.mColumns, mLines.length / 4 - 1);
+        for (int c = 0; c < frame.mChannels; c++) {
+            if (!isChannelVisible(c)) {
+                continue;
+            }
+            int band = 0;
+            int lines = 0;
+            float prevY = Float.NaN;
+            float prevX = 0;
+            for (int x = 0; x < columns; x++) {
+                if (frame.mGap[x]) {
+                    prevY = Float.NaN;
+                }
+                int k = x * frame.mChannels + c;
+                float mean = frame.mMean[k];
+                if (Float.isNaN(mean)) {
+                    continue;
+                }
+                float y = top + (mAxisMax - mean) * yScale;
+                if (frame.mMax[k] > frame.mMin[k]) {
+                    mBand[band++] = x;
+                    mBand[band++] = top + (mAxisMax - frame.mMin[k]) * yScale;
+                    mBand[band++] = x;
+                    mBand[band++] = top + (mAxisMax - frame.mMax[k]) * yScale;
+                }
+                if (!Float.isNaN(prevY)) {
+                    mLines[lines++] = prevX;
+                    mLines[lines++] = prevY;
+                    mLines[lines++] = x;
+                    mLines[lines++] = y;
+                }
+                prevX = x;
+                prevY = y;
+            }
+            int color = mColors[c % mColors.length];
+            mBandPaint.setColor((color & 0x00FFFFFF) | (BAND_ALPHA << 24));
+            canvas.drawLines(mBand, 0, band, mBandPaint);
+            mLinePaint.setColor(color);
+            canvas.drawLines(mLines, 0, lines, mLinePaint);
+        }
+        for (int x = 0; x < columns; x++) {
+            if (frame.mAnomaly[x]) {
+                canvas.drawLine(x, top, x, top + mAnomalyTickHeight, mAnomalyPaint);
+            }
+        }
+        canvas.restore();
+    }
+
+    private boolean isChannelVisible(int channel) {
+        return channel >= mChannelVisible.length || mChannelVisible[channel];
+    }
+
+    private void updateAxis() {
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        Frame frame = mFrame;
+        for (int x = 0; x < frame.mColumns; x++) {
+            for (int c = 0; c < frame.mChannels; c++) {
+                int k = x * frame.mChannels + c;
+                if (!isChannelVisible(c) || Float.isNaN(frame.mMean[k])) {
+                    continue;
+                }
+                min = Math.min(min, frame.mMin[k]);
+                max = Math.max(max, frame.mMax[k]);
+            }
+        }
+        if (min > max) {
+            mAxisMin = 0;
+            mAxisMax = 0;
+            return;
+        }
+        float headroom = Math.max(max - min, 1e-3f) * 0.05f;
+        mAxisMin = min - headroom;
+        mAxisMax = max + headroom;
+        mMinLabel = String.format("%.3g", mAxisMin);
+        mMaxLabel = String.format("%.3g", mAxisMax);
+    }
+
+    /**
+     * The minimum, maximum and mean of every channel per pixel column over a time range. Built off
+     * the UI thread by adding rollup rows in time order.
+     */
+    public static class Frame {
+
+        private final long mFromMicros;
+        private final long mToMicros;
+        private final int mColumns;
+        private final int mChannels;
+        private final float[] mMin;
+        private final float[] mMax;
+        private final float[] mMean;
+        private final double[] mSum;
+        private final double[] mCount;
+        private final boolean[] mGap;
+        private final boolean[] mAnomaly;
+        private int mRowCount = 0;
+
+        /**
+         * Constructor for Frame.
+         * @param fromMicros    the start of the range in epoch microseconds
+         * @param toMicros      the end of the range in epoch microseconds
+         * @param columns       the number of pixel columns
+         * @param channels      the number of channels
+         */
+        public Frame(long fromMicros, long toMicros, int columns, int channels) {
+            mFromMicros = fromMicros;
+            mToMicros = Math.max(toMicros, fromMicros + 1);
+            mColumns = columns;
+            mChannels = channels;
+            mMin = new float[columns * channels];
+            mMax = new float[columns * channels];
+            mMean = new float[columns * channels];
+            mSum = new double[columns * channels];
+            mCount = new double[columns * channels];
+            mGap = new boolean[columns];
+            mAnomaly = new boolean[columns];
+            Arrays.fill(mMean, Float.NaN);
+        }
+
+        /**
+         * Add a row in the Rollup column layout.
+         * @param timeMicros    the bucket start time
+         * @param row           the bucket statistics
+         */
+        public void add(long timeMicros, double[] row) {
+            int x = (int) ((timeMicros - mFromMicros) * mColumns / (mToMicros - mFromMicros));
+            if (x < 0 || x >= mColumns) {
+                return;
+            }
+            mRowCount++;
+            boolean gap = true;
+            for (int c = 0; c < mChannels; c++) {
+                double count = row[Rollup.column(c, Rollup.COUNT)];
+                if (count <= 0) {
+                    continue;
+                }
+                gap = false;
+                int k = x * mChannels + c;
+                float min = (float) row[Rollup.column(c, Rollup.MIN)];
+                float max = (float) row[Rollup.column(c, Rollup.MAX)];
+                if (mCount[k] == 0) {
+                    mMin[k] = min;
+                    mMax[k] = max;
+                } else {
+                    mMin[k] = Math.min(mMin[k], min);
+                    mMax[k] = Math.max(mMax[k], max);
+                }
+                mSum[k] += row[Rollup.column(c, Rollup.MEAN)] * count;
+                mCount[k] += count;
+                mMean[k] = (float) (mSum[k] / mCount[k]);
+            }
+            if (gap) {
+                mGap[x] = true;
+            }
+        }
+
+        /**
+         * Mark the column holding a time as containing an anomaly.
+         * @param timeMicros the time of the anomalous sample
+         */
+        public void addAnomaly(long timeMicros) {
+            int x = (int) ((timeMicros - mFromMicros) * mColumns / (mToMicros - mFromMicros));
+            if (x >= 0 && x < mColumns) {
+                mAnomaly[x] = true;
+            }
+        }
+
+        /**
+         * Get the number of rows added.
+         * @return the row count
+         */
+        public int getRowCount() {
+            return mRowCount;
+        }
+    }
+
+    /**
+     * The listener for HistoryChartView.
+     */
+    public interface OnRangeChangeListener {
+        /**
+         * Called on the UI thread when the user pans the chart.
+         * @param fromMicros    the new start of the range
+         * @param toMicros      the new end of the range
+         */
+        void onRangeChanged(long fromMicros, long toMicros);
+    }
+}
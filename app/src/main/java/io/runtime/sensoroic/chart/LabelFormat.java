@@ -0,0 +1,105 @@
+package io.runtime.sensoroic.chart;
+
+/**
+ * Formats axis labels like String.format("%.3g", value), but into a reused char array, so that
+ * charts can relabel their axes on every frame without allocating.
+ */
+final class LabelFormat {
+
+    // Longest label, e.g. "-1.23e-100"
+    static final int MAX_LENGTH = 12;
+
+    // Significant digits
+    private static final int PRECISION = 3;
+
+    private LabelFormat() {
+    }
+
+    /**
+     * Format a value with three significant digits.
+     * @param value the value
+     * @param out   the buffer receiving the label, at least MAX_LENGTH long
+     * @return the length of the label
+     */
+    static int format(float value, char[] out) {
+        int pos = 0;
+        if (Float.isNaN(value)) {
+            return put(out, 0, "NaN");
+        }
+        if ((Float.floatToRawIntBits(value) & 0x80000000) != 0) {
+            out[pos++] = '-';
+        }
+        double abs = Math.abs((double) value);
+        if (Double.isInfinite(abs)) {
+            return put(out, pos, "Infinity");
+        }
+        int exponent = 0;
+        long digits = 0;
+        if (abs > 0) {
+            exponent = (int) Math.floor(Math.log10(abs));
+            digits = Math.round(abs / Math.pow(10, exponent - (PRECISION - 1)));
+            // log10 may be off by one near powers of ten, and rounding may carry into a new digit
+            if (digits >= 1000) {
+                exponent++;
+                digits = Math.round(abs / Math.pow(10, exponent - (PRECISION - 1)));
+            } else if (digits < 100) {
+                exponent--;
+                digits = Math.round(abs / Math.pow(10, exponent - (PRECISION - 1)));
+            }
+            if (digits >= 1000) {
+                exponent++;
+                digits /= 10;
+            }
+        }
+        if (exponent >= -4 && exponent < PRECISION) {
+            // Plain notation, with PRECISION - 1 - exponent decimals
+            int decimals = PRECISION - 1 - exponent;
+            if (exponent < 0) {
+                out[pos++] = '0';
+                out[pos++] = '.';
+                for (int i = -1; i > exponent; i--) {
+                    out[pos++] = '0';
+                }
+                return putDigits(out, pos, digits, PRECISION, -1);
+            }
+            return putDigits(out, pos, digits, PRECISION, decimals > 0 ? exponent + 1 : -1);
+        }
+        // Scientific notation, e.g. 1.23e+05
+        pos = putDigits(out, pos, digits, PRECISION, 1);
+        out[pos++] = 'e';
+        out[pos++] = exponent < 0 ? '-' : '+';
+        int e = Math.abs(exponent);
+        if (e >= 100) {
+            out[pos++] = (char) ('0' + e / 100);
+        }
+        out[pos++] = (char) ('0' + e / 10 % 10);
+        out[pos++] = (char) ('0' + e % 10);
+        return pos;
+    }
+
+    /**
+     * Write the digits of a number, with a decimal point after the first pointAfter digits if
+     * pointAfter is positive.
+     */
+    private static int putDigits(char[] out, int pos, long number, int count, int pointAfter) {
+        long divisor = 1;
+        for (int i = 1; i < count; i++) {
+            divisor *= 10;
+        }
+        for (int i = 0; i < count; i++) {
+            if (i == pointAfter) {
+                out[pos++] = '.';
+            }
+            out[pos++] = (char) ('0' + number / divisor % 10);
+            divisor /= 10;
+        }
+        return pos;
+    }
+
+    private static int put(char[] out, int pos, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            out[pos++] = text.charAt(i);
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,147 @@
+package io.runtime.sensoroic.chart;
+
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+
+/**
+ * A single frame-paced render loop shared by many charts. Instead of every chart invalidating
+ * itself whenever a sample arrives, charts register with the loop and are asked once per display
+ * frame whether they have new data. Only charts with new data are redrawn, and at most once per
+ * frame however fast their data arrives.
+ *
+ * Drawing happens on the UI thread one chart at a time, so the loop also owns the scratch buffers
+ * the charts draw from. They are allocated once and shared by every chart.
+ */
+public class RenderLoop implements Choreographer.FrameCallback {
+
+    /**
+     * A chart driven by the RenderLoop.
+     */
+    public interface Renderable {
+        /**
+         * Whether or not the chart has new data to draw.
+         * @return true if the chart should be redrawn this frame
+         */
+        boolean needsRender();
+
+        /**
+         * Redraw the chart. Called on the UI thread.
+         */
+        void render();
+    }
+
+    // Frames further apart than this are counted as dropped
+    private static final long JANK_THRESHOLD_NANOS = 25 * 1000000L;
+
+    // Registered charts
+    private final ArrayList<Renderable> mRenderables = new ArrayList<>();
+
+    // Shared scratch buffers used while drawing
+    private final float[] mSampleBuffer;
+    private final float[] mLineBuffer;
+
+    // Loop state
+    private boolean mRunning = false;
+    private long mLastFrameNanos = 0;
+    private long mFrameCount = 0;
+    private long mJankCount = 0;
+
+    /**
+     * Constructor for RenderLoop.
+     * @param maxSamples    the largest number of samples any chart draws
+     * @param maxChannels   the largest number of channels any chart draws
+     */
+    public RenderLoop(int maxSamples, int maxChannels) {
+        mSampleBuffer = new float[maxSamples * maxChannels];
+        mLineBuffer = new float[Math.max(0, maxSamples - 1) * 4];
+    }
+
+    /**
+     * Start rendering on every display frame. Must be called on the UI thread.
+     */
+    public void start() {
+        if (!mRunning) {
+            mRunning = true;
+            mLastFrameNanos = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Stop rendering. Must be called on the UI thread.
+     */
+    public void stop() {
+        mRunning = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    /**
+     * Register a chart with the loop. Must be called on the UI thread.
+     * @param renderable the chart
+     */
+    public void add(Renderable renderable) {
+        if (!mRenderables.contains(renderable)) {
+            mRenderables.add(renderable);
+        }
+    }
+
+    /**
+     * Unregister a chart from the loop. Must be called on the UI thread.
+     * @param renderable the chart
+     */
+    public void remove(Renderable renderable) {
+        mRenderables.remove(renderable);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        if (mLastFrameNanos != 0 && frameTimeNanos - mLastFrameNanos > JANK_THRESHOLD_NANOS) {
+            mJankCount++;
+        }
+        mLastFrameNanos = frameTimeNanos;
+        mFrameCount++;
+        for (int i = 0; i < mRenderables.size(); i++) {
+            Renderable renderable = mRenderables.get(i);
+            if (renderable.needsRender()) {
+                renderable.render();
+            }
+        }
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Get the shared buffer charts copy their samples into while drawing.
+     * @return the shared sample buffer
+     */
+    public float[] getSampleBuffer() {
+        return mSampleBuffer;
+    }
+
+    /**
+     * Get the shared buffer charts build their line segments in while drawing.
+     * @return the shared line buffer
+     */
+    public float[] getLineBuffer() {
+        return mLineBuffer;
+    }
+
+    /**
+     * Get the number of frames rendered since the loop was created.
+     * @return the number of frames
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Get the number of frames which arrived late since the loop was created.
+     * @return the number of late frames
+     */
+    public long getJankCount() {
+        return mJankCount;
+    }
+}
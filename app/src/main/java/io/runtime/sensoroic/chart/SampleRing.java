@@ -0,0 +1,124 @@
+package io.runtime.sensoroic.chart;
+
+/**
+ * A fixed capacity ring buffer of multi-channel float samples. All storage is allocated up front
+ * so that adding samples from the observe callback thread and reading them on the UI thread never
+ * allocates. Every add bumps a version counter which renderers use to skip redrawing unchanged
+ * data.
+ */
+public class SampleRing {
+
+    // Maximum number of samples held
+    private final int mCapacity;
+
+    // Number of channels per sample
+    private final int mChannels;
+
+    // Sample values, sample-major (slot * channels + channel)
+    private final float[] mValues;
+
+    // Index of the oldest sample and the number of samples held
+    private int mHead = 0;
+    private int mSize = 0;
+
+    // Incremented on every change
+    private volatile long mVersion = 0;
+
+    /**
+     * Constructor for SampleRing.
+     * @param capacity  the maximum number of samples held
+     * @param channels  the number of channels per sample
+     */
+    public SampleRing(int capacity, int channels) {
+        mCapacity = capacity;
+        mChannels = channels;
+        mValues = new float[capacity * channels];
+    }
+
+    /**
+     * Add a sample, overwriting the oldest sample if the ring is full.
+     * @param values one value per channel
+     */
+    public synchronized void add(double[] values) {
+        int base = nextSlot() * mChannels;
+        for (int c = 0; c < mChannels; c++) {
+            mValues[base + c] = (float) values[c];
+        }
+        mVersion++;
+    }
+
+    /**
+     * Add a sample, overwriting the oldest sample if the ring is full.
+     * @param values one value per channel
+     */
+    public synchronized void add(float[] values) {
+        System.arraycopy(values, 0, mValues, nextSlot() * mChannels, mChannels);
+        mVersion++;
+    }
+
+    private int nextSlot() {
+        int slot;
+        if (mSize == mCapacity) {
+            slot = mHead;
+            mHead = (mHead + 1) % mCapacity;
+        } else {
+            slot = (mHead + mSize) % mCapacity;
+            mSize++;
+        }
+        return slot;
+    }
+
+    /**
+     * Copy every sample into a buffer, oldest first, sample-major. The buffer must hold at least
+     * capacity * channels floats.
+     * @param out the buffer to copy into
+     * @return the number of samples copied
+     */
+    public synchronized int copyTo(float[] out) {
+        int first = Math.min(mSize, mCapacity - mHead);
+        System.arraycopy(mValues, mHead * mChannels, out, 0, first * mChannels);
+        System.arraycopy(mValues, 0, out, first * mChannels, (mSize - first) * mChannels);
+        return mSize;
+    }
+
+    /**
+     * Remove every sample.
+     */
+    public synchronized void clear() {
+        mHead = 0;
+        mSize = 0;
+        mVersion++;
+    }
+
+    /**
+     * Get the number of samples held.
+     * @return the number of samples
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Get the version of the ring, which changes whenever a sample is added or removed.
+     * @return the version
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Get the maximum number of samples held.
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Get the number of channels per sample.
+     * @return the number of channels
+     */
+    public int getChannelCount() {
+        return mChannels;
+    }
+}
@@ -0,0 +1,290 @@
+package io.runtime.sensoroic.chart;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+
+import java.util.Arrays;
+
+import io.runtime.sensoroic.stream.SnapshotPublisher;
+
+/**
+ * A scrolling spectrogram of the spectra computed by a SpectrumAnalyzer, newest on the right,
+ * with frequency going up. Each spectrum becomes one pixel column of a bitmap used as a ring, so
+ * adding a spectrum only writes one column and drawing is two bitmap blits however long the
+ * history is. Where several channels are shown, each pixel shows the strongest of them.
+ *
+ * Magnitudes are drawn in decibels over DYNAMIC_RANGE_DB below the loudest recent bin. The
+ * dominant frequency of each visible channel is printed along the top in the channel's color.
+ *
+ * Spectra are read from a SnapshotPublisher laid out as: the bin width in Hz, the dominant
+ * frequency of each channel, then the magnitudes of each channel's bins. Nothing is allocated
+ * while drawing unless the view changes size or the frequency labels change.
+ */
+public class SpectrogramView extends View implements RenderLoop.Renderable {
+
+    // Number of spectra kept on screen
+    private static final int COLUMNS = 256;
+
+    // Range of magnitudes mapped to colors
+    private static final double DYNAMIC_RANGE_DB = 60;
+
+    // Decibels the reference level drops per spectrum while the signal is quieter
+    private static final double REFERENCE_DECAY_DB = 0.05;
+
+    // Data
+    private SnapshotPublisher mPublisher;
+    private SnapshotPublisher.Snapshot mSnapshot;
+    private int mChannels;
+    private int mBins;
+    private String[] mChannelNames = new String[0];
+    private boolean[] mChannelVisible = new boolean[0];
+    private int[] mColors = new int[] {Color.WHITE};
+
+    // Render loop driving this view
+    private RenderLoop mRenderLoop;
+
+    // Ring of spectrum columns, one pixel per bin
+    private Bitmap mBitmap;
+    private int[] mColumnPixels = new int[0];
+    private double[] mColumnLevels = new double[0];
+    private int mNextColumn = 0;
+    private int mColumnCount = 0;
+    private final Rect mSrc = new Rect();
+    private final Rect mDst = new Rect();
+
+    // Loudest recent bin in dB, the top of the color scale
+    private double mReferenceDb = Double.NaN;
+
+    // Black through blue, red and yellow to white
+    private final int[] mPalette = new int[256];
+
+    // Labels, rebuilt only when the bin width changes
+    private double mLabeledBinWidth = 0;
+    private String mNyquistLabel = "";
+    private final StringBuilder mDominantText = new StringBuilder();
+
+    private final Paint mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    public SpectrogramView(Context context) {
+        super(context);
+        init();
+    }
+
+    public SpectrogramView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        float density = getResources().getDisplayMetrics().density;
+        mTextPaint.setTextSize(density * 10);
+        mTextPaint.setColor(Color.DKGRAY);
+        for (int i = 0; i < mPalette.length; i++) {
+            float level = i / 255f;
+            int r = clamp(level * 3 - 1);
+            int g = clamp(level * 3 - 2);
+            int b = clamp(level < 1 / 3f ? level * 3
+                    : level < 2 / 3f ? 2 - level * 3 : level * 3 - 2);
+            mPalette[i] = Color.rgb(r, g, b);
+        }
+    }
+
+    private static int clamp(float level) {
+        return Math.round(Math.max(0, Math.min(1, level)) * 255);
+    }
+
+    /**
+     * Set the spectra drawn by this view. The bitmap is allocated here rather than while drawing.
+     * @param publisher     the spectra
+     * @param channelNames  the channel names
+     * @param bins          the number of bins per channel
+     * @param colors        one color per channel, reused if there are more channels than colors
+     */
+    public void setSpectrum(SnapshotPublisher publisher, String[] channelNames, int bins,
+                            int[] colors) {
+        mPublisher = publisher;
+        mSnapshot = publisher.newSnapshot();
+        mChannelNames = channelNames;
+        mChannels = channelNames.length;
+        mBins = bins;
+        mColors = colors;
+        if (mChannelVisible.length != mChannels) {
+            mChannelVisible = new boolean[mChannels];
+            Arrays.fill(mChannelVisible, true);
+        }
+        mBitmap = Bitmap.createBitmap(COLUMNS, bins, Bitmap.Config.ARGB_8888);
+        mBitmap.eraseColor(mPalette[0]);
+        mColumnPixels = new int[bins];
+        mColumnLevels = new double[bins];
+        mNextColumn = 0;
+        mColumnCount = 0;
+        mReferenceDb = Double.NaN;
+        invalidate();
+    }
+
+    /**
+     * Show or hide a channel. Columns already drawn keep the channels shown at the time.
+     * @param channel   the channel index
+     * @param visible   whether or not to include the channel
+     */
+    public void setChannelVisible(int channel, boolean visible) {
+        if (channel < mChannelVisible.length) {
+            mChannelVisible[channel] = visible;
+            invalidate();
+        }
+    }
+
+    /**
+     * Set the render loop driving this view. The view registers itself with the loop while it
+     * is attached to a window.
+     * @param renderLoop the render loop
+     */
+    public void setRenderLoop(RenderLoop renderLoop) {
+        if (mRenderLoop != null) {
+            mRenderLoop.remove(this);
+        }
+        mRenderLoop = renderLoop;
+        if (mRenderLoop != null && isAttachedToWindow()) {
+            mRenderLoop.add(this);
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mRenderLoop != null) {
+            mRenderLoop.add(this);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mRenderLoop != null) {
+            mRenderLoop.remove(this);
+        }
+    }
+
+    @Override
+    public boolean needsRender() {
+        return mPublisher != null && getVisibility() == VISIBLE
+                && mPublisher.getVersion() != mSnapshot.getVersion();
+    }
+
+    @Override
+    public void render() {
+        // Only the latest spectrum is drawn if several arrived within a frame
+        if (mPublisher.read(mSnapshot)) {
+            addColumn(mSnapshot.getValues());
+        }
+        invalidate();
+    }
+
+    private void addColumn(double[] values) {
+        int magnitudes = 1 + mChannels;
+        double peakDb = -Double.MAX_VALUE;
+        for (int k = 0; k < mBins; k++) {
+            double magnitude = 0;
+            for (int c = 0; c < mChannels; c++) {
+                if (mChannelVisible[c]) {
+                    magnitude = Math.max(magnitude, values[magnitudes + c * mBins + k]);
+                }
+            }
+            double db = magnitude > 0 ? 20 * Math.log10(magnitude) : -Double.MAX_VALUE;
+            if (k > 0 && db > peakDb) {
+                peakDb = db;
+            }
+            mColumnLevels[mBins - 1 - k] = db;
+        }
+        if (Double.isNaN(mReferenceDb) || peakDb > mReferenceDb) {
+            mReferenceDb = peakDb;
+        } else {
+            mReferenceDb = Math.max(peakDb, mReferenceDb - REFERENCE_DECAY_DB);
+        }
+        double floorDb = mReferenceDb - DYNAMIC_RANGE_DB;
+        for (int y = 0; y < mBins; y++) {
+            int level = (int) ((mColumnLevels[y] - floorDb) * (mPalette.length - 1) / DYNAMIC_RANGE_DB);
+            mColumnPixels[y] = mPalette[Math.max(0, Math.min(mPalette.length - 1, level))];
+        }
+        mBitmap.setPixels(mColumnPixels, 0, 1, mNextColumn, 0, 1, mBins);
+        mNextColumn = (mNextColumn + 1) % COLUMNS;
+        mColumnCount = Math.min(COLUMNS, mColumnCount + 1);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mBitmap == null || mColumnCount == 0) {
+            return;
+        }
+        int left = getPaddingLeft();
+        int top = getPaddingTop();
+        int width = getWidth() - left - getPaddingRight();
+        int height = getHeight() - top - getPaddingBottom();
+        float columnWidth = (float) width / COLUMNS;
+
+        // The oldest columns are right of the write position, the newest left of it
+        int oldest = mColumnCount < COLUMNS ? 0 : mNextColumn;
+        int right = left + width;
+        int olderColumns = mColumnCount < COLUMNS ? 0 : COLUMNS - mNextColumn;
+        int newerColumns = mColumnCount < COLUMNS ? mColumnCount : mNextColumn;
+        int split = right - Math.round(newerColumns * columnWidth);
+        if (olderColumns > 0) {
+            mSrc.set(oldest, 0, COLUMNS, mBins);
+            mDst.set(left, top, split, top + height);
+            canvas.drawBitmap(mBitmap, mSrc, mDst, mBitmapPaint);
+        }
+        if (newerColumns > 0) {
+            mSrc.set(0, 0, newerColumns, mBins);
+            mDst.set(split, top, right, top + height);
+            canvas.drawBitmap(mBitmap, mSrc, mDst, mBitmapPaint);
+        }
+
+        // Frequency axis labels
+        double binWidth = mSnapshot.getValues()[0];
+        if (binWidth != mLabeledBinWidth) {
+            mLabeledBinWidth = binWidth;
+            mNyquistLabel = String.format("%.1f Hz", binWidth * (mBins - 1));
+        }
+        float textHeight = mTextPaint.getTextSize();
+        mTextPaint.setColor(Color.LTGRAY);
+        canvas.drawText(mNyquistLabel, left, top + textHeight, mTextPaint);
+        canvas.drawText("0", left, top + height, mTextPaint);
+
+        // Dominant frequency of each visible channel
+        double[] values = mSnapshot.getValues();
+        float x = left + width / 4f;
+        for (int c = 0; c < mChannels; c++) {
+            if (!mChannelVisible[c]) {
+                continue;
+            }
+            mDominantText.setLength(0);
+            mDominantText.append(mChannelNames[c]).append(' ');
+            appendTenths(mDominantText, values[1 + c]);
+            mDominantText.append(" Hz");
+            mTextPaint.setColor(mColors[c % mColors.length]);
+            canvas.drawText(mDominantText, 0, mDominantText.length(), x, top + textHeight,
+                    mTextPaint);
+            x += mTextPaint.measureText(mDominantText, 0, mDominantText.length()) + textHeight;
+        }
+    }
+
+    /**
+     * Append a value with one decimal, without the garbage of String.format.
+     */
+    private static void appendTenths(StringBuilder sb, double value) {
+        long tenths = Math.round(value * 10);
+        if (tenths < 0) {
+            sb.append('-');
+            tenths = -tenths;
+        }
+        sb.append(tenths / 10).append('.').append((char) ('0' + tenths % 10));
+    }
+}
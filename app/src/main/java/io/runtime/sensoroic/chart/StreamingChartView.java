@@ -0,0 +1,303 @@
+package io.runtime.sensoroic.chart;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import java.util.Arrays;
+
+/**
+ * A streaming line chart for high-rate, many-channel sensors. Samples are read from a SampleRing
+ * into a preallocated buffer and drawn with Canvas.drawLines from a reused float array. When there
+ * are more samples than pixel columns, each column is reduced to the minimum and maximum of the
+ * samples falling into it, so the cost of drawing depends on the view width rather than on the
+ * sample rate, and short spikes are never lost.
+ *
+ * The y axis grows immediately when data leaves the visible range but only shrinks gradually once
+ * the data occupies a small part of it, so the scale does not jump around from frame to frame.
+ * Nothing is allocated while drawing unless the view changes size; the axis labels are formatted
+ * into reused buffers.
+ */
+public class StreamingChartView extends View implements RenderLoop.Renderable {
+
+    // Headroom added above and below the data when the axis grows
+    private static final float AXIS_HEADROOM = 0.1f;
+
+    // The axis shrinks once the data uses less than this fraction of it
+    private static final float AXIS_SHRINK_THRESHOLD = 0.5f;
+
+    // Fraction of the excess removed from the axis each frame while shrinking
+    private static final float AXIS_SHRINK_RATE = 0.1f;
+
+    // Data
+    private SampleRing mRing;
+    private float[] mSamples = new float[0];
+    private boolean[] mChannelVisible = new boolean[0];
+    private int[] mColors = new int[] {Color.BLUE};
+    private long mDrawnVersion = -1;
+
+    // Render loop driving this chart
+    private RenderLoop mRenderLoop;
+
+    // Line segments for one channel, reallocated only when the view size changes
+    private float[] mLines = new float[0];
+
+    // Current y axis range
+    private float mAxisMin = 0;
+    private float mAxisMax = 0;
+    private boolean mHasAxis = false;
+
+    // Axis labels, rebuilt only when the axis range changes noticeably
+    private final char[] mMaxLabel = new char[LabelFormat.MAX_LENGTH];
+    private final char[] mMinLabel = new char[LabelFormat.MAX_LENGTH];
+    private int mMaxLabelLength = 0;
+    private int mMinLabelLength = 0;
+    private float mLabeledMin = 0;
+    private float mLabeledMax = 0;
+
+    private final Paint mLinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mAxisPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    public StreamingChartView(Context context) {
+        super(context);
+        init();
+    }
+
+    public StreamingChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        float density = getResources().getDisplayMetrics().density;
+        mLinePaint.setStyle(Paint.Style.STROKE);
+        mLinePaint.setStrokeWidth(density * 1.5f);
+        mAxisPaint.setColor(Color.DKGRAY);
+        mAxisPaint.setStrokeWidth(density);
+        mAxisPaint.setTextSize(density * 10);
+    }
+
+    /**
+     * Set the data drawn by this chart. Buffers are allocated here rather than while drawing.
+     * @param ring      the samples to draw
+     * @param colors    one color per channel, reused if there are more channels than colors
+     */
+    public void setRing(SampleRing ring, int[] colors) {
+        mRing = ring;
+        mColors = colors;
+        mSamples = new float[ring.getCapacity() * ring.getChannelCount()];
+        if (mChannelVisible.length != ring.getChannelCount()) {
+            mChannelVisible = new boolean[ring.getChannelCount()];
+            Arrays.fill(mChannelVisible, true);
+        }
+        mHasAxis = false;
+        mDrawnVersion = -1;
+        invalidate();
+    }
+
+    /**
+     * Show or hide a channel.
+     * @param channel   the channel index
+     * @param visible   whether or not to draw the channel
+     */
+    public void setChannelVisible(int channel, boolean visible) {
+        if (channel < mChannelVisible.length) {
+            mChannelVisible[channel] = visible;
+            mHasAxis = false;
+            mDrawnVersion = -1;
+            invalidate();
+        }
+    }
+
+    /**
+     * Set the render loop driving this chart. The chart registers itself with the loop while it
+     * is attached to a window and visible.
+     * @param renderLoop the render loop
+     */
+    public void setRenderLoop(RenderLoop renderLoop) {
+        if (mRenderLoop != null) {
+            mRenderLoop.remove(this);
+        }
+        mRenderLoop = renderLoop;
+        if (mRenderLoop != null && isAttachedToWindow()) {
+            mRenderLoop.add(this);
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mRenderLoop != null) {
+            mRenderLoop.add(this);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mRenderLoop != null) {
+            mRenderLoop.remove(this);
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        // At most a connecting segment and a min/max segment per pixel column
+        mLines = new float[(w + 2) * 8];
+    }
+
+    @Override
+    public boolean needsRender() {
+        return mRing != null && getVisibility() == VISIBLE && mRing.getVersion() != mDrawnVersion;
+    }
+
+    @Override
+    public void render() {
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mRing == null) {
+            return;
+        }
+        mDrawnVersion = mRing.getVersion();
+        int channels = mRing.getChannelCount();
+        int capacity = mRing.getCapacity();
+        int count = mRing.copyTo(mSamples);
+        if (count < 2) {
+            return;
+        }
+
+        // Find the range of the visible channels and update the axis
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (int c = 0; c < channels; c++) {
+            if (!mChannelVisible[c]) {
+                continue;
+            }
+            for (int i = 0, idx = c; i < count; i++, idx += channels) {
+                float v = mSamples[idx];
+                if (v < min) {
+                    min = v;
+                }
+                if (v > max) {
+                    max = v;
+                }
+            }
+        }
+        if (min > max) {
+            return;
+        }
+        updateAxis(min, max);
+
+        float left = getPaddingLeft();
+        float top = getPaddingTop();
+        float width = getWidth() - left - getPaddingRight();
+        float height = getHeight() - top - getPaddingBottom();
+        float yScale = height / (mAxisMax - mAxisMin);
+        float xPerSample = width / (capacity - 1);
+
+        // Zero line and labels
+        if (mAxisMin < 0 && mAxisMax > 0) {
+            float zeroY = top + mAxisMax * yScale;
+            canvas.drawLine(left, zeroY, left + width, zeroY, mAxisPaint);
+        }
+        canvas.drawText(mMaxLabel, 0, mMaxLabelLength, left, top + mAxisPaint.getTextSize(),
+                mAxisPaint);
+        canvas.drawText(mMinLabel, 0, mMinLabelLength, left, top + height, mAxisPaint);
+
+        int offset = capacity - count;
+        for (int c = 0; c < channels; c++) {
+            if (!mChannelVisible[c]) {
+                continue;
+            }
+            int n = 0;
+            int column = -1;
+            float colMin = 0;
+            float colMax = 0;
+            float colFirst = 0;
+            float colLast = 0;
+            float prevX = 0;
+            float prevY = 0;
+            boolean hasPrev = false;
+            for (int i = 0; i <= count; i++) {
+                int sampleColumn = i < count ? (int) ((offset + i) * xPerSample) : Integer.MAX_VALUE;
+                if (sampleColumn != column && column >= 0) {
+                    // Flush the finished column
+                    float x = left + column;
+                    float yFirst = top + (mAxisMax - colFirst) * yScale;
+                    if (hasPrev && n + 4 <= mLines.length) {
+                        mLines[n++] = prevX;
+                        mLines[n++] = prevY;
+                        mLines[n++] = x;
+                        mLines[n++] = yFirst;
+                    }
+                    if (colMax > colMin && n + 4 <= mLines.length) {
+                        mLines[n++] = x;
+                        mLines[n++] = top + (mAxisMax - colMin) * yScale;
+                        mLines[n++] = x;
+                        mLines[n++] = top + (mAxisMax - colMax) * yScale;
+                    }
+                    prevX = x;
+                    prevY = top + (mAxisMax - colLast) * yScale;
+                    hasPrev = true;
+                }
+                if (i == count) {
+                    break;
+                }
+                float v = mSamples[i * channels + c];
+                if (sampleColumn != column) {
+                    column = sampleColumn;
+                    colMin = v;
+                    colMax = v;
+                    colFirst = v;
+                } else {
+                    if (v < colMin) {
+                        colMin = v;
+                    }
+                    if (v > colMax) {
+                        colMax = v;
+                    }
+                }
+                colLast = v;
+            }
+            mLinePaint.setColor(mColors[c % mColors.length]);
+            canvas.drawLines(mLines, 0, n, mLinePaint);
+        }
+    }
+
+    /**
+     * Grow the axis immediately to fit the data, or shrink it a step towards the data once the
+     * data only uses a small part of the axis.
+     */
+    private void updateAxis(float dataMin, float dataMax) {
+        float dataRange = Math.max(dataMax - dataMin, 1e-3f);
+        boolean changed = false;
+        if (!mHasAxis || dataMin < mAxisMin || dataMax > mAxisMax) {
+            mAxisMin = Math.min(mHasAxis ? mAxisMin : dataMin, dataMin - dataRange * AXIS_HEADROOM);
+            mAxisMax = Math.max(mHasAxis ? mAxisMax : dataMax, dataMax + dataRange * AXIS_HEADROOM);
+            mHasAxis = true;
+            changed = true;
+        } else if (dataRange < (mAxisMax - mAxisMin) * AXIS_SHRINK_THRESHOLD) {
+            float targetMin = dataMin - dataRange * AXIS_HEADROOM;
+            float targetMax = dataMax + dataRange * AXIS_HEADROOM;
+            mAxisMin += (targetMin - mAxisMin) * AXIS_SHRINK_RATE;
+            mAxisMax += (targetMax - mAxisMax) * AXIS_SHRINK_RATE;
+            changed = true;
+        }
+        float tolerance = (mAxisMax - mAxisMin) * 0.01f;
+        if (changed && (Math.abs(mAxisMax - mLabeledMax) > tolerance
+                || Math.abs(mAxisMin - mLabeledMin) > tolerance)) {
+            mMaxLabelLength = LabelFormat.format(mAxisMax, mMaxLabel);
+            mMinLabelLength = LabelFormat.format(mAxisMin, mMinLabel);
+            mLabeledMax = mAxisMax;
+            mLabeledMin = mAxisMin;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package io.runtime.sensoroic.chart;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * A small, lightweight line chart for dashboard tiles. The chart draws every channel of a
+ * SampleRing, scaled to fit the view, and is redrawn by a RenderLoop only when the ring has
+ * changed. Drawing uses the RenderLoop's shared scratch buffers and never allocates.
+ */
+public class TileChartView extends View implements RenderLoop.Renderable {
+
+    // Data and colors for each channel
+    private SampleRing mRing;
+    private int[] mColors;
+
+    // Render loop driving this chart
+    private RenderLoop mRenderLoop;
+
+    // Ring version at the last draw
+    private long mDrawnVersion = -1;
+
+    // Number of channels to draw, starting from the first
+    private int mVisibleChannels = Integer.MAX_VALUE;
+
+    private final Paint mLinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mZeroPaint = new Paint();
+
+    public TileChartView(Context context) {
+        super(context);
+        init();
+    }
+
+    public TileChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        mLinePaint.setStyle(Paint.Style.STROKE);
+        mLinePaint.setStrokeWidth(getResources().getDisplayMetrics().density * 1.5f);
+        mZeroPaint.setColor(Color.LTGRAY);
+    }
+
+    /**
+     * Set the data drawn by this chart.
+     * @param ring      the samples to draw
+     * @param colors    one color per channel, reused if there are more channels than colors
+     */
+    public void setRing(SampleRing ring, int[] colors) {
+        mRing = ring;
+        mColors = colors;
+        mDrawnVersion = -1;
+        invalidate();
+    }
+
+    /**
+     * Limit the number of channels drawn, starting from the first channel.
+     * @param count the number of channels to draw
+     */
+    public void setVisibleChannels(int count) {
+        mVisibleChannels = count;
+        mDrawnVersion = -1;
+    }
+
+    /**
+     * Set the render loop driving this chart. The chart registers itself with the loop while it
+     * is attached to a window, so off-screen charts cost nothing.
+     * @param renderLoop the render loop
+     */
+    public void setRenderLoop(RenderLoop renderLoop) {
+        if (mRenderLoop != null && isAttachedToWindow()) {
+            mRenderLoop.remove(this);
+        }
+        mRenderLoop = renderLoop;
+        if (mRenderLoop != null && isAttachedToWindow()) {
+            mRenderLoop.add(this);
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mRenderLoop != null) {
+            mRenderLoop.add(this);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mRenderLoop != null) {
+            mRenderLoop.remove(this);
+        }
+    }
+
+    @Override
+    public boolean needsRender() {
+        return mRing != null && mRing.getVersion() != mDrawnVersion;
+    }
+
+    @Override
+    public void render() {
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mRing == null || mRenderLoop == null) {
+            return;
+        }
+        mDrawnVersion = mRing.getVersion();
+        float[] samples = mRenderLoop.getSampleBuffer();
+        float[] lines = mRenderLoop.getLineBuffer();
+        int channels = mRing.getChannelCount();
+        int visible = Math.min(channels, mVisibleChannels);
+        int count = mRing.copyTo(samples);
+        if (count < 2 || visible == 0) {
+            return;
+        }
+
+        // Scale to the range of the visible channels
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            for (int c = 0; c < visible; c++) {
+                float v = samples[i * channels + c];
+                if (v < min) {
+                    min = v;
+                }
+                if (v > max) {
+                    max = v;
+                }
+            }
+        }
+        if (max - min < 1e-6f) {
+            max += 0.5f;
+            min -= 0.5f;
+        }
+        float width = getWidth() - getPaddingLeft() - getPaddingRight();
+        float height = getHeight() - getPaddingTop() - getPaddingBottom();
+        float left = getPaddingLeft();
+        float top = getPaddingTop();
+        float xStep = width / (mRing.getCapacity() - 1);
+        float yScale = height / (max - min);
+        float xStart = left + (mRing.getCapacity() - count) * xStep;
+
+        if (min < 0 && max > 0) {
+            float zeroY = top + max * yScale;
+            canvas.drawLine(left, zeroY, left + width, zeroY, mZeroPaint);
+        }
+
+        for (int c = 0; c < visible; c++) {
+            mLinePaint.setColor(mColors[c % mColors.length]);
+            int n = 0;
+            float prevX = xStart;
+            float prevY = top + (max - samples[c]) * yScale;
+            for (int i = 1; i < count; i++) {
+                float x = xStart + i * xStep;
+                float y = top + (max - samples[i * channels + c]) * yScale;
+                lines[n++] = prevX;
+                lines[n++] = prevY;
+                lines[n++] = x;
+                lines[n++] = y;
+                prevX = x;
+                prevY = y;
+            }
+            canvas.drawLines(lines, 0, n, mLinePaint);
+        }
+    }
+}
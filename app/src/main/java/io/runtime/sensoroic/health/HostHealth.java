@@ -0,0 +1,84 @@
+package io.runtime.sensoroic.health;
+
+/**
+ * A snapshot of the health of one host as tracked by the HostHealthMonitor.
+ */
+public class HostHealth {
+
+    /**
+     * The circuit breaker state of a host.
+     */
+    public enum State {
+        // Requests are allowed
+        CLOSED,
+        // The host is considered down and requests fail fast until the next probe
+        OPEN,
+        // A probe request is in flight to find out whether the host is back
+        HALF_OPEN
+    }
+
+    private final String mHost;
+    private final State mState;
+    private final double mSuccessRate;
+    private final double mLatencyMillis;
+    private final int mConsecutiveFailures;
+    private final long mRetryInMillis;
+
+    HostHealth(String host, State state, double successRate, double latencyMillis,
+               int consecutiveFailures, long retryInMillis) {
+        mHost = host;
+        mState = state;
+        mSuccessRate = successRate;
+        mLatencyMillis = latencyMillis;
+        mConsecutiveFailures = consecutiveFailures;
+        mRetryInMillis = retryInMillis;
+    }
+
+    /**
+     * Get the host address, without its scheme.
+     * @return the host
+     */
+    public String getHost() {
+        return mHost;
+    }
+
+    /**
+     * Get the circuit breaker state.
+     * @return the state
+     */
+    public State getState() {
+        return mState;
+    }
+
+    /**
+     * Get the recent success rate, an exponentially weighted average of the request outcomes.
+     * @return the rate between 0 and 1
+     */
+    public double getSuccessRate() {
+        return mSuccessRate;
+    }
+
+    /**
+     * Get the exponentially weighted average latency of successful requests.
+     * @return the latency in milliseconds, or NaN if no request has succeeded yet
+     */
+    public double getLatencyMillis() {
+        return mLatencyMillis;
+    }
+
+    /**
+     * Get the number of failures since the last success.
+     * @return the failure count
+     */
+    public int getConsecutiveFailures() {
+        return mConsecutiveFailures;
+    }
+
+    /**
+     * Get the time until the next probe of an open circuit.
+     * @return the time in milliseconds, 0 if requests are allowed now
+     */
+    public long getRetryInMillis() {
+        return mRetryInMillis;
+    }
+}
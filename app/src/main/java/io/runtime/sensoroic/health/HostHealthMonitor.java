@@ -0,0 +1,193 @@
+package io.runtime.sensoroic.health;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.iotivity.base.OcHeaderOption;
+import org.iotivity.base.OcRepresentation;
+import org.iotivity.base.OcResource;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Tracks the health of every host the app talks to and decides whether a request to a host is
+ * worth the radio time.
+ *
+ * Each host has a success rate and a latency, both exponentially weighted averages, and a count of
+ * consecutive failures. After FAILURE_THRESHOLD consecutive failures the host's circuit opens:
+ * requests to it fail fast through allowRequest() until a backoff has passed, after which a single
+ * probe request is let through. A successful probe closes the circuit again, a failed one reopens
+ * it with twice the backoff, up to MAX_BACKOFF_MILLIS.
+ *
+ * Hosts are keyed by address without the scheme, so "coap+gatt://AA:BB:.." and the bare BLE
+ * address used for discovery share their health.
+ */
+public class HostHealthMonitor {
+
+    // Logging TAG
+    private static final String TAG = "HostHealthMonitor";
+
+    // Consecutive failures after which the circuit opens
+    private static final int FAILURE_THRESHOLD = 3;
+
+    // Time before the first probe of an open circuit, doubled on every failed probe
+    private static final long MIN_BACKOFF_MILLIS = 5000;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+    // Time after which a probe which never reported an outcome is given up on
+    private static final long PROBE_TIMEOUT_MILLIS = 30000;
+
+    // Weight of the newest outcome in the averages
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final HashMap<String, Host> mHosts = new HashMap<>();
+
+    /**
+     * Whether or not a request should be sent to a host. Returns false while the host's circuit
+     * is open; once the backoff has passed, returns true for a single probe request.
+     * @param host the host, with or without its scheme
+     * @return true if the request should be sent
+     */
+    public synchronized boolean allowRequest(String host) {
+        Host h = mHosts.get(keyOf(host));
+        if (h == null || h.mState == HostHealth.State.CLOSED) {
+            return true;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (h.mState == HostHealth.State.OPEN && now >= h.mRetryAtMillis) {
+            h.mState = HostHealth.State.HALF_OPEN;
+            h.mRetryAtMillis = now + PROBE_TIMEOUT_MILLIS;
+            Log.d(TAG, "Probing " + h.mHost);
+            return true;
+        }
+        if (h.mState == HostHealth.State.HALF_OPEN && now >= h.mRetryAtMillis) {
+            // The probe never reported back, let another one through
+            h.mRetryAtMillis = now + PROBE_TIMEOUT_MILLIS;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record a successful request, closing the host's circuit.
+     * @param host          the host, with or without its scheme
+     * @param latencyMillis the time from sending the request to its response
+     */
+    public synchronized void onSuccess(String host, long latencyMillis) {
+        Host h = getOrCreate(host);
+        h.mSuccessRate += EWMA_ALPHA * (1 - h.mSuccessRate);
+        h.mLatencyMillis = Double.isNaN(h.mLatencyMillis) ? latencyMillis
+                : h.mLatencyMillis + EWMA_ALPHA * (latencyMillis - h.mLatencyMillis);
+        h.mConsecutiveFailures = 0;
+        if (h.mState != HostHealth.State.CLOSED) {
+            Log.d(TAG, "Circuit closed for " + h.mHost);
+        }
+        h.mState = HostHealth.State.CLOSED;
+        h.mBackoffMillis = MIN_BACKOFF_MILLIS;
+    }
+
+    /**
+     * Record a failed or timed out request, opening the host's circuit after enough consecutive
+     * failures or when a probe fails.
+     * @param host the host, with or without its scheme
+     */
+    public synchronized void onFailure(String host) {
+        Host h = getOrCreate(host);
+        h.mSuccessRate -= EWMA_ALPHA * h.mSuccessRate;
+        h.mConsecutiveFailures++;
+        if (h.mState == HostHealth.State.HALF_OPEN) {
+            h.mBackoffMillis = Math.min(h.mBackoffMillis * 2, MAX_BACKOFF_MILLIS);
+        } else if (h.mState == HostHealth.State.OPEN
+                || h.mConsecutiveFailures < FAILURE_THRESHOLD) {
+            return;
+        }
+        h.mState = HostHealth.State.OPEN;
+        h.mRetryAtMillis = SystemClock.elapsedRealtime() + h.mBackoffMillis;
+        Log.d(TAG, "Circuit open for " + h.mHost + ", next probe in " + h.mBackoffMillis + " ms");
+    }
+
+    /**
+     * Get the health of a host.
+     * @param host the host, with or without its scheme
+     * @return a snapshot of the host's health; a host never seen is healthy
+     */
+    public synchronized HostHealth getHealth(String host) {
+        Host h = mHosts.get(keyOf(host));
+        if (h == null) {
+            return new HostHealth(keyOf(host), HostHealth.State.CLOSED, 1, Double.NaN, 0, 0);
+        }
+        long retryIn = h.mState == HostHealth.State.OPEN
+                ? Math.max(0, h.mRetryAtMillis - SystemClock.elapsedRealtime()) : 0;
+        return new HostHealth(h.mHost, h.mState, h.mSuccessRate, h.mLatencyMillis,
+                h.mConsecutiveFailures, retryIn);
+    }
+
+    /**
+     * Get the circuit breaker state of a host, without taking a full snapshot of its health.
+     * @param host the host, with or without its scheme
+     * @return the state; a host never seen is CLOSED
+     */
+    public synchronized HostHealth.State getState(String host) {
+        Host h = mHosts.get(keyOf(host));
+        return h == null ? HostHealth.State.CLOSED : h.mState;
+    }
+
+    /**
+     * Wrap a get listener so that the outcome of the get is recorded for the resource's host.
+     * The request is timed from this call, so wrap right before sending the get.
+     * @param resource  the resource the get is sent to
+     * @param listener  the listener to wrap
+     * @return the wrapping listener
+     */
+    public OcResource.OnGetListener wrapGet(OcResource resource,
+                                           final OcResource.OnGetListener listener) {
+        final String host = resource.getHost();
+        final long start = SystemClock.elapsedRealtime();
+        return new OcResource.OnGetListener() {
+            @Override
+            public void onGetCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
+                onSuccess(host, SystemClock.elapsedRealtime() - start);
+                listener.onGetCompleted(list, ocRepresentation);
+            }
+
+            @Override
+            public void onGetFailed(Throwable throwable) {
+                onFailure(host);
+                listener.onGetFailed(throwable);
+            }
+        };
+    }
+
+    private Host getOrCreate(String host) {
+        String key = keyOf(host);
+        Host h = mHosts.get(key);
+        if (h == null) {
+            h = new Host(key);
+            mHosts.put(key, h);
+        }
+        return h;
+    }
+
+    private static String keyOf(String host) {
+        int i = host.indexOf("://");
+        return i < 0 ? host : host.substring(i + 3);
+    }
+
+    /**
+     * The tracked state of one host.
+     */
+    private static class Host {
+        private final String mHost;
+        private HostHealth.State mState = HostHealth.State.CLOSED;
+        private double mSuccessRate = 1;
+        private double mLatencyMillis = Double.NaN;
+        private int mConsecutiveFailures = 0;
+        private long mBackoffMillis = MIN_BACKOFF_MILLIS;
+        private long mRetryAtMillis = 0;
+
+        private Host(String host) {
+            mHost = host;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package io.runtime.sensoroic.history;
+
+import java.util.Arrays;
+
+/**
+ * Per-channel minimum, maximum, mean and count over a time range of a BlockStore, together with
+ * the time range the figures actually cover.
+ */
+public class Aggregate {
+
+    private final double[] mMin;
+    private final double[] mMax;
+    private final double[] mSum;
+    private final long[] mCount;
+    private long mRowCount = 0;
+    private long mFromMicros = Long.MAX_VALUE;
+    private long mToMicros = Long.MIN_VALUE;
+
+    Aggregate(int channels) {
+        mMin = new double[channels];
+        mMax = new double[channels];
+        mSum = new double[channels];
+        mCount = new long[channels];
+        Arrays.fill(mMin, Double.NaN);
+        Arrays.fill(mMax, Double.NaN);
+    }
+
+    /**
+     * Get the number of channels.
+     * @return the channel count
+     */
+    public int getChannelCount() {
+        return mMin.length;
+    }
+
+    /**
+     * Get the minimum of a channel.
+     * @param channel the channel index
+     * @return the minimum, or NaN if the channel has no values in the range
+     */
+    public double getMin(int channel) {
+        return mMin[channel];
+    }
+
+    /**
+     * Get the maximum of a channel.
+     * @param channel the channel index
+     * @return the maximum, or NaN if the channel has no values in the range
+     */
+    public double getMax(int channel) {
+        return mMax[channel];
+    }
+
+    /**
+     * Get the mean of a channel.
+     * @param channel the channel index
+     * @return the mean, or NaN if the channel has no values in the range
+     */
+    public double getMean(int channel) {
+        return mCount[channel] == 0 ? Double.NaN : mSum[channel] / mCount[channel];
+    }
+
+    /**
+     * Get the number of values of a channel, excluding missing values.
+     * @param channel the channel index
+     * @return the value count
+     */
+    public long getCount(int channel) {
+        return mCount[channel];
+    }
+
+    /**
+     * Get the number of rows aggregated.
+     * @return the row count
+     */
+    public long getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * Get the time of the first row aggregated.
+     * @return the time in epoch microseconds, or Long.MAX_VALUE if no rows were aggregated
+     */
+    public long getFromMicros() {
+        return mFromMicros;
+    }
+
+    /**
+     * Get the time of the last row aggregated.
+     * @return the time in epoch microseconds, or Long.MIN_VALUE if no rows were aggregated
+     */
+    public long getToMicros() {
+        return mToMicros;
+    }
+
+    void addBlock(BlockIndex index, int block) {
+        for (int c = 0; c < mMin.length; c++) {
+            int count = index.count(block, c);
+            if (count > 0) {
+                addStatistics(c, index.min(block, c), index.max(block, c), index.sum(block, c), count);
+            }
+        }
+        addRows(index.start(block), index.end(block), index.rows(block));
+    }
+
+    void addRow(long timeMicros, double[] values, int offset) {
+        for (int c = 0; c < mMin.length; c++) {
+            double v = values[offset + c];
+            if (!Double.isNaN(v)) {
+                addStatistics(c, v, v, v, 1);
+            }
+        }
+        addRows(timeMicros, timeMicros, 1);
+    }
+
+    private void addStatistics(int c, double min, double max, double sum, long count) {
+        if (mCount[c] == 0 || min < mMin[c]) {
+            mMin[c] = min;
+        }
+        if (mCount[c] == 0 || max > mMax[c]) {
+            mMax[c] = max;
+        }
+        mSum[c] += sum;
+        mCount[c] += count;
+    }
+
+    private void addRows(long from, long to, long rows) {
+        mFromMicros = Math.min(mFromMicros, from);
+        mToMicros = Math.max(mToMicros, to);
+        mRowCount += rows;
+    }
+}
@@ -0,0 +1,191 @@
+package io.runtime.sensoroic.history;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and decodes the rows of one block. Blocks are stored column-wise: all the timestamps,
+ * then the values of each channel in turn.
+ *
+ * New blocks are written RAW, which is cheap to produce. The compactor re-encodes cold blocks as
+ * PACKED: timestamps as zigzag varint delta-of-deltas, which are a single byte for regularly
+ * sampled data, and each value as the XOR with the previous value of its channel, keeping only
+ * the bytes between the leading and trailing zero bytes. Slowly changing sensor values share most
+ * of their exponent and mantissa with the previous value and integer readings have many trailing
+ * zero bits, so both shrink considerably.
+ */
+final class BlockCodec {
+
+    // Timestamps as longs, values as doubles
+    static final byte ENCODING_RAW = 0;
+
+    // Delta-of-delta timestamps, XOR-compressed values
+    static final byte ENCODING_PACKED = 1;
+
+    // PACKED header for a value identical to the previous one
+    private static final int SAME_VALUE = 0xFF;
+
+    private BlockCodec() {
+    }
+
+    /**
+     * Encode rows into a buffer.
+     * @param times     the row timestamps
+     * @param values    the row values, row-major with the given channel count
+     * @param rows      the number of rows
+     * @param channels  the number of channels
+     * @return the encoded block
+     */
+    static byte[] encode(long[] times, double[] values, int rows, int channels) {
+        ByteBuffer buffer = ByteBuffer.allocate(rows * 8 * (1 + channels));
+        for (int r = 0; r < rows; r++) {
+            buffer.putLong(times[r]);
+        }
+        for (int c = 0; c < channels; c++) {
+            for (int r = 0; r < rows; r++) {
+                buffer.putDouble(values[r * channels + c]);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Encode rows into a buffer using the PACKED encoding.
+     * @param times     the row timestamps
+     * @param values    the row values, row-major with the given channel count
+     * @param rows      the number of rows
+     * @param channels  the number of channels
+     * @return the encoded block, which may be longer than its content
+     * @see #packedLength(byte[])
+     */
+    static byte[] encodePacked(long[] times, double[] values, int rows, int channels) {
+        // Worst case: 10 byte varints per timestamp, 9 bytes per value, plus a length prefix
+        byte[] out = new byte[4 + rows * (10 + 9 * channels)];
+        int pos = 4;
+        long prevTime = 0;
+        long prevDelta = 0;
+        for (int r = 0; r < rows; r++) {
+            long delta = times[r] - prevTime;
+            pos = writeVarLong(out, pos, zigzag(delta - prevDelta));
+            prevDelta = delta;
+            prevTime = times[r];
+        }
+        for (int c = 0; c < channels; c++) {
+            long prev = 0;
+            for (int r = 0; r < rows; r++) {
+                long bits = Double.doubleToRawLongBits(values[r * channels + c]);
+                long xor = bits ^ prev;
+                prev = bits;
+                if (xor == 0) {
+                    out[pos++] = (byte) SAME_VALUE;
+                    continue;
+                }
+                int leading = Long.numberOfLeadingZeros(xor) / 8;
+                int trailing = Long.numberOfTrailingZeros(xor) / 8;
+                out[pos++] = (byte) ((leading << 4) | trailing);
+                for (int shift = (7 - leading) * 8; shift >= trailing * 8; shift -= 8) {
+                    out[pos++] = (byte) (xor >>> shift);
+                }
+            }
+        }
+        ByteBuffer.wrap(out).putInt(0, pos);
+        return out;
+    }
+
+    /**
+     * Get the length of the content of a buffer returned by encodePacked().
+     */
+    static int packedLength(byte[] data) {
+        return ByteBuffer.wrap(data).getInt(0);
+    }
+
+    /**
+     * Decode rows from a buffer.
+     * @param encoding  the block encoding
+     * @param data      the encoded block
+     * @param length    the length of the encoded block
+     * @param rows      the number of rows in the block
+     * @param channels  the number of channels
+     * @param times     filled with the row timestamps
+     * @param values    filled with the row values, row-major
+     * @throws IOException if the encoding is unknown or the block is truncated
+     */
+    static void decode(byte encoding, byte[] data, int length, int rows, int channels,
+                       long[] times, double[] values) throws IOException {
+        if (encoding == ENCODING_PACKED) {
+            decodePacked(data, length, rows, channels, times, values);
+            return;
+        }
+        if (encoding != ENCODING_RAW) {
+            throw new IOException("Unknown block encoding " + encoding);
+        }
+        if (length < rows * 8 * (1 + channels)) {
+            throw new IOException("Truncated block");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        for (int r = 0; r < rows; r++) {
+            times[r] = buffer.getLong();
+        }
+        for (int c = 0; c < channels; c++) {
+            for (int r = 0; r < rows; r++) {
+                values[r * channels + c] = buffer.getDouble();
+            }
+        }
+    }
+
+    private static void decodePacked(byte[] data, int length, int rows, int channels,
+                                     long[] times, double[] values) throws IOException {
+        try {
+            int pos = 4;
+            long prevTime = 0;
+            long prevDelta = 0;
+            for (int r = 0; r < rows; r++) {
+                long raw = 0;
+                int shift = 0;
+                int b;
+                do {
+                    b = data[pos++] & 0xFF;
+                    raw |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                prevDelta += (raw >>> 1) ^ -(raw & 1);
+                prevTime += prevDelta;
+                times[r] = prevTime;
+            }
+            for (int c = 0; c < channels; c++) {
+                long prev = 0;
+                for (int r = 0; r < rows; r++) {
+                    int header = data[pos++] & 0xFF;
+                    if (header != SAME_VALUE) {
+                        int leading = header >>> 4;
+                        int trailing = header & 0x0F;
+                        long xor = 0;
+                        for (int s = (7 - leading) * 8; s >= trailing * 8; s -= 8) {
+                            xor |= (long) (data[pos++] & 0xFF) << s;
+                        }
+                        prev ^= xor;
+                    }
+                    values[r * channels + c] = Double.longBitsToDouble(prev);
+                }
+            }
+            if (pos > length) {
+                throw new IOException("Truncated block");
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated block", e);
+        }
+    }
+
+    private static int writeVarLong(byte[] out, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+}
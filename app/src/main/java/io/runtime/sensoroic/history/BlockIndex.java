@@ -0,0 +1,247 @@
+package io.runtime.sensoroic.history;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The sparse index of a BlockStore. For every sealed block it holds the block's time bounds and
+ * location plus the minimum, maximum, sum and count of every channel. Entries are kept in
+ * growable primitive arrays in time order, so a time range can be located with a binary search
+ * and many aggregate questions answered without touching the data files at all.
+ */
+class BlockIndex {
+
+    private final int mChannels;
+    private int mSize = 0;
+
+    // Per block
+    private long[] mStart = new long[16];
+    private long[] mEnd = new long[16];
+    private int[] mRows = new int[16];
+    private int[] mSegment = new int[16];
+    private long[] mOffset = new long[16];
+    private int[] mLength = new int[16];
+    private byte[] mEncoding = new byte[16];
+
+    // Per block and channel, stride mChannels
+    private double[] mMin;
+    private double[] mMax;
+    private double[] mSum;
+    private int[] mCount;
+
+    BlockIndex(int channels) {
+        mChannels = channels;
+        mMin = new double[16 * channels];
+        mMax = new double[16 * channels];
+        mSum = new double[16 * channels];
+        mCount = new int[16 * channels];
+    }
+
+    /**
+     * Get the size in bytes of one entry as written by write().
+     */
+    static int entrySize(int channels) {
+        return 8 + 8 + 4 + 4 + 8 + 4 + 1 + channels * (8 + 8 + 8 + 4);
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    int channels() {
+        return mChannels;
+    }
+
+    long start(int i) {
+        return mStart[i];
+    }
+
+    long end(int i) {
+        return mEnd[i];
+    }
+
+    int rows(int i) {
+        return mRows[i];
+    }
+
+    int segment(int i) {
+        return mSegment[i];
+    }
+
+    long offset(int i) {
+        return mOffset[i];
+    }
+
+    int length(int i) {
+        return mLength[i];
+    }
+
+    byte encoding(int i) {
+        return mEncoding[i];
+    }
+
+    double min(int i, int channel) {
+        return mMin[i * mChannels + channel];
+    }
+
+    double max(int i, int channel) {
+        return mMax[i * mChannels + channel];
+    }
+
+    double sum(int i, int channel) {
+        return mSum[i * mChannels + channel];
+    }
+
+    int count(int i, int channel) {
+        return mCount[i * mChannels + channel];
+    }
+
+    /**
+     * Append an entry for a block whose statistics are given in a BlockStats.
+     */
+    void add(long start, long end, int rows, int segment, long offset, int length, byte encoding,
+             BlockStats stats) {
+        ensureCapacity(mSize + 1);
+        int i = mSize;
+        mStart[i] = start;
+        mEnd[i] = end;
+        mRows[i] = rows;
+        mSegment[i] = segment;
+        mOffset[i] = offset;
+        mLength[i] = length;
+        mEncoding[i] = encoding;
+        System.arraycopy(stats.mMin, 0, mMin, i * mChannels, mChannels);
+        System.arraycopy(stats.mMax, 0, mMax, i * mChannels, mChannels);
+        System.arraycopy(stats.mSum, 0, mSum, i * mChannels, mChannels);
+        System.arraycopy(stats.mCount, 0, mCount, i * mChannels, mChannels);
+        mSize++;
+    }
+
+    /**
+     * Point entry i at a new copy of its block, e.g. after compaction re-encoded it.
+     */
+    void relocate(int i, int segment, long offset, int length, byte encoding) {
+        mSegment[i] = segment;
+        mOffset[i] = offset;
+        mLength[i] = length;
+        mEncoding[i] = encoding;
+    }
+
+    /**
+     * Remove the first n entries.
+     */
+    void removeFirst(int n) {
+        int remaining = mSize - n;
+        System.arraycopy(mStart, n, mStart, 0, remaining);
+        System.arraycopy(mEnd, n, mEnd, 0, remaining);
+        System.arraycopy(mRows, n, mRows, 0, remaining);
+        System.arraycopy(mSegment, n, mSegment, 0, remaining);
+        System.arraycopy(mOffset, n, mOffset, 0, remaining);
+        System.arraycopy(mLength, n, mLength, 0, remaining);
+        System.arraycopy(mEncoding, n, mEncoding, 0, remaining);
+        System.arraycopy(mMin, n * mChannels, mMin, 0, remaining * mChannels);
+        System.arraycopy(mMax, n * mChannels, mMax, 0, remaining * mChannels);
+        System.arraycopy(mSum, n * mChannels, mSum, 0, remaining * mChannels);
+        System.arraycopy(mCount, n * mChannels, mCount, 0, remaining * mChannels);
+        mSize = remaining;
+    }
+
+    /**
+     * Index of the first block ending at or after the given time, or size() if there is none.
+     */
+    int firstEndingAtOrAfter(long timeMicros) {
+        int lo = 0;
+        int hi = mSize;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mEnd[mid] < timeMicros) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Write entry i.
+     */
+    void write(DataOutput out, int i) throws IOException {
+        out.writeLong(mStart[i]);
+        out.writeLong(mEnd[i]);
+        out.writeInt(mRows[i]);
+        out.writeInt(mSegment[i]);
+        out.writeLong(mOffset[i]);
+        out.writeInt(mLength[i]);
+        out.writeByte(mEncoding[i]);
+        for (int c = 0; c < mChannels; c++) {
+            int k = i * mChannels + c;
+            out.writeDouble(mMin[k]);
+            out.writeDouble(mMax[k]);
+            out.writeDouble(mSum[k]);
+            out.writeInt(mCount[k]);
+        }
+    }
+
+    /**
+     * Read an entry written by write() and append it.
+     */
+    void read(DataInput in) throws IOException {
+        ensureCapacity(mSize + 1);
+        int i = mSize;
+        mStart[i] = in.readLong();
+        mEnd[i] = in.readLong();
+        mRows[i] = in.readInt();
+        mSegment[i] = in.readInt();
+        mOffset[i] = in.readLong();
+        mLength[i] = in.readInt();
+        mEncoding[i] = in.readByte();
+        for (int c = 0; c < mChannels; c++) {
+            int k = i * mChannels + c;
+            mMin[k] = in.readDouble();
+            mMax[k] = in.readDouble();
+            mSum[k] = in.readDouble();
+            mCount[k] = in.readInt();
+        }
+        mSize++;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= mStart.length) {
+            return;
+        }
+        int capacity = Math.max(needed, mStart.length * 2);
+        mStart = copyOf(mStart, capacity);
+        mEnd = copyOf(mEnd, capacity);
+        mRows = copyOf(mRows, capacity);
+        mSegment = copyOf(mSegment, capacity);
+        mOffset = copyOf(mOffset, capacity);
+        mLength = copyOf(mLength, capacity);
+        byte[] encoding = new byte[capacity];
+        System.arraycopy(mEncoding, 0, encoding, 0, mSize);
+        mEncoding = encoding;
+        mMin = copyOf(mMin, capacity * mChannels);
+        mMax = copyOf(mMax, capacity * mChannels);
+        mSum = copyOf(mSum, capacity * mChannels);
+        mCount = copyOf(mCount, capacity * mChannels);
+    }
+
+    private static long[] copyOf(long[] a, int n) {
+        long[] b = new long[n];
+        System.arraycopy(a, 0, b, 0, Math.min(a.length, n));
+        return b;
+    }
+
+    private static int[] copyOf(int[] a, int n) {
+        int[] b = new int[n];
+        System.arraycopy(a, 0, b, 0, Math.min(a.length, n));
+        return b;
+    }
+
+    private static double[] copyOf(double[] a, int n) {
+        double[] b = new double[n];
+        System.arraycopy(a, 0, b, 0, Math.min(a.length, n));
+        return b;
+    }
+}
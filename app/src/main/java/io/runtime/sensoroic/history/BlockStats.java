@@ -0,0 +1,52 @@
+package io.runtime.sensoroic.history;
+
+import java.util.Arrays;
+
+/**
+ * Per-channel minimum, maximum, sum and count accumulated while a block is being filled. NaN
+ * values are treated as missing and do not contribute.
+ */
+class BlockStats {
+
+    final double[] mMin;
+    final double[] mMax;
+    final double[] mSum;
+    final int[] mCount;
+
+    BlockStats(int channels) {
+        mMin = new double[channels];
+        mMax = new double[channels];
+        mSum = new double[channels];
+        mCount = new int[channels];
+        reset();
+    }
+
+    void reset() {
+        Arrays.fill(mMin, Double.NaN);
+        Arrays.fill(mMax, Double.NaN);
+        Arrays.fill(mSum, 0);
+        Arrays.fill(mCount, 0);
+    }
+
+    void add(double[] values, int offset) {
+        for (int c = 0; c < mCount.length; c++) {
+            double v = values[offset + c];
+            if (Double.isNaN(v)) {
+                continue;
+            }
+            if (mCount[c] == 0) {
+                mMin[c] = v;
+                mMax[c] = v;
+            } else {
+                if (v < mMin[c]) {
+                    mMin[c] = v;
+                }
+                if (v > mMax[c]) {
+                    mMax[c] = v;
+                }
+            }
+            mSum[c] += v;
+            mCount[c]++;
+        }
+    }
+}
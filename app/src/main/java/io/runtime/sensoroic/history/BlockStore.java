@@ -0,0 +1,817 @@
+package io.runtime.sensoroic.history;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * A time series of rows, each a timestamp and a fixed number of double channels, stored on disk
+ * in fixed-size blocks.
+ *
+ * Rows are appended in time order to an in-memory tail block. Once the tail is full it is sealed:
+ * the block is appended to the current segment file and an entry holding its time bounds,
+ * location and per-channel statistics is added to the index. The whole index is kept in memory,
+ * so a time range query only binary-searches the index and reads the blocks it overlaps, and an
+ * aggregate query is answered from the index alone.
+ *
+ * Directory layout: "index" holds the index entries, "seg-N" the blocks of segment N and "tail"
+ * the unsealed rows as of the last flush().
+ *
+ * Sealed segments are never modified in place. Retention drops expired blocks from the front of
+ * the index, rolling over to a new segment if they reach into the current one, and deletes
+ * segments nothing refers to any more; compaction copies the blocks of sealed segments into new
+ * segments and then switches the index over. Both only hold the store lock while planning and
+ * while switching the index, so appends and queries carry on while the blocks are being copied.
+ */
+public class BlockStore implements Closeable {
+
+    // Logging TAG
+    private static final String TAG = "BlockStore";
+
+    // Default number of rows per block
+    public static final int DEFAULT_BLOCK_ROWS = 1024;
+
+    // Number of blocks per segment file
+    private static final int SEGMENT_BLOCKS = 64;
+
+    // Compaction merges segments into new segments of about this size
+    private static final long TARGET_SEGMENT_BYTES = 1024 * 1024;
+
+    // Index file header
+    private static final int INDEX_MAGIC = 0x4D424958;
+    private static final int INDEX_VERSION = 1;
+    private static final int INDEX_HEADER_SIZE = 4 + 4 + 4 + 4;
+
+    // Maximum number of segment files kept open for reading
+    private static final int MAX_OPEN_SEGMENTS = 8;
+
+    private static final String INDEX_FILE = "index";
+    private static final String TAIL_FILE = "tail";
+    private static final String SEGMENT_PREFIX = "seg-";
+
+    private final File mDir;
+    private final int mChannels;
+    private final int mBlockRows;
+
+    private final BlockIndex mIndex;
+    private DataOutputStream mIndexOut;
+
+    // Current segment being appended to
+    private int mSegment = 0;
+    private int mSegmentBlocks = 0;
+    private RandomAccessFile mSegmentOut;
+
+    // Next unused segment number
+    private int mNextSegment = 1;
+
+    // Tail block
+    private final long[] mTailTimes;
+    private final double[] mTailValues;
+    private final BlockStats mTailStats;
+    private int mTailRows = 0;
+    private boolean mIsTailDirty = false;
+
+    // Time of the last row appended, rows must not go back in time
+    private long mLastTimeMicros = Long.MIN_VALUE;
+
+    // Decode buffers reused across queries
+    private byte[] mReadBuffer = new byte[0];
+    private final long[] mDecodeTimes;
+    private final double[] mDecodeValues;
+    private final double[] mRow;
+
+    private final HashMap<Integer, RandomAccessFile> mReaders = new HashMap<>();
+
+    /**
+     * Open a store, creating it if the directory is empty.
+     * @param dir       the directory holding the store
+     * @param channels  the number of channels per row
+     * @param blockRows the number of rows per block, only used when the store is created
+     * @throws IOException if the store could not be opened or was created with another layout
+     */
+    public BlockStore(File dir, int channels, int blockRows) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        mDir = dir;
+        mChannels = channels;
+        mIndex = new BlockIndex(channels);
+        mBlockRows = openIndex(blockRows);
+
+        mTailTimes = new long[mBlockRows];
+        mTailValues = new double[mBlockRows * channels];
+        mTailStats = new BlockStats(channels);
+        mDecodeTimes = new long[mBlockRows];
+        mDecodeValues = new double[mBlockRows * channels];
+        mRow = new double[channels];
+
+        if (mIndex.size() > 0) {
+            int last = mIndex.size() - 1;
+            mSegment = mIndex.segment(last);
+            for (int i = last; i >= 0 && mIndex.segment(i) == mSegment; i--) {
+                mSegmentBlocks++;
+            }
+            mLastTimeMicros = mIndex.end(last);
+        }
+        for (int i = 0; i < mIndex.size(); i++) {
+            mNextSegment = Math.max(mNextSegment, mIndex.segment(i) + 1);
+        }
+        mNextSegment = Math.max(mNextSegment, mSegment + 1);
+        deleteUnreferencedSegments();
+        loadTail();
+    }
+
+    /**
+     * Get the number of channels per row.
+     * @return the channel count
+     */
+    public int getChannelCount() {
+        return mChannels;
+    }
+
+    /**
+     * Get the number of sealed blocks.
+     * @return the block count
+     */
+    public synchronized int getBlockCount() {
+        return mIndex.size();
+    }
+
+    /**
+     * Get the time of the first row.
+     * @return the time in epoch microseconds, or -1 if the store is empty
+     */
+    public synchronized long getFirstTimeMicros() {
+        if (mIndex.size() > 0) {
+            return mIndex.start(0);
+        }
+        return mTailRows > 0 ? mTailTimes[0] : -1;
+    }
+
+    /**
+     * Get the time of the last row.
+     * @return the time in epoch microseconds, or -1 if the store is empty
+     */
+    public synchronized long getLastTimeMicros() {
+        return mLastTimeMicros == Long.MIN_VALUE ? -1 : mLastTimeMicros;
+    }
+
+    /**
+     * Append a row. Rows must be appended in time order.
+     * @param timeMicros    the row time in epoch microseconds
+     * @param values        the channel values, NaN for missing values
+     * @return true if the row was appended, false if it is older than the last row
+     * @throws IOException if a full block could not be written
+     */
+    public synchronized boolean append(long timeMicros, double[] values) throws IOException {
+        if (timeMicros < mLastTimeMicros) {
+            return false;
+        }
+        mLastTimeMicros = timeMicros;
+        mTailTimes[mTailRows] = timeMicros;
+        System.arraycopy(values, 0, mTailValues, mTailRows * mChannels, mChannels);
+        mTailStats.add(values, 0);
+        mTailRows++;
+        mIsTailDirty = true;
+        if (mTailRows == mBlockRows) {
+            seal();
+        }
+        return true;
+    }
+
+    /**
+     * Visit every row within a time range, in time order. Only the blocks overlapping the range
+     * are read.
+     * @param fromMicros    the start of the range, inclusive
+     * @param toMicros      the end of the range, inclusive
+     * @param visitor       the visitor, the values array passed to it is reused between rows
+     * @return the number of rows visited
+     * @throws IOException if a block could not be read
+     */
+    public synchronized int query(long fromMicros, long toMicros, RowVisitor visitor)
+            throws IOException {
+        int visited = 0;
+        for (int i = mIndex.firstEndingAtOrAfter(fromMicros);
+             i < mIndex.size() && mIndex.start(i) <= toMicros; i++) {
+            int rows = readBlock(i);
+            for (int r = 0; r < rows; r++) {
+                long t = mDecodeTimes[r];
+                if (t < fromMicros) {
+                    continue;
+                }
+                if (t > toMicros) {
+                    return visited;
+                }
+                System.arraycopy(mDecodeValues, r * mChannels, mRow, 0, mChannels);
+                visited++;
+                if (!visitor.onRow(t, mRow)) {
+                    return visited;
+                }
+            }
+        }
+        for (int r = 0; r < mTailRows; r++) {
+            long t = mTailTimes[r];
+            if (t < fromMicros) {
+                continue;
+            }
+            if (t > toMicros) {
+                break;
+            }
+            System.arraycopy(mTailValues, r * mChannels, mRow, 0, mChannels);
+            visited++;
+            if (!visitor.onRow(t, mRow)) {
+                break;
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Aggregate a time range from the index alone, without reading any block. Blocks only
+     * partially inside the range are counted whole, so the result may cover up to one block more
+     * at either end; the range actually covered is given by the aggregate.
+     * @param fromMicros    the start of the range, inclusive
+     * @param toMicros      the end of the range, inclusive
+     * @return the aggregate
+     */
+    public synchronized Aggregate aggregate(long fromMicros, long toMicros) {
+        Aggregate aggregate = new Aggregate(mChannels);
+        for (int i = mIndex.firstEndingAtOrAfter(fromMicros);
+             i < mIndex.size() && mIndex.start(i) <= toMicros; i++) {
+            aggregate.addBlock(mIndex, i);
+        }
+        addTail(aggregate, fromMicros, toMicros);
+        return aggregate;
+    }
+
+    /**
+     * Aggregate a time range exactly. Blocks fully inside the range are taken from the index and
+     * only the blocks at either edge of the range are read.
+     * @param fromMicros    the start of the range, inclusive
+     * @param toMicros      the end of the range, inclusive
+     * @return the aggregate
+     * @throws IOException if an edge block could not be read
+     */
+    public synchronized Aggregate aggregateExact(long fromMicros, long toMicros)
+            throws IOException {
+        Aggregate aggregate = new Aggregate(mChannels);
+        for (int i = mIndex.firstEndingAtOrAfter(fromMicros);
+             i < mIndex.size() && mIndex.start(i) <= toMicros; i++) {
+            if (mIndex.start(i) >= fromMicros && mIndex.end(i) <= toMicros) {
+                aggregate.addBlock(mIndex, i);
+                continue;
+            }
+            int rows = readBlock(i);
+            for (int r = 0; r < rows; r++) {
+                long t = mDecodeTimes[r];
+                if (t >= fromMicros && t <= toMicros) {
+                    aggregate.addRow(t, mDecodeValues, r * mChannels);
+                }
+            }
+        }
+        addTail(aggregate, fromMicros, toMicros);
+        return aggregate;
+    }
+
+    /**
+     * Write the unsealed rows to disk so they survive a restart.
+     * @throws IOException if the rows could not be written
+     */
+    public synchronized void flush() throws IOException {
+        if (!mIsTailDirty) {
+            return;
+        }
+        File tmp = new File(mDir, TAIL_FILE + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(mTailRows);
+            for (int r = 0; r < mTailRows; r++) {
+                out.writeLong(mTailTimes[r]);
+                for (int c = 0; c < mChannels; c++) {
+                    out.writeDouble(mTailValues[r * mChannels + c]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(new File(mDir, TAIL_FILE))) {
+            throw new IOException("Failed to replace " + TAIL_FILE);
+        }
+        mIsTailDirty = false;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            for (RandomAccessFile reader : mReaders.values()) {
+                reader.close();
+            }
+            mReaders.clear();
+            if (mSegmentOut != null) {
+                mSegmentOut.close();
+                mSegmentOut = null;
+            }
+            if (mIndexOut != null) {
+                mIndexOut.close();
+                mIndexOut = null;
+            }
+        }
+    }
+
+    /**
+     * Drop every block which ends before a cutoff and delete the segments left unused.
+     * @param cutoffMicros blocks ending before this time are dropped
+     * @return the number of blocks dropped
+     * @throws IOException if the index could not be rewritten
+     */
+    synchronized int dropBefore(long cutoffMicros) throws IOException {
+        int count = mIndex.firstEndingAtOrAfter(cutoffMicros);
+        if (count == 0) {
+            return 0;
+        }
+        if (mIndex.segment(count - 1) == mSegment) {
+            // A segment can span far longer than the retention of a slowly sampled stream, so
+            // roll over to a new one rather than keep expired blocks until it fills up. The old
+            // segment is then deleted once nothing refers to it, or compacted if some of its
+            // blocks are still live.
+            rollSegment();
+        }
+        mIndex.removeFirst(count);
+        rewriteIndex();
+        deleteUnreferencedSegments();
+        return count;
+    }
+
+    /**
+     * Compact one run of sealed segments whose blocks all ended before a given time. A run is
+     * worth compacting if it holds RAW blocks, segments with dropped blocks or several small
+     * segments; its blocks are re-encoded as PACKED into new segments of about
+     * TARGET_SEGMENT_BYTES and the old segments deleted.
+     * @param coldBeforeMicros  only segments whose blocks all ended before this are touched
+     * @param throttle          limits the rate at which blocks are copied
+     * @return true if a run was compacted, false if there is nothing left to compact
+     * @throws IOException if the blocks could not be copied
+     * @throws InterruptedException if interrupted while throttled
+     */
+    boolean compact(long coldBeforeMicros, Throttle throttle)
+            throws IOException, InterruptedException {
+        // Plan under the lock
+        int first;
+        int count;
+        long firstStart;
+        int[] segments;
+        long[] offsets;
+        int[] lengths;
+        byte[] encodings;
+        int[] rows;
+        synchronized (this) {
+            int[] run = findCompactionRun(coldBeforeMicros);
+            if (run == null) {
+                return false;
+            }
+            first = run[0];
+            count = run[1] - run[0];
+            firstStart = mIndex.start(first);
+            segments = new int[count];
+            offsets = new long[count];
+            lengths = new int[count];
+            encodings = new byte[count];
+            rows = new int[count];
+            for (int i = 0; i < count; i++) {
+                segments[i] = mIndex.segment(first + i);
+                offsets[i] = mIndex.offset(first + i);
+                lengths[i] = mIndex.length(first + i);
+                encodings[i] = mIndex.encoding(first + i);
+                rows[i] = mIndex.rows(first + i);
+            }
+        }
+
+        // Copy without the lock, sealed segments are never modified
+        int[] newSegments = new int[count];
+        long[] newOffsets = new long[count];
+        int[] newLengths = new int[count];
+        ArrayList<File> written = new ArrayList<>();
+        long[] times = new long[mBlockRows];
+        double[] values = new double[mBlockRows * mChannels];
+        byte[] buffer = new byte[0];
+        RandomAccessFile in = null;
+        int inSegment = -1;
+        FileOutputStream out = null;
+        int outSegment = -1;
+        long outOffset = 0;
+        boolean committed = false;
+        try {
+            for (int i = 0; i < count; i++) {
+                if (segments[i] != inSegment) {
+                    if (in != null) {
+                        in.close();
+                    }
+                    inSegment = segments[i];
+                    in = new RandomAccessFile(segmentFile(inSegment), "r");
+                }
+                if (buffer.length < lengths[i]) {
+                    buffer = new byte[lengths[i]];
+                }
+                in.seek(offsets[i]);
+                in.readFully(buffer, 0, lengths[i]);
+                BlockCodec.decode(encodings[i], buffer, lengths[i], rows[i], mChannels, times,
+                        values);
+                byte[] packed = BlockCodec.encodePacked(times, values, rows[i], mChannels);
+                int length = BlockCodec.packedLength(packed);
+
+                if (out == null || outOffset + length > TARGET_SEGMENT_BYTES) {
+                    if (out != null) {
+                        out.getFD().sync();
+                        out.close();
+                    }
+                    outSegment = allocateSegment();
+                    File file = segmentFile(outSegment);
+                    written.add(file);
+                    out = new FileOutputStream(file);
+                    outOffset = 0;
+                }
+                out.write(packed, 0, length);
+                newSegments[i] = outSegment;
+                newOffsets[i] = outOffset;
+                newLengths[i] = length;
+                outOffset += length;
+                throttle.acquire(lengths[i] + length);
+            }
+            if (out != null) {
+                out.getFD().sync();
+                out.close();
+                out = null;
+            }
+
+            // Switch the index over under the lock
+            synchronized (this) {
+                if (first + count > mIndex.size() || mIndex.start(first) != firstStart) {
+                    Log.w(TAG, "Index changed during compaction of " + mDir);
+                    return false;
+                }
+                for (int i = 0; i < count; i++) {
+                    mIndex.relocate(first + i, newSegments[i], newOffsets[i], newLengths[i],
+                            BlockCodec.ENCODING_PACKED);
+                }
+                rewriteIndex();
+                committed = true;
+                deleteUnreferencedSegments();
+            }
+            return true;
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+            if (out != null) {
+                out.close();
+            }
+            if (!committed) {
+                for (File file : written) {
+                    if (!file.delete()) {
+                        Log.w(TAG, "Failed to delete " + file);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the first run of consecutive sealed segments worth compacting.
+     * @return the index range [first, end) of the run's blocks, or null if there is none
+     */
+    private int[] findCompactionRun(long coldBeforeMicros) {
+        int runFirst = -1;
+        int runEnd = -1;
+        int runSegments = 0;
+        boolean runNeedsWork = false;
+        int i = 0;
+        while (i < mIndex.size()) {
+            int segment = mIndex.segment(i);
+            int end = i;
+            long liveBytes = 0;
+            boolean hasRaw = false;
+            while (end < mIndex.size() && mIndex.segment(end) == segment) {
+                liveBytes += mIndex.length(end);
+                hasRaw |= mIndex.encoding(end) == BlockCodec.ENCODING_RAW;
+                end++;
+            }
+            long fileBytes = segmentFile(segment).length();
+            boolean sealed = segment != mSegment && mIndex.end(end - 1) < coldBeforeMicros;
+            boolean small = liveBytes < TARGET_SEGMENT_BYTES / 4;
+            boolean sparse = liveBytes < fileBytes / 2;
+            if (sealed && (hasRaw || sparse || small)) {
+                if (runFirst < 0) {
+                    runFirst = i;
+                    runSegments = 0;
+                    runNeedsWork = false;
+                }
+                runEnd = end;
+                runSegments++;
+                runNeedsWork |= hasRaw || sparse;
+            } else if (runFirst >= 0) {
+                if (runNeedsWork || runSegments > 1) {
+                    break;
+                }
+                runFirst = -1;
+            }
+            i = end;
+        }
+        if (runFirst < 0 || !(runNeedsWork || runSegments > 1)) {
+            return null;
+        }
+        return new int[] {runFirst, runEnd};
+    }
+
+    private synchronized int allocateSegment() {
+        return mNextSegment++;
+    }
+
+    /**
+     * Rewrite the index file from the in-memory index, replacing the old file atomically.
+     */
+    private void rewriteIndex() throws IOException {
+        File file = new File(mDir, INDEX_FILE);
+        File tmp = new File(mDir, INDEX_FILE + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+        try {
+            writeIndexHeader(out, mBlockRows);
+            for (int i = 0; i < mIndex.size(); i++) {
+                mIndex.write(out, i);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+        mIndexOut.close();
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+        mIndexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    /**
+     * Delete segment files which no index entry refers to, left behind by retention, compaction
+     * or a crash during compaction. Must not be called while a compaction is copying blocks.
+     */
+    private void deleteUnreferencedSegments() {
+        HashSet<Integer> referenced = new HashSet<>();
+        for (int i = 0; i < mIndex.size(); i++) {
+            referenced.add(mIndex.segment(i));
+        }
+        referenced.add(mSegment);
+        String[] names = mDir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (!name.startsWith(SEGMENT_PREFIX)) {
+                continue;
+            }
+            int segment;
+            try {
+                segment = Integer.parseInt(name.substring(SEGMENT_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (referenced.contains(segment)) {
+                continue;
+            }
+            RandomAccessFile reader = mReaders.remove(segment);
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to close " + name, e);
+                }
+            }
+            if (!new File(mDir, name).delete()) {
+                Log.w(TAG, "Failed to delete " + name);
+            }
+        }
+    }
+
+    private void addTail(Aggregate aggregate, long fromMicros, long toMicros) {
+        for (int r = 0; r < mTailRows; r++) {
+            long t = mTailTimes[r];
+            if (t >= fromMicros && t <= toMicros) {
+                aggregate.addRow(t, mTailValues, r * mChannels);
+            }
+        }
+    }
+
+    private void seal() throws IOException {
+        if (mSegmentBlocks == SEGMENT_BLOCKS) {
+            rollSegment();
+        }
+        if (mSegmentOut == null) {
+            mSegmentOut = new RandomAccessFile(segmentFile(mSegment), "rw");
+        }
+        byte[] data = BlockCodec.encode(mTailTimes, mTailValues, mTailRows, mChannels);
+        // Data goes first, a crash in between leaves an unreferenced block rather than a
+        // dangling index entry
+        long offset = mSegmentOut.length();
+        mSegmentOut.seek(offset);
+        mSegmentOut.write(data);
+
+        mIndex.add(mTailTimes[0], mTailTimes[mTailRows - 1], mTailRows, mSegment, offset,
+                data.length, BlockCodec.ENCODING_RAW, mTailStats);
+        mIndex.write(mIndexOut, mIndex.size() - 1);
+        mIndexOut.flush();
+        mSegmentBlocks++;
+
+        mTailRows = 0;
+        mTailStats.reset();
+        mIsTailDirty = true;
+    }
+
+    /**
+     * Stop appending to the current segment, the next block sealed starts a new one.
+     */
+    private void rollSegment() throws IOException {
+        if (mSegmentOut != null) {
+            mSegmentOut.close();
+            mSegmentOut = null;
+        }
+        mSegment = mNextSegment++;
+        mSegmentBlocks = 0;
+    }
+
+        private int readBlock(int block) throws IOException {
+        int length = mIndex.length(block);
+        if (mReadBuffer.length < length) {
+            mReadBuffer = new byte[length];
+        }
+        RandomAccessFile reader = reader(mIndex.segment(block));
+        reader.seek(mIndex.offset(block));
+        reader.readFully(mReadBuffer, 0, length);
+        int rows = mIndex.rows(block);
+        BlockCodec.decode(mIndex.encoding(block), mReadBuffer, length, rows, mChannels,
+                mDecodeTimes, mDecodeValues);
+        return rows;
+    }
+
+    private RandomAccessFile reader(int segment) throws IOException {
+        RandomAccessFile reader = mReaders.get(segment);
+        if (reader == null) {
+            if (mReaders.size() >= MAX_OPEN_SEGMENTS) {
+                for (RandomAccessFile open : mReaders.values()) {
+                    open.close();
+                }
+                mReaders.clear();
+            }
+            reader = new RandomAccessFile(segmentFile(segment), "r");
+            mReaders.put(segment, reader);
+        }
+        return reader;
+    }
+
+    private File segmentFile(int segment) {
+        return new File(mDir, SEGMENT_PREFIX + segment);
+    }
+
+    private int openIndex(int blockRows) throws IOException {
+        File file = new File(mDir, INDEX_FILE);
+        int entrySize = BlockIndex.entrySize(mChannels);
+        if (file.length() >= INDEX_HEADER_SIZE) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+            try {
+                if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                    throw new IOException("Not a block index: " + file);
+                }
+                if (in.readInt() != mChannels) {
+                    throw new IOException("Channel count mismatch in " + file);
+                }
+                blockRows = in.readInt();
+                long entries = (file.length() - INDEX_HEADER_SIZE) / entrySize;
+                for (long i = 0; i < entries; i++) {
+                    mIndex.read(in);
+                }
+            } finally {
+                in.close();
+            }
+            long valid = INDEX_HEADER_SIZE + (long) mIndex.size() * entrySize;
+            if (file.length() != valid) {
+                // Drop a partially written entry
+                Log.w(TAG, "Truncating index " + file + " to " + mIndex.size() + " entries");
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.setLength(valid);
+                } finally {
+                    raf.close();
+                }
+            }
+            mIndexOut = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file, true)));
+        } else {
+            mIndexOut = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)));
+            writeIndexHeader(mIndexOut, blockRows);
+            mIndexOut.flush();
+        }
+        return blockRows;
+    }
+
+    private void writeIndexHeader(DataOutputStream out, int blockRows) throws IOException {
+        out.writeInt(INDEX_MAGIC);
+        out.writeInt(INDEX_VERSION);
+        out.writeInt(mChannels);
+        out.writeInt(blockRows);
+    }
+
+    private void loadTail() throws IOException {
+        File file = new File(mDir, TAIL_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int rows = in.readInt();
+            for (int r = 0; r < rows && r < mBlockRows; r++) {
+                long t = in.readLong();
+                for (int c = 0; c < mChannels; c++) {
+                    mRow[c] = in.readDouble();
+                }
+                // Rows already sealed before a crash are skipped by the time check
+                if (t > mLastTimeMicros || mTailRows > 0) {
+                    append(t, mRow);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable tail in " + mDir, e);
+        } finally {
+            in.close();
+        }
+        mIsTailDirty = false;
+    }
+
+    /**
+     * Limits the rate at which compaction reads and writes, so that it does not compete with
+     * ingest and queries for the storage.
+     */
+    static class Throttle {
+
+        private final long mBytesPerSecond;
+        private long mWindowStartNanos = System.nanoTime();
+        private long mWindowBytes = 0;
+
+        /**
+         * Constructor for Throttle.
+         * @param bytesPerSecond the maximum average rate
+         */
+        Throttle(long bytesPerSecond) {
+            mBytesPerSecond = bytesPerSecond;
+        }
+
+        /**
+         * Account for bytes transferred, sleeping if the rate is exceeded.
+         * @param bytes the number of bytes read or written
+         * @throws InterruptedException if interrupted while sleeping
+         */
+        void acquire(long bytes) throws InterruptedException {
+            mWindowBytes += bytes;
+            long allowedNanos = mWindowBytes * 1000000000L / mBytesPerSecond;
+            long elapsedNanos = System.nanoTime() - mWindowStartNanos;
+            if (allowedNanos > elapsedNanos) {
+                long sleep = allowedNanos - elapsedNanos;
+                Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+            }
+            if (elapsedNanos > 1000000000L) {
+                // Start a new window so idle time is not saved up as a burst
+                mWindowStartNanos = System.nanoTime();
+                mWindowBytes = 0;
+            }
+        }
+    }
+
+    /**
+     * Receives the rows of a query.
+     */
+    public interface RowVisitor {
+        /**
+         * Called for each row in the range.
+         * @param timeMicros    the row time in epoch microseconds
+         * @param values        the channel values, only valid during the call
+         * @return true to continue, false to stop the query
+         */
+        boolean onRow(long timeMicros, double[] values);
+    }
+}
@@ -0,0 +1,133 @@
+package io.runtime.sensoroic.history;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Keeps the history store within its retention policies and compact on disk. A background
+ * thread at the lowest priority periodically drops blocks past their resource's retention,
+ * merges small or partly dropped segments and re-encodes blocks which are no longer being
+ * written as PACKED. All copying goes through a throttle, and stores are only locked while the
+ * work is planned and while their index is switched over, so ingest and chart queries are not
+ * held up.
+ */
+public class HistoryCompactor {
+
+    // Logging TAG
+    private static final String TAG = "HistoryCompactor";
+
+    // Time between passes
+    private static final long PERIOD_MILLIS = 15 * 60 * 1000L;
+
+    // Blocks are re-encoded once they have not been written to for this long
+    private static final long COLD_AGE_MICROS = 3600 * 1000000L;
+
+    // Maximum compaction I/O rate
+    private static final long MAX_BYTES_PER_SECOND = 1024 * 1024;
+
+    private final HistoryStore mStore;
+    private Thread mThread;
+    private boolean mIsRunRequested = false;
+
+    /**
+     * Constructor for HistoryCompactor.
+     * @param store the store to maintain
+     */
+    public HistoryCompactor(HistoryStore store) {
+        mStore = store;
+    }
+
+    /**
+     * Start the compactor thread. The first pass runs straight away.
+     */
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mIsRunRequested = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                loop();
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    /**
+     * Stop the compactor thread. A compaction in progress is abandoned and cleaned up.
+     */
+    public synchronized void stop() {
+        if (mThread != null) {
+            mThread.interrupt();
+            mThread = null;
+        }
+    }
+
+    /**
+     * Run a pass as soon as possible rather than waiting for the next period.
+     */
+    public synchronized void requestRun() {
+        mIsRunRequested = true;
+        notifyAll();
+    }
+
+    private void loop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                synchronized (this) {
+                    if (!mIsRunRequested) {
+                        wait(PERIOD_MILLIS);
+                    }
+                    mIsRunRequested = false;
+                }
+                runPass();
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Stopped");
+        }
+    }
+
+    /**
+     * Apply retention to and compact every resource in the store.
+     */
+    private void runPass() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long nowMicros = start * 1000;
+        BlockStore.Throttle throttle = new BlockStore.Throttle(MAX_BYTES_PER_SECOND);
+        int dropped = 0;
+        int compacted = 0;
+        for (String resourceId : mStore.getResourceIds()) {
+            ResourceHistory history = null;
+            try {
+                // Borrowed rather than kept open, as the pass visits every resource ever recorded
+                history = mStore.borrow(resourceId);
+                if (history == null) {
+                    continue;
+                }
+                RetentionPolicy policy = mStore.getRetentionPolicy(history);
+                for (int tier = -1; tier < Rollup.getTierCount(); tier++) {
+                    BlockStore store = history.getStore(tier);
+                    long retention = policy.getRetentionMillis(tier);
+                    if (retention != RetentionPolicy.KEEP_FOREVER) {
+                        dropped += store.dropBefore(nowMicros - retention * 1000);
+                    }
+                    while (store.compact(nowMicros - COLD_AGE_MICROS, throttle)) {
+                        compacted++;
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to maintain history of " + resourceId, e);
+            } finally {
+                if (history != null) {
+                    mStore.giveBack(history);
+                }
+            }
+        }
+        Log.d(TAG, "Dropped " + dropped + " blocks, compacted " + compacted + " runs in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+}
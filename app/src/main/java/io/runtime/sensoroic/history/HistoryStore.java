@@ -0,0 +1,265 @@
+package io.runtime.sensoroic.history;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The recorded sensor history of every resource, one ResourceHistory per resource unique id,
+ * each kept in its own directory under a common root.
+ *
+ * Histories opened for recording or viewing stay open, as they are used again and again.
+ * Background maintenance visits every history ever recorded, so it borrows them instead: a
+ * borrowed history is shared with anyone else using it, and closed once returned unless it was
+ * opened for recording or viewing in the meantime.
+ */
+public class HistoryStore {
+
+    // Logging TAG
+    private static final String TAG = "HistoryStore";
+
+    private static final String CHARSET = "UTF-8";
+
+    private final File mRoot;
+    private final HashMap<String, ResourceHistory> mHistories = new HashMap<>();
+
+    // Histories opened by open() or get(), kept open, and the borrow count of the others
+    private final HashSet<String> mKept = new HashSet<>();
+    private final HashMap<String, Integer> mBorrowed = new HashMap<>();
+    private volatile RetentionPolicy mDefaultRetentionPolicy = RetentionPolicy.DEFAULT;
+
+    // Runs flushes requested from the main thread
+    private final ExecutorService mFlusher = Executors.newSingleThreadExecutor();
+
+    /**
+     * Constructor for HistoryStore.
+     * @param root the directory holding the history of every resource
+     */
+    public HistoryStore(File root) {
+        mRoot = root;
+    }
+
+    /**
+     * Get the history of a resource, creating it if there is none.
+     * @param resourceId    the resource unique id
+     * @param channelNames  the channel names of the resource
+     * @return the history
+     * @throws IOException if the history could not be opened or has different channels
+     */
+    public synchronized ResourceHistory open(String resourceId, String[] channelNames)
+            throws IOException {
+        ResourceHistory history = mHistories.get(resourceId);
+        if (history == null) {
+            history = ResourceHistory.create(resourceId, directory(resourceId), channelNames);
+            mHistories.put(resourceId, history);
+        }
+        mKept.add(resourceId);
+        return history;
+    }
+
+    /**
+     * Get the existing history of a resource.
+     * @param resourceId the resource unique id
+     * @return the history, or null if nothing was recorded for the resource
+     * @throws IOException if the history could not be opened
+     */
+    public synchronized ResourceHistory get(String resourceId) throws IOException {
+        ResourceHistory history = mHistories.get(resourceId);
+        if (history == null) {
+            history = ResourceHistory.open(resourceId, directory(resourceId));
+            if (history != null) {
+                mHistories.put(resourceId, history);
+            }
+        }
+        if (history != null) {
+            mKept.add(resourceId);
+        }
+        return history;
+    }
+
+    /**
+     * Borrow the existing history of a resource for a short piece of work. The history open for
+     * recording or viewing is shared if there is one, so nothing is ever opened twice. Every
+     * borrowed history must be given back with giveBack().
+     * @param resourceId the resource unique id
+     * @return the history, or null if nothing was recorded for the resource
+     * @throws IOException if the history could not be opened
+     */
+    public synchronized ResourceHistory borrow(String resourceId) throws IOException {
+        ResourceHistory history = mHistories.get(resourceId);
+        if (history == null) {
+            history = ResourceHistory.open(resourceId, directory(resourceId));
+            if (history == null) {
+                return null;
+            }
+            mHistories.put(resourceId, history);
+        }
+        Integer count = mBorrowed.get(resourceId);
+        mBorrowed.put(resourceId, count == null ? 1 : count + 1);
+        return history;
+    }
+
+    /**
+     * Give back a borrowed history, closing it if it is not borrowed any more and nobody opened
+     * it for recording or viewing.
+     * @param history the history returned by borrow()
+     */
+    public synchronized void giveBack(ResourceHistory history) {
+        String resourceId = history.getResourceId();
+        Integer count = mBorrowed.get(resourceId);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            mBorrowed.put(resourceId, count - 1);
+            return;
+        }
+        mBorrowed.remove(resourceId);
+        if (mKept.contains(resourceId)) {
+            return;
+        }
+        mHistories.remove(resourceId);
+        try {
+            history.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close history of " + resourceId, e);
+        }
+    }
+
+    /**
+     * Set the retention policy of resources without a policy of their own.
+     * @param policy the default policy
+     */
+    public void setDefaultRetentionPolicy(RetentionPolicy policy) {
+        mDefaultRetentionPolicy = policy;
+    }
+
+    /**
+     * Get the retention policy which applies to a resource.
+     * @param history the history of the resource
+     * @return the resource's own policy, or the default policy
+     */
+    public RetentionPolicy getRetentionPolicy(ResourceHistory history) {
+        RetentionPolicy policy = history.getRetentionPolicy();
+        return policy != null ? policy : mDefaultRetentionPolicy;
+    }
+
+    /**
+     * Get the unique ids of every resource with recorded history.
+     * @return the resource unique ids
+     */
+    public List<String> getResourceIds() {
+        ArrayList<String> ids = new ArrayList<>();
+        String[] names = mRoot.list();
+        if (names == null) {
+            return ids;
+        }
+        for (String name : names) {
+            try {
+                ids.add(URLDecoder.decode(name, CHARSET));
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Record a sample for a resource, logging rather than throwing on failure so that it can be
+     * called straight from a callback.
+     * @param resourceId    the resource unique id
+     * @param channelNames  the channel names of the resource
+     * @param timeMicros    the sample time in epoch microseconds
+     * @param values        the channel values, NaN for missing values
+     * @return true if the sample was recorded
+     */
+    public boolean append(String resourceId, String[] channelNames, long timeMicros,
+                          double[] values) {
+        try {
+            return open(resourceId, channelNames).append(timeMicros, values);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to record sample for " + resourceId, e);
+            return false;
+        }
+    }
+
+    /**
+     * Record a gap marker, a row with every value missing, e.g. where notifications were lost.
+     * Charts break their lines at gap markers rather than joining the samples either side.
+     * @param resourceId    the resource unique id
+     * @param channelNames  the channel names, used if the history does not exist yet
+     * @param timeMicros    the time of the gap in epoch microseconds
+     * @return true if the marker was recorded
+     */
+    public boolean appendGap(String resourceId, String[] channelNames, long timeMicros) {
+        double[] values = new double[channelNames.length];
+        Arrays.fill(values, Double.NaN);
+        return append(resourceId, channelNames, timeMicros, values);
+    }
+
+    /**
+     * Write the buffered samples of every open history to disk.
+     */
+    public void flush() {
+        for (ResourceHistory history : snapshot()) {
+            try {
+                history.flush();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to flush history of " + history.getResourceId(), e);
+            }
+        }
+    }
+
+    /**
+     * Write the buffered samples of every open history to disk on a background thread, e.g.
+     * when a screen stops, so that the UI thread neither writes blocks nor waits for a history
+     * being appended to.
+     */
+    public void flushInBackground() {
+        mFlusher.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Flush and close every open history.
+     */
+    public synchronized void close() {
+        for (ResourceHistory history : mHistories.values()) {
+            try {
+                history.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to close history of " + history.getResourceId(), e);
+            }
+        }
+        mHistories.clear();
+        mKept.clear();
+        mBorrowed.clear();
+    }
+
+    private synchronized List<ResourceHistory> snapshot() {
+        return new ArrayList<>(mHistories.values());
+    }
+
+    private File directory(String resourceId) {
+        try {
+            return new File(mRoot, URLEncoder.encode(resourceId, CHARSET));
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
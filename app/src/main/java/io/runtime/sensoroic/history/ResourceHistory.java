@@ -0,0 +1,338 @@
+package io.runtime.sensoroic.history;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The recorded history of one resource: its channel names, the store holding its raw samples
+ * and the rollup tiers summarising them at 1 s, 1 min and 1 h resolution. The tiers are kept up
+ * to date incrementally as samples are appended, so a chart over any time range can be drawn
+ * from a bounded number of rows by picking a tier with selectTier().
+ */
+public class ResourceHistory implements Closeable {
+
+    private static final String CHANNELS_FILE = "channels";
+    private static final String RAW_DIR = "raw";
+    private static final String TIER_DIR_PREFIX = "tier-";
+    private static final String RETENTION_FILE = "retention";
+
+    private final String mResourceId;
+    private final File mDir;
+    private final String[] mChannelNames;
+    private final BlockStore mRaw;
+    private final BlockStore[] mTiers;
+    private final RollupBuilder[] mBuilders;
+
+    // Row handed to bucket visitors when reading raw samples
+    private final double[] mRawBucket;
+
+    // Retention specific to this resource, null to use the store default
+    private volatile RetentionPolicy mRetentionPolicy;
+
+    private ResourceHistory(String resourceId, File dir, String[] channelNames)
+            throws IOException {
+        mResourceId = resourceId;
+        mDir = dir;
+        mChannelNames = channelNames;
+        mRetentionPolicy = readRetentionPolicy(dir);
+        int channels = channelNames.length;
+        mRaw = new BlockStore(new File(dir, RAW_DIR), channels, BlockStore.DEFAULT_BLOCK_ROWS);
+        mTiers = new BlockStore[Rollup.getTierCount()];
+        mBuilders = new RollupBuilder[mTiers.length];
+        for (int i = 0; i < mTiers.length; i++) {
+            mTiers[i] = new BlockStore(new File(dir, TIER_DIR_PREFIX + Rollup.getTierName(i)),
+                    channels * Rollup.COLUMNS, BlockStore.DEFAULT_BLOCK_ROWS);
+            mBuilders[i] = new RollupBuilder(Rollup.getTierPeriodMicros(i), channels, mTiers[i]);
+        }
+        mRawBucket = new double[channels * Rollup.COLUMNS];
+        catchUp();
+    }
+
+    /**
+     * Create the history of a resource, or open it if it already exists.
+     * @param resourceId    the resource unique id
+     * @param dir           the directory of the history
+     * @param channelNames  the channel names
+     * @return the history
+     * @throws IOException if the history could not be opened or has different channels
+     */
+    static ResourceHistory create(String resourceId, File dir, String[] channelNames)
+            throws IOException {
+        String[] existing = readChannelNames(dir);
+        if (existing == null) {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Failed to create " + dir);
+            }
+            writeChannelNames(dir, channelNames);
+        } else if (!Arrays.equals(existing, channelNames)) {
+            throw new IOException("History of " + resourceId + " has channels "
+                    + Arrays.toString(existing));
+        }
+        return new ResourceHistory(resourceId, dir, channelNames.clone());
+    }
+
+    /**
+     * Open the existing history of a resource.
+     * @param resourceId    the resource unique id
+     * @param dir           the directory of the history
+     * @return the history, or null if there is none
+     * @throws IOException if the history could not be opened
+     */
+    static ResourceHistory open(String resourceId, File dir) throws IOException {
+        String[] channelNames = readChannelNames(dir);
+        return channelNames == null ? null : new ResourceHistory(resourceId, dir, channelNames);
+    }
+
+    /**
+     * Get the unique id of the resource.
+     * @return the resource unique id
+     */
+    public String getResourceId() {
+        return mResourceId;
+    }
+
+    /**
+     * Get the channel names, in column order.
+     * @return the channel names
+     */
+    public String[] getChannelNames() {
+        return mChannelNames.clone();
+    }
+
+    /**
+     * Get the column of a channel.
+     * @param name the channel name
+     * @return the channel index, or -1 if there is no such channel
+     */
+    public int getChannelIndex(String name) {
+        for (int i = 0; i < mChannelNames.length; i++) {
+            if (mChannelNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the store holding every recorded sample.
+     * @return the raw store
+     */
+    public BlockStore getRaw() {
+        return mRaw;
+    }
+
+    /**
+     * Get the store of a rollup tier. Its rows use the column layout described in Rollup; the
+     * bucket currently being filled is not written until a later sample arrives.
+     * @param tier the tier index, 0 being the finest
+     * @return the tier store
+     */
+    public BlockStore getTier(int tier) {
+        return mTiers[tier];
+    }
+
+    /**
+     * Get the store of the raw samples or of a rollup tier.
+     * @param tier the tier index, or -1 for the raw samples
+     */
+    BlockStore getStore(int tier) {
+        return tier < 0 ? mRaw : mTiers[tier];
+    }
+
+    /**
+     * Get the retention policy specific to this resource.
+     * @return the policy, or null if the store default applies
+     */
+    public RetentionPolicy getRetentionPolicy() {
+        return mRetentionPolicy;
+    }
+
+    /**
+     * Set the retention policy specific to this resource. The policy is saved with the history.
+     * @param policy the policy, or null to use the store default
+     * @throws IOException if the policy could not be saved
+     */
+    public synchronized void setRetentionPolicy(RetentionPolicy policy) throws IOException {
+        File file = new File(mDir, RETENTION_FILE);
+        if (policy == null) {
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Failed to delete " + file);
+            }
+        } else {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                for (int tier = -1; tier < mTiers.length; tier++) {
+                    out.writeLong(policy.getRetentionMillis(tier));
+                }
+            } finally {
+                out.close();
+            }
+        }
+        mRetentionPolicy = policy;
+    }
+
+    /**
+     * Pick the coarsest tier which still gives at least one bucket per display column.
+     * @param fromMicros    the start of the range
+     * @param toMicros      the end of the range
+     * @param columns       the number of display columns, typically the chart width in pixels
+     * @return the tier index, or -1 if only the raw samples are fine enough
+     */
+    public int selectTier(long fromMicros, long toMicros, int columns) {
+        long microsPerColumn = (toMicros - fromMicros) / Math.max(1, columns);
+        int tier = -1;
+        for (int i = 0; i < mTiers.length; i++) {
+            if (Rollup.getTierPeriodMicros(i) <= microsPerColumn) {
+                tier = i;
+            }
+        }
+        return tier;
+    }
+
+    /**
+     * Visit the buckets of a tier within a time range. Raw samples are presented as buckets of
+     * one sample, so the visitor always receives rows in the Rollup column layout.
+     * @param tier          the tier index, or -1 for the raw samples
+     * @param fromMicros    the start of the range, inclusive
+     * @param toMicros      the end of the range, inclusive
+     * @param visitor       the visitor, the row passed to it is reused between buckets
+     * @return the number of buckets visited
+     * @throws IOException if the history could not be read
+     */
+    public int queryBuckets(int tier, long fromMicros, long toMicros,
+                            final BlockStore.RowVisitor visitor) throws IOException {
+        if (tier >= 0) {
+            return mTiers[tier].query(fromMicros, toMicros, visitor);
+        }
+        return mRaw.query(fromMicros, toMicros, new BlockStore.RowVisitor() {
+            @Override
+            public boolean onRow(long timeMicros, double[] values) {
+                for (int c = 0; c < values.length; c++) {
+                    boolean missing = Double.isNaN(values[c]);
+                    mRawBucket[Rollup.column(c, Rollup.MIN)] = values[c];
+                    mRawBucket[Rollup.column(c, Rollup.MAX)] = values[c];
+                    mRawBucket[Rollup.column(c, Rollup.MEAN)] = values[c];
+                    mRawBucket[Rollup.column(c, Rollup.COUNT)] = missing ? 0 : 1;
+                }
+                return visitor.onRow(timeMicros, mRawBucket);
+            }
+        });
+    }
+
+    /**
+     * Record a sample and fold it into the rollup tiers.
+     * @param timeMicros    the sample time in epoch microseconds
+     * @param values        the channel values, NaN for missing values
+     * @return true if the sample was recorded, false if it is older than the last sample
+     * @throws IOException if the sample could not be written
+     */
+    public synchronized boolean append(long timeMicros, double[] values) throws IOException {
+        if (!mRaw.append(timeMicros, values)) {
+            return false;
+        }
+        for (RollupBuilder builder : mBuilders) {
+            builder.add(timeMicros, values);
+        }
+        return true;
+    }
+
+    /**
+     * Write buffered samples to disk.
+     * @throws IOException if the samples could not be written
+     */
+    public synchronized void flush() throws IOException {
+        mRaw.flush();
+        for (BlockStore tier : mTiers) {
+            tier.flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mRaw.close();
+        for (BlockStore tier : mTiers) {
+            tier.close();
+        }
+    }
+
+    /**
+     * Feed the tiers the raw samples they have not summarised yet, either because the history
+     * predates the tiers or because the bucket being filled was lost when the app stopped.
+     */
+    private void catchUp() throws IOException {
+        long from = Long.MAX_VALUE;
+        for (RollupBuilder builder : mBuilders) {
+            from = Math.min(from, builder.getResumeMicros());
+        }
+        final IOException[] failure = new IOException[1];
+        mRaw.query(from, Long.MAX_VALUE, new BlockStore.RowVisitor() {
+            @Override
+            public boolean onRow(long timeMicros, double[] values) {
+                try {
+                    for (RollupBuilder builder : mBuilders) {
+                        builder.add(timeMicros, values);
+                    }
+                    return true;
+                } catch (IOException e) {
+                    failure[0] = e;
+                    return false;
+                }
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    private static RetentionPolicy readRetentionPolicy(File dir) throws IOException {
+        File file = new File(dir, RETENTION_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            return new RetentionPolicy(in.readLong(), in.readLong(), in.readLong(), in.readLong());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String[] readChannelNames(File dir) throws IOException {
+        File file = new File(dir, CHANNELS_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            String[] names = new String[in.readInt()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = in.readUTF();
+            }
+            return names;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeChannelNames(File dir, String[] names) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(new File(dir, CHANNELS_FILE))));
+        try {
+            out.writeInt(names.length);
+            for (String name : names) {
+                out.writeUTF(name);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
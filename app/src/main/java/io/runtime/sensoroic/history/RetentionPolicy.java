@@ -0,0 +1,44 @@
+package io.runtime.sensoroic.history;
+
+/**
+ * How long the raw samples and each rollup tier of a resource's history are kept. Data older
+ * than its retention is dropped by the HistoryCompactor, a whole block at a time.
+ */
+public class RetentionPolicy {
+
+    // Retention value for data which is never dropped
+    public static final long KEEP_FOREVER = -1;
+
+    private static final long HOUR_MILLIS = 3600 * 1000L;
+
+    /**
+     * The default policy: raw samples for 48 hours, 1 s rollups for 30 days, and the 1 min and
+     * 1 h rollups forever.
+     */
+    public static final RetentionPolicy DEFAULT = new RetentionPolicy(48 * HOUR_MILLIS,
+            30 * 24 * HOUR_MILLIS, KEEP_FOREVER, KEEP_FOREVER);
+
+    private final long mRawMillis;
+    private final long[] mTierMillis;
+
+    /**
+     * Constructor for RetentionPolicy. Each value is a duration in milliseconds or KEEP_FOREVER.
+     * @param rawMillis     retention of the raw samples
+     * @param secondMillis  retention of the 1 s rollups
+     * @param minuteMillis  retention of the 1 min rollups
+     * @param hourMillis    retention of the 1 h rollups
+     */
+    public RetentionPolicy(long rawMillis, long secondMillis, long minuteMillis, long hourMillis) {
+        mRawMillis = rawMillis;
+        mTierMillis = new long[] {secondMillis, minuteMillis, hourMillis};
+    }
+
+    /**
+     * Get the retention of the raw samples or of a rollup tier.
+     * @param tier the tier index, or -1 for the raw samples
+     * @return the retention in milliseconds, or KEEP_FOREVER
+     */
+    public long getRetentionMillis(int tier) {
+        return tier < 0 ? mRawMillis : mTierMillis[tier];
+    }
+}
@@ -0,0 +1,66 @@
+package io.runtime.sensoroic.history;
+
+/**
+ * Layout of the rollup tiers kept alongside the raw samples of a ResourceHistory.
+ *
+ * Every tier row summarises one bucket of the tier's period and is stamped with the bucket start
+ * time. For each channel it holds four columns: the minimum, maximum, mean and count of the
+ * channel's values in the bucket, so the column of a statistic is channel * COLUMNS + statistic.
+ */
+public final class Rollup {
+
+    // Statistics stored per channel
+    public static final int MIN = 0;
+    public static final int MAX = 1;
+    public static final int MEAN = 2;
+    public static final int COUNT = 3;
+    public static final int COLUMNS = 4;
+
+    // Tier bucket periods, finest first
+    static final long[] TIER_PERIODS_MICROS = {
+            1000000L,           // 1 s
+            60 * 1000000L,      // 1 min
+            3600 * 1000000L     // 1 h
+    };
+
+    static final String[] TIER_NAMES = {"1s", "1m", "1h"};
+
+    private Rollup() {
+    }
+
+    /**
+     * Get the column of a statistic in a tier row.
+     * @param channel   the channel index
+     * @param statistic one of MIN, MAX, MEAN or COUNT
+     * @return the column index
+     */
+    public static int column(int channel, int statistic) {
+        return channel * COLUMNS + statistic;
+    }
+
+    /**
+     * Get the number of rollup tiers.
+     * @return the tier count
+     */
+    public static int getTierCount() {
+        return TIER_PERIODS_MICROS.length;
+    }
+
+    /**
+     * Get the bucket period of a tier.
+     * @param tier the tier index, 0 being the finest
+     * @return the period in microseconds
+     */
+    public static long getTierPeriodMicros(int tier) {
+        return TIER_PERIODS_MICROS[tier];
+    }
+
+    /**
+     * Get the display name of a tier.
+     * @param tier the tier index, or -1 for the raw samples
+     * @return the name
+     */
+    public static String getTierName(int tier) {
+        return tier < 0 ? "raw" : TIER_NAMES[tier];
+    }
+}
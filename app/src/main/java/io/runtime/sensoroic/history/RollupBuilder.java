@@ -0,0 +1,75 @@
+package io.runtime.sensoroic.history;
+
+import java.io.IOException;
+
+/**
+ * Incrementally folds raw samples into the buckets of one rollup tier. The bucket being filled is
+ * kept in memory and written to the tier store once a sample falls into a later bucket.
+ */
+class RollupBuilder {
+
+    private final long mPeriodMicros;
+    private final int mChannels;
+    private final BlockStore mTier;
+    private final BlockStats mStats;
+    private final double[] mRow;
+
+    // Start of the bucket being filled, Long.MIN_VALUE if none
+    private long mBucketStart = Long.MIN_VALUE;
+
+    // Samples before this time are already summarised in the tier
+    private long mResumeMicros;
+
+    RollupBuilder(long periodMicros, int channels, BlockStore tier) {
+        mPeriodMicros = periodMicros;
+        mChannels = channels;
+        mTier = tier;
+        mStats = new BlockStats(channels);
+        mRow = new double[channels * Rollup.COLUMNS];
+        long last = tier.getLastTimeMicros();
+        mResumeMicros = last < 0 ? Long.MIN_VALUE : last + periodMicros;
+    }
+
+    /**
+     * Get the time from which raw samples still have to be fed to this builder.
+     */
+    long getResumeMicros() {
+        return mResumeMicros;
+    }
+
+    void add(long timeMicros, double[] values) throws IOException {
+        if (timeMicros < mResumeMicros) {
+            return;
+        }
+        long bucket = bucketStart(timeMicros);
+        if (bucket != mBucketStart) {
+            emit();
+            mBucketStart = bucket;
+        }
+        mStats.add(values, 0);
+    }
+
+    private void emit() throws IOException {
+        if (mBucketStart == Long.MIN_VALUE) {
+            return;
+        }
+        for (int c = 0; c < mChannels; c++) {
+            int count = mStats.mCount[c];
+            mRow[Rollup.column(c, Rollup.MIN)] = mStats.mMin[c];
+            mRow[Rollup.column(c, Rollup.MAX)] = mStats.mMax[c];
+            mRow[Rollup.column(c, Rollup.MEAN)] = count == 0 ? Double.NaN : mStats.mSum[c] / count;
+            mRow[Rollup.column(c, Rollup.COUNT)] = count;
+        }
+        mTier.append(mBucketStart, mRow);
+        mResumeMicros = mBucketStart + mPeriodMicros;
+        mStats.reset();
+    }
+
+    private long bucketStart(long timeMicros) {
+        long rem = timeMicros % mPeriodMicros;
+        if (rem < 0) {
+            rem += mPeriodMicros;
+        }
+        return timeMicros - rem;
+    }
+}
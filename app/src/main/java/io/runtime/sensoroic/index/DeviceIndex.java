@@ -0,0 +1,539 @@
+package io.runtime.sensoroic.index;
+
+import android.os.SystemClock;
+
+import org.iotivity.base.OcResource;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.runtime.sensoroic.MynewtSensor;
+import io.runtime.sensoroic.OicApplication;
+import io.runtime.sensoroic.Transport;
+import io.runtime.sensoroic.health.HostHealth;
+import io.runtime.sensoroic.health.HostHealthMonitor;
+
+/**
+ * An in-memory search index over the discovered resources, for finding a board among hundreds.
+ *
+ * The host, uri and readable name of every resource are indexed by their trigrams: each
+ * trigram maps to the set of entries containing it. A search term of three or more characters
+ * only verifies the entries holding all of its trigrams, so a query touches a handful of entries
+ * rather than the whole fleet; shorter terms are checked against every entry. Matches are ranked
+ * by how well they match: a field starting with the term, then a word of a field starting with
+ * it, then the term anywhere.
+ *
+ * Results can be narrowed by facets: the sensor type and the transport, which are indexed, and
+ * the host's health and how recently the resource was seen, which change over time and are
+ * evaluated per match. Every result carries the counts of each facet value among the text
+ * matches, each dimension counted with the other dimensions' filters applied.
+ *
+ * Entries are added, updated and removed one at a time as resources are discovered or expire.
+ */
+public class DeviceIndex {
+
+    /**
+     * How recently a resource was last discovered.
+     */
+    public enum LastSeen {
+        // Seen within RECENT_MILLIS
+        RECENT,
+        // Not seen for longer than that
+        STALE
+    }
+
+    // Resources discovered within this long count as recently seen
+    public static final long RECENT_MILLIS = 5 * 60 * 1000;
+
+    private static final int GRAM = 3;
+
+    private final HostHealthMonitor mHealthMonitor;
+
+    // Entries by slot, null for free slots, and the slot of each resource id
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+    private final HashMap<String, Integer> mSlots = new HashMap<>();
+    private final BitSet mUsed = new BitSet();
+
+    // Inverted indexes: the entries holding each trigram, sensor type and transport
+    private final HashMap<String, BitSet> mGrams = new HashMap<>();
+    private final HashMap<String, BitSet> mTypes = new HashMap<>();
+    private final EnumMap<Transport, BitSet> mTransports = new EnumMap<>(Transport.class);
+
+    /**
+     * Constructor for DeviceIndex.
+     * @param healthMonitor the monitor consulted for the health facet
+     */
+    public DeviceIndex(HostHealthMonitor healthMonitor) {
+        mHealthMonitor = healthMonitor;
+        for (Transport transport : Transport.values()) {
+            mTransports.put(transport, new BitSet());
+        }
+    }
+
+    /**
+     * Add a resource, or update it and mark it as seen now if it is already indexed.
+     * @param resource the discovered resource
+     */
+    public void put(OcResource resource) {
+        put(resource, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Add a resource, or update it if it is already indexed.
+     * @param resource      the discovered resource
+     * @param seenAtMillis  when the resource was discovered, in elapsed realtime milliseconds
+     */
+    public synchronized void put(OcResource resource, long seenAtMillis) {
+        String id = OicApplication.createUniqueId(resource);
+        Integer slot = mSlots.get(id);
+        if (slot != null) {
+            unindex(slot);
+        } else {
+            slot = mUsed.nextClearBit(0);
+            mSlots.put(id, slot);
+        }
+        Entry entry = new Entry(resource, id, seenAtMillis);
+        while (mEntries.size() <= slot) {
+            mEntries.add(null);
+        }
+        mEntries.set(slot, entry);
+        mUsed.set(slot);
+        index(slot, entry);
+    }
+
+    /**
+     * Mark a resource discovered again unchanged as seen, without reindexing it.
+     * @param resourceId    the resource unique id
+     * @param seenAtMillis  when the resource was discovered, in elapsed realtime milliseconds
+     * @return true if the resource is indexed
+     */
+    public synchronized boolean touch(String resourceId, long seenAtMillis) {
+        Integer slot = mSlots.get(resourceId);
+        if (slot == null) {
+            return false;
+        }
+        mEntries.get(slot).mSeenAtMillis = seenAtMillis;
+        return true;
+    }
+
+    /**
+     * Remove a resource, e.g. once it expired.
+     * @param resourceId the resource unique id
+     * @return true if the resource was indexed
+     */
+    public synchronized boolean remove(String resourceId) {
+        Integer slot = mSlots.remove(resourceId);
+        if (slot == null) {
+            return false;
+        }
+        unindex(slot);
+        mEntries.set(slot, null);
+        mUsed.clear(slot);
+        return true;
+    }
+
+    /**
+     * Get the number of indexed resources.
+     * @return the resource count
+     */
+    public synchronized int size() {
+        return mSlots.size();
+    }
+
+    private void index(int slot, Entry entry) {
+        for (String field : entry.mFields) {
+            for (int i = 0; i + GRAM <= field.length(); i++) {
+                String gram = field.substring(i, i + GRAM);
+                BitSet entries = mGrams.get(gram);
+                if (entries == null) {
+                    entries = new BitSet();
+                    mGrams.put(gram, entries);
+                }
+                entries.set(slot);
+            }
+        }
+        BitSet types = mTypes.get(entry.mSensorType);
+        if (types == null) {
+            types = new BitSet();
+            mTypes.put(entry.mSensorType, types);
+        }
+        types.set(slot);
+        mTransports.get(entry.mTransport).set(slot);
+    }
+
+    private void unindex(int slot) {
+        Entry entry = mEntries.get(slot);
+        for (String field : entry.mFields) {
+            for (int i = 0; i + GRAM <= field.length(); i++) {
+                String gram = field.substring(i, i + GRAM);
+                BitSet entries = mGrams.get(gram);
+                if (entries != null) {
+                    entries.clear(slot);
+                    if (entries.isEmpty()) {
+                        mGrams.remove(gram);
+                    }
+                }
+            }
+        }
+        BitSet types = mTypes.get(entry.mSensorType);
+        types.clear(slot);
+        if (types.isEmpty()) {
+            mTypes.remove(entry.mSensorType);
+        }
+        mTransports.get(entry.mTransport).clear(slot);
+    }
+
+    /**
+     * Search the index. The text terms and the type and transport filters narrow the entries
+     * scored through the inverted indexes; the health and last seen filters are checked per match.
+     * @param query the query
+     * @return the matches, best first, and the facet counts
+     */
+    public synchronized Result search(Query query) {
+        String[] terms = query.mTerms;
+
+        // Candidates holding every trigram of every long enough term
+        BitSet candidates = (BitSet) mUsed.clone();
+        for (String term : terms) {
+            for (int i = 0; i + GRAM <= term.length() && !candidates.isEmpty(); i++) {
+                BitSet entries = mGrams.get(term.substring(i, i + GRAM));
+                if (entries == null) {
+                    candidates.clear();
+                } else {
+                    candidates.and(entries);
+                }
+            }
+        }
+
+        // Entries of the filtered type and transport. Every facet count but the type counts
+        // needs the type filter and every one but the transport counts the transport filter, so
+        // entries outside both can be dropped before scoring
+        BitSet types = mUsed;
+        if (query.mSensorType != null) {
+            types = mTypes.get(query.mSensorType);
+            if (types == null) {
+                types = new BitSet();
+            }
+        }
+        BitSet transports = query.mTransport != null ? mTransports.get(query.mTransport) : mUsed;
+        BitSet facets = (BitSet) types.clone();
+        facets.or(transports);
+        candidates.and(facets);
+
+        Result result = new Result();
+        long now = SystemClock.elapsedRealtime();
+        HashMap<String, HostHealth.State> health = new HashMap<>();
+        final HashMap<Entry, Integer> scores = new HashMap<>();
+        for (int slot = candidates.nextSetBit(0); slot >= 0;
+                slot = candidates.nextSetBit(slot + 1)) {
+            Entry entry = mEntries.get(slot);
+            int score = entry.score(terms);
+            if (score < 0) {
+                continue;
+            }
+            HostHealth.State state = health.get(entry.mHost);
+            if (state == null) {
+                state = mHealthMonitor.getState(entry.mHost);
+                health.put(entry.mHost, state);
+            }
+            LastSeen seen = now - entry.mSeenAtMillis <= RECENT_MILLIS
+                    ? LastSeen.RECENT : LastSeen.STALE;
+
+            boolean type = types.get(slot);
+            boolean transport = transports.get(slot);
+            boolean healthy = query.mHealth == null || query.mHealth == state;
+            boolean recent = query.mLastSeen == null || query.mLastSeen == seen;
+
+            // Each dimension is counted with the filters of the others applied
+            if (transport && healthy && recent) {
+                increment(result.mTypeCounts, entry.mSensorType);
+            }
+            if (type && healthy && recent) {
+                increment(result.mTransportCounts, entry.mTransport);
+            }
+            if (type && transport && recent) {
+                increment(result.mHealthCounts, state);
+            }
+            if (type && transport && healthy) {
+                increment(result.mLastSeenCounts, seen);
+            }
+            if (type && transport && healthy && recent) {
+                result.mMatches.add(entry);
+                scores.put(entry, score);
+            }
+        }
+        Collections.sort(result.mMatches, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                int byScore = scores.get(a) - scores.get(b);
+                if (byScore != 0) {
+                    return byScore;
+                }
+                int byName = a.mName.compareTo(b.mName);
+                return byName != 0 ? byName : a.mResourceId.compareTo(b.mResourceId);
+            }
+        });
+        return result;
+    }
+
+    private static <K> void increment(Map<K, Integer> counts, K key) {
+        Integer count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * One indexed resource, with its searchable fields lower cased once.
+     */
+    public static class Entry {
+
+        // Rank of the ways a term can match, lower is better
+        private static final int SCORE_FIELD_PREFIX = 0;
+        private static final int SCORE_WORD_PREFIX = 1;
+        private static final int SCORE_SUBSTRING = 2;
+
+        private final OcResource mResource;
+        private final String mResourceId;
+        private final String mHost;
+        private final String mName;
+        private final String mSensorType;
+        private final Transport mTransport;
+        private long mSeenAtMillis;
+
+        // Host, uri and readable name, lower cased
+        private final String[] mFields;
+
+        private Entry(OcResource resource, String resourceId, long seenAtMillis) {
+            mResource = resource;
+            mResourceId = resourceId;
+            mHost = resource.getHost();
+            mName = MynewtSensor.getReadableName(resource);
+            String sensorType = MynewtSensor.getSensorResourceType(resource.getResourceTypes());
+            if (sensorType == null) {
+                List<String> types = resource.getResourceTypes();
+                sensorType = types.isEmpty() ? "" : types.get(0);
+            }
+            mSensorType = sensorType;
+            mTransport = Transport.of(resource);
+            mSeenAtMillis = seenAtMillis;
+            mFields = new String[] {
+                    mHost.toLowerCase(Locale.US),
+                    resource.getUri().toLowerCase(Locale.US),
+                    mName.toLowerCase(Locale.US)
+            };
+        }
+
+        /**
+         * Score the entry against every term.
+         * @return the sum of the best score of each term, or -1 if a term does not match
+         */
+        private int score(String[] terms) {
+            int total = 0;
+            for (String term : terms) {
+                int best = -1;
+                for (String field : mFields) {
+                    int at = field.indexOf(term);
+                    while (at >= 0 && (best < 0 || best > SCORE_FIELD_PREFIX)) {
+                        int score = at == 0 ? SCORE_FIELD_PREFIX
+                                : Character.isLetterOrDigit(field.charAt(at - 1))
+                                ? SCORE_SUBSTRING : SCORE_WORD_PREFIX;
+                        if (best < 0 || score < best) {
+                            best = score;
+                        }
+                        if (score == SCORE_SUBSTRING) {
+                            at = field.indexOf(term, at + 1);
+                        } else {
+                            break;
+                        }
+                    }
+                }
+                if (best < 0) {
+                    return -1;
+                }
+                total += best;
+            }
+            return total;
+        }
+
+        public OcResource getResource() {
+            return mResource;
+        }
+
+        public String getResourceId() {
+            return mResourceId;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public String getSensorType() {
+            return mSensorType;
+        }
+
+        public Transport getTransport() {
+            return mTransport;
+        }
+
+        /**
+         * Get when the resource was last discovered.
+         * @return the elapsed realtime in milliseconds
+         */
+        public long getSeenAtMillis() {
+            return mSeenAtMillis;
+        }
+    }
+
+    /**
+     * A search: free text terms which must all match, and optional facet filters.
+     *
+     * Queries can be parsed from what the user typed, where "type:", "transport:", "health:"
+     * and "seen:" tokens set the facets, e.g. "kitchen type:tmp transport:ble health:open".
+     * Values are matched case insensitively, and a type can be given without the Mynewt prefix.
+     */
+    public static class Query {
+
+        private String[] mTerms = new String[0];
+        private String mSensorType;
+        private Transport mTransport;
+        private HostHealth.State mHealth;
+        private LastSeen mLastSeen;
+
+        /**
+         * Parse a query typed by the user. Unknown facet values are searched as text.
+         * @param text the query text
+         * @return the query
+         */
+        public static Query parse(String text) {
+            Query query = new Query();
+            ArrayList<String> terms = new ArrayList<>();
+            for (String token : text.trim().toLowerCase(Locale.US).split("\\s+")) {
+                if (token.isEmpty()) {
+                    continue;
+                }
+                int colon = token.indexOf(':');
+                String key = colon > 0 ? token.substring(0, colon) : "";
+                String value = colon > 0 ? token.substring(colon + 1) : token;
+                if (key.equals("type") && !value.isEmpty()) {
+                    query.mSensorType = value.contains(".") ? value
+                            : MynewtSensor.MYNEWT_SENSOR_RT_PREFIX + value;
+                } else if (key.equals("transport") && valueOf(Transport.class, value) != null) {
+                    query.mTransport = valueOf(Transport.class, value);
+                } else if (key.equals("health") && valueOf(HostHealth.State.class, value) != null) {
+                    query.mHealth = valueOf(HostHealth.State.class, value);
+                } else if (key.equals("seen") && valueOf(LastSeen.class, value) != null) {
+                    query.mLastSeen = valueOf(LastSeen.class, value);
+                } else {
+                    terms.add(token);
+                }
+            }
+            query.mTerms = terms.toArray(new String[terms.size()]);
+            return query;
+        }
+
+        private static <E extends Enum<E>> E valueOf(Class<E> type, String value) {
+            for (E e : type.getEnumConstants()) {
+                if (e.name().equalsIgnoreCase(value)) {
+                    return e;
+                }
+            }
+            return null;
+        }
+
+        public Query setText(String text) {
+            ArrayList<String> terms = new ArrayList<>();
+            for (String term : text.trim().toLowerCase(Locale.US).split("\\s+")) {
+                if (!term.isEmpty()) {
+                    terms.add(term);
+                }
+            }
+            mTerms = terms.toArray(new String[terms.size()]);
+            return this;
+        }
+
+        public Query setSensorType(String sensorType) {
+            mSensorType = sensorType;
+            return this;
+        }
+
+        public Query setTransport(Transport transport) {
+            mTransport = transport;
+            return this;
+        }
+
+        public Query setHealth(HostHealth.State health) {
+            mHealth = health;
+            return this;
+        }
+
+        public Query setLastSeen(LastSeen lastSeen) {
+            mLastSeen = lastSeen;
+            return this;
+        }
+
+        /**
+         * Whether or not the query matches everything.
+         * @return true if there are no terms and no facet filters
+         */
+        public boolean isEmpty() {
+            return mTerms.length == 0 && mSensorType == null && mTransport == null
+                    && mHealth == null && mLastSeen == null;
+        }
+    }
+
+    /**
+     * The matches of a search and the facet counts among them.
+     */
+    public static class Result {
+
+        private final ArrayList<Entry> mMatches = new ArrayList<>();
+        private final TreeMap<String, Integer> mTypeCounts = new TreeMap<>();
+        private final EnumMap<Transport, Integer> mTransportCounts = new EnumMap<>(Transport.class);
+        private final EnumMap<HostHealth.State, Integer> mHealthCounts =
+                new EnumMap<>(HostHealth.State.class);
+        private final EnumMap<LastSeen, Integer> mLastSeenCounts = new EnumMap<>(LastSeen.class);
+
+        /**
+         * Get the matching entries, best match first.
+         * @return the matches
+         */
+        public List<Entry> getMatches() {
+            return mMatches;
+        }
+
+        /**
+         * Get the matching resources, best match first.
+         * @return a new list of the resources
+         */
+        public List<OcResource> getResources() {
+            ArrayList<OcResource> resources = new ArrayList<>(mMatches.size());
+            for (Entry entry : mMatches) {
+                resources.add(entry.mResource);
+            }
+            return resources;
+        }
+
+        public Map<String, Integer> getTypeCounts() {
+            return mTypeCounts;
+        }
+
+        public Map<Transport, Integer> getTransportCounts() {
+            return mTransportCounts;
+        }
+
+        public Map<HostHealth.State, Integer> getHealthCounts() {
+            return mHealthCounts;
+        }
+
+        public Map<LastSeen, Integer> getLastSeenCounts() {
+            return mLastSeenCounts;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package io.runtime.sensoroic.observe;
+
+import org.iotivity.base.OcHeaderOption;
+import org.iotivity.base.OcRepresentation;
+import org.iotivity.base.OcResource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.runtime.sensoroic.MynewtSensor;
+import io.runtime.sensoroic.OicApplication;
+import io.runtime.sensoroic.health.HostHealthMonitor;
+import io.runtime.sensoroic.stream.StreamClock;
+
+/**
+ * Shares one observe subscription per resource between every screen, tile and content provider
+ * client interested in it, so a sensor is only observed once over the radio however many
+ * consumers it has.
+ *
+ * The first started Subscription to a resource starts an ObserveSupervisor for it and the last
+ * one cancelled stops it again. Notifications, state changes and gaps of the shared stream are
+ * passed to every started subscription, and a subscription joining a live stream is first given
+ * its latest notification, as a resource notifying only on change may not notify again for a
+ * long time. The hub also keeps the latest values of every resource
+ * it observes and tells its update listeners about each notification.
+ */
+public class ObserveHub {
+
+    private final HostHealthMonitor mHealthMonitor;
+    private final ObserveMetrics mMetrics;
+
+    private final HashMap<String, Channel> mChannels = new HashMap<>();
+    private final HashMap<String, Latest> mLatest = new HashMap<>();
+    private volatile OnUpdateListener[] mUpdateListeners = new OnUpdateListener[0];
+
+    /**
+     * Constructor for ObserveHub.
+     * @param healthMonitor the host health monitor the supervisors report to, or null
+     * @param metrics       the metrics holding each resource's sequence tracker
+     */
+    public ObserveHub(HostHealthMonitor healthMonitor, ObserveMetrics metrics) {
+        mHealthMonitor = healthMonitor;
+        mMetrics = metrics;
+    }
+
+    /**
+     * Create a subscription to a resource. Nothing is observed until it is started.
+     * @param resource  the resource
+     * @param listener  the listener notifications are passed on to
+     * @return the subscription
+     */
+    public Subscription newSubscription(OcResource resource, OcResource.OnObserveListener listener) {
+        return new Subscription(resource, listener);
+    }
+
+    /**
+     * Add a listener told about every notification of every observed resource.
+     * @param listener the listener
+     */
+    public synchronized void addOnUpdateListener(OnUpdateListener listener) {
+        OnUpdateListener[] listeners = Arrays.copyOf(mUpdateListeners,
+                mUpdateListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        mUpdateListeners = listeners;
+    }
+
+    /**
+     * Get the latest values of a resource.
+     * @param resourceId the resource unique id
+     * @return a copy of the representation values, or null if no notification has arrived
+     */
+    public Map<String, Object> getLatestValues(String resourceId) {
+        Latest latest;
+        synchronized (this) {
+            latest = mLatest.get(resourceId);
+        }
+        if (latest == null) {
+            return null;
+        }
+        synchronized (latest) {
+            return new HashMap<>(latest.mValues);
+        }
+    }
+
+    /**
+     * Get the local time the latest notification of a resource arrived at.
+     * @param resourceId the resource unique id
+     * @return the time in microseconds, or -1 if no notification has arrived
+     */
+    public long getLatestTimeMicros(String resourceId) {
+        Latest latest;
+        synchronized (this) {
+            latest = mLatest.get(resourceId);
+        }
+        if (latest == null) {
+            return -1;
+        }
+        synchronized (latest) {
+            return latest.mTimeMicros;
+        }
+    }
+
+    /**
+     * Get the ids of the resources with latest values.
+     * @return a copy of the resource unique ids
+     */
+    public synchronized List<String> getLatestResourceIds() {
+        return new ArrayList<>(mLatest.keySet());
+    }
+
+    /**
+     * Get the number of started subscriptions sharing a resource's stream.
+     * @param resourceId the resource unique id
+     * @return the subscriber count
+     */
+    public synchronized int getSubscriberCount(String resourceId) {
+        Channel channel = mChannels.get(resourceId);
+        return channel == null ? 0 : channel.mSubscriptions.length;
+    }
+
+    private boolean start(Subscription subscription, boolean admitted) {
+        Channel channel;
+        boolean first = false;
+        synchronized (this) {
+            channel = mChannels.get(subscription.mResourceId);
+            if (channel == null) {
+                Latest latest = mLatest.get(subscription.mResourceId);
+                if (latest == null) {
+                    latest = new Latest();
+                    mLatest.put(subscription.mResourceId, latest);
+                }
+                channel = new Channel(subscription.mResource, latest);
+                mChannels.put(subscription.mResourceId, channel);
+                first = true;
+            }
+            channel.add(subscription);
+            subscription.mChannel = channel;
+        }
+        if (first) {
+            channel.mSupervisor.start(admitted);
+        } else {
+            channel.replayLatest(subscription);
+        }
+        return first;
+    }
+
+    private void cancel(Subscription subscription) {
+        Channel channel;
+        boolean last;
+        synchronized (this) {
+            channel = subscription.mChannel;
+            if (channel == null) {
+                return;
+            }
+            subscription.mChannel = null;
+            channel.remove(subscription);
+            last = channel.mSubscriptions.length == 0;
+            if (last) {
+                mChannels.remove(subscription.mResourceId);
+            }
+        }
+        if (last) {
+            channel.mSupervisor.stop();
+        }
+    }
+
+    /**
+     * The shared stream of one resource.
+     */
+    private class Channel implements OcResource.OnObserveListener,
+            ObserveSupervisor.OnStateChangeListener, ObserveSupervisor.OnGapListener {
+
+        private final String mResourceId;
+        private final ObserveSupervisor mSupervisor;
+        private final Latest mLatest;
+
+        // Replaced as a whole under the hub's lock, so notifications are passed on without locking
+        private volatile Subscription[] mSubscriptions = new Subscription[0];
+
+        private Channel(OcResource resource, Latest latest) {
+            mResourceId = OicApplication.createUniqueId(resource);
+            mLatest = latest;
+            mSupervisor = new ObserveSupervisor(resource, this, mHealthMonitor);
+            mSupervisor.setSequenceTracker(mMetrics.getTracker(mResourceId));
+            // Mynewt sensors notify periodically, anything else may only notify on change
+            mSupervisor.setStallCheckEnabled(MynewtSensor.isMynewtSensor(resource));
+            mSupervisor.setOnStateChangeListener(this);
+            mSupervisor.setOnGapListener(this);
+        }
+
+        private void add(Subscription subscription) {
+            Subscription[] subscriptions = Arrays.copyOf(mSubscriptions, mSubscriptions.length + 1);
+            subscriptions[subscriptions.length - 1] = subscription;
+            mSubscriptions = subscriptions;
+        }
+
+        private void remove(Subscription subscription) {
+            ArrayList<Subscription> subscriptions = new ArrayList<>(Arrays.asList(mSubscriptions));
+            subscriptions.remove(subscription);
+            mSubscriptions = subscriptions.toArray(new Subscription[subscriptions.size()]);
+        }
+
+        /**
+         * Pass the latest notification to a subscription joining the stream, which would
+         * otherwise hear nothing until the resource next notifies, if it ever does. Nothing is
+         * replayed unless the stream is live, or if a newer notification reached the
+         * subscription first.
+         */
+        private void replayLatest(Subscription subscription) {
+            if (mSupervisor.getState() != ObserveSupervisor.State.LIVE) {
+                return;
+            }
+            List<OcHeaderOption> list;
+            OcRepresentation representation;
+            int sequenceNumber;
+            long version;
+            synchronized (mLatest) {
+                if (mLatest.mRepresentation == null) {
+                    return;
+                }
+                list = mLatest.mHeaders;
+                representation = mLatest.mRepresentation;
+                sequenceNumber = mLatest.mSequenceNumber;
+                version = mLatest.mVersion;
+            }
+            subscription.deliver(version, list, representation, sequenceNumber);
+        }
+
+        @Override
+        public void onObserveCompleted(List<OcHeaderOption> list,
+                                       OcRepresentation ocRepresentation, int i) {
+            long version;
+            synchronized (mLatest) {
+                mLatest.mValues.putAll(ocRepresentation.getValues());
+                mLatest.mTimeMicros = StreamClock.nowMicros();
+                mLatest.mHeaders = list;
+                mLatest.mRepresentation = ocRepresentation;
+                mLatest.mSequenceNumber = i;
+                version = ++mLatest.mVersion;
+            }
+            Subscription[] subscriptions = mSubscriptions;
+            for (int s = 0; s < subscriptions.length; s++) {
+                subscriptions[s].deliver(version, list, ocRepresentation, i);
+            }
+            OnUpdateListener[] listeners = mUpdateListeners;
+            for (int l = 0; l < listeners.length; l++) {
+                listeners[l].onResourceUpdated(mResourceId);
+            }
+        }
+
+        @Override
+        public void onObserveFailed(Throwable throwable) {
+            Subscription[] subscriptions = mSubscriptions;
+            for (int s = 0; s < subscriptions.length; s++) {
+                subscriptions[s].mListener.onObserveFailed(throwable);
+            }
+        }
+
+        @Override
+        public void onObserveStateChanged(ObserveSupervisor supervisor,
+                                          ObserveSupervisor.State state) {
+            Subscription[] subscriptions = mSubscriptions;
+            for (int s = 0; s < subscriptions.length; s++) {
+                ObserveSupervisor.OnStateChangeListener listener =
+                        subscriptions[s].mStateListener;
+                if (listener != null) {
+                    listener.onObserveStateChanged(supervisor, state);
+                }
+            }
+        }
+
+        @Override
+        public void onNotificationsLost(ObserveSupervisor supervisor, int count) {
+            Subscription[] subscriptions = mSubscriptions;
+            for (int s = 0; s < subscriptions.length; s++) {
+                ObserveSupervisor.OnGapListener listener = subscriptions[s].mGapListener;
+                if (listener != null) {
+                    listener.onNotificationsLost(supervisor, count);
+                }
+            }
+        }
+    }
+
+    /**
+     * The latest values of a resource, merged across notifications.
+     */
+    private static class Latest {
+        private final HashMap<String, Object> mValues = new HashMap<>();
+        private long mTimeMicros = -1;
+
+        // The latest notification as received, replayed to subscriptions joining a live stream
+        private List<OcHeaderOption> mHeaders;
+        private OcRepresentation mRepresentation;
+        private int mSequenceNumber;
+        private long mVersion = 0;
+    }
+
+    /**
+     * One consumer's interest in a resource's stream.
+     */
+    public class Subscription {
+
+        private final OcResource mResource;
+        private final String mResourceId;
+        private final OcResource.OnObserveListener mListener;
+        private volatile ObserveSupervisor.OnStateChangeListener mStateListener;
+        private volatile ObserveSupervisor.OnGapListener mGapListener;
+
+        // The shared stream while started, guarded by the hub
+        private Channel mChannel;
+
+        // Version of the latest notification passed on, so a replay never follows a newer one
+        private final AtomicLong mVersion = new AtomicLong();
+
+        private Subscription(OcResource resource, OcResource.OnObserveListener listener) {
+            mResource = resource;
+            mResourceId = OicApplication.createUniqueId(resource);
+            mListener = listener;
+        }
+
+        /**
+         * Set the listener told about state changes of the shared stream.
+         * @param listener the listener
+         */
+        public void setOnStateChangeListener(ObserveSupervisor.OnStateChangeListener listener) {
+            mStateListener = listener;
+        }
+
+        /**
+         * Set the listener told about notifications lost by the shared stream.
+         * @param listener the listener
+         */
+        public void setOnGapListener(ObserveSupervisor.OnGapListener listener) {
+            mGapListener = listener;
+        }
+
+        private void deliver(long version, List<OcHeaderOption> list,
+                             OcRepresentation representation, int sequenceNumber) {
+            long seen;
+            do {
+                seen = mVersion.get();
+                if (seen >= version) {
+                    return;
+                }
+            } while (!mVersion.compareAndSet(seen, version));
+            mListener.onObserveCompleted(list, representation, sequenceNumber);
+        }
+
+        /**
+         * Join the resource's shared stream, observing the resource if nobody else does yet. If
+         * the stream is already live, the latest notification is passed on straight away, on
+         * the calling thread.
+         */
+        public void start() {
+            ObserveHub.this.start(this, false);
+        }
+
+        /**
+         * Join the resource's shared stream like start(), for a caller which has already asked
+         * the host health monitor whether the resource may be observed.
+         * @param admitted  whether HostHealthMonitor.allowRequest() let the caller through, in
+         *                  which case the caller records the outcome of the first subscription
+         * @return true if this subscription started observing the resource, and so the caller
+         *         should record the outcome; false if it joined a stream already observed
+         */
+        public boolean start(boolean admitted) {
+            return ObserveHub.this.start(this, admitted);
+        }
+
+        /**
+         * Leave the shared stream. The resource is no longer observed once every subscription to
+         * it has been cancelled.
+         */
+        public void cancel() {
+            ObserveHub.this.cancel(this);
+        }
+
+        /**
+         * Get the supervisor of the shared stream, e.g. to read its state or resubscribe count.
+         * @return the supervisor, or null if the subscription is not started
+         */
+        public ObserveSupervisor getSupervisor() {
+            synchronized (ObserveHub.this) {
+                return mChannel == null ? null : mChannel.mSupervisor;
+            }
+        }
+
+        public String getResourceId() {
+            return mResourceId;
+        }
+    }
+
+    /**
+     * The listener told about notifications of every resource observed through the hub.
+     */
+    public interface OnUpdateListener {
+        /**
+         * Called on the observe callback thread for every notification.
+         * @param resourceId the resource unique id
+         */
+        void onResourceUpdated(String resourceId);
+    }
+}
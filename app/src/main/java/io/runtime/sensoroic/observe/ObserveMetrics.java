@@ -0,0 +1,36 @@
+package io.runtime.sensoroic.observe;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The sequence trackers of every observed resource, so that loss, duplicate and reorder counts
+ * accumulate per resource across subscriptions and screens.
+ */
+public class ObserveMetrics {
+
+    private final HashMap<String, SequenceTracker> mTrackers = new HashMap<>();
+
+    /**
+     * Get the tracker of a resource, creating it if needed.
+     * @param resourceId the resource unique id
+     * @return the sequence tracker
+     */
+    public synchronized SequenceTracker getTracker(String resourceId) {
+        SequenceTracker tracker = mTrackers.get(resourceId);
+        if (tracker == null) {
+            tracker = new SequenceTracker();
+            mTrackers.put(resourceId, tracker);
+        }
+        return tracker;
+    }
+
+    /**
+     * Get the ids of the resources which have a tracker.
+     * @return a copy of the resource unique ids
+     */
+    public synchronized List<String> getResourceIds() {
+        return new ArrayList<>(mTrackers.keySet());
+    }
+}
@@ -0,0 +1,484 @@
+package io.runtime.sensoroic.observe;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.iotivity.base.ObserveType;
+import org.iotivity.base.OcException;
+import org.iotivity.base.OcHeaderOption;
+import org.iotivity.base.OcRepresentation;
+import org.iotivity.base.OcResource;
+import org.iotivity.base.QualityOfService;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.runtime.sensoroic.OicApplication;
+import io.runtime.sensoroic.health.HostHealthMonitor;
+
+/**
+ * Keeps an observe subscription alive. The supervisor learns the resource's notification interval
+ * as an exponentially weighted average and declares the stream stalled once no notification has
+ * arrived for STALL_FACTOR intervals, or MIN_STALL_MILLIS if that is longer. Until two
+ * notifications have given it an interval the stream is never declared stalled, and resources
+ * which only notify on change, such as a switch, can turn the stall check off. A stalled or failed
+ * subscription is cancelled and the resource observed again after a jittered exponential backoff,
+ * so a stream which silently stops, as BLE streams tend to, only leaves a gap of a few seconds.
+ * The listener is told when the stream goes STALE and when it is LIVE again, and the outcome of
+ * every subscription is recorded in the host health monitor, whose open circuit also postpones
+ * resubscribing. A stall is only held against the host if the next subscription does not bring
+ * the stream back within QUICK_RECOVERY_MILLIS, as a stream can stop while its host is fine. A
+ * caller which already asked the health monitor before starting, as ObserveTask does, owns the
+ * first subscription: it is neither held back nor recorded by the supervisor.
+ *
+ * Notifications are checked against a SequenceTracker before they are passed on, so duplicates
+ * and out-of-order notifications are dropped and the gap listener is told about lost ones.
+ */
+public class ObserveSupervisor implements OcResource.OnObserveListener {
+
+    // Logging TAG
+    private static final String TAG = "ObserveSupervisor";
+
+    /**
+     * The state of the observed stream.
+     */
+    public enum State {
+        // Subscribed, waiting for the first notification
+        CONNECTING,
+        // Notifications are arriving
+        LIVE,
+        // Notifications stopped, waiting to resubscribe
+        STALE,
+        // Not observing
+        STOPPED
+    }
+
+    // Time allowed for the first notification of a subscription
+    private static final long FIRST_NOTIFICATION_MILLIS = 10000;
+
+    // A stream is stalled after this many learned intervals without a notification
+    private static final int STALL_FACTOR = 3;
+    private static final long MIN_STALL_MILLIS = 2000;
+
+    // A stall the next subscription recovers from within this long is not a host failure
+    private static final long QUICK_RECOVERY_MILLIS = 3000;
+
+    // Weight of the newest interval in the learned interval
+    private static final double INTERVAL_ALPHA = 0.1;
+
+    // Resubscribe backoff, doubled after every attempt which does not bring the stream back
+    private static final long MIN_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    // Period of the stall check
+    private static final long CHECK_PERIOD_MILLIS = 500;
+
+    // Runs the stall checks and resubscriptions of every supervisor
+    private static final ScheduledExecutorService TIMER =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private final OcResource mResource;
+    private final String mResourceId;
+    private final OcResource.OnObserveListener mListener;
+    private final HostHealthMonitor mHealthMonitor;
+    private final Random mRandom = new Random();
+    private OnStateChangeListener mStateListener;
+    private OnGapListener mGapListener;
+    private SequenceTracker mTracker = new SequenceTracker();
+    private boolean mStallCheckEnabled = true;
+
+    private State mState = State.STOPPED;
+    private boolean mIsRunning = false;
+    private long mSubscribedAtMillis;
+    private long mLastNotificationMillis;
+    private double mIntervalMillis = Double.NaN;
+    private int mAttempt = 0;
+    private int mResubscribeCount = 0;
+
+    // Whether a stall is waiting for the next subscription to tell whether the host failed
+    private boolean mStallPending = false;
+
+    // Whether the first subscription was admitted by the caller, who records its outcome
+    private boolean mFirstAdmitted = false;
+    private ScheduledFuture<?> mCheck;
+    private ScheduledFuture<?> mResubscribe;
+
+    /**
+     * Constructor for ObserveSupervisor.
+     * @param resource      the resource to observe
+     * @param listener      the listener notifications are passed on to
+     * @param healthMonitor the host health monitor, or null
+     */
+    public ObserveSupervisor(OcResource resource, OcResource.OnObserveListener listener,
+                             HostHealthMonitor healthMonitor) {
+        mResource = resource;
+        mResourceId = OicApplication.createUniqueId(resource);
+        mListener = listener;
+        mHealthMonitor = healthMonitor;
+    }
+
+    /**
+     * Set the listener told about state changes, called on whichever thread caused the change.
+     * @param listener the listener
+     */
+    public synchronized void setOnStateChangeListener(OnStateChangeListener listener) {
+        mStateListener = listener;
+    }
+
+    /**
+     * Set the listener told about lost notifications, called on the observe callback thread just
+     * before the notification following the gap is passed on.
+     * @param listener the listener
+     */
+    public synchronized void setOnGapListener(OnGapListener listener) {
+        mGapListener = listener;
+    }
+
+    /**
+     * Set the tracker to check sequence numbers with, e.g. one shared by every subscription of
+     * the resource. Must be called before start().
+     * @param tracker the sequence tracker
+     */
+    public synchronized void setSequenceTracker(SequenceTracker tracker) {
+        mTracker = tracker;
+    }
+
+    /**
+     * Turn the check for a stream which stopped notifying on or off, e.g. off for resources which
+     * only notify when their value changes and may stay silent for any length of time. The
+     * first notification of each subscription is still waited for.
+     * @param enabled whether or not a silent live stream is resubscribed
+     */
+    public synchronized void setStallCheckEnabled(boolean enabled) {
+        mStallCheckEnabled = enabled;
+    }
+
+    /**
+     * Get the tracker sequence numbers are checked with.
+     * @return the sequence tracker
+     */
+    public synchronized SequenceTracker getSequenceTracker() {
+        return mTracker;
+    }
+
+    /**
+     * Start observing the resource.
+     */
+    public void start() {
+        start(false);
+    }
+
+    /**
+     * Start observing the resource.
+     * @param admitted  whether the caller already got HostHealthMonitor.allowRequest() for the
+     *                  first subscription and records its outcome itself
+     */
+    public void start(boolean admitted) {
+        synchronized (this) {
+            if (mIsRunning) {
+                return;
+            }
+            mIsRunning = true;
+            mFirstAdmitted = admitted;
+            mAttempt = 0;
+            mCheck = TIMER.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    checkStall();
+                }
+            }, CHECK_PERIOD_MILLIS, CHECK_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        subscribe();
+    }
+
+    /**
+     * Stop observing the resource and cancel any pending resubscription.
+     */
+    public void stop() {
+        OnStateChangeListener listener;
+        synchronized (this) {
+            if (!mIsRunning) {
+                return;
+            }
+            mIsRunning = false;
+            mCheck.cancel(false);
+            if (mResubscribe != null) {
+                mResubscribe.cancel(false);
+                mResubscribe = null;
+            }
+            mState = State.STOPPED;
+            mStallPending = false;
+            mFirstAdmitted = false;
+            listener = mStateListener;
+        }
+        cancelObserve();
+        if (listener != null) {
+            listener.onObserveStateChanged(this, State.STOPPED);
+        }
+    }
+
+    /**
+     * Get the state of the stream.
+     * @return the state
+     */
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * Get the learned notification interval.
+     * @return the interval in milliseconds, or NaN before two notifications have arrived
+     */
+    public synchronized double getIntervalMillis() {
+        return mIntervalMillis;
+    }
+
+    /**
+     * Get the number of times the resource has been observed again after a stall or failure.
+     * @return the resubscription count
+     */
+    public synchronized int getResubscribeCount() {
+        return mResubscribeCount;
+    }
+
+    @Override
+    public void onObserveCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation,
+                                   int sequenceNumber) {
+        boolean becameLive = false;
+        boolean stalled = false;
+        boolean report = false;
+        long latency = 0;
+        SequenceTracker tracker;
+        OnGapListener gapListener;
+        synchronized (this) {
+            if (!mIsRunning) {
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            if (mState == State.LIVE) {
+                long interval = now - mLastNotificationMillis;
+                mIntervalMillis = Double.isNaN(mIntervalMillis) ? interval
+                        : mIntervalMillis + INTERVAL_ALPHA * (interval - mIntervalMillis);
+            } else if (mState == State.CONNECTING) {
+                becameLive = true;
+                latency = now - mSubscribedAtMillis;
+                mAttempt = 0;
+                // The previous stall counts against the host unless the stream came straight back
+                stalled = mStallPending && latency > QUICK_RECOVERY_MILLIS;
+                mStallPending = false;
+                report = !mFirstAdmitted;
+                mFirstAdmitted = false;
+            }
+            mLastNotificationMillis = now;
+            tracker = mTracker;
+            gapListener = mGapListener;
+        }
+        if (becameLive) {
+            if (mHealthMonitor != null && report) {
+                if (stalled) {
+                    mHealthMonitor.onFailure(mResource.getHost());
+                }
+                mHealthMonitor.onSuccess(mResource.getHost(), latency);
+            }
+            changeState(State.CONNECTING, State.LIVE);
+        }
+        // A duplicate still shows the stream is alive, but is not passed on
+        int lost = tracker.accept(sequenceNumber, SystemClock.elapsedRealtime());
+        if (lost == SequenceTracker.DROPPED) {
+            return;
+        }
+        if (lost > 0 && gapListener != null) {
+            gapListener.onNotificationsLost(this, lost);
+        }
+        mListener.onObserveCompleted(list, ocRepresentation, sequenceNumber);
+    }
+
+    @Override
+    public void onObserveFailed(Throwable throwable) {
+        synchronized (this) {
+            if (!mIsRunning) {
+                return;
+            }
+        }
+        Log.w(TAG, "Observe failed for " + mResourceId, throwable);
+        mListener.onObserveFailed(throwable);
+        onStalled(true);
+    }
+
+    private void subscribe() {
+        State from;
+        boolean admitted;
+        synchronized (this) {
+            if (!mIsRunning) {
+                return;
+            }
+            from = mState;
+            mResubscribe = null;
+            admitted = mFirstAdmitted;
+        }
+        if (!admitted && mHealthMonitor != null
+                && !mHealthMonitor.allowRequest(mResource.getHost())) {
+            // The host is known to be down, try again later
+            if (changeState(from, State.STALE)) {
+                scheduleResubscribe();
+            }
+            return;
+        }
+        synchronized (this) {
+            mSubscribedAtMillis = SystemClock.elapsedRealtime();
+            // The new subscription may number its notifications from anywhere
+            mTracker.reset();
+        }
+        if (!changeState(from, State.CONNECTING)) {
+            return;
+        }
+        try {
+            mResource.observe(ObserveType.OBSERVE, new HashMap<String, String>(), this);
+        } catch (OcException e) {
+            Log.e(TAG, "Failed to observe " + mResourceId, e);
+            onStalled(true);
+        }
+    }
+
+    private void checkStall() {
+        boolean failed;
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            if (mState == State.CONNECTING) {
+                if (now - mSubscribedAtMillis < FIRST_NOTIFICATION_MILLIS) {
+                    return;
+                }
+                failed = true;
+            } else if (mState == State.LIVE) {
+                // Without an interval learned from two notifications, silence is not a stall
+                if (!mStallCheckEnabled || Double.isNaN(mIntervalMillis)) {
+                    return;
+                }
+                long threshold = Math.max(MIN_STALL_MILLIS, (long) (STALL_FACTOR * mIntervalMillis));
+                if (now - mLastNotificationMillis < threshold) {
+                    return;
+                }
+                failed = false;
+            } else {
+                return;
+            }
+            Log.w(TAG, "Observe of " + mResourceId + " stalled");
+        }
+        onStalled(failed);
+    }
+
+    /**
+     * Cancel the subscription, mark the stream stale and schedule the next subscription.
+     * @param failed    whether the host failed to answer, rather than a live stream going silent,
+     *                  whose failure is only recorded if the next subscription is slow to answer
+     */
+    private void onStalled(boolean failed) {
+        State from;
+        synchronized (this) {
+            from = mState;
+        }
+        if (from == State.STALE || !changeState(from, State.STALE)) {
+            return;
+        }
+        boolean pending;
+        boolean report;
+        synchronized (this) {
+            pending = mStallPending;
+            mStallPending = !failed;
+            report = !mFirstAdmitted;
+            mFirstAdmitted = false;
+        }
+        if (mHealthMonitor != null && report) {
+            // A silent stream followed by a failed resubscription was a host failure after all
+            if (pending) {
+                mHealthMonitor.onFailure(mResource.getHost());
+            }
+            if (failed) {
+                mHealthMonitor.onFailure(mResource.getHost());
+            }
+        }
+        cancelObserve();
+        scheduleResubscribe();
+    }
+
+    private synchronized void scheduleResubscribe() {
+        if (!mIsRunning) {
+            return;
+        }
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(mAttempt, 16));
+        mAttempt++;
+        // Jitter between half and all of the backoff, so streams which stalled together, e.g.
+        // when the phone lost its connection, are not all resubscribed at the same moment
+        long delay = backoff / 2 + (long) (mRandom.nextDouble() * backoff / 2);
+        Log.d(TAG, "Resubscribing to " + mResourceId + " in " + delay + " ms");
+        mResubscribe = TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ObserveSupervisor.this) {
+                    if (mState != State.STALE) {
+                        return;
+                    }
+                    mResubscribeCount++;
+                }
+                subscribe();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelObserve() {
+        try {
+            mResource.cancelObserve(QualityOfService.LOW);
+        } catch (OcException e) {
+            Log.w(TAG, "Failed to cancel observe of " + mResourceId, e);
+        }
+    }
+
+    /**
+     * Move from one state to another if the supervisor is running and still in the first state,
+     * so that of two threads racing for the same transition only one acts on it.
+     * @return true if the state was changed
+     */
+    private boolean changeState(State from, State to) {
+        OnStateChangeListener listener;
+        synchronized (this) {
+            if (!mIsRunning || mState != from) {
+                return false;
+            }
+            mState = to;
+            listener = mStateListener;
+        }
+        if (listener != null && from != to) {
+            listener.onObserveStateChanged(this, to);
+        }
+        return true;
+    }
+
+    /**
+     * The listener for ObserveSupervisor state changes.
+     */
+    public interface OnStateChangeListener {
+        /**
+         * Called when the stream changes state.
+         * @param supervisor    the supervisor
+         * @param state         the new state
+         */
+        void onObserveStateChanged(ObserveSupervisor supervisor, State state);
+    }
+
+    /**
+     * The listener for notifications lost by an ObserveSupervisor's stream.
+     */
+    public interface OnGapListener {
+        /**
+         * Called when the sequence numbers show that notifications were lost.
+         * @param supervisor    the supervisor
+         * @param count         the number of notifications lost
+         */
+        void onNotificationsLost(ObserveSupervisor supervisor, int count);
+    }
+}
@@ -0,0 +1,154 @@
+package io.runtime.sensoroic.observe;
+
+/**
+ * Tracks the sequence numbers of the notifications of an observed resource. Sequence numbers are
+ * 24 bit and wrap around, so following RFC 7641 a number is newer than the last one if it is
+ * ahead by less than half the number space, or if the last notification is more than
+ * FRESHNESS_MILLIS old. Notifications which are not newer are duplicates or arrived out of order
+ * and should be dropped; gaps between consecutive newer numbers are counted as lost
+ * notifications.
+ *
+ * The counters accumulate over every subscription of the resource; reset() only forgets the last
+ * number, since a new subscription may start numbering anywhere.
+ */
+public class SequenceTracker {
+
+    /**
+     * Returned by accept() for a notification which should be dropped.
+     */
+    public static final int DROPPED = -1;
+
+    // Size of the observe sequence number space
+    private static final int MODULUS = 1 << 24;
+    private static final int HALF = 1 << 23;
+
+    // A notification this long after the last one is fresh whatever its number
+    private static final long FRESHNESS_MILLIS = 128000;
+
+    // Out-of-order notifications in a row after which the numbering is taken to have restarted
+    private static final int RESYNC_AFTER = 3;
+
+    private int mLast = -1;
+    private long mLastMillis;
+    private int mStaleInARow = 0;
+
+    private long mReceived = 0;
+    private long mDelivered = 0;
+    private long mDuplicates = 0;
+    private long mReordered = 0;
+    private long mLost = 0;
+    private long mGaps = 0;
+
+    /**
+     * Check the sequence number of a notification.
+     * @param sequenceNumber    the notification's sequence number
+     * @param nowMillis         the current time
+     * @return the number of notifications lost just before this one, or DROPPED if this one is a
+     *         duplicate or older than the last one delivered
+     */
+    public synchronized int accept(int sequenceNumber, long nowMillis) {
+        mReceived++;
+        if (sequenceNumber < 0 || sequenceNumber >= MODULUS) {
+            // Not a notification sequence number, e.g. a response without the observe option
+            mDelivered++;
+            return 0;
+        }
+        int lost = 0;
+        if (mLast >= 0 && nowMillis - mLastMillis < FRESHNESS_MILLIS) {
+            int ahead = (sequenceNumber - mLast) & (MODULUS - 1);
+            if (ahead == 0) {
+                mDuplicates++;
+                return DROPPED;
+            }
+            if (ahead >= HALF && ++mStaleInARow < RESYNC_AFTER) {
+                mReordered++;
+                return DROPPED;
+            }
+            if (ahead < HALF) {
+                lost = ahead - 1;
+            }
+        }
+        mStaleInARow = 0;
+        mLast = sequenceNumber;
+        mLastMillis = nowMillis;
+        mDelivered++;
+        if (lost > 0) {
+            mLost += lost;
+            mGaps++;
+        }
+        return lost;
+    }
+
+    /**
+     * Forget the last sequence number, e.g. when the resource is observed again.
+     */
+    public synchronized void reset() {
+        mLast = -1;
+        mStaleInARow = 0;
+    }
+
+    /**
+     * Get the number of notifications received.
+     * @return the count, including dropped notifications
+     */
+    public synchronized long getReceivedCount() {
+        return mReceived;
+    }
+
+    /**
+     * Get the number of notifications passed on.
+     * @return the count
+     */
+    public synchronized long getDeliveredCount() {
+        return mDelivered;
+    }
+
+    /**
+     * Get the number of duplicate notifications dropped.
+     * @return the count
+     */
+    public synchronized long getDuplicateCount() {
+        return mDuplicates;
+    }
+
+    /**
+     * Get the number of out-of-order notifications dropped.
+     * @return the count
+     */
+    public synchronized long getReorderedCount() {
+        return mReordered;
+    }
+
+    /**
+     * Get the number of notifications lost, going by the gaps in the sequence numbers.
+     * @return the count
+     */
+    public synchronized long getLostCount() {
+        return mLost;
+    }
+
+    /**
+     * Get the number of gaps in the sequence numbers.
+     * @return the count
+     */
+    public synchronized long getGapCount() {
+        return mGaps;
+    }
+
+    /**
+     * Get the fraction of the notifications sent which were lost.
+     * @return the rate between 0 and 1
+     */
+    public synchronized double getLossRate() {
+        long sent = mDelivered + mLost;
+        return sent == 0 ? 0 : (double) mLost / sent;
+    }
+
+    /**
+     * Get the fraction of the notifications received which arrived out of order.
+     * @return the rate between 0 and 1
+     */
+    public synchronized double getReorderRate() {
+        return mReceived == 0 ? 0 : (double) mReordered / mReceived;
+    }
+}
@@ -0,0 +1,71 @@
+package io.runtime.sensoroic.provider;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends content change notifications at most once per interval for each uri. The first change
+ * after a quiet interval is sent straight away; further changes within the interval are folded
+ * into one trailing notification at its end, so observers always hear about the last change
+ * without being woken for every sensor sample.
+ */
+class ChangeNotifier {
+
+    private final ContentResolver mResolver;
+    private final long mIntervalMillis;
+    private final ScheduledExecutorService mTimer = Executors.newSingleThreadScheduledExecutor();
+
+    // Per uri, the time of the last notification and whether a trailing one is scheduled
+    private final HashMap<Uri, long[]> mLastSent = new HashMap<>();
+    private final HashMap<Uri, Boolean> mPending = new HashMap<>();
+
+    ChangeNotifier(ContentResolver resolver, long intervalMillis) {
+        mResolver = resolver;
+        mIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * Report a change of a uri.
+     * @param uri the changed uri
+     */
+    void onChange(final Uri uri) {
+        long delay;
+        synchronized (this) {
+            if (Boolean.TRUE.equals(mPending.get(uri))) {
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            long[] last = mLastSent.get(uri);
+            if (last == null) {
+                last = new long[] {Long.MIN_VALUE / 2};
+                mLastSent.put(uri, last);
+            }
+            delay = last[0] + mIntervalMillis - now;
+            if (delay <= 0) {
+                last[0] = now;
+            } else {
+                mPending.put(uri, Boolean.TRUE);
+            }
+        }
+        if (delay <= 0) {
+            mResolver.notifyChange(uri, null);
+            return;
+        }
+        mTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ChangeNotifier.this) {
+                    mPending.put(uri, Boolean.FALSE);
+                    mLastSent.get(uri)[0] = SystemClock.elapsedRealtime();
+                }
+                mResolver.notifyChange(uri, null);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,223 @@
+package io.runtime.sensoroic.provider;
+
+import android.database.AbstractCursor;
+import android.database.CursorWindow;
+
+import java.io.IOException;
+
+import io.runtime.sensoroic.history.BlockStore;
+import io.runtime.sensoroic.history.ResourceHistory;
+import io.runtime.sensoroic.history.Rollup;
+
+/**
+ * A cursor over rows of a resource's history held in primitive arrays: the row times and the
+ * channel values, row-major. Nothing is boxed per row. Clients in other processes are served
+ * through fillWindow(), which copies as many rows as fit into the CursorWindow in one batch
+ * straight from the arrays, so each window crosses the process boundary in a single transaction.
+ */
+class HistoryCursor extends AbstractCursor {
+
+    private final String[] mColumnNames;
+    private final int mChannels;
+    private final int mRows;
+    private final long[] mTimes;
+    private final double[] mValues;
+
+    private HistoryCursor(String[] columnNames, int rows, long[] times, double[] values) {
+        mColumnNames = columnNames;
+        mChannels = columnNames.length - 1;
+        mRows = rows;
+        mTimes = times;
+        mValues = values;
+    }
+
+    /**
+     * Read a time range of a history. When more rows than the limit are in the range, the newest
+     * are kept.
+     * @param history       the history
+     * @param tier          the rollup tier, or -1 for the raw samples
+     * @param fromMicros    the start of the range, inclusive
+     * @param toMicros      the end of the range, inclusive
+     * @param limit         the maximum number of rows
+     * @return the cursor
+     * @throws IOException if the history could not be read
+     */
+    static HistoryCursor query(ResourceHistory history, int tier, long fromMicros, long toMicros,
+                               final int limit) throws IOException {
+        String[] channels = history.getChannelNames();
+        String[] columns = new String[channels.length + 1];
+        columns[0] = SensorContract.History.TIME_MICROS;
+        System.arraycopy(channels, 0, columns, 1, channels.length);
+
+        // A ring of at most limit rows, so the newest rows of an oversized range are kept
+        final int n = channels.length;
+        final int capacity = Math.max(1, limit);
+        final long[] times = new long[Math.min(capacity, 1024)];
+        final RowRing ring = new RowRing(times, new double[times.length * n], capacity, n);
+        history.queryBuckets(tier, fromMicros, toMicros, new BlockStore.RowVisitor() {
+            @Override
+            public boolean onRow(long timeMicros, double[] bucket) {
+                ring.add(timeMicros, bucket);
+                return true;
+            }
+        });
+        long[] orderedTimes = new long[ring.mSize];
+        double[] orderedValues = new double[ring.mSize * n];
+        ring.copyTo(orderedTimes, orderedValues);
+        return new HistoryCursor(columns, ring.mSize, orderedTimes, orderedValues);
+    }
+
+    @Override
+    public int getCount() {
+        return mRows;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public void fillWindow(int position, CursorWindow window) {
+        if (position < 0 || position >= mRows) {
+            return;
+        }
+        window.acquireReference();
+        try {
+            window.clear();
+            window.setStartPosition(position);
+            window.setNumColumns(mColumnNames.length);
+            for (int row = position; row < mRows; row++) {
+                if (!window.allocRow() || !putRow(window, row)) {
+                    // The window is full, the client asks for the next batch when it gets there
+                    window.freeLastRow();
+                    break;
+                }
+            }
+        } finally {
+            window.releaseReference();
+        }
+    }
+
+    private boolean putRow(CursorWindow window, int row) {
+        if (!window.putLong(mTimes[row], row, 0)) {
+            return false;
+        }
+        for (int c = 0; c < mChannels; c++) {
+            double value = mValues[row * mChannels + c];
+            boolean ok = Double.isNaN(value) ? window.putNull(row, c + 1)
+                    : window.putDouble(value, row, c + 1);
+            if (!ok) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int getType(int column) {
+        if (column == 0) {
+            return FIELD_TYPE_INTEGER;
+        }
+        return isNull(column) ? FIELD_TYPE_NULL : FIELD_TYPE_FLOAT;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return column > 0 && Double.isNaN(value(column));
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return column == 0 ? mTimes[getPosition()] : value(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return column == 0 ? mTimes[getPosition()] : (long) value(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public String getString(int column) {
+        if (isNull(column)) {
+            return null;
+        }
+        return column == 0 ? String.valueOf(mTimes[getPosition()]) : String.valueOf(value(column));
+    }
+
+    private double value(int column) {
+        return mValues[getPosition() * mChannels + column - 1];
+    }
+
+    /**
+     * Collects query rows, growing up to a capacity and then overwriting the oldest row.
+     */
+    private static class RowRing {
+
+        private final int mCapacity;
+        private final int mChannels;
+        private long[] mTimes;
+        private double[] mValues;
+        private int mHead = 0;
+        private int mSize = 0;
+
+        private RowRing(long[] times, double[] values, int capacity, int channels) {
+            mTimes = times;
+            mValues = values;
+            mCapacity = capacity;
+            mChannels = channels;
+        }
+
+        private void add(long timeMicros, double[] bucket) {
+            int slot;
+            if (mSize < mCapacity) {
+                if (mSize == mTimes.length) {
+                    grow();
+                }
+                slot = mSize++;
+            } else {
+                slot = mHead;
+                mHead = (mHead + 1) % mCapacity;
+            }
+            mTimes[slot] = timeMicros;
+            for (int c = 0; c < mChannels; c++) {
+                boolean empty = bucket[Rollup.column(c, Rollup.COUNT)] == 0;
+                mValues[slot * mChannels + c] = empty ? Double.NaN
+                        : bucket[Rollup.column(c, Rollup.MEAN)];
+            }
+        }
+
+        private void grow() {
+            int length = (int) Math.min(mCapacity, mTimes.length * 2L);
+            long[] times = new long[length];
+            System.arraycopy(mTimes, 0, times, 0, mSize);
+            double[] values = new double[length * mChannels];
+            System.arraycopy(mValues, 0, values, 0, mSize * mChannels);
+            mTimes = times;
+            mValues = values;
+        }
+
+        private void copyTo(long[] times, double[] values) {
+            for (int i = 0; i < mSize; i++) {
+                int slot = (mHead + i) % mSize;
+                times[i] = mTimes[slot];
+                System.arraycopy(mValues, slot * mChannels, values, i * mChannels, mChannels);
+            }
+        }
+    }
+}
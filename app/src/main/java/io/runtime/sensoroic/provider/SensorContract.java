@@ -0,0 +1,128 @@
+package io.runtime.sensoroic.provider;
+
+import android.net.Uri;
+
+/**
+ * The contract of SensorProvider, for apps reading the sensor data this app collects instead of
+ * running their own discovery.
+ *
+ * Reading requires the READ_SENSORS permission. Live values only flow while the resource is
+ * observed, so a client interested in a resource calls METHOD_SUBSCRIBE and repeats the call
+ * within LEASE_MILLIS for as long as it stays interested. Every client subscribing to a resource
+ * shares the one subscription the app holds for it.
+ */
+public final class SensorContract {
+
+    public static final String AUTHORITY = "io.runtime.sensoroic.provider";
+    public static final Uri AUTHORITY_URI = Uri.parse("content://" + AUTHORITY);
+
+    public static final String PERMISSION_READ_SENSORS = "io.runtime.sensoroic.permission.READ_SENSORS";
+
+    /**
+     * ContentResolver.call() method subscribing to a resource's live values. The arg is the
+     * resource id. The result holds EXTRA_SUBSCRIBED and EXTRA_LEASE_MILLIS.
+     */
+    public static final String METHOD_SUBSCRIBE = "subscribe";
+
+    /**
+     * ContentResolver.call() method giving up a subscription before its lease runs out. The arg
+     * is the resource id.
+     */
+    public static final String METHOD_UNSUBSCRIBE = "unsubscribe";
+
+    public static final String EXTRA_SUBSCRIBED = "subscribed";
+    public static final String EXTRA_LEASE_MILLIS = "leaseMillis";
+
+    // Time a subscription lasts unless it is renewed
+    public static final long LEASE_MILLIS = 60000;
+
+    private SensorContract() {
+    }
+
+    /**
+     * The discovered resources.
+     */
+    public static final class Resources {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(AUTHORITY_URI, "resources");
+
+        public static final String _ID = "_id";
+        public static final String RESOURCE_ID = "resource_id";
+        public static final String HOST = "host";
+        public static final String URI = "uri";
+        public static final String RESOURCE_TYPE = "resource_type";
+        public static final String NAME = "name";
+        public static final String OBSERVABLE = "observable";
+        public static final String TRANSPORT = "transport";
+
+        private Resources() {
+        }
+    }
+
+    /**
+     * The latest value of every channel of the observed resources, one row per channel. Change
+     * notifications are sent for the resource's uri, rate limited, whenever new values arrive.
+     */
+    public static final class Latest {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(AUTHORITY_URI, "latest");
+
+        public static final String _ID = "_id";
+        public static final String RESOURCE_ID = "resource_id";
+        public static final String TIME_MICROS = "time_micros";
+        public static final String CHANNEL = "channel";
+        public static final String VALUE = "value";
+
+        private Latest() {
+        }
+
+        /**
+         * Get the uri of one resource's latest values.
+         * @param resourceId the resource unique id
+         * @return the uri
+         */
+        public static Uri buildUri(String resourceId) {
+            return CONTENT_URI.buildUpon().appendPath(resourceId).build();
+        }
+    }
+
+    /**
+     * The recorded history of a resource, one row per sample with a TIME_MICROS column followed
+     * by one column per channel, named after the channel. Missing values are null.
+     */
+    public static final class History {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(AUTHORITY_URI, "history");
+
+        public static final String TIME_MICROS = "time_micros";
+
+        // Query parameters: the time range in epoch microseconds, both inclusive
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+
+        // Query parameter: the maximum number of rows, the newest are kept
+        public static final String PARAM_LIMIT = "limit";
+
+        // Query parameter: the number of rows wanted across the range. The coarsest rollup tier
+        // giving at least that many rows is used, or a coarser one if the range would not fit in
+        // the row limit, and each row holds the mean of its bucket.
+        public static final String PARAM_BUCKETS = "buckets";
+
+        private History() {
+        }
+
+        /**
+         * Get the uri of a resource's history within a time range.
+         * @param resourceId    the resource unique id
+         * @param fromMicros    the start of the range
+         * @param toMicros      the end of the range
+         * @return the uri
+         */
+        public static Uri buildUri(String resourceId, long fromMicros, long toMicros) {
+            return CONTENT_URI.buildUpon().appendPath(resourceId)
+                    .appendQueryParameter(PARAM_FROM, String.valueOf(fromMicros))
+                    .appendQueryParameter(PARAM_TO, String.valueOf(toMicros))
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package io.runtime.sensoroic.provider;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.iotivity.base.OcHeaderOption;
+import org.iotivity.base.OcRepresentation;
+import org.iotivity.base.OcResource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.runtime.sensoroic.MynewtSensor;
+import io.runtime.sensoroic.OicApplication;
+import io.runtime.sensoroic.ResourceRegistry;
+import io.runtime.sensoroic.Transport;
+import io.runtime.sensoroic.history.BlockStore;
+import io.runtime.sensoroic.history.HistoryStore;
+import io.runtime.sensoroic.history.ResourceHistory;
+import io.runtime.sensoroic.history.Rollup;
+import io.runtime.sensoroic.observe.ObserveHub;
+
+/**
+ * Shares the resource registry, the latest sensor values and the recorded history with other
+ * apps, so that they need not run their own discovery and observe the sensors a second time over
+ * the radio. See SensorContract for the uris and columns.
+ *
+ * Subscriptions made through METHOD_SUBSCRIBE go through the app's ObserveHub, so however many
+ * clients subscribe, and whether or not the app shows the sensor itself, each resource is observed
+ * once. A subscription lapses when its lease is not renewed, so a client which dies without
+ * unsubscribing does not keep the sensor observed forever. The provider is read only.
+ */
+public class SensorProvider extends ContentProvider implements ObserveHub.OnUpdateListener,
+        ResourceRegistry.OnChangeListener {
+
+    // Logging TAG
+    private static final String TAG = "SensorProvider";
+
+    // Minimum time between two change notifications of the same uri
+    private static final long NOTIFY_INTERVAL_MILLIS = 250;
+
+    // Period of the lease expiry check
+    private static final long LEASE_CHECK_MILLIS = 10000;
+
+    // Default and maximum number of history rows returned
+    private static final int DEFAULT_HISTORY_LIMIT = 10000;
+    private static final int MAX_HISTORY_LIMIT = 200000;
+
+    private static final int RESOURCES = 1;
+    private static final int LATEST = 2;
+    private static final int LATEST_ID = 3;
+    private static final int HISTORY_ID = 4;
+
+    private static final UriMatcher MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
+    static {
+        MATCHER.addURI(SensorContract.AUTHORITY, "resources", RESOURCES);
+        MATCHER.addURI(SensorContract.AUTHORITY, "latest", LATEST);
+        MATCHER.addURI(SensorContract.AUTHORITY, "latest/*", LATEST_ID);
+        MATCHER.addURI(SensorContract.AUTHORITY, "history/*", HISTORY_ID);
+    }
+
+    private static final String[] RESOURCE_COLUMNS = {
+            SensorContract.Resources._ID, SensorContract.Resources.RESOURCE_ID,
+            SensorContract.Resources.HOST, SensorContract.Resources.URI,
+            SensorContract.Resources.RESOURCE_TYPE, SensorContract.Resources.NAME,
+            SensorContract.Resources.OBSERVABLE, SensorContract.Resources.TRANSPORT
+    };
+
+    private static final String[] LATEST_COLUMNS = {
+            SensorContract.Latest._ID, SensorContract.Latest.RESOURCE_ID,
+            SensorContract.Latest.TIME_MICROS, SensorContract.Latest.CHANNEL,
+            SensorContract.Latest.VALUE
+    };
+
+    private OicApplication mApp;
+    private ChangeNotifier mNotifier;
+
+    // Subscriptions held for clients and the time their lease runs out
+    private final HashMap<String, ObserveHub.Subscription> mSubscriptions = new HashMap<>();
+    private final HashMap<String, Long> mLeaseExpiry = new HashMap<>();
+    private ScheduledExecutorService mLeaseTimer;
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    /**
+     * Get the application, which is only guaranteed to exist once onCreate() has returned.
+     */
+    private synchronized OicApplication app() {
+        if (mApp == null) {
+            mApp = (OicApplication) getContext().getApplicationContext();
+            mNotifier = new ChangeNotifier(getContext().getContentResolver(),
+                    NOTIFY_INTERVAL_MILLIS);
+            mApp.getObserveHub().addOnUpdateListener(this);
+            mApp.getRegistry().addOnChangeListener(this);
+        }
+        return mApp;
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        Cursor cursor;
+        switch (MATCHER.match(uri)) {
+            case RESOURCES:
+                cursor = queryResources();
+                break;
+            case LATEST:
+                cursor = queryLatest(app().getObserveHub().getLatestResourceIds());
+                break;
+            case LATEST_ID:
+                ArrayList<String> ids = new ArrayList<>();
+                ids.add(uri.getLastPathSegment());
+                cursor = queryLatest(ids);
+                break;
+            case HISTORY_ID:
+                cursor = queryHistory(uri);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown uri " + uri);
+        }
+        if (cursor != null) {
+            cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        }
+        return cursor;
+    }
+
+    private Cursor queryResources() {
+        MatrixCursor cursor = new MatrixCursor(RESOURCE_COLUMNS);
+        long id = 0;
+        for (OcResource resource : new ArrayList<>(app().getDiscovered().values())) {
+            List<String> types = resource.getResourceTypes();
+            String type = MynewtSensor.getSensorResourceType(types);
+            if (type == null && !types.isEmpty()) {
+                type = types.get(0);
+            }
+            cursor.addRow(new Object[] {
+                    id++, OicApplication.createUniqueId(resource), resource.getHost(),
+                    resource.getUri(), type, MynewtSensor.getReadableName(resource),
+                    resource.isObservable() ? 1 : 0, Transport.of(resource).name()
+            });
+        }
+        return cursor;
+    }
+
+    private Cursor queryLatest(List<String> resourceIds) {
+        ObserveHub hub = app().getObserveHub();
+        MatrixCursor cursor = new MatrixCursor(LATEST_COLUMNS);
+        long id = 0;
+        for (String resourceId : resourceIds) {
+            Map<String, Object> values = hub.getLatestValues(resourceId);
+            if (values == null) {
+                continue;
+            }
+            long time = hub.getLatestTimeMicros(resourceId);
+            for (String key : channelsOf(resourceId, values)) {
+                double value = MynewtSensor.toDouble(values.get(key));
+                cursor.addRow(new Object[] {
+                        id++, resourceId, time, key, Double.isNaN(value) ? null : value
+                });
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Get the channels of a resource: its sensor data keys if it is a known Mynewt sensor,
+     * otherwise every value.
+     */
+    private Iterable<String> channelsOf(String resourceId, Map<String, Object> values) {
+        OcResource resource = app().getResource(resourceId);
+        if (resource != null) {
+            String type = MynewtSensor.getSensorResourceType(resource.getResourceTypes());
+            String[] keys = type == null ? null : MynewtSensor.getSensorDataKeys(type);
+            if (keys != null) {
+                ArrayList<String> channels = new ArrayList<>();
+                for (String key : keys) {
+                    if (values.containsKey(key)) {
+                        channels.add(key);
+                    }
+                }
+                return channels;
+            }
+        }
+        return values.keySet();
+    }
+
+    private Cursor queryHistory(Uri uri) {
+        String resourceId = uri.getLastPathSegment();
+        long from = longParameter(uri, SensorContract.History.PARAM_FROM, 0);
+        long to = longParameter(uri, SensorContract.History.PARAM_TO, Long.MAX_VALUE);
+        int limit = (int) Math.min(MAX_HISTORY_LIMIT,
+                longParameter(uri, SensorContract.History.PARAM_LIMIT, DEFAULT_HISTORY_LIMIT));
+        int buckets = (int) longParameter(uri, SensorContract.History.PARAM_BUCKETS, 0);
+        HistoryStore store = app().getHistoryStore();
+        ResourceHistory history = null;
+        try {
+            store.flush();
+            // Clients may read any number of resources, so their histories are not kept open
+            history = store.borrow(resourceId);
+            if (history == null) {
+                return null;
+            }
+            int tier = -1;
+            if (buckets > 0) {
+                tier = selectTier(history, from, to, buckets, limit);
+            }
+            return HistoryCursor.query(history, tier, from, to, limit);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read the history of " + resourceId, e);
+            return null;
+        } finally {
+            if (history != null) {
+                store.giveBack(history);
+            }
+        }
+    }
+
+    /**
+     * Pick the tier for a bucketed history query, like HistoryActivity does for a chart. An open
+     * range is narrowed to the data actually recorded, across the raw samples and every tier since
+     * the raw samples age out long before the rollups. The tier is then made coarser until the
+     * range fits in the row limit, so the limit never silently cuts off the start of the range.
+     */
+    private static int selectTier(ResourceHistory history, long from, long to, int buckets,
+                                  int limit) {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (int tier = -1; tier < Rollup.getTierCount(); tier++) {
+            BlockStore store = tier < 0 ? history.getRaw() : history.getTier(tier);
+            long storeFirst = store.getFirstTimeMicros();
+            if (storeFirst < 0) {
+                continue;
+            }
+            first = Math.min(first, storeFirst);
+            last = Math.max(last, store.getLastTimeMicros());
+        }
+        long start = Math.max(from, first);
+        long end = Math.min(to, last);
+        if (start > end) {
+            return -1;
+        }
+        int tier = history.selectTier(start, end, buckets);
+        while (tier >= 0 && tier < Rollup.getTierCount() - 1
+                && (end - start) / Rollup.getTierPeriodMicros(tier) > limit) {
+            tier++;
+        }
+        return tier;
+    }
+
+    private static long longParameter(Uri uri, String name, long defaultValue) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " in " + uri);
+        }
+    }
+
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        // The manifest read permission only guards query(), and a subscription makes the gateway
+        // observe the resource over the air
+        getContext().enforceCallingOrSelfPermission(SensorContract.PERMISSION_READ_SENSORS,
+                "Subscribing requires " + SensorContract.PERMISSION_READ_SENSORS);
+        if (arg == null) {
+            throw new IllegalArgumentException("Missing resource id");
+        }
+        Bundle result = new Bundle();
+        switch (method) {
+            case SensorContract.METHOD_SUBSCRIBE:
+                result.putBoolean(SensorContract.EXTRA_SUBSCRIBED, subscribe(arg));
+                result.putLong(SensorContract.EXTRA_LEASE_MILLIS, SensorContract.LEASE_MILLIS);
+                break;
+            case SensorContract.METHOD_UNSUBSCRIBE:
+                unsubscribe(arg);
+                break;
+            default:
+                return super.call(method, arg, extras);
+        }
+        return result;
+    }
+
+    /**
+     * Subscribe to a resource on behalf of clients, or renew the lease of the subscription.
+     * @return false if the resource is unknown or not observable
+     */
+    private boolean subscribe(String resourceId) {
+        OcResource resource = app().getResource(resourceId);
+        if (resource == null || !resource.isObservable()) {
+            return false;
+        }
+        ObserveHub.Subscription subscription;
+        synchronized (this) {
+            mLeaseExpiry.put(resourceId, SystemClock.elapsedRealtime() + SensorContract.LEASE_MILLIS);
+            if (mSubscriptions.containsKey(resourceId)) {
+                return true;
+            }
+            subscription = app().getObserveHub().newSubscription(resource, IGNORE);
+            mSubscriptions.put(resourceId, subscription);
+            if (mLeaseTimer == null) {
+                mLeaseTimer = Executors.newSingleThreadScheduledExecutor();
+                mLeaseTimer.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        expireLeases();
+                    }
+                }, LEASE_CHECK_MILLIS, LEASE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+        subscription.start();
+        return true;
+    }
+
+    private void unsubscribe(String resourceId) {
+        ObserveHub.Subscription subscription;
+        synchronized (this) {
+            mLeaseExpiry.remove(resourceId);
+            subscription = mSubscriptions.remove(resourceId);
+        }
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    private void expireLeases() {
+        ArrayList<ObserveHub.Subscription> expired = new ArrayList<>();
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            Iterator<Map.Entry<String, Long>> it = mLeaseExpiry.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Long> entry = it.next();
+                if (entry.getValue() <= now) {
+                    it.remove();
+                    expired.add(mSubscriptions.remove(entry.getKey()));
+                }
+            }
+        }
+        for (ObserveHub.Subscription subscription : expired) {
+            Log.d(TAG, "Lease of " + subscription.getResourceId() + " expired");
+            subscription.cancel();
+        }
+    }
+
+    @Override
+    public void onResourceUpdated(String resourceId) {
+        mNotifier.onChange(SensorContract.Latest.buildUri(resourceId));
+    }
+
+    @Override
+    public void onResourcesChanged(ResourceRegistry.Delta delta) {
+        // Rediscovering the same resources does not wake resource list clients
+        if (!delta.isEmpty()) {
+            mNotifier.onChange(SensorContract.Resources.CONTENT_URI);
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        switch (MATCHER.match(uri)) {
+            case RESOURCES:
+                return "vnd.android.cursor.dir/vnd." + SensorContract.AUTHORITY + ".resource";
+            case LATEST:
+            case LATEST_ID:
+                return "vnd.android.cursor.dir/vnd." + SensorContract.AUTHORITY + ".latest";
+            case HISTORY_ID:
+                return "vnd.android.cursor.dir/vnd." + SensorContract.AUTHORITY + ".history";
+            default:
+                return null;
+        }
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        throw new UnsupportedOperationException("Read only");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read only");
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read only");
+    }
+
+    /**
+     * The listener of client subscriptions. Clients read the values through the provider, so the
+     * notifications themselves are not needed here.
+     */
+    private static final OcResource.OnObserveListener IGNORE = new OcResource.OnObserveListener() {
+        @Override
+        public void onObserveCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation,
+                                       int i) {
+        }
+
+        @Override
+        public void onObserveFailed(Throwable throwable) {
+        }
+    };
+}
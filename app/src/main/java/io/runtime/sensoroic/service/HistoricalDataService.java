@@ -6,8 +6,6 @@ import android.os.Handler;
 import android.os.IBinder;
 import android.util.Log;
 
-import com.github.mikephil.charting.data.Entry;
-
 import org.iotivity.base.OcException;
 import org.iotivity.base.OcHeaderOption;
 import org.iotivity.base.OcRepresentation;
@@ -16,17 +14,28 @@ import org.iotivity.base.OcResource;
 import java.util.HashMap;
 import java.util.List;
 
+import io.runtime.sensoroic.MynewtSensor;
 import io.runtime.sensoroic.OicApplication;
+import io.runtime.sensoroic.health.HostHealthMonitor;
+import io.runtime.sensoroic.stream.StreamClock;
 
 public class HistoricalDataService extends Service implements OcResource.OnGetListener {
 
     private final static String TAG = "HistoricalDataService";
 
+    private final static String[] CHANNEL_NAMES = {"temp"};
+
     private OicApplication mApp;
     private Handler mHandler =  new Handler();
     private Runnable mRunnable;
     private OcResource mTempResource;
-    private int mValueCount = 0;
+    private OcResource.OnGetListener mGetListener;
+    private String mResId;
+    private HostHealthMonitor mHealthMonitor;
+
+    // Whether or not the last get has not completed yet
+    private volatile boolean mIsGetPending = false;
+    private final double[] mValues = new double[1];
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
@@ -37,7 +46,7 @@ public class HistoricalDataService extends Service implements OcResource.OnGetLi
             public void run() {
                 try {
                     if (mTempResource != null) {
-                        mTempResource.get(new HashMap<String, String>(), HistoricalDataService.this);
+                        poll();
                     }
                 } catch (OcException e) {
                     e.printStackTrace();
@@ -45,11 +54,33 @@ public class HistoricalDataService extends Service implements OcResource.OnGetLi
                 getData();
             }
         };
-        mTempResource = mApp.getDiscovered().get("coap+tcp://C0:FA:AC:CF:FA:0A/bme280_0/ambtmp");
+        mResId = "coap+tcp://C0:FA:AC:CF:FA:0A/bme280_0/ambtmp";
+        mTempResource = mApp.getDiscovered().get(mResId);
+        mGetListener = mApp.getTraceRecorder().wrapGet(mResId, this);
+        mHealthMonitor = mApp.getHostHealthMonitor();
         getData();
         return Service.START_NOT_STICKY;
     }
 
+    /**
+     * Sends a get unless the host is known to be down. A get still pending from the previous poll
+     * is counted as a failure.
+     */
+    private void poll() throws OcException {
+        String host = mTempResource.getHost();
+        if (mIsGetPending) {
+            mHealthMonitor.onFailure(host);
+            mIsGetPending = false;
+        }
+        if (!mHealthMonitor.allowRequest(host)) {
+            Log.d(TAG, "Skipping get, " + host + " is not responding");
+            return;
+        }
+        mIsGetPending = true;
+        mTempResource.get(new HashMap<String, String>(),
+                mHealthMonitor.wrapGet(mTempResource, mGetListener));
+    }
+
     private void getData() {
         mHandler.postDelayed(mRunnable, 20000);
     }
@@ -63,14 +94,15 @@ public class HistoricalDataService extends Service implements OcResource.OnGetLi
     @Override
     public void onGetCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
         Log.d(TAG, "Get Completed");
+        mIsGetPending = false;
         HashMap<String, Object> values = (HashMap<String, Object>)ocRepresentation.getValues();
-        double temp = (Double) values.get("temp");
-        mApp.addHistoricalData(new Entry((float)mValueCount, (float)temp));
-        mValueCount++;
+        mValues[0] = MynewtSensor.toDouble(values.get("temp"));
+        mApp.getHistoryStore().append(mResId, CHANNEL_NAMES, StreamClock.nowMicros(), mValues);
     }
 
     @Override
     public void onGetFailed(Throwable throwable) {
         Log.d(TAG, "Get Failed");
+        mIsGetPending = false;
     }
 }
@@ -0,0 +1,304 @@
+package io.runtime.sensoroic.stream;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import io.runtime.sensoroic.MynewtSensor;
+
+/**
+ * Moves the decoding of a Mynewt sensor's observe notifications off the IoTivity callback thread.
+ *
+ * The callback only hands the raw representation values to offer(), which puts them on a bounded
+ * lock-free single-producer/single-consumer queue and returns; it never blocks and never waits for
+ * a consumer. A decode worker thread takes them off the queue, turns them into typed Samples and
+ * hands every sample to each consumer in turn, e.g. the display, the history recorder and
+ * analytics. When the consumers fall behind and the queue is full, new notifications are dropped
+ * and counted, and the next sample that gets through is marked as following a gap.
+ *
+ * Channels are the sensor type's data keys, or every value of the first notification if the type
+ * is not a known Mynewt sensor. A channel missing from a notification keeps its previous value.
+ *
+ * Once warmed up the pipeline itself does not allocate: queue entries travel back to the callback
+ * thread on a second queue for reuse, and samples come from a SamplePool. A sample handed to the
+ * consumers is released again after the last of them returns, so a consumer which keeps it longer
+ * must retain() it.
+ */
+public class DecodePipeline {
+
+    // Logging TAG
+    private static final String TAG = "DecodePipeline";
+
+    // Longest the worker parks before rechecking the queue, in case a wakeup was missed
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // Samples created up front, enough for consumers which hold on to a few
+    private static final int POOL_SIZE = 8;
+
+    private final String mSensorType;
+    private final SpscQueue<Notification> mQueue;
+
+    // Free queue entries, handed back by the worker for the producer to reuse
+    private final SpscQueue<Notification> mFree;
+    // Replaced as a whole when a consumer is added or removed, so the worker never locks
+    private volatile Consumer[] mConsumers = new Consumer[0];
+    private final StreamClock mClock = new StreamClock();
+
+    // Producer side
+    private volatile boolean mIsRunning = false;
+    private boolean mIsDropPending = false;
+    private final AtomicLong mDropCount = new AtomicLong();
+
+    // Worker side
+    private volatile Thread mWorker;
+    private volatile boolean mIsWorkerParked = false;
+    private volatile String[] mKeys;
+    private volatile SamplePool mPool;
+    private double[] mLastValues;
+    private final AtomicLong mDecodedCount = new AtomicLong();
+
+    /**
+     * Constructor for DecodePipeline.
+     * @param sensorType    the Mynewt sensor resource type, which determines the channels
+     * @param capacity      the number of notifications which can wait to be decoded
+     */
+    public DecodePipeline(String sensorType, int capacity) {
+        mSensorType = sensorType;
+        mQueue = new SpscQueue<>(capacity);
+        mFree = new SpscQueue<>(mQueue.capacity());
+        for (int i = 0; i < mQueue.capacity(); i++) {
+            mFree.offer(new Notification());
+        }
+    }
+
+    /**
+     * Add a consumer. Consumers are called on the decode worker thread, in the order added.
+     * @param consumer the consumer
+     */
+    public synchronized void addConsumer(Consumer consumer) {
+        Consumer[] consumers = Arrays.copyOf(mConsumers, mConsumers.length + 1);
+        consumers[consumers.length - 1] = consumer;
+        mConsumers = consumers;
+    }
+
+    /**
+     * Remove a consumer. It may still be called once by a decode already in progress.
+     * @param consumer the consumer
+     */
+    public synchronized void removeConsumer(Consumer consumer) {
+        ArrayList<Consumer> consumers = new ArrayList<>(Arrays.asList(mConsumers));
+        consumers.remove(consumer);
+        mConsumers = consumers.toArray(new Consumer[consumers.size()]);
+    }
+
+    /**
+     * Start the decode worker. A worker left over from a previous start() finishes before the new
+     * one takes anything off the queue, so the queue only ever has one consumer thread.
+     */
+    public synchronized void start() {
+        if (mIsRunning) {
+            return;
+        }
+        mIsRunning = true;
+        final Thread previous = mWorker;
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (previous != null) {
+                    try {
+                        previous.join();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                runWorker();
+            }
+        }, TAG);
+        mWorker.start();
+    }
+
+    /**
+     * Stop the decode worker without waiting for it. Notifications still waiting are discarded
+     * and notifications offered from now on are ignored.
+     */
+    public synchronized void stop() {
+        if (!mIsRunning) {
+            return;
+        }
+        mIsRunning = false;
+        LockSupport.unpark(mWorker);
+    }
+
+    /**
+     * Queue an observe notification for decoding. Must only be called from one thread at a time,
+     * normally the observe callback thread, and never blocks.
+     * @param values    the representation values of the notification
+     * @param gapBefore whether or not notifications were lost just before this one
+     * @return false if the notification was dropped because the queue is full or the pipeline is
+     *         stopped
+     */
+    public boolean offer(Map<String, Object> values, boolean gapBefore) {
+        if (!mIsRunning) {
+            return false;
+        }
+        // Every entry is either free or queued, so no free entry means the queue is full
+        Notification notification = mFree.poll();
+        if (notification == null) {
+            mDropCount.incrementAndGet();
+            mIsDropPending = true;
+            return false;
+        }
+        notification.mValues = values;
+        notification.mArrivalMicros = StreamClock.nowMicros();
+        notification.mIsGapBefore = gapBefore || mIsDropPending;
+        mQueue.offer(notification);
+        mIsDropPending = false;
+        if (mIsWorkerParked) {
+            LockSupport.unpark(mWorker);
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of notifications waiting to be decoded.
+     * @return the queue depth
+     */
+    public int getDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * Get the number of notifications which can wait to be decoded.
+     * @return the queue capacity
+     */
+    public int getCapacity() {
+        return mQueue.capacity();
+    }
+
+    /**
+     * Get the number of notifications dropped because the queue was full.
+     * @return the drop count
+     */
+    public long getDropCount() {
+        return mDropCount.get();
+    }
+
+    /**
+     * Get the number of samples decoded and handed to the consumers.
+     * @return the sample count
+     */
+    public long getDecodedCount() {
+        return mDecodedCount.get();
+    }
+
+    /**
+     * Get the pool the samples come from.
+     * @return the pool, or null if nothing has been decoded yet
+     */
+    public SamplePool getSamplePool() {
+        return mPool;
+    }
+
+    /**
+     * Get the channel names.
+     * @return the channel names, or null if nothing has been decoded yet
+     */
+    public String[] getKeys() {
+        return mKeys;
+    }
+
+    private void runWorker() {
+        Thread self = Thread.currentThread();
+        while (mIsRunning && mWorker == self) {
+            Notification notification = mQueue.poll();
+            if (notification == null) {
+                mIsWorkerParked = true;
+                // Recheck after announcing the park, offer() wakes the worker from here on
+                if (mQueue.isEmpty() && mIsRunning && mWorker == self) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                mIsWorkerParked = false;
+                continue;
+            }
+            Sample sample = decode(notification);
+            notification.mValues = null;
+            mFree.offer(notification);
+            mDecodedCount.incrementAndGet();
+            Consumer[] consumers = mConsumers;
+            for (int i = 0; i < consumers.length; i++) {
+                try {
+                    consumers[i].onSample(sample);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Consumer failed", e);
+                }
+            }
+            sample.release();
+        }
+        if (!mIsRunning) {
+            // Discard what the stopped pipeline did not get to
+            Notification notification;
+            while ((notification = mQueue.poll()) != null) {
+                notification.mValues = null;
+                mFree.offer(notification);
+            }
+        }
+    }
+
+    private Sample decode(Notification notification) {
+        Map<String, Object> values = notification.mValues;
+        String[] keys = mKeys;
+        if (keys == null) {
+            keys = MynewtSensor.getSensorDataKeys(mSensorType);
+            if (keys == null) {
+                keys = values.keySet().toArray(new String[values.size()]);
+            }
+            mLastValues = new double[keys.length];
+            Arrays.fill(mLastValues, Double.NaN);
+            mPool = new SamplePool(keys, POOL_SIZE);
+            mKeys = keys;
+        }
+
+        Sample sample = mPool.acquire();
+        double[] decoded = sample.getValues();
+        for (int i = 0; i < keys.length; i++) {
+            Object value = values.get(keys[i]);
+            if (value != null) {
+                mLastValues[i] = MynewtSensor.toDouble(value);
+            }
+            decoded[i] = mLastValues[i];
+        }
+
+        long boardMicros = MynewtSensor.getTimestampMicros(values);
+        long timeMicros = boardMicros >= 0
+                ? mClock.toLocalMicros(boardMicros, notification.mArrivalMicros)
+                : notification.mArrivalMicros;
+        sample.set(timeMicros, notification.mIsGapBefore);
+        return sample;
+    }
+
+    /**
+     * A notification waiting on the queue. Entries are reused.
+     */
+    private static class Notification {
+        private Map<String, Object> mValues;
+        private long mArrivalMicros;
+        private boolean mIsGapBefore;
+    }
+
+    /**
+     * A consumer of decoded samples.
+     */
+    public interface Consumer {
+        /**
+         * Called on the decode worker thread for every decoded sample. Slow work here delays the
+         * other consumers and eventually fills the queue, but never the observe callback.
+         * @param sample the sample
+         */
+        void onSample(Sample sample);
+    }
+}
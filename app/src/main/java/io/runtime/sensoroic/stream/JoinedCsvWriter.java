@@ -0,0 +1,114 @@
+package io.runtime.sensoroic.stream;
+
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes the records of a StreamJoin as CSV, one row per record: the record time in epoch
+ * microseconds followed by every column, with an empty field where a column has no value. The
+ * header is taken from the first record, so the writer can be created before the join's streams
+ * are known. Rows are buffered, so writing a record on the thread which pushed the sample is
+ * cheap.
+ */
+public class JoinedCsvWriter implements StreamJoin.OnJoinedListener {
+
+    // Logging TAG
+    private static final String TAG = "JoinedCsvWriter";
+
+    private static final String TIME_COLUMN = "time_micros";
+
+    private Writer mOut;
+    private boolean mHasHeader = false;
+    private long mRowCount = 0;
+
+    /**
+     * Constructor for JoinedCsvWriter.
+     * @param file the file to write the records to
+     * @throws IOException if the file could not be created
+     */
+    public JoinedCsvWriter(File file) throws IOException {
+        this(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"),
+                64 * 1024));
+    }
+
+    /**
+     * Constructor for JoinedCsvWriter.
+     * @param out the writer to write the records to, closed by close()
+     */
+    public JoinedCsvWriter(Writer out) {
+        mOut = out;
+    }
+
+    @Override
+    public synchronized void onJoined(JoinedRecord record) {
+        if (mOut == null) {
+            return;
+        }
+        try {
+            if (!mHasHeader) {
+                mOut.write(TIME_COLUMN);
+                for (int c = 0; c < record.getColumnCount(); c++) {
+                    mOut.write(',');
+                    writeField(record.getColumnName(c));
+                }
+                mOut.write('\n');
+                mHasHeader = true;
+            }
+            mOut.write(Long.toString(record.getTimeMicros()));
+            for (int c = 0; c < record.getColumnCount(); c++) {
+                mOut.write(',');
+                double value = record.getValue(c);
+                if (!Double.isNaN(value)) {
+                    mOut.write(Double.toString(value));
+                }
+            }
+            mOut.write('\n');
+            mRowCount++;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write joined record, stopping", e);
+            close();
+        }
+    }
+
+    /**
+     * Quote a field if it holds a separator, a quote or a line break.
+     */
+    private void writeField(String field) throws IOException {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0) {
+            mOut.write(field);
+            return;
+        }
+        mOut.write('"');
+        mOut.write(field.replace("\"", "\"\""));
+        mOut.write('"');
+    }
+
+    /**
+     * Get the number of records written.
+     * @return the row count, not counting the header
+     */
+    public synchronized long getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * Flush and close the file. Records joined afterwards are ignored.
+     */
+    public synchronized void close() {
+        if (mOut == null) {
+            return;
+        }
+        try {
+            mOut.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close joined records", e);
+        }
+        mOut = null;
+    }
+}
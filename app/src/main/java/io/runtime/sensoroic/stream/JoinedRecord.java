@@ -0,0 +1,79 @@
+package io.runtime.sensoroic.stream;
+
+/**
+ * A single time-aligned row produced by StreamJoin. The record holds one value per column, where
+ * the columns are the channels of every joined stream in the order the streams were added. A
+ * column is NaN if its stream had no sample close enough to the record time.
+ */
+public class JoinedRecord {
+
+    // Local time of the record in microseconds
+    private final long mTimeMicros;
+
+    // Column names shared by every record of the same join
+    private final String[] mColumnNames;
+
+    // One value per column
+    private final double[] mValues;
+
+    JoinedRecord(long timeMicros, String[] columnNames, double[] values) {
+        mTimeMicros = timeMicros;
+        mColumnNames = columnNames;
+        mValues = values;
+    }
+
+    /**
+     * Get the local time of this record in microseconds.
+     * @return the record time in microseconds
+     */
+    public long getTimeMicros() {
+        return mTimeMicros;
+    }
+
+    /**
+     * Get the number of columns in this record.
+     * @return the number of columns
+     */
+    public int getColumnCount() {
+        return mValues.length;
+    }
+
+    /**
+     * Get the name of a column. Column names are of the form "stream.channel".
+     * @param column the column index
+     * @return the column name
+     */
+    public String getColumnName(int column) {
+        return mColumnNames[column];
+    }
+
+    /**
+     * Get the value of a column.
+     * @param column the column index
+     * @return the column value, or NaN if the column has no value at this time
+     */
+    public double getValue(int column) {
+        return mValues[column];
+    }
+
+    /**
+     * Get the values of this record. The returned array must not be modified.
+     * @return the values of every column
+     */
+    public double[] getValues() {
+        return mValues;
+    }
+
+    /**
+     * Whether or not every column of this record has a value.
+     * @return true if no column is NaN, false otherwise
+     */
+    public boolean isComplete() {
+        for (double v : mValues) {
+            if (Double.isNaN(v)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
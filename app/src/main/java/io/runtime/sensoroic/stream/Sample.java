@@ -0,0 +1,119 @@
+package io.runtime.sensoroic.stream;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One decoded sensor notification: the local time it was taken at and one value per channel, in
+ * the channel order of the stream it came from.
+ *
+ * Samples of a stream are normally recycled through its SamplePool. A pooled sample is only valid
+ * until it is released: whoever acquires it releases it once, and a consumer which wants to keep
+ * it beyond the call it was handed in must retain() it and release() it when done.
+ */
+public class Sample {
+
+    private final String[] mKeys;
+    private final double[] mValues;
+    private long mTimeMicros;
+    private boolean mIsGapBefore;
+
+    // Pool the sample returns to once every reference has been released, or null
+    private final SamplePool mPool;
+    private final AtomicInteger mRefCount = new AtomicInteger();
+
+    // Link to the next free sample while in the pool
+    Sample mNext;
+
+    /**
+     * Constructor for an unpooled Sample.
+     * @param keys          the channel names, shared by every sample of the stream
+     * @param timeMicros    the local time the sample was taken at in microseconds
+     * @param values        one value per channel, NaN where a value is not numeric
+     * @param gapBefore     whether or not notifications were lost just before this one
+     */
+    public Sample(String[] keys, long timeMicros, double[] values, boolean gapBefore) {
+        mKeys = keys;
+        mValues = values;
+        mTimeMicros = timeMicros;
+        mIsGapBefore = gapBefore;
+        mPool = null;
+    }
+
+    /**
+     * Constructor for a pooled Sample.
+     */
+    Sample(String[] keys, SamplePool pool) {
+        mKeys = keys;
+        mValues = new double[keys.length];
+        mPool = pool;
+    }
+
+    /**
+     * Set the time and gap flag of a sample just acquired from the pool. The values are written
+     * into getValues() directly.
+     */
+    void set(long timeMicros, boolean gapBefore) {
+        mTimeMicros = timeMicros;
+        mIsGapBefore = gapBefore;
+    }
+
+    /**
+     * Take the first reference, when the sample is handed out by its pool.
+     */
+    void acquired() {
+        mRefCount.set(1);
+    }
+
+    /**
+     * Keep the sample beyond the call it was handed in. Must be matched by a release().
+     */
+    public void retain() {
+        if (mPool != null) {
+            mRefCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drop a reference. The last release returns the sample to its pool, after which it must not
+     * be used any more.
+     */
+    public void release() {
+        if (mPool == null) {
+            return;
+        }
+        int refs = mRefCount.decrementAndGet();
+        if (refs == 0) {
+            mPool.recycle(this);
+        } else if (refs < 0) {
+            throw new IllegalStateException("Sample released too often");
+        }
+    }
+
+    /**
+     * Get the channel names. The array is shared and must not be modified.
+     * @return the channel names
+     */
+    public String[] getKeys() {
+        return mKeys;
+    }
+
+    public long getTimeMicros() {
+        return mTimeMicros;
+    }
+
+    /**
+     * Get the channel values. The array belongs to the sample and is reused once it is released.
+     * @return one value per channel
+     */
+    public double[] getValues() {
+        return mValues;
+    }
+
+    public int getChannelCount() {
+        return mValues.length;
+    }
+
+    public boolean isGapBefore() {
+        return mIsGapBefore;
+    }
+}
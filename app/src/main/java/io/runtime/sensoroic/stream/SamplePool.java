@@ -0,0 +1,82 @@
+package io.runtime.sensoroic.stream;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Recycles the Samples of one stream so that decoding does not produce garbage once warmed up.
+ *
+ * Every sample of the pool has the stream's fixed layout: a long time and one double per channel.
+ * Free samples are kept on a lock-free stack linked through the samples themselves, so neither
+ * acquiring nor releasing allocates. Samples are acquired on a single thread, the decode worker,
+ * and may be released on any thread. If every sample is in use a new one is created, so the pool
+ * grows to the number of samples consumers actually hold at once.
+ */
+public class SamplePool {
+
+    private final String[] mKeys;
+    private final AtomicReference<Sample> mFree = new AtomicReference<>();
+    private final AtomicInteger mCreatedCount = new AtomicInteger();
+
+    /**
+     * Constructor for SamplePool.
+     * @param keys      the channel names of the stream
+     * @param initial   the number of samples to create up front
+     */
+    public SamplePool(String[] keys, int initial) {
+        mKeys = keys;
+        for (int i = 0; i < initial; i++) {
+            recycle(create());
+        }
+    }
+
+    /**
+     * Take a free sample, or create one if none is free. Must only be called from one thread.
+     * @return the sample, holding one reference which the caller must release
+     */
+    public Sample acquire() {
+        Sample sample;
+        while (true) {
+            sample = mFree.get();
+            if (sample == null) {
+                sample = create();
+                break;
+            }
+            // Only this thread pops, so the head cannot be popped and pushed back meanwhile
+            if (mFree.compareAndSet(sample, sample.mNext)) {
+                break;
+            }
+        }
+        sample.mNext = null;
+        sample.acquired();
+        return sample;
+    }
+
+    /**
+     * Get the number of samples created by the pool. Constant once the pool has warmed up.
+     * @return the sample count
+     */
+    public int getCreatedCount() {
+        return mCreatedCount.get();
+    }
+
+    public String[] getKeys() {
+        return mKeys;
+    }
+
+    /**
+     * Return a sample whose last reference was released.
+     */
+    void recycle(Sample sample) {
+        Sample head;
+        do {
+            head = mFree.get();
+            sample.mNext = head;
+        } while (!mFree.compareAndSet(head, sample));
+    }
+
+    private Sample create() {
+        mCreatedCount.incrementAndGet();
+        return new Sample(mKeys, this);
+    }
+}
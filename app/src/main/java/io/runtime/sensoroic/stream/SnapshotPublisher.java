@@ -0,0 +1,136 @@
+package io.runtime.sensoroic.stream;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Publishes the latest sample of a stream from one writer thread to any number of reader threads
+ * without locking.
+ *
+ * The sample is kept in two buffers of primitive slots. Version n is written into buffer n % 2,
+ * so a new sample never touches the buffer holding the version before it. The writer announces
+ * the version it is about to write before touching a buffer and publishes it once written; a
+ * reader copies the buffer of the latest published version and only has to retry if the writer
+ * started writing into that same buffer again meanwhile, i.e. if two newer samples were published
+ * while it was copying. Neither side ever blocks the other.
+ *
+ * Slots are held in an AtomicLongArray so every slot access is ordered with the version counters.
+ */
+public class SnapshotPublisher {
+
+    private final int mChannels;
+
+    // Slot 0 of each buffer is the time, followed by the channel values as raw long bits
+    private final int mStride;
+    private final AtomicLongArray mSlots;
+
+    // Latest published version, 0 before the first publish
+    private volatile long mVersion = 0;
+
+    // Version the writer is writing or has written last
+    private volatile long mWriting = 0;
+
+    /**
+     * Constructor for SnapshotPublisher.
+     * @param channels the number of values per sample
+     */
+    public SnapshotPublisher(int channels) {
+        mChannels = channels;
+        mStride = channels + 1;
+        mSlots = new AtomicLongArray(2 * mStride);
+    }
+
+    public int getChannelCount() {
+        return mChannels;
+    }
+
+    /**
+     * Get the latest published version.
+     * @return the version, 0 if nothing has been published yet
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Publish a sample. Must only be called from the writer thread.
+     * @param timeMicros    the sample time in microseconds
+     * @param values        one value per channel
+     */
+    public void publish(long timeMicros, double[] values) {
+        long version = mVersion + 1;
+        mWriting = version;
+        int base = (int) (version & 1) * mStride;
+        mSlots.set(base, timeMicros);
+        for (int c = 0; c < mChannels; c++) {
+            mSlots.set(base + 1 + c, Double.doubleToRawLongBits(values[c]));
+        }
+        mVersion = version;
+    }
+
+    /**
+     * Create a snapshot to read into, sized for this publisher.
+     * @return an empty snapshot
+     */
+    public Snapshot newSnapshot() {
+        return new Snapshot(mChannels);
+    }
+
+    /**
+     * Copy the latest published sample into a snapshot. Never blocks and never allocates.
+     * @param into the snapshot to copy into
+     * @return true if the snapshot now holds a newer version than before
+     */
+    public boolean read(Snapshot into) {
+        while (true) {
+            long version = mVersion;
+            if (version == 0 || version == into.mVersion) {
+                return false;
+            }
+            int base = (int) (version & 1) * mStride;
+            long time = mSlots.get(base);
+            for (int c = 0; c < mChannels; c++) {
+                into.mValues[c] = Double.longBitsToDouble(mSlots.get(base + 1 + c));
+            }
+            if (mWriting < version + 2) {
+                // The buffer was not reused while copying
+                into.mVersion = version;
+                into.mTimeMicros = time;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * A reader's copy of a published sample. Owned by a single reader thread.
+     */
+    public static class Snapshot {
+
+        private long mVersion = 0;
+        private long mTimeMicros;
+        private final double[] mValues;
+
+        private Snapshot(int channels) {
+            mValues = new double[channels];
+        }
+
+        /**
+         * Get the version of the copied sample, which counts the samples published.
+         * @return the version, 0 if nothing has been copied yet
+         */
+        public long getVersion() {
+            return mVersion;
+        }
+
+        public long getTimeMicros() {
+            return mTimeMicros;
+        }
+
+        /**
+         * Get the copied values. The array is reused by every read.
+         * @return one value per channel
+         */
+        public double[] getValues() {
+            return mValues;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package io.runtime.sensoroic.stream;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded lock-free queue for exactly one producer thread and one consumer thread. Elements
+ * live in a power of two sized ring; the producer only ever writes the tail counter and the
+ * consumer only ever writes the head counter, so neither side takes a lock or waits for the
+ * other. Each side caches the last value it read of the other side's counter and only rereads it
+ * when the ring looks full or empty.
+ *
+ * offer() must only be called from the producer thread and poll() only from the consumer thread.
+ * size() and isEmpty() can be called from any thread.
+ */
+public class SpscQueue<E> {
+
+    private final Object[] mBuffer;
+    private final int mMask;
+
+    // Index of the next element to poll, written by the consumer
+    private final AtomicLong mHead = new AtomicLong();
+
+    // Index of the next slot to offer into, written by the producer
+    private final AtomicLong mTail = new AtomicLong();
+
+    // Last head seen by the producer and last tail seen by the consumer
+    private long mHeadCache = 0;
+    private long mTailCache = 0;
+
+    /**
+     * Constructor for SpscQueue.
+     * @param capacity the minimum number of elements held, rounded up to a power of two
+     */
+    public SpscQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mBuffer = new Object[size];
+        mMask = size - 1;
+    }
+
+    /**
+     * Add an element. Producer thread only.
+     * @param element the element, not null
+     * @return false if the queue is full and the element was not added
+     */
+    public boolean offer(E element) {
+        long tail = mTail.get();
+        if (tail - mHeadCache >= mBuffer.length) {
+            mHeadCache = mHead.get();
+            if (tail - mHeadCache >= mBuffer.length) {
+                return false;
+            }
+        }
+        mBuffer[(int) tail & mMask] = element;
+        // A full volatile write, so a consumer about to park is guaranteed to see it
+        mTail.set(tail + 1);
+        return true;
+    }
+
+    /**
+     * Remove the oldest element. Consumer thread only.
+     * @return the element, or null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long head = mHead.get();
+        if (head >= mTailCache) {
+            mTailCache = mTail.get();
+            if (head >= mTailCache) {
+                return null;
+            }
+        }
+        int index = (int) head & mMask;
+        E element = (E) mBuffer[index];
+        mBuffer[index] = null;
+        mHead.lazySet(head + 1);
+        return element;
+    }
+
+    /**
+     * Get the number of elements waiting. Only an estimate while both threads are active.
+     * @return the number of elements
+     */
+    public int size() {
+        long head = mHead.get();
+        long tail = mTail.get();
+        return (int) Math.max(0, Math.min(tail - head, mBuffer.length));
+    }
+
+    /**
+     * Whether or not the queue is empty.
+     * @return true if no element is waiting
+     */
+    public boolean isEmpty() {
+        return mTail.get() == mHead.get();
+    }
+
+    /**
+     * Get the maximum number of elements held.
+     * @return the capacity
+     */
+    public int capacity() {
+        return mBuffer.length;
+    }
+}
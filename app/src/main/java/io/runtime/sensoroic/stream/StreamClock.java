@@ -0,0 +1,82 @@
+package io.runtime.sensoroic.stream;
+
+/**
+ * Maps the timestamps reported by a single Mynewt board onto the local clock. Mynewt sensors
+ * report the time since the board started running (ts_secs and ts_usecs), so timestamps from
+ * different boards cannot be compared directly. StreamClock estimates the offset between the
+ * board clock and the local clock as the smallest observed (arrival - sensor time), which is the
+ * sample with the least transport delay. A sample delayed in transport, however long, only has a
+ * larger offset and leaves the estimate alone. If the board restarts, its clock goes backwards
+ * and the offset is re-anchored.
+ *
+ * The local clock is nowMicros(), which never goes backwards, so local times derived from it
+ * keep their order even if the wall clock is set back.
+ */
+public class StreamClock {
+
+    // Lead of the wall clock over nowMicros() after which nowMicros() catches up with it
+    private static final long CATCH_UP_MICROS = 1000000L;
+
+    // Wall clock time and monotonic time at which nowMicros() was last anchored
+    private static long sAnchorMicros = System.currentTimeMillis() * 1000L;
+    private static long sAnchorNanos = System.nanoTime();
+
+    // Current estimate of (local time - board time), in microseconds
+    private long mOffsetMicros;
+
+    // Whether or not an offset has been estimated yet
+    private boolean mHasOffset = false;
+
+    // Latest board timestamp seen, a smaller one means the board restarted
+    private long mLastBoardMicros;
+
+    /**
+     * Convert a board timestamp into local time.
+     * @param boardMicros   the sensor timestamp reported by the board in microseconds
+     * @param arrivalMicros the local time at which the sample arrived in microseconds
+     * @return the estimated local time at which the sample was taken in microseconds
+     */
+    public synchronized long toLocalMicros(long boardMicros, long arrivalMicros) {
+        long offset = arrivalMicros - boardMicros;
+        if (!mHasOffset || offset < mOffsetMicros || boardMicros < mLastBoardMicros) {
+            mOffsetMicros = offset;
+            mHasOffset = true;
+        }
+        mLastBoardMicros = boardMicros;
+        return boardMicros + mOffsetMicros;
+    }
+
+    /**
+     * Convert a board timestamp into local time using the current time as the arrival time.
+     * @param boardMicros the sensor timestamp reported by the board in microseconds
+     * @return the estimated local time at which the sample was taken in microseconds
+     */
+    public long toLocalMicros(long boardMicros) {
+        return toLocalMicros(boardMicros, nowMicros());
+    }
+
+    /**
+     * Forget the current offset estimate.
+     */
+    public synchronized void reset() {
+        mHasOffset = false;
+    }
+
+    /**
+     * Get the current local time in epoch microseconds. The time advances with the monotonic
+     * clock from the wall clock time it was anchored to, so it never goes backwards. It only
+     * catches up with the wall clock when that has moved ahead by more than CATCH_UP_MICROS,
+     * e.g. after a deep sleep the monotonic clock did not count or a network time update.
+     * @return the current local time in microseconds
+     */
+    public static synchronized long nowMicros() {
+        long now = sAnchorMicros + (System.nanoTime() - sAnchorNanos) / 1000;
+        long wall = System.currentTimeMillis() * 1000L;
+        if (wall - now > CATCH_UP_MICROS) {
+            sAnchorMicros = wall;
+            sAnchorNanos = System.nanoTime();
+            now = wall;
+        }
+        return now;
+    }
+}
@@ -0,0 +1,514 @@
+package io.runtime.sensoroic.stream;
+
+import android.util.Log;
+
+import org.iotivity.base.OcHeaderOption;
+import org.iotivity.base.OcRepresentation;
+import org.iotivity.base.OcResource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import io.runtime.sensoroic.MynewtSensor;
+
+/**
+ * StreamJoin aligns any number of sensor streams by event time and emits JoinedRecords containing
+ * one value for every channel of every stream. Each stream is buffered in a bounded ring buffer
+ * and a watermark, the oldest newest-sample across all live streams minus the allowed lateness,
+ * decides when a record time can no longer change and is safe to emit.
+ *
+ * Streams that have not delivered a sample within the idle timeout stop holding back the
+ * watermark, so a late or silent stream never blocks the join or grows the buffers. Its columns
+ * are simply NaN until it delivers again.
+ *
+ * Records are either emitted on a fixed time grid (EmitMode.GRID) or once for each sample that
+ * arrives on any stream (EmitMode.ON_ARRIVAL). Values are matched to the record time using either
+ * the nearest sample (MatchMode.NEAREST) or linear interpolation between the samples on either
+ * side (MatchMode.LINEAR).
+ */
+public class StreamJoin {
+
+    // Logging TAG
+    private static final String TAG = "StreamJoin";
+
+    /**
+     * How stream values are matched to a record time.
+     */
+    public enum MatchMode {
+        NEAREST,
+        LINEAR
+    }
+
+    /**
+     * When records are emitted.
+     */
+    public enum EmitMode {
+        GRID,
+        ON_ARRIVAL
+    }
+
+    // Default number of samples buffered for each stream
+    public static final int DEFAULT_BUFFER_CAPACITY = 256;
+
+    // Default time after which a stream without samples no longer holds back the watermark
+    public static final long DEFAULT_IDLE_TIMEOUT_MICROS = 5 * 1000000L;
+
+    // Join configuration
+    private final MatchMode mMatchMode;
+    private final EmitMode mEmitMode;
+    private final long mGridPeriodMicros;
+    private final long mAllowedLatenessMicros;
+    private final long mMaxGapMicros;
+    private final int mCapacity;
+    private long mIdleTimeoutMicros = DEFAULT_IDLE_TIMEOUT_MICROS;
+
+    // Listener for joined records
+    private final OnJoinedListener mListener;
+
+    // Joined streams and the resulting column names
+    private final ArrayList<Stream> mStreams = new ArrayList<>();
+    private String[] mColumnNames = new String[0];
+
+    // GRID: time of the next record. ON_ARRIVAL: time of the last emitted record.
+    private long mCursorMicros = Long.MIN_VALUE;
+
+    // ON_ARRIVAL: bounded ring of sample times waiting for the watermark to pass them
+    private final long[] mPending;
+    private int mPendingHead = 0;
+    private int mPendingSize = 0;
+
+    // Arrival time of the first sample, streams without samples hold the join until idle
+    private long mStartMicros = Long.MIN_VALUE;
+
+    // Current watermark, never moves backwards
+    private long mWatermarkMicros = Long.MIN_VALUE;
+
+    // Statistics
+    private long mLateCount = 0;
+    private long mDroppedCount = 0;
+    private long mEmittedCount = 0;
+
+    /**
+     * Constructor for StreamJoin with the default buffer capacity and a maximum gap of twice the
+     * grid period.
+     *
+     * @param matchMode             how stream values are matched to a record time
+     * @param emitMode              when records are emitted
+     * @param gridPeriodMicros      the record period for EmitMode.GRID in microseconds
+     * @param allowedLatenessMicros how long to wait for late samples before emitting a record
+     * @param listener              the OnJoinedListener for joined records
+     */
+    public StreamJoin(MatchMode matchMode, EmitMode emitMode, long gridPeriodMicros,
+                      long allowedLatenessMicros, OnJoinedListener listener) {
+        this(matchMode, emitMode, gridPeriodMicros, allowedLatenessMicros, 2 * gridPeriodMicros,
+                DEFAULT_BUFFER_CAPACITY, listener);
+    }
+
+    /**
+     * Constructor for StreamJoin.
+     *
+     * @param matchMode             how stream values are matched to a record time
+     * @param emitMode              when records are emitted
+     * @param gridPeriodMicros      the record period for EmitMode.GRID in microseconds
+     * @param allowedLatenessMicros how long to wait for late samples before emitting a record
+     * @param maxGapMicros          the furthest a sample may be from the record time to be used
+     * @param bufferCapacity        the maximum number of samples buffered for each stream
+     * @param listener              the OnJoinedListener for joined records
+     */
+    public StreamJoin(MatchMode matchMode, EmitMode emitMode, long gridPeriodMicros,
+                      long allowedLatenessMicros, long maxGapMicros, int bufferCapacity,
+                      OnJoinedListener listener) {
+        if (emitMode == EmitMode.GRID && gridPeriodMicros <= 0) {
+            throw new IllegalArgumentException("Grid period must be positive");
+        }
+        if (bufferCapacity < 2) {
+            throw new IllegalArgumentException("Buffer capacity must be at least 2");
+        }
+        mMatchMode = matchMode;
+        mEmitMode = emitMode;
+        mGridPeriodMicros = gridPeriodMicros;
+        mAllowedLatenessMicros = allowedLatenessMicros;
+        mMaxGapMicros = maxGapMicros;
+        mCapacity = bufferCapacity;
+        mListener = listener;
+        mPending = new long[bufferCapacity];
+    }
+
+    /**
+     * Set the time after which a stream without new samples no longer holds back the watermark.
+     * @param idleTimeoutMicros the idle timeout in microseconds
+     */
+    public synchronized void setIdleTimeout(long idleTimeoutMicros) {
+        mIdleTimeoutMicros = idleTimeoutMicros;
+    }
+
+    /**
+     * Add a stream to the join. The stream's channels are appended to the record columns.
+     * @param name          the stream name, used as the column name prefix
+     * @param channelNames  the names of the stream's channels
+     * @return the index of the new stream
+     */
+    public synchronized int addStream(String name, String[] channelNames) {
+        Stream stream = new Stream(name, channelNames, mColumnNames.length, mCapacity);
+        mStreams.add(stream);
+        String[] columns = new String[mColumnNames.length + channelNames.length];
+        System.arraycopy(mColumnNames, 0, columns, 0, mColumnNames.length);
+        for (int i = 0; i < channelNames.length; i++) {
+            columns[mColumnNames.length + i] = name + "." + channelNames[i];
+        }
+        mColumnNames = columns;
+        return mStreams.size() - 1;
+    }
+
+    /**
+     * Push a sample into a stream using the current time as the arrival time.
+     * @param streamIndex       the stream index returned by addStream
+     * @param eventTimeMicros   the local time at which the sample was taken
+     * @param values            one value per stream channel
+     * @return true if the sample was accepted, false if it arrived too late
+     */
+    public boolean push(int streamIndex, long eventTimeMicros, double[] values) {
+        return push(streamIndex, eventTimeMicros, values, StreamClock.nowMicros());
+    }
+
+    /**
+     * Push a sample into a stream.
+     * @param streamIndex       the stream index returned by addStream
+     * @param eventTimeMicros   the local time at which the sample was taken
+     * @param values            one value per stream channel
+     * @param arrivalMicros     the local time at which the sample arrived
+     * @return true if the sample was accepted, false if it arrived too late
+     */
+    public synchronized boolean push(int streamIndex, long eventTimeMicros, double[] values,
+                                     long arrivalMicros) {
+        Stream stream = mStreams.get(streamIndex);
+        stream.mLastArrivalMicros = arrivalMicros;
+        if (mStartMicros == Long.MIN_VALUE) {
+            mStartMicros = arrivalMicros;
+        }
+        if (eventTimeMicros <= stream.mMaxTimeMicros || eventTimeMicros < mWatermarkMicros) {
+            // Out of order within the stream, or the records around it were already emitted
+            mLateCount++;
+            return false;
+        }
+        if (stream.add(eventTimeMicros, values)) {
+            mDroppedCount++;
+        }
+        if (mEmitMode == EmitMode.ON_ARRIVAL) {
+            if (mPendingSize == mPending.length) {
+                mPendingHead = (mPendingHead + 1) % mPending.length;
+                mPendingSize--;
+                mDroppedCount++;
+            }
+            mPending[(mPendingHead + mPendingSize) % mPending.length] = eventTimeMicros;
+            mPendingSize++;
+        }
+        advance(arrivalMicros);
+        return true;
+    }
+
+    /**
+     * Re-evaluate the watermark without pushing a sample. This lets the join make progress when
+     * a stream goes silent and no other stream delivers a sample for a while.
+     * @param nowMicros the current local time in microseconds
+     */
+    public synchronized void advance(long nowMicros) {
+        long watermark = computeWatermark(nowMicros);
+        if (watermark == Long.MIN_VALUE) {
+            return;
+        }
+        if (watermark > mWatermarkMicros) {
+            mWatermarkMicros = watermark;
+        }
+        if (mEmitMode == EmitMode.GRID) {
+            emitGrid();
+        } else {
+            emitArrivals();
+        }
+        prune();
+    }
+
+    private long computeWatermark(long nowMicros) {
+        long min = Long.MAX_VALUE;
+        for (Stream stream : mStreams) {
+            if (stream.mSize == 0 && nowMicros - mStartMicros <= mIdleTimeoutMicros) {
+                // Give every stream a chance to deliver its first sample
+                return Long.MIN_VALUE;
+            }
+            if (stream.mSize > 0 && nowMicros - stream.mLastArrivalMicros <= mIdleTimeoutMicros) {
+                min = Math.min(min, stream.mMaxTimeMicros);
+            }
+        }
+        if (min == Long.MAX_VALUE) {
+            return Long.MIN_VALUE;
+        }
+        return min - mAllowedLatenessMicros;
+    }
+
+    private void emitGrid() {
+        if (mCursorMicros == Long.MIN_VALUE) {
+            long first = Long.MAX_VALUE;
+            for (Stream stream : mStreams) {
+                if (stream.mSize > 0) {
+                    first = Math.min(first, stream.time(0));
+                }
+            }
+            mCursorMicros = ceilToGrid(first);
+        }
+        int emitted = 0;
+        while (mCursorMicros <= mWatermarkMicros && emitted < mCapacity) {
+            emit(mCursorMicros);
+            mCursorMicros += mGridPeriodMicros;
+            emitted++;
+        }
+        if (mCursorMicros <= mWatermarkMicros) {
+            // Too far behind to catch up within the buffer bound, skip ahead
+            long next = ceilToGrid(mWatermarkMicros);
+            mDroppedCount += (next - mCursorMicros) / mGridPeriodMicros;
+            mCursorMicros = next;
+        }
+    }
+
+    private void emitArrivals() {
+        while (mPendingSize > 0 && mPending[mPendingHead] <= mWatermarkMicros) {
+            long t = mPending[mPendingHead];
+            mPendingHead = (mPendingHead + 1) % mPending.length;
+            mPendingSize--;
+            if (t > mCursorMicros) {
+                emit(t);
+                mCursorMicros = t;
+            }
+        }
+    }
+
+    private void emit(long timeMicros) {
+        double[] values = new double[mColumnNames.length];
+        for (Stream stream : mStreams) {
+            stream.valueAt(timeMicros, values, mMatchMode, mMaxGapMicros);
+        }
+        mEmittedCount++;
+        if (mListener != null) {
+            mListener.onJoined(new JoinedRecord(timeMicros, mColumnNames, values));
+        }
+    }
+
+    /*
+     * Drop every sample that can no longer affect a future record, keeping the newest sample at
+     * or before the next record time so that it can still be matched or interpolated.
+     */
+    private void prune() {
+        long threshold;
+        if (mEmitMode == EmitMode.GRID) {
+            threshold = mCursorMicros;
+        } else {
+            threshold = mPendingSize > 0 ? mPending[mPendingHead] : mWatermarkMicros;
+        }
+        for (Stream stream : mStreams) {
+            while (stream.mSize >= 2 && stream.time(1) <= threshold) {
+                stream.removeFirst();
+            }
+        }
+    }
+
+    private long ceilToGrid(long timeMicros) {
+        long r = timeMicros % mGridPeriodMicros;
+        if (r < 0) {
+            r += mGridPeriodMicros;
+        }
+        return r == 0 ? timeMicros : timeMicros - r + mGridPeriodMicros;
+    }
+
+    /**
+     * Get the column names of the joined records.
+     * @return the column names
+     */
+    public synchronized String[] getColumnNames() {
+        return mColumnNames.clone();
+    }
+
+    /**
+     * Get the current watermark.
+     * @return the watermark in microseconds, or Long.MIN_VALUE if no stream has data yet
+     */
+    public synchronized long getWatermarkMicros() {
+        return mWatermarkMicros;
+    }
+
+    /**
+     * Get the number of samples rejected because they arrived after the watermark passed them.
+     * @return the number of late samples
+     */
+    public synchronized long getLateCount() {
+        return mLateCount;
+    }
+
+    /**
+     * Get the number of samples and records dropped to keep the buffers bounded.
+     * @return the number of dropped samples and records
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * Get the number of records emitted so far.
+     * @return the number of emitted records
+     */
+    public synchronized long getEmittedCount() {
+        return mEmittedCount;
+    }
+
+    /**
+     * Get the number of samples currently buffered for a stream.
+     * @param streamIndex the stream index returned by addStream
+     * @return the number of buffered samples
+     */
+    public synchronized int getBufferedCount(int streamIndex) {
+        return mStreams.get(streamIndex).mSize;
+    }
+
+    /**
+     * Create an OnObserveListener which feeds a Mynewt sensor's observe notifications into a
+     * stream. The stream's channel names are used as the representation keys and the sensor
+     * timestamps are mapped onto the local clock with a StreamClock.
+     * @param streamIndex the stream index returned by addStream
+     * @return the OnObserveListener for the stream
+     */
+    public OcResource.OnObserveListener createObserveListener(final int streamIndex) {
+        final Stream stream;
+        synchronized (this) {
+            stream = mStreams.get(streamIndex);
+        }
+        final StreamClock clock = new StreamClock();
+        return new OcResource.OnObserveListener() {
+            @Override
+            public void onObserveCompleted(List<OcHeaderOption> list,
+                                           OcRepresentation ocRepresentation, int i) {
+                Map<String, Object> map = ocRepresentation.getValues();
+                long arrival = StreamClock.nowMicros();
+                long boardMicros = MynewtSensor.getTimestampMicros(map);
+                long eventTime = boardMicros < 0 ? arrival : clock.toLocalMicros(boardMicros, arrival);
+                double[] values = new double[stream.mChannelNames.length];
+                for (int c = 0; c < values.length; c++) {
+                    values[c] = MynewtSensor.toDouble(map.get(stream.mChannelNames[c]));
+                }
+                push(streamIndex, eventTime, values, arrival);
+            }
+
+            @Override
+            public void onObserveFailed(Throwable throwable) {
+                Log.w(TAG, "Observe failed for stream " + stream.mName, throwable);
+            }
+        };
+    }
+
+    /**
+     * Bounded ring buffer of the samples of a single stream.
+     */
+    private static class Stream {
+        private final String mName;
+        private final String[] mChannelNames;
+        private final int mFirstColumn;
+        private final int mChannels;
+        private final long[] mTimes;
+        private final double[] mValues;
+        private int mHead = 0;
+        private int mSize = 0;
+        private long mMaxTimeMicros = Long.MIN_VALUE;
+        private long mLastArrivalMicros = Long.MIN_VALUE;
+
+        private Stream(String name, String[] channelNames, int firstColumn, int capacity) {
+            mName = name;
+            mChannelNames = channelNames.clone();
+            mFirstColumn = firstColumn;
+            mChannels = channelNames.length;
+            mTimes = new long[capacity];
+            mValues = new double[capacity * mChannels];
+        }
+
+        private int slot(int k) {
+            return (mHead + k) % mTimes.length;
+        }
+
+        private long time(int k) {
+            return mTimes[slot(k)];
+        }
+
+        private double value(int k, int channel) {
+            return mValues[slot(k) * mChannels + channel];
+        }
+
+        /* Returns true if the oldest sample was overwritten to make room. */
+        private boolean add(long timeMicros, double[] values) {
+            boolean overwrote = false;
+            if (mSize == mTimes.length) {
+                removeFirst();
+                overwrote = true;
+            }
+            int s = slot(mSize);
+            mTimes[s] = timeMicros;
+            System.arraycopy(values, 0, mValues, s * mChannels, mChannels);
+            mSize++;
+            mMaxTimeMicros = timeMicros;
+            return overwrote;
+        }
+
+        private void removeFirst() {
+            mHead = (mHead + 1) % mTimes.length;
+            mSize--;
+        }
+
+        /* Logical index of the last sample at or before the given time, or -1 if none. */
+        private int floorIndex(long timeMicros) {
+            int lo = 0;
+            int hi = mSize - 1;
+            int result = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (time(mid) <= timeMicros) {
+                    result = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return result;
+        }
+
+        private void valueAt(long t, double[] out, MatchMode mode, long maxGapMicros) {
+            int prev = floorIndex(t);
+            int next = prev + 1 < mSize ? prev + 1 : -1;
+            boolean prevOk = prev >= 0 && t - time(prev) <= maxGapMicros;
+            boolean nextOk = next >= 0 && time(next) - t <= maxGapMicros;
+            for (int c = 0; c < mChannels; c++) {
+                double v;
+                if (mode == MatchMode.LINEAR && prevOk && nextOk) {
+                    long t0 = time(prev);
+                    long t1 = time(next);
+                    double f = t1 == t0 ? 0 : (double) (t - t0) / (t1 - t0);
+                    v = value(prev, c) + f * (value(next, c) - value(prev, c));
+                } else if (prevOk && (!nextOk || t - time(prev) <= time(next) - t)) {
+                    v = value(prev, c);
+                } else if (nextOk) {
+                    v = value(next, c);
+                } else {
+                    v = Double.NaN;
+                }
+                out[mFirstColumn + c] = v;
+            }
+        }
+    }
+
+    /**
+     * The listener for StreamJoin. Records are delivered on the thread that pushed the sample
+     * while the join is locked, so the listener should hand them off rather than block.
+     */
+    public interface OnJoinedListener {
+        /**
+         * Called for every joined record, in increasing time order.
+         * @param record the joined record
+         */
+        void onJoined(JoinedRecord record);
+    }
+}
@@ -5,7 +5,6 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothManager;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanFilter;
@@ -15,25 +14,27 @@ import android.content.Context;
 import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.Log;
 
-import org.iotivity.base.ModeType;
 import org.iotivity.base.OcConnectivityType;
 import org.iotivity.base.OcException;
 import org.iotivity.base.OcPlatform;
 import org.iotivity.base.OcResource;
-import org.iotivity.base.PlatformConfig;
 import org.iotivity.base.QualityOfService;
-import org.iotivity.base.ServiceType;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import io.runtime.sensoroic.OicApplication;
 import io.runtime.sensoroic.R;
+import io.runtime.sensoroic.health.HostHealthMonitor;
 
 public class DiscoveryTask extends AsyncTask<Void, Integer, Void> implements OcPlatform.OnResourceFoundListener {
 
@@ -69,12 +70,29 @@ public class DiscoveryTask extends AsyncTask<Void, Integer, Void> implements OcP
     // Scan constants
     private static final int BLE_SCAN_DURATION = 10;
     private static final int BLE_SCAN_DURATION_MILLIS = BLE_SCAN_DURATION * 1000;
+    private static final int BLE_SCAN_IDLE_MILLIS = 3000;
+    private static final int BLE_SCAN_REPORT_DELAY_MILLIS = 500;
     private static final int DISCOVERY_DURATION = 10;
     private static final int DISCOVERY_DURATION_MILLIS = DISCOVERY_DURATION * 1000;
+    private static final int IP_DISCOVERY_MILLIS = 5000;
 
-    // List of found OIC Bluetooth LE Hosts
-    private ArrayList<String> mScannedHosts = new ArrayList<>();
+    // Time allowed for the IoTivity platform to finish starting
+    private static final int PLATFORM_READY_TIMEOUT_MILLIS = 10000;
+
+    // Time allowed for the remaining resources of the last host to arrive once all hosts answered
+    private static final int UNICAST_SETTLE_MILLIS = 250;
+
+    // Scanned OIC Bluetooth LE hosts waiting for discovery, guarded by this
+    private ScanQueue mScanQueue;
+    private boolean mIsScanning = false;
+    private int mExpectedBleDevices = 0;
+
+    // Hosts which answered discovery, and whether the host being discovered has answered
     private ArrayList<String> mConnectedHosts = new ArrayList<>();
+    private boolean mHostAnswered;
+
+    // Hosts which answered discovery in previous runs
+    private KnownHosts mKnownHosts;
 
     // List of discovered resources to be retured via the listener callback
     private ArrayList<OcResource> mDiscoveredResources = new ArrayList<>();
@@ -82,6 +100,16 @@ public class DiscoveryTask extends AsyncTask<Void, Integer, Void> implements OcP
     // BLE device address whitelist
     private ArrayList<String> mWhiteList;
 
+    // Known IP endpoints for unicast discovery, null to discover IP devices by multicast
+    private ArrayList<String> mIpHosts;
+
+    // Addresses of unicast discovery targets which have not answered yet, and when they were sent
+    private HashSet<String> mPendingHosts = new HashSet<>();
+    private long mUnicastStartMillis;
+
+    // Host health, consulted before unicast discovery and told the outcome
+    private HostHealthMonitor mHealthMonitor;
+
     // Whether or not the BLE cache has been cleared
     private boolean mCacheCleared = false;
 
@@ -166,6 +194,48 @@ public class DiscoveryTask extends AsyncTask<Void, Integer, Void> implements OcP
         mDiscoverIp = discoverIp;
     }
 
+    /**
+     * Known-device resource discovery constructor for DiscoveryTask. This DiscoveryTask skips the
+     * BLE scan and sends unicast discovery to every given BLE address and IP endpoint at once,
+     * finishing as soon as all of them have answered. IP endpoints which do not answer are
+     * looked for with a multicast discovery.
+     *
+     * @param context           context
+     * @param listener          the OnDiscoveryListener for discovery callbacks
+     * @param progressdialog    the progress dialog to publish progress to, or null
+     * @param bleHosts          the BLE host addresses to do resource discovery on
+     * @param ipHosts           the IP endpoints to do resource discovery on
+     */
+    public DiscoveryTask(Context context, OnDiscoveryListener listener,
+                         ProgressDialog progressdialog, Collection<String> bleHosts,
+                         Collection<String> ipHosts) {
+        mContext = context;
+        mApp = (OicApplication) context.getApplicationContext();
+        mListener = listener;
+        mProgressDialog = progressdialog;
+        mWhiteList = new ArrayList<>(bleHosts);
+        mIpHosts = new ArrayList<>(ipHosts);
+        mDiscoverBle = !bleHosts.isEmpty();
+        mDiscoverIp = !ipHosts.isEmpty();
+    }
+
+    /**
+     * Creates a DiscoveryTask for the hosts which answered discovery in previous runs.
+     * @param context           context
+     * @param listener          the OnDiscoveryListener for discovery callbacks
+     * @param progressdialog    the progress dialog to publish progress to, or null
+     * @return the DiscoveryTask, or null if no host is known
+     */
+    public static DiscoveryTask forKnownHosts(Context context, OnDiscoveryListener listener,
+                                              ProgressDialog progressdialog) {
+        KnownHosts known = new KnownHosts(context);
+        if (known.isEmpty()) {
+            return null;
+        }
+        return new DiscoveryTask(context, listener, progressdialog, known.getBleAddresses(),
+                known.getIpHosts());
+    }
+
     @Override
     protected void onPreExecute() {
         super.onPreExecute();
@@ -173,10 +243,8 @@ public class DiscoveryTask extends AsyncTask<Void, Integer, Void> implements OcP
         if (mProgressDialog != null) {
             mProgressDialog.show();
         }
-        // Initializes Bluetooth Adapter
-        final BluetoothManager bluetoothManager =
-                (BluetoothManager) mContext.getSystemService(Context.BLUETOOTH_SERVICE);
-        BluetoothAdapter bluetoothAdapter = bluetoothManager.getAdapter();
+        // Get the Bluetooth Adapter, usually looked up already while the platform started
+        BluetoothAdapter bluetoothAdapter = mApp.getPlatform().getBluetoothAdapter();
         //Set up Bluetooth LE Scanner and do a preliminary scan
         if (bluetoothAdapter == null) {
             //TODO handle case
@@ -191,51 +259,72 @@ public class DiscoveryTask extends AsyncTask<Void, Integer, Void> implements OcP
             mBluetoothLeScanner = bluetoothAdapter.getBluetoothLeScanner();
             mBleScanFilters = new ArrayList<>(1);
             mBleScanFilters.add(new ScanFilter.Builder().setServiceUuid(new ParcelUuid(mOicUuid)).build());
-            mBleScanSettings = new ScanSettings.Builder().build();
+            // Batch scan reports in the controller where supported, so the scan costs fewer
+            // wake-ups while still feeding discovery as it runs
+            ScanSettings.Builder settings = new ScanSettings.Builder()
+                    .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY);
+            if (bluetoothAdapter.isOffloadedScanBatchingSupported()) {
+                settings.setReportDelay(BLE_SCAN_REPORT_DELAY_MILLIS);
+            }
+            mBleScanSettings = settings.build();
             mHandler = new Handler();
         }
-
-        //Configure the Iotivity Platform
-        PlatformConfig platformConfig = new PlatformConfig(mContext, ServiceType.IN_PROC,
-                ModeType.CLIENT, "0.0.0.0", 0, QualityOfService.LOW);
-        OcPlatform.Configure(platformConfig);
+        mKnownHosts = new KnownHosts(mContext);
+        mHealthMonitor = mApp.getHostHealthMonitor();
     }
 
 
+    /**
+     * Set the number of BLE devices expected. The scan stops as soon as this many devices have
+     * been seen rather than waiting for the scan to go idle. Must be called before execute().
+     * @param count the number of devices, or 0 if unknown
+     */
+    public void setExpectedBleDevices(int count) {
+        mExpectedBleDevices = count;
+    }
+
     /**
      * This is the main work method for DiscoveryTask. There are three sections in this method:
-     *   - BLE Scan: If the whitelist is not null, scan nearby BLE devices which advertise the
-     *               Iotivity UUID.
-     *   - BLE Discovery: If the mDiscoverBle flag is enabled, discover BLE devices from the
-     *                    list of scanned devices or the whitelist.
-     *   - IP Discovery: If the mDiscoverIp flag is enabled, discover IP devices.
+     *   - BLE Scan and Discovery: If the mDiscoverBle flag is enabled and the whitelist is null,
+     *                    scan nearby BLE devices which advertise the Iotivity UUID and discover
+     *                    them while the scan runs.
+     *   - Unicast Discovery: Discover the whitelisted BLE devices and the known IP endpoints
+     *                    in parallel.
+     *   - IP Discovery: If the mDiscoverIp flag is enabled, discover IP devices by multicast,
+     *                    or only look for the known IP endpoints which did not answer.
      * @param param void
      * @return void
      */
     @Override
     protected synchronized Void doInBackground(Void... param) {
-        //Scan for Ble Devices and wait for 10 seconds
         try {
+            // The platform is started when the application is created and is usually ready by now
+            if (!mApp.getPlatform().awaitReady(PLATFORM_READY_TIMEOUT_MILLIS)) {
+                return null;
+            }
             if (mWhiteList == null && mDiscoverBle) {
                 publishProgress(R.string.scan_progress_ble_scan);
-                // Scan for BLE devices advertising the Iotivity UUID
-                scanBleDevices();
-            } else if (mDiscoverBle) {
-                // Uncomment to clear BLE cache for the first device in the whitelist
-//                connectAndClearCache(mWhiteList.get(0));
-//                wait();
-                mScannedHosts.addAll(mWhiteList);
+                // Scan for BLE devices advertising the Iotivity UUID and discover them as they come
+                scanAndDiscoverBle();
             }
-            if (mDiscoverBle) {
-                if(mWhiteList == null) {
-                    publishProgress(R.string.scan_progress_ble_discovery);
-                } else {
-                    publishProgress(R.string.scan_progress_ble_discovery_whitelist);
-                }
-                // Discover BLE devices
-                discoverBle();
+            // Uncomment to clear BLE cache for the first device in the whitelist
+//            connectAndClearCache(mWhiteList.get(0));
+//            wait();
+            ArrayList<String> bleHosts = new ArrayList<>();
+            ArrayList<String> ipHosts = new ArrayList<>();
+            if (mDiscoverBle && mWhiteList != null) {
+                bleHosts.addAll(mWhiteList);
+            }
+            if (mDiscoverIp && mIpHosts != null) {
+                ipHosts.addAll(mIpHosts);
             }
-            if (mDiscoverIp) {
+            if (!bleHosts.isEmpty() || !ipHosts.isEmpty()) {
+                publishProgress(mIpHosts == null ? R.string.scan_progress_ble_discovery_whitelist
+                        : R.string.scan_progress_known_hosts);
+                // Discover the known devices
+                discoverUnicast(bleHosts, ipHosts);
+            }
+            if (mDiscoverIp && (mIpHosts == null || hasPendingHosts())) {
                 publishProgress(R.string.scan_progress_ip_discovery);
                 // Discover IP devices
                 discoverIp();
@@ -252,6 +341,7 @@ public class DiscoveryTask extends AsyncTask<Void, Integer, Void> implements OcP
     @Override
     protected void onPostExecute(Void o) {
         super.onPostExecute(o);
+        mKnownHosts.addAll(mDiscoveredResources);
         if (mDiscoveredResources.isEmpty()) {
             mListener.OnDiscoveryFailed();
         } else {
@@ -263,6 +353,10 @@ public class DiscoveryTask extends AsyncTask<Void, Integer, Void> implements OcP
     @Override
     protected void onCancelled() {
         super.onCancelled();
+        stopScan();
+        if (mKnownHosts != null) {
+            mKnownHosts.addAll(mDiscoveredResources);
+        }
         if (mDiscoveredResources.isEmpty()) {
             mListener.OnDiscoveryFailed();
         } else {
@@ -279,50 +373,183 @@ public class DiscoveryTask extends AsyncTask<Void, Integer, Void> implements OcP
     }
 
     /**
-     * Scans for BLE devices for a set duration.
+     * Scans for BLE devices and discovers them while the scan is still running. Scan reports are
+     * deduplicated and ranked by the ScanQueue, and whenever the previous host is done the best
+     * waiting host is discovered next. The scan stops once the expected number of devices has
+     * been seen, no new device has been reported for a while or the maximum scan time is up, and
+     * this method returns when every scanned host has been discovered.
      * @throws InterruptedException
+     * @throws OcException
      */
-    private synchronized void scanBleDevices() throws InterruptedException {
+    private synchronized void scanAndDiscoverBle() throws InterruptedException, OcException {
         Log.d(TAG, "Scanning for BLE devices...");
-        // Stops scanning and notify the waiting thread after a pre-defined scan period.
-        mHandler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                Log.d(TAG, "BLE scan stopped after " + BLE_SCAN_DURATION + " seconds.");
-                mBluetoothLeScanner.stopScan(mScanCallback);
-                synchronized (DiscoveryTask.this) {
-                    DiscoveryTask.this.notify();
+        Set<String> known = mKnownHosts.getBleAddresses();
+        mScanQueue = new ScanQueue(known, mExpectedBleDevices, BLE_SCAN_IDLE_MILLIS,
+                BLE_SCAN_DURATION_MILLIS);
+        mScanQueue.start(SystemClock.elapsedRealtime());
+        mIsScanning = true;
+        mBluetoothLeScanner.startScan(mBleScanFilters, mBleScanSettings, mScanCallback);
+        boolean announced = false;
+        while (!isCancelled()) {
+            updateScan();
+            String hostAddr = mScanQueue.poll();
+            if (hostAddr != null) {
+                if (!announced) {
+                    publishProgress(R.string.scan_progress_ble_discovery);
+                    announced = true;
                 }
+                discoverBleHost(hostAddr);
+            } else if (mIsScanning) {
+                wait(mScanQueue.millisUntilComplete(SystemClock.elapsedRealtime()));
+            } else {
+                break;
             }
-        }, BLE_SCAN_DURATION_MILLIS);
-        mBluetoothLeScanner.startScan(mBleScanFilters, mBleScanSettings, mScanCallback);
-        wait();
+        }
+        stopScan();
+        wait(1000);
+    }
+
+    /**
+     * Stops the scan if the scan queue says it is complete.
+     */
+    private synchronized void updateScan() {
+        if (mIsScanning && mScanQueue.isComplete(SystemClock.elapsedRealtime())) {
+            stopScan();
+        }
     }
 
     /**
-     * Performs the discovery for BLE devices which have been scanned previously or whitelisted.
-     * Since Iotivity resource discovery over BLE cannot be multicasted, devices must be scanned
-     * one at a time. This method loops through the list of scanned hosts and does resource
-     * discovery for a set duration before moving on to the next device in the list.
+     * Stops the BLE scan if it is running.
+     */
+    private synchronized void stopScan() {
+        if (mIsScanning) {
+            mIsScanning = false;
+            mBluetoothLeScanner.stopScan(mScanCallback);
+            Log.d(TAG, "BLE scan stopped after seeing " + mScanQueue.getSeenCount() + " devices.");
+        }
+    }
+
+    /**
+     * Performs unicast discovery of known hosts. Discovery requests are sent to every host at
+     * once rather than one host at a time, and this method returns as soon as every host has
+     * answered, or after the discovery duration if some have not.
+     * @param bleHosts  the BLE host addresses
+     * @param ipHosts   the IP endpoints
      * @throws InterruptedException
      * @throws OcException
      */
-    private synchronized void discoverBle() throws InterruptedException, OcException {
-        for (String hostAddr : mScannedHosts) {
+    private synchronized void discoverUnicast(List<String> bleHosts, List<String> ipHosts)
+            throws InterruptedException, OcException {
+        // Skip hosts known to be down rather than spending radio time on them
+        bleHosts = allowedHosts(bleHosts);
+        ipHosts = allowedHosts(ipHosts);
+        for (String hostAddr : bleHosts) {
+            mPendingHosts.add(KnownHosts.addressOf(hostAddr));
+        }
+        for (String host : ipHosts) {
+            mPendingHosts.add(KnownHosts.addressOf(host));
+        }
+        mUnicastStartMillis = SystemClock.elapsedRealtime();
+        for (String hostAddr : bleHosts) {
             Log.d(TAG, "Discovering device (" + hostAddr + ") over BLE...");
-            OcPlatform.findResource(
-                    hostAddr,
-                    OcPlatform.WELL_KNOWN_QUERY,
+            OcPlatform.findResource(hostAddr, OcPlatform.WELL_KNOWN_QUERY,
                     EnumSet.of(OcConnectivityType.CT_ADAPTER_GATT_BTLE),
                     this, QualityOfService.LOW);
-            wait(DISCOVERY_DURATION_MILLIS);
+        }
+        for (String host : ipHosts) {
+            Log.d(TAG, "Discovering device (" + host + ") over IP...");
+            OcPlatform.findResource(host, OcPlatform.WELL_KNOWN_QUERY,
+                    EnumSet.of(OcConnectivityType.CT_ADAPTER_IP),
+                    this, QualityOfService.LOW);
+        }
+        waitForPendingHosts(DISCOVERY_DURATION_MILLIS);
+        if (!mPendingHosts.isEmpty()) {
+            Log.d(TAG, "No answer from " + mPendingHosts);
+        }
+        // BLE discovery cannot be multicast, so only IP endpoints are left for the fallback
+        for (String hostAddr : bleHosts) {
+            if (mPendingHosts.remove(KnownHosts.addressOf(hostAddr))) {
+                mHealthMonitor.onFailure(hostAddr);
+            }
+        }
+    }
+
+    /**
+     * Filters out the hosts whose circuit is open in the host health monitor.
+     */
+    private List<String> allowedHosts(List<String> hosts) {
+        ArrayList<String> allowed = new ArrayList<>(hosts.size());
+        for (String host : hosts) {
+            if (mHealthMonitor.allowRequest(host)) {
+                allowed.add(host);
+            } else {
+                Log.d(TAG, "Skipping " + host + ", it is not responding");
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * Waits until every pending host has answered or the timeout has passed. Once all have
+     * answered, waits a little longer for the remaining resources of the last host.
+     * @param timeoutMillis the maximum time to wait
+     * @throws InterruptedException
+     */
+    private synchronized void waitForPendingHosts(long timeoutMillis) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMillis;
+        long now;
+        while (!mPendingHosts.isEmpty() && !isCancelled()
+                && (now = SystemClock.elapsedRealtime()) < deadline) {
+            wait(deadline - now);
+        }
+        if (mPendingHosts.isEmpty()) {
+            wait(UNICAST_SETTLE_MILLIS);
+        }
+    }
+
+    private synchronized boolean hasPendingHosts() {
+        return !mPendingHosts.isEmpty();
+    }
+
+    /**
+     * Performs the resource discovery of a single BLE host, waiting until the host answers or
+     * the discovery duration has passed. A scan in progress is stopped meanwhile once it is
+     * complete.
+     * @param hostAddr the host address
+     * @throws InterruptedException
+     * @throws OcException
+     */
+    private synchronized void discoverBleHost(String hostAddr)
+            throws InterruptedException, OcException {
+        Log.d(TAG, "Discovering device (" + hostAddr + ") over BLE...");
+        mHostAnswered = false;
+        long start = SystemClock.elapsedRealtime();
+        OcPlatform.findResource(
+                hostAddr,
+                OcPlatform.WELL_KNOWN_QUERY,
+                EnumSet.of(OcConnectivityType.CT_ADAPTER_GATT_BTLE),
+                this, QualityOfService.LOW);
+        long deadline = SystemClock.elapsedRealtime() + DISCOVERY_DURATION_MILLIS;
+        long now;
+        while (!mHostAnswered && (now = SystemClock.elapsedRealtime()) < deadline) {
+            long timeout = deadline - now;
+            if (mIsScanning) {
+                timeout = Math.min(timeout, mScanQueue.millisUntilComplete(now));
+            }
+            wait(timeout);
+            updateScan();
+        }
+        if (mHostAnswered) {
+            mHealthMonitor.onSuccess(hostAddr, SystemClock.elapsedRealtime() - start);
             wait(1000); //wait for the other resources to be found before continuing
+        } else {
+            mHealthMonitor.onFailure(hostAddr);
         }
-        wait(1000);
     }
 
     /**
-     * Performs the multicast IP resource discovery for a set duration
+     * Performs the multicast IP resource discovery for a set duration, or until every known IP
+     * endpoint still pending has answered if this is a fallback for unicast discovery.
      * @throws InterruptedException
      * @throws OcException
      */
@@ -332,7 +559,15 @@ public class DiscoveryTask extends AsyncTask<Void, Integer, Void> implements OcP
                 OcPlatform.WELL_KNOWN_QUERY,
                 EnumSet.of(OcConnectivityType.CT_ADAPTER_IP),
                 this, QualityOfService.LOW);
-        wait(5000);
+        if (mIpHosts == null) {
+            wait(IP_DISCOVERY_MILLIS);
+        } else {
+            waitForPendingHosts(IP_DISCOVERY_MILLIS);
+            for (String host : mPendingHosts) {
+                mHealthMonitor.onFailure(host);
+            }
+            mPendingHosts.clear();
+        }
     }
 
     //********************************************************
@@ -346,14 +581,42 @@ public class DiscoveryTask extends AsyncTask<Void, Integer, Void> implements OcP
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
             super.onScanResult(callbackType, result);
-            final String addr = result.getDevice().getAddress();
-            Log.d(TAG, "Scanned device: " + result.getDevice().getName() + ", " + result.getDevice().getAddress());
-            if (!mScannedHosts.contains(addr)) {
-                mScannedHosts.add(addr);
+            onScanned(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            super.onBatchScanResults(results);
+            for (ScanResult result : results) {
+                onScanned(result);
+            }
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            super.onScanFailed(errorCode);
+            Log.e(TAG, "BLE scan failed: " + errorCode);
+            synchronized (DiscoveryTask.this) {
+                mIsScanning = false;
+                DiscoveryTask.this.notify();
             }
         }
     };
 
+    /**
+     * Queues a scanned device and wakes the discovery thread if it is new.
+     */
+    private void onScanned(ScanResult result) {
+        final String addr = result.getDevice().getAddress();
+        synchronized (this) {
+            if (mScanQueue.offer(addr, result.getRssi(), SystemClock.elapsedRealtime())) {
+                Log.d(TAG, "Scanned device: " + result.getDevice().getName() + ", " + addr
+                        + ", rssi " + result.getRssi());
+                notify();
+            }
+        }
+    }
+
     private BluetoothAdapter.LeScanCallback mLeScanCallback =
             new BluetoothAdapter.LeScanCallback() {
                 @Override
@@ -379,12 +642,22 @@ public class DiscoveryTask extends AsyncTask<Void, Integer, Void> implements OcP
         // Add the resource to the list of discovered resources
         mDiscoveredResources.add(ocResource);
 
+        // Notify the waiting thread once every unicast discovery target has answered
+        if (mPendingHosts.remove(KnownHosts.addressOf(ocResource.getHost()))) {
+            mHealthMonitor.onSuccess(ocResource.getHost(),
+                    SystemClock.elapsedRealtime() - mUnicastStartMillis);
+            if (mPendingHosts.isEmpty()) {
+                notify();
+            }
+        }
+
         // Add the host address to the list of found hosts if not already and notify
         if (!mConnectedHosts.contains(ocResource.getHost())) {
             mConnectedHosts.add(ocResource.getHost());
             // Only notify for ble gatt transports
             if (ocResource.getConnectivityTypeSet().contains(OcConnectivityType.CT_ADAPTER_GATT_BTLE)) {
                 // Notify the waiting thread to move on to the next host
+                mHostAnswered = true;
                 notify();
             }
         }
@@ -0,0 +1,106 @@
+package io.runtime.sensoroic.task;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.iotivity.base.OcResource;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.runtime.sensoroic.Transport;
+
+/**
+ * The hosts which answered resource discovery in previous runs, kept in shared preferences so
+ * discovery can try them first. Fixed installations, where every host is known, can also opt in
+ * to only refreshing the known hosts instead of running a full discovery.
+ */
+public class KnownHosts {
+
+    private static final String PREFS_NAME = "known_hosts";
+    private static final String KEY_BLE = "ble";
+    private static final String KEY_IP = "ip";
+    private static final String KEY_KNOWN_ONLY = "known_only";
+
+    private final SharedPreferences mPrefs;
+
+    /**
+     * Constructor for KnownHosts.
+     * @param context context
+     */
+    public KnownHosts(Context context) {
+        mPrefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME,
+                Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Get the known Bluetooth LE addresses.
+     * @return a copy of the set of addresses
+     */
+    public Set<String> getBleAddresses() {
+        return new HashSet<>(mPrefs.getStringSet(KEY_BLE, new HashSet<String>()));
+    }
+
+    /**
+     * Get the known IP endpoints.
+     * @return a copy of the set of resource hosts, e.g. "coap://192.168.1.5:5683"
+     */
+    public Set<String> getIpHosts() {
+        return new HashSet<>(mPrefs.getStringSet(KEY_IP, new HashSet<String>()));
+    }
+
+    /**
+     * Whether or not any host is known.
+     * @return true if at least one BLE address or IP endpoint is known
+     */
+    public boolean isEmpty() {
+        return getBleAddresses().isEmpty() && getIpHosts().isEmpty();
+    }
+
+    /**
+     * Whether or not discovery should only refresh the known hosts, as for a fixed installation.
+     * @return true if the known hosts only mode is enabled, false by default
+     */
+    public boolean isKnownOnly() {
+        return mPrefs.getBoolean(KEY_KNOWN_ONLY, false);
+    }
+
+    /**
+     * Enable or disable the known hosts only mode.
+     * @param knownOnly true to only refresh the known hosts, false to run a full discovery
+     */
+    public void setKnownOnly(boolean knownOnly) {
+        mPrefs.edit().putBoolean(KEY_KNOWN_ONLY, knownOnly).apply();
+    }
+
+    /**
+     * Remember the hosts of discovered resources.
+     * @param resources the discovered resources
+     */
+    public void addAll(List<OcResource> resources) {
+        Set<String> ble = getBleAddresses();
+        Set<String> ip = getIpHosts();
+        boolean changed = false;
+        for (OcResource resource : resources) {
+            if (Transport.of(resource) == Transport.BLE) {
+                changed |= ble.add(addressOf(resource.getHost()));
+            } else {
+                changed |= ip.add(resource.getHost());
+            }
+        }
+        if (changed) {
+            mPrefs.edit().putStringSet(KEY_BLE, ble).putStringSet(KEY_IP, ip).apply();
+        }
+    }
+
+    /**
+     * Get the address part of a resource host, e.g. the MAC address of "coap+gatt://AA:BB:..".
+     * @param host the resource host
+     * @return the host without its scheme
+     */
+    public static String addressOf(String host) {
+        int i = host.indexOf("://");
+        return i < 0 ? host : host.substring(i + 3);
+    }
+}
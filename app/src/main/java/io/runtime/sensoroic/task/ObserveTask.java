@@ -4,19 +4,21 @@ import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 
-import org.iotivity.base.ObserveType;
-import org.iotivity.base.OcException;
 import org.iotivity.base.OcHeaderOption;
 import org.iotivity.base.OcRepresentation;
 import org.iotivity.base.OcResource;
 
-import java.util.HashMap;
 import java.util.List;
 
+import io.runtime.sensoroic.OicApplication;
 import io.runtime.sensoroic.R;
+import io.runtime.sensoroic.health.HostHealth;
+import io.runtime.sensoroic.health.HostHealthMonitor;
+import io.runtime.sensoroic.observe.ObserveHub;
 
 public class ObserveTask extends AsyncTask<Void, Void, Void> implements OcResource.OnObserveListener {
 
@@ -25,17 +27,37 @@ public class ObserveTask extends AsyncTask<Void, Void, Void> implements OcResour
     private OcResource.OnObserveListener mListener;
     private ProgressDialog mProgressDialog;
     private boolean mResponseReceived = false;
+    private boolean mObserveFailed = false;
+
+    // Host health, consulted before observing and told the outcome
+    private HostHealthMonitor mHealthMonitor;
+    private HostHealth mSkippedHealth;
+
+    // Subscription to the resource's shared stream, kept once the first response has arrived
+    private ObserveHub.Subscription mSubscription;
 
     public ObserveTask(Context context, OcResource resource, OcResource.OnObserveListener listener) {
         mContext = context;
         mResource = resource;
-        mListener = listener;
+        // Wrap the listener so that its callbacks can be captured in a trace
+        OicApplication app = (OicApplication) context.getApplicationContext();
+        mListener = app.getTraceRecorder().wrapObserve(OicApplication.createUniqueId(resource), listener);
+        mHealthMonitor = app.getHostHealthMonitor();
+        mSubscription = app.getObserveHub().newSubscription(resource, this);
         mProgressDialog = new ProgressDialog(context, R.style.ProgressDialog);
         mProgressDialog.setTitle("Loading");
         mProgressDialog.setMessage("Wait while loading values from device...");
         mProgressDialog.setCancelable(false);
     }
 
+    /**
+     * Get the subscription, to follow the stream's state and to stop observing.
+     * @return the subscription
+     */
+    public ObserveHub.Subscription getSubscription() {
+        return mSubscription;
+    }
+
     @Override
     protected void onPreExecute() {
         super.onPreExecute();
@@ -44,12 +66,31 @@ public class ObserveTask extends AsyncTask<Void, Void, Void> implements OcResour
 
     @Override
     protected synchronized Void doInBackground(Void[] params) {
+        String host = mResource.getHost();
+        if (!mHealthMonitor.allowRequest(host)) {
+            // The host is known to be down, or another screen is already probing it, so fail
+            // fast rather than waiting for the timeout
+            mSkippedHealth = mHealthMonitor.getHealth(host);
+            return null;
+        }
+        long startMillis = SystemClock.elapsedRealtime();
         try {
-
-            mResource.observe(ObserveType.OBSERVE, new HashMap<String, String>(), this);
-            wait(10000);
-        } catch (OcException e) {
-            e.printStackTrace();
+            // Joining a stream which is already live answers straight away
+            boolean started = mSubscription.start(true);
+            if (!mResponseReceived) {
+                wait(10000);
+            }
+            if (!mResponseReceived) {
+                mSubscription.cancel();
+            }
+            // The outcome of a stream someone else started is recorded by its supervisor
+            if (started) {
+                if (mResponseReceived && !mObserveFailed) {
+                    mHealthMonitor.onSuccess(host, SystemClock.elapsedRealtime() - startMillis);
+                } else {
+                    mHealthMonitor.onFailure(host);
+                }
+            }
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
@@ -61,10 +102,17 @@ public class ObserveTask extends AsyncTask<Void, Void, Void> implements OcResour
         super.onPostExecute(aVoid);
         mProgressDialog.dismiss();
         if (!mResponseReceived) {
+            String message = "The device failed to respond.";
+            if (mSkippedHealth != null && mSkippedHealth.getRetryInMillis() > 0) {
+                message = "The device has not been responding. It will be tried again in "
+                        + ((mSkippedHealth.getRetryInMillis() + 999) / 1000) + " seconds.";
+            } else if (mSkippedHealth != null) {
+                message = "The device has not been responding and is being checked again.";
+            }
             new AlertDialog.Builder(mContext).
                     setCancelable(false)
                     .setTitle("Response Failure")
-                    .setMessage("The device failed to respond.")
+                    .setMessage(message)
                     .setNegativeButton("Go Back", new DialogInterface.OnClickListener() {
                         @Override
                         public void onClick(DialogInterface dialog, int which) {
@@ -85,6 +133,7 @@ public class ObserveTask extends AsyncTask<Void, Void, Void> implements OcResour
     @Override
     public synchronized void onObserveFailed(Throwable throwable) {
         mResponseReceived = true;
+        mObserveFailed = true;
         notify();
         mListener.onObserveFailed(throwable);
     }
@@ -0,0 +1,138 @@
+package io.runtime.sensoroic.task;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The hosts reported by a Bluetooth LE scan, waiting for resource discovery. Each address is
+ * queued once however often it is reported. Hosts known from previous runs are handed out first,
+ * then the strongest signal, so discovery can start on the best hosts while the scan is still
+ * running. The queue also decides when the scan has seen enough: once the expected number of
+ * devices has been seen, once no new device has been reported for an idle period, or once the
+ * maximum scan time is up.
+ *
+ * Not thread safe; the caller synchronizes.
+ */
+class ScanQueue {
+
+    private final Set<String> mKnown;
+    private final int mExpected;
+    private final long mIdleMillis;
+    private final long mMaxMillis;
+
+    private final HashSet<String> mSeen = new HashSet<>();
+    private final ArrayList<Candidate> mPending = new ArrayList<>();
+    private long mStartMillis;
+    private long mLastNewMillis;
+
+    /**
+     * Constructor for ScanQueue.
+     * @param known         the addresses known from previous runs
+     * @param expected      the number of devices after which the scan is complete, 0 if unknown
+     * @param idleMillis    the time without a new device after which the scan is complete
+     * @param maxMillis     the maximum scan time
+     */
+    ScanQueue(Set<String> known, int expected, long idleMillis, long maxMillis) {
+        mKnown = known;
+        mExpected = expected;
+        mIdleMillis = idleMillis;
+        mMaxMillis = maxMillis;
+    }
+
+    /**
+     * Mark the start of the scan.
+     * @param nowMillis the current time
+     */
+    void start(long nowMillis) {
+        mStartMillis = nowMillis;
+        mLastNewMillis = nowMillis;
+    }
+
+    /**
+     * Add a scan report. A host still waiting keeps the strongest signal reported for it.
+     * @param address   the device address
+     * @param rssi      the received signal strength
+     * @param nowMillis the current time
+     * @return true if the address had not been seen before
+     */
+    boolean offer(String address, int rssi, long nowMillis) {
+        if (mSeen.add(address)) {
+            mPending.add(new Candidate(address, rssi, mKnown.contains(address)));
+            mLastNewMillis = nowMillis;
+            return true;
+        }
+        for (int i = 0; i < mPending.size(); i++) {
+            Candidate candidate = mPending.get(i);
+            if (candidate.mAddress.equals(address)) {
+                candidate.mRssi = Math.max(candidate.mRssi, rssi);
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Take the best waiting host.
+     * @return the address, or null if no host is waiting
+     */
+    String poll() {
+        int best = -1;
+        for (int i = 0; i < mPending.size(); i++) {
+            if (best < 0 || mPending.get(i).isBetterThan(mPending.get(best))) {
+                best = i;
+            }
+        }
+        return best < 0 ? null : mPending.remove(best).mAddress;
+    }
+
+    /**
+     * Whether or not the scan has seen enough and can be stopped.
+     * @param nowMillis the current time
+     * @return true if the scan is complete
+     */
+    boolean isComplete(long nowMillis) {
+        return (mExpected > 0 && mSeen.size() >= mExpected)
+                || nowMillis - mLastNewMillis >= mIdleMillis
+                || nowMillis - mStartMillis >= mMaxMillis;
+    }
+
+    /**
+     * Get the time until isComplete() would turn true if nothing new is reported.
+     * @param nowMillis the current time
+     * @return the time in milliseconds, at least 1
+     */
+    long millisUntilComplete(long nowMillis) {
+        long idle = mLastNewMillis + mIdleMillis - nowMillis;
+        long max = mStartMillis + mMaxMillis - nowMillis;
+        return Math.max(1, Math.min(idle, max));
+    }
+
+    /**
+     * Get the number of distinct devices seen.
+     * @return the device count
+     */
+    int getSeenCount() {
+        return mSeen.size();
+    }
+
+    private static class Candidate {
+
+        private final String mAddress;
+        private final boolean mKnown;
+        private int mRssi;
+
+        private Candidate(String address, int rssi, boolean known) {
+            mAddress = address;
+            mRssi = rssi;
+            mKnown = known;
+        }
+
+        private boolean isBetterThan(Candidate other) {
+            if (mKnown != other.mKnown) {
+                return mKnown;
+            }
+            return mRssi > other.mRssi;
+        }
+    }
+}
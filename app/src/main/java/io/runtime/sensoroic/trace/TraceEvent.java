@@ -0,0 +1,90 @@
+package io.runtime.sensoroic.trace;
+
+import java.util.Map;
+
+/**
+ * A single callback captured in a trace.
+ */
+public class TraceEvent {
+
+    // Event types
+    public static final int TYPE_OBSERVE = 1;
+    public static final int TYPE_OBSERVE_FAILED = 2;
+    public static final int TYPE_GET = 3;
+    public static final int TYPE_GET_FAILED = 4;
+    public static final int TYPE_PUT = 5;
+    public static final int TYPE_PUT_FAILED = 6;
+
+    private final int mType;
+    private final long mArrivalMicros;
+    private final String mResourceId;
+    private final int mSequenceNumber;
+    private final Map<String, Object> mValues;
+    private final String mError;
+
+    TraceEvent(int type, long arrivalMicros, String resourceId, int sequenceNumber,
+               Map<String, Object> values, String error) {
+        mType = type;
+        mArrivalMicros = arrivalMicros;
+        mResourceId = resourceId;
+        mSequenceNumber = sequenceNumber;
+        mValues = values;
+        mError = error;
+    }
+
+    /**
+     * Get the event type, one of the TYPE_* constants.
+     * @return the event type
+     */
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * Get the time the callback arrived, relative to the start of the trace.
+     * @return the arrival time in microseconds
+     */
+    public long getArrivalMicros() {
+        return mArrivalMicros;
+    }
+
+    /**
+     * Get the unique id of the resource the callback was for.
+     * @return the resource unique id
+     */
+    public String getResourceId() {
+        return mResourceId;
+    }
+
+    /**
+     * Get the observe sequence number. Only meaningful for TYPE_OBSERVE events.
+     * @return the sequence number
+     */
+    public int getSequenceNumber() {
+        return mSequenceNumber;
+    }
+
+    /**
+     * Get the representation values. Null for failure events.
+     * @return the representation values
+     */
+    public Map<String, Object> getValues() {
+        return mValues;
+    }
+
+    /**
+     * Get the failure message. Null for successful events.
+     * @return the failure message
+     */
+    public String getError() {
+        return mError;
+    }
+
+    /**
+     * Whether or not this event is a failure callback.
+     * @return true if the event is a failure
+     */
+    public boolean isFailure() {
+        return mType == TYPE_OBSERVE_FAILED || mType == TYPE_GET_FAILED || mType == TYPE_PUT_FAILED;
+    }
+}
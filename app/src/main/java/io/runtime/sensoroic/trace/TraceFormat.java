@@ -0,0 +1,62 @@
+package io.runtime.sensoroic.trace;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Constants and encoding helpers for the binary trace format.
+ *
+ * A trace starts with a header (magic, version, start time in epoch milliseconds) followed by
+ * records. Resource ids and value keys are written once in definition records and referred to by
+ * index afterwards. Event records hold the time since the previous event, the resource index,
+ * the sequence number for observe events, and the representation values (or a message for
+ * failures). Integers are written as variable length quantities to keep traces compact.
+ */
+final class TraceFormat {
+
+    static final int MAGIC = 0x4D545243;
+    static final int VERSION = 1;
+
+    // Definition records, event records use the TraceEvent.TYPE_* values
+    static final int RECORD_DEFINE_RESOURCE = 0x10;
+    static final int RECORD_DEFINE_KEY = 0x11;
+
+    // Value tags
+    static final int TAG_INT = 1;
+    static final int TAG_DOUBLE = 2;
+    static final int TAG_BOOLEAN = 3;
+    static final int TAG_STRING = 4;
+
+    private TraceFormat() {
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static void writeSignedVarLong(DataOutput out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    static long readSignedVarLong(DataInput in) throws IOException {
+        long raw = readVarLong(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+}
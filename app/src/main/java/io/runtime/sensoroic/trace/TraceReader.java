@@ -0,0 +1,131 @@
+package io.runtime.sensoroic.trace;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Reads the events of a trace written by TraceRecorder in order.
+ */
+public class TraceReader implements Closeable {
+
+    private final DataInputStream mIn;
+    private final long mStartTimeMillis;
+
+    // Interned resource ids and value keys
+    private final ArrayList<String> mResources = new ArrayList<>();
+    private final ArrayList<String> mKeys = new ArrayList<>();
+
+    // Arrival time of the previous event
+    private long mArrivalMicros = 0;
+
+    /**
+     * Open a trace file.
+     * @param file the trace file
+     * @throws IOException if the file could not be read or is not a trace
+     */
+    public TraceReader(File file) throws IOException {
+        mIn = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        if (mIn.readInt() != TraceFormat.MAGIC) {
+            mIn.close();
+            throw new IOException("Not a trace file: " + file);
+        }
+        int version = mIn.readUnsignedByte();
+        if (version != TraceFormat.VERSION) {
+            mIn.close();
+            throw new IOException("Unsupported trace version " + version);
+        }
+        mStartTimeMillis = mIn.readLong();
+    }
+
+    /**
+     * Get the wall clock time at which the trace was started.
+     * @return the start time in epoch milliseconds
+     */
+    public long getStartTimeMillis() {
+        return mStartTimeMillis;
+    }
+
+    /**
+     * Read the next event.
+     * @return the next event, or null at the end of the trace
+     * @throws IOException if the trace could not be read
+     */
+    public TraceEvent next() throws IOException {
+        while (true) {
+            int type;
+            try {
+                type = mIn.readUnsignedByte();
+            } catch (EOFException e) {
+                return null;
+            }
+            switch (type) {
+                case TraceFormat.RECORD_DEFINE_RESOURCE:
+                    TraceFormat.readVarLong(mIn);
+                    mResources.add(mIn.readUTF());
+                    break;
+                case TraceFormat.RECORD_DEFINE_KEY:
+                    TraceFormat.readVarLong(mIn);
+                    mKeys.add(mIn.readUTF());
+                    break;
+                case TraceEvent.TYPE_OBSERVE:
+                case TraceEvent.TYPE_OBSERVE_FAILED:
+                case TraceEvent.TYPE_GET:
+                case TraceEvent.TYPE_GET_FAILED:
+                case TraceEvent.TYPE_PUT:
+                case TraceEvent.TYPE_PUT_FAILED:
+                    return readEvent(type);
+                default:
+                    throw new IOException("Corrupt trace, unknown record type " + type);
+            }
+        }
+    }
+
+    private TraceEvent readEvent(int type) throws IOException {
+        mArrivalMicros += TraceFormat.readVarLong(mIn);
+        String resourceId = mResources.get((int) TraceFormat.readVarLong(mIn));
+        int sequenceNumber = 0;
+        if (type == TraceEvent.TYPE_OBSERVE) {
+            sequenceNumber = (int) TraceFormat.readSignedVarLong(mIn);
+        }
+        if (type == TraceEvent.TYPE_OBSERVE_FAILED || type == TraceEvent.TYPE_GET_FAILED
+                || type == TraceEvent.TYPE_PUT_FAILED) {
+            return new TraceEvent(type, mArrivalMicros, resourceId, sequenceNumber, null,
+                    mIn.readUTF());
+        }
+        int count = (int) TraceFormat.readVarLong(mIn);
+        HashMap<String, Object> values = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String key = mKeys.get((int) TraceFormat.readVarLong(mIn));
+            int tag = mIn.readUnsignedByte();
+            switch (tag) {
+                case TraceFormat.TAG_INT:
+                    values.put(key, (int) TraceFormat.readSignedVarLong(mIn));
+                    break;
+                case TraceFormat.TAG_DOUBLE:
+                    values.put(key, mIn.readDouble());
+                    break;
+                case TraceFormat.TAG_BOOLEAN:
+                    values.put(key, mIn.readBoolean());
+                    break;
+                case TraceFormat.TAG_STRING:
+                    values.put(key, mIn.readUTF());
+                    break;
+                default:
+                    throw new IOException("Corrupt trace, unknown value tag " + tag);
+            }
+        }
+        return new TraceEvent(type, mArrivalMicros, resourceId, sequenceNumber, values, null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mIn.close();
+    }
+}
@@ -0,0 +1,292 @@
+package io.runtime.sensoroic.trace;
+
+import android.util.Log;
+
+import org.iotivity.base.OcHeaderOption;
+import org.iotivity.base.OcRepresentation;
+import org.iotivity.base.OcResource;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Captures observe, get and put callbacks for selected resources into a compact binary trace
+ * which TraceReplayer can later feed back through the same listener interfaces. Listeners are
+ * wrapped once with wrapObserve, wrapGet or wrapPut; the wrappers only write to the trace while a
+ * recording is running and their resource is selected, so capture can be switched on and off at
+ * any time without re-subscribing.
+ */
+public class TraceRecorder {
+
+    // Logging TAG
+    private static final String TAG = "TraceRecorder";
+
+    // Output stream, null while not recording
+    private DataOutputStream mOut;
+
+    // Resources being captured
+    private final HashSet<String> mCaptured = new HashSet<>();
+
+    // Interned resource ids and value keys already written to the trace
+    private final HashMap<String, Integer> mResourceIndex = new HashMap<>();
+    private final HashMap<String, Integer> mKeyIndex = new HashMap<>();
+
+    // Time of the trace start and of the previous event
+    private long mStartNanos;
+    private long mLastEventMicros;
+    private long mEventCount;
+
+    /**
+     * Start recording a new trace, ending any recording in progress.
+     * @param file the file to write the trace to
+     * @throws IOException if the file could not be created
+     */
+    public synchronized void start(File file) throws IOException {
+        stop();
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        out.writeInt(TraceFormat.MAGIC);
+        out.writeByte(TraceFormat.VERSION);
+        out.writeLong(System.currentTimeMillis());
+        mOut = out;
+        mResourceIndex.clear();
+        mKeyIndex.clear();
+        mStartNanos = System.nanoTime();
+        mLastEventMicros = 0;
+        mEventCount = 0;
+        Log.d(TAG, "Recording trace to " + file);
+    }
+
+    /**
+     * Stop recording and close the trace file.
+     */
+    public synchronized void stop() {
+        if (mOut == null) {
+            return;
+        }
+        try {
+            mOut.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close trace", e);
+        }
+        mOut = null;
+        Log.d(TAG, "Recorded " + mEventCount + " events");
+    }
+
+    /**
+     * Whether or not a recording is running.
+     * @return true if recording
+     */
+    public synchronized boolean isRecording() {
+        return mOut != null;
+    }
+
+    /**
+     * Select or deselect a resource for capture.
+     * @param resourceId    the resource unique id
+     * @param capture       whether or not to capture the resource's callbacks
+     */
+    public synchronized void setCaptured(String resourceId, boolean capture) {
+        if (capture) {
+            mCaptured.add(resourceId);
+        } else {
+            mCaptured.remove(resourceId);
+        }
+    }
+
+    /**
+     * Whether or not callbacks for a resource are currently written to the trace.
+     * @param resourceId the resource unique id
+     * @return true if the resource is being captured
+     */
+    public synchronized boolean isCapturing(String resourceId) {
+        return mOut != null && mCaptured.contains(resourceId);
+    }
+
+    /**
+     * Whether or not callbacks for any resource are currently written to the trace.
+     * @return true if at least one resource is being captured
+     */
+    public synchronized boolean isCapturingAny() {
+        return mOut != null && !mCaptured.isEmpty();
+    }
+
+    /**
+     * Wrap an OnObserveListener so that its callbacks are captured.
+     * @param resourceId    the unique id of the observed resource
+     * @param listener      the listener to wrap
+     * @return the wrapping listener
+     */
+    public OcResource.OnObserveListener wrapObserve(final String resourceId,
+                                                   final OcResource.OnObserveListener listener) {
+        return new OcResource.OnObserveListener() {
+            @Override
+            public void onObserveCompleted(List<OcHeaderOption> list,
+                                           OcRepresentation ocRepresentation, int i) {
+                record(TraceEvent.TYPE_OBSERVE, resourceId, i, ocRepresentation, null);
+                listener.onObserveCompleted(list, ocRepresentation, i);
+            }
+
+            @Override
+            public void onObserveFailed(Throwable throwable) {
+                record(TraceEvent.TYPE_OBSERVE_FAILED, resourceId, 0, null, throwable);
+                listener.onObserveFailed(throwable);
+            }
+        };
+    }
+
+    /**
+     * Wrap an OnGetListener so that its callbacks are captured.
+     * @param resourceId    the unique id of the resource
+     * @param listener      the listener to wrap
+     * @return the wrapping listener
+     */
+    public OcResource.OnGetListener wrapGet(final String resourceId,
+                                           final OcResource.OnGetListener listener) {
+        return new OcResource.OnGetListener() {
+            @Override
+            public void onGetCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
+                record(TraceEvent.TYPE_GET, resourceId, 0, ocRepresentation, null);
+                listener.onGetCompleted(list, ocRepresentation);
+            }
+
+            @Override
+            public void onGetFailed(Throwable throwable) {
+                record(TraceEvent.TYPE_GET_FAILED, resourceId, 0, null, throwable);
+                listener.onGetFailed(throwable);
+            }
+        };
+    }
+
+    /**
+     * Wrap an OnPutListener so that its callbacks are captured.
+     * @param resourceId    the unique id of the resource
+     * @param listener      the listener to wrap
+     * @return the wrapping listener
+     */
+    public OcResource.OnPutListener wrapPut(final String resourceId,
+                                           final OcResource.OnPutListener listener) {
+        return new OcResource.OnPutListener() {
+            @Override
+            public void onPutCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
+                record(TraceEvent.TYPE_PUT, resourceId, 0, ocRepresentation, null);
+                listener.onPutCompleted(list, ocRepresentation);
+            }
+
+            @Override
+            public void onPutFailed(Throwable throwable) {
+                record(TraceEvent.TYPE_PUT_FAILED, resourceId, 0, null, throwable);
+                listener.onPutFailed(throwable);
+            }
+        };
+    }
+
+    private void record(int type, String resourceId, int sequenceNumber,
+                        OcRepresentation representation, Throwable error) {
+        // Read the values outside the lock, this crosses into the native library
+        Map<String, Object> values = null;
+        long arrivalMicros;
+        synchronized (this) {
+            if (!isCapturing(resourceId)) {
+                return;
+            }
+            arrivalMicros = (System.nanoTime() - mStartNanos) / 1000;
+        }
+        if (representation != null) {
+            values = representation.getValues();
+        }
+        synchronized (this) {
+            if (mOut == null) {
+                return;
+            }
+            try {
+                writeEvent(type, arrivalMicros, resourceId, sequenceNumber, values, error);
+                mEventCount++;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to write trace, stopping", e);
+                stop();
+            }
+        }
+    }
+
+    private void writeEvent(int type, long arrivalMicros, String resourceId, int sequenceNumber,
+                            Map<String, Object> values, Throwable error) throws IOException {
+        int resource = intern(mResourceIndex, TraceFormat.RECORD_DEFINE_RESOURCE, resourceId);
+        if (values != null) {
+            for (String key : values.keySet()) {
+                intern(mKeyIndex, TraceFormat.RECORD_DEFINE_KEY, key);
+            }
+        }
+        // Callbacks may race for the lock, never write a negative delta
+        long delta = Math.max(0, arrivalMicros - mLastEventMicros);
+        mLastEventMicros += delta;
+
+        mOut.writeByte(type);
+        TraceFormat.writeVarLong(mOut, delta);
+        TraceFormat.writeVarLong(mOut, resource);
+        if (type == TraceEvent.TYPE_OBSERVE) {
+            TraceFormat.writeSignedVarLong(mOut, sequenceNumber);
+        }
+        if (type == TraceEvent.TYPE_OBSERVE_FAILED || type == TraceEvent.TYPE_GET_FAILED
+                || type == TraceEvent.TYPE_PUT_FAILED) {
+            mOut.writeUTF(String.valueOf(error));
+            return;
+        }
+        if (values == null) {
+            TraceFormat.writeVarLong(mOut, 0);
+            return;
+        }
+        int count = 0;
+        for (Object value : values.values()) {
+            if (isSupported(value)) {
+                count++;
+            }
+        }
+        TraceFormat.writeVarLong(mOut, count);
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            Object value = entry.getValue();
+            if (!isSupported(value)) {
+                continue;
+            }
+            TraceFormat.writeVarLong(mOut, mKeyIndex.get(entry.getKey()));
+            if (value instanceof Integer) {
+                mOut.writeByte(TraceFormat.TAG_INT);
+                TraceFormat.writeSignedVarLong(mOut, (Integer) value);
+            } else if (value instanceof Double) {
+                mOut.writeByte(TraceFormat.TAG_DOUBLE);
+                mOut.writeDouble((Double) value);
+            } else if (value instanceof Boolean) {
+                mOut.writeByte(TraceFormat.TAG_BOOLEAN);
+                mOut.writeBoolean((Boolean) value);
+            } else {
+                mOut.writeByte(TraceFormat.TAG_STRING);
+                mOut.writeUTF((String) value);
+            }
+        }
+    }
+
+    private int intern(HashMap<String, Integer> table, int recordType, String name)
+            throws IOException {
+        Integer index = table.get(name);
+        if (index == null) {
+            index = table.size();
+            table.put(name, index);
+            mOut.writeByte(recordType);
+            TraceFormat.writeVarLong(mOut, index);
+            mOut.writeUTF(name);
+        }
+        return index;
+    }
+
+    private static boolean isSupported(Object value) {
+        return value instanceof Integer || value instanceof Double || value instanceof Boolean
+                || value instanceof String;
+    }
+}
@@ -0,0 +1,289 @@
+package io.runtime.sensoroic.trace;
+
+import android.util.Log;
+
+import org.iotivity.base.OcException;
+import org.iotivity.base.OcHeaderOption;
+import org.iotivity.base.OcRepresentation;
+import org.iotivity.base.OcResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays a trace written by TraceRecorder through the same OnObserveListener, OnGetListener and
+ * OnPutListener interfaces used for live resources, so anything consuming live callbacks can be
+ * benchmarked against identical input. Events are delivered on a dedicated thread either at the
+ * recorded pace scaled by a speed factor, or as fast as possible.
+ *
+ * The replay thread is the only thread delivering events, so a listener feeding a
+ * single-producer queue stays correct: stop() waits for the thread to finish, and a replay
+ * thread which is no longer the current one delivers nothing more.
+ */
+public class TraceReplayer {
+
+    // Logging TAG
+    private static final String TAG = "TraceReplayer";
+
+    // Speed value which replays without any delay between events
+    public static final float SPEED_MAX = 0;
+
+    private final File mFile;
+    private final float mSpeed;
+
+    // Listeners by resource unique id, the null key receives events for every resource
+    private final HashMap<String, OcResource.OnObserveListener> mObserveListeners = new HashMap<>();
+    private final HashMap<String, OcResource.OnGetListener> mGetListeners = new HashMap<>();
+    private final HashMap<String, OcResource.OnPutListener> mPutListeners = new HashMap<>();
+    private OnReplayListener mReplayListener;
+
+    // Replay thread, null once stopped
+    private volatile Thread mThread;
+
+    // Header options passed to every callback
+    private final List<OcHeaderOption> mHeaderOptions = new ArrayList<>();
+
+    /**
+     * Constructor for TraceReplayer.
+     * @param file  the trace to replay
+     * @param speed the replay speed relative to the recording (e.g. 1 or 10), or SPEED_MAX
+     */
+    public TraceReplayer(File file, float speed) {
+        mFile = file;
+        mSpeed = speed;
+    }
+
+    /**
+     * Set the listener receiving observe events for a resource.
+     * @param resourceId    the resource unique id, or null to receive events for all resources
+     * @param listener      the listener
+     */
+    public synchronized void setObserveListener(String resourceId, OcResource.OnObserveListener listener) {
+        mObserveListeners.put(resourceId, listener);
+    }
+
+    /**
+     * Set the listener receiving get events for a resource.
+     * @param resourceId    the resource unique id, or null to receive events for all resources
+     * @param listener      the listener
+     */
+    public synchronized void setGetListener(String resourceId, OcResource.OnGetListener listener) {
+        mGetListeners.put(resourceId, listener);
+    }
+
+    /**
+     * Set the listener receiving put events for a resource.
+     * @param resourceId    the resource unique id, or null to receive events for all resources
+     * @param listener      the listener
+     */
+    public synchronized void setPutListener(String resourceId, OcResource.OnPutListener listener) {
+        mPutListeners.put(resourceId, listener);
+    }
+
+    /**
+     * Set the listener notified when the replay finishes.
+     * @param listener the listener
+     */
+    public synchronized void setOnReplayListener(OnReplayListener listener) {
+        mReplayListener = listener;
+    }
+
+    /**
+     * Start replaying on a new thread.
+     */
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replay();
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    /**
+     * Stop replaying and wait for the replay thread to finish. No events are delivered after this
+     * returns. When called from a listener on the replay thread it returns straight away, and
+     * the replay ends once the listener returns.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+            mThread = null;
+        }
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        if (thread == Thread.currentThread()) {
+            return;
+        }
+        // Not holding the lock, the replay thread needs it to look up its listeners
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Whether or not the calling thread is the current replay thread, i.e. has not been stopped.
+     */
+    private boolean isReplaying() {
+        return mThread == Thread.currentThread();
+    }
+
+    private void replay() {
+        long eventCount = 0;
+        long startNanos = System.nanoTime();
+        TraceReader reader = null;
+        try {
+            reader = new TraceReader(mFile);
+            TraceEvent event;
+            while (isReplaying() && (event = reader.next()) != null) {
+                if (mSpeed > 0) {
+                    long target = startNanos + (long) (event.getArrivalMicros() * 1000 / mSpeed);
+                    long delay = target - System.nanoTime();
+                    if (delay > 0) {
+                        Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+                    }
+                }
+                if (!isReplaying()) {
+                    // Stopped while waiting for the event
+                    break;
+                }
+                dispatch(event);
+                eventCount++;
+            }
+            long elapsed = System.nanoTime() - startNanos;
+            Log.d(TAG, "Replayed " + eventCount + " events in " + elapsed / 1000000 + " ms");
+            OnReplayListener listener = getReplayListener();
+            if (listener != null && isReplaying()) {
+                listener.onReplayCompleted(eventCount, elapsed);
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Replay stopped after " + eventCount + " events");
+        } catch (IOException | OcException e) {
+            Log.e(TAG, "Replay failed", e);
+            OnReplayListener listener = getReplayListener();
+            if (listener != null) {
+                listener.onReplayFailed(e);
+            }
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private synchronized OnReplayListener getReplayListener() {
+        return mReplayListener;
+    }
+
+    private void dispatch(TraceEvent event) throws OcException {
+        String resourceId = event.getResourceId();
+        Throwable error = event.isFailure() ? new Exception(event.getError()) : null;
+        switch (event.getType()) {
+            case TraceEvent.TYPE_OBSERVE:
+            case TraceEvent.TYPE_OBSERVE_FAILED: {
+                OcResource.OnObserveListener listener = find(mObserveListeners, resourceId);
+                if (listener == null) {
+                    return;
+                }
+                if (error != null) {
+                    listener.onObserveFailed(error);
+                } else {
+                    listener.onObserveCompleted(mHeaderOptions, toRepresentation(event.getValues()),
+                            event.getSequenceNumber());
+                }
+                break;
+            }
+            case TraceEvent.TYPE_GET:
+            case TraceEvent.TYPE_GET_FAILED: {
+                OcResource.OnGetListener listener = find(mGetListeners, resourceId);
+                if (listener == null) {
+                    return;
+                }
+                if (error != null) {
+                    listener.onGetFailed(error);
+                } else {
+                    listener.onGetCompleted(mHeaderOptions, toRepresentation(event.getValues()));
+                }
+                break;
+            }
+            case TraceEvent.TYPE_PUT:
+            case TraceEvent.TYPE_PUT_FAILED: {
+                OcResource.OnPutListener listener = find(mPutListeners, resourceId);
+                if (listener == null) {
+                    return;
+                }
+                if (error != null) {
+                    listener.onPutFailed(error);
+                } else {
+                    listener.onPutCompleted(mHeaderOptions, toRepresentation(event.getValues()));
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    private synchronized <T> T find(HashMap<String, T> listeners, String resourceId) {
+        T listener = listeners.get(resourceId);
+        return listener != null ? listener : listeners.get(null);
+    }
+
+    private static OcRepresentation toRepresentation(Map<String, Object> values) throws OcException {
+        OcRepresentation representation = new OcRepresentation();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Integer) {
+                representation.setValue(entry.getKey(), (int) (Integer) value);
+            } else if (value instanceof Double) {
+                representation.setValue(entry.getKey(), (double) (Double) value);
+            } else if (value instanceof Boolean) {
+                representation.setValue(entry.getKey(), (boolean) (Boolean) value);
+            } else {
+                representation.setValue(entry.getKey(), (String) value);
+            }
+        }
+        return representation;
+    }
+
+    /**
+     * The listener for TraceReplayer.
+     */
+    public interface OnReplayListener {
+        /**
+         * Called on the replay thread after the last event has been delivered.
+         * @param eventCount    the number of events delivered
+         * @param elapsedNanos  the time taken to deliver them
+         */
+        void onReplayCompleted(long eventCount, long elapsedNanos);
+
+        /**
+         * Called on the replay thread if the trace could not be read.
+         * @param throwable the failure
+         */
+        void onReplayFailed(Throwable throwable);
+    }
+}
@@ -0,0 +1,43 @@
+package io.runtime.sensoroic.chart;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests for the allocation-free axis label formatting of LabelFormat.
+ */
+public class LabelFormatTest {
+
+    @Test
+    public void matchesStringFormat() {
+        float[] values = {0f, -0f, 1f, -1f, 9.995f, 99.95f, 999.4f, 999.6f, 1000f, 0.1f,
+                0.0001f, 0.00001f, 123456f, -0.5f, 42.42f, 3.14159f, 1e-20f, 1e20f,
+                Float.MAX_VALUE, Float.MIN_VALUE, Float.NaN, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY};
+        for (float value : values) {
+            assertFormatted(value);
+        }
+    }
+
+    @Test
+    public void matchesStringFormatForRandomValues() {
+        Random random = new Random(42);
+        char[] out = new char[LabelFormat.MAX_LENGTH];
+        for (int i = 0; i < 100000; i++) {
+            float value = (float) ((random.nextDouble() - 0.5)
+                    * Math.pow(10, random.nextInt(16) - 8));
+            assertEquals(String.format(Locale.US, "%.3g", value),
+                    new String(out, 0, LabelFormat.format(value, out)));
+        }
+    }
+
+    private static void assertFormatted(float value) {
+        char[] out = new char[LabelFormat.MAX_LENGTH];
+        int length = LabelFormat.format(value, out);
+        assertEquals(String.format(Locale.US, "%.3g", value), new String(out, 0, length));
+    }
+}
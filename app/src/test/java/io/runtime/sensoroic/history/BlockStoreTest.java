@@ -0,0 +1,221 @@
+package io.runtime.sensoroic.history;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for the block encodings and for BlockStore queries across compaction and
+ * reopening.
+ */
+public class BlockStoreTest {
+
+    private static final int CHANNELS = 3;
+    private static final int BLOCK_ROWS = 8;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void packedRoundTripKeepsEveryBit() throws IOException {
+        int rows = 64;
+        long[] times = new long[rows];
+        double[] values = new double[rows * CHANNELS];
+        fill(times, values, rows);
+        // Values the XOR encoding has to get right bit for bit
+        values[0] = Double.longBitsToDouble(0x7FF8000000000001L);
+        values[1] = -0.0;
+        values[2] = Double.MIN_VALUE;
+        values[3] = Double.NEGATIVE_INFINITY;
+        values[4] = Double.MAX_VALUE;
+
+        byte[] packed = BlockCodec.encodePacked(times, values, rows, CHANNELS);
+        int length = BlockCodec.packedLength(packed);
+        long[] decodedTimes = new long[rows];
+        double[] decodedValues = new double[rows * CHANNELS];
+        BlockCodec.decode(BlockCodec.ENCODING_PACKED, packed, length, rows, CHANNELS,
+                decodedTimes, decodedValues);
+        for (int r = 0; r < rows; r++) {
+            assertEquals(times[r], decodedTimes[r]);
+        }
+        for (int i = 0; i < values.length; i++) {
+            assertEquals("value " + i, Double.doubleToRawLongBits(values[i]),
+                    Double.doubleToRawLongBits(decodedValues[i]));
+        }
+        assertTrue(length < rows * 8 * (1 + CHANNELS));
+    }
+
+    @Test
+    public void packedRoundTripOfExtremeTimestamps() throws IOException {
+        long[] times = {Long.MIN_VALUE, -1, 0, 0, Long.MAX_VALUE, Long.MAX_VALUE};
+        double[] values = new double[times.length];
+        byte[] packed = BlockCodec.encodePacked(times, values, times.length, 1);
+        long[] decoded = new long[times.length];
+        BlockCodec.decode(BlockCodec.ENCODING_PACKED, packed, BlockCodec.packedLength(packed),
+                times.length, 1, decoded, new double[times.length]);
+        for (int r = 0; r < times.length; r++) {
+            assertEquals(times[r], decoded[r]);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedPackedBlockFails() throws IOException {
+        int rows = 16;
+        long[] times = new long[rows];
+        double[] values = new double[rows * CHANNELS];
+        fill(times, values, rows);
+        byte[] packed = BlockCodec.encodePacked(times, values, rows, CHANNELS);
+        BlockCodec.decode(BlockCodec.ENCODING_PACKED, packed, BlockCodec.packedLength(packed) - 1,
+                rows, CHANNELS, new long[rows], new double[rows * CHANNELS]);
+    }
+
+    @Test
+    public void queryAcrossBlocksAfterCompactionAndReopen() throws Exception {
+        File dir = mFolder.newFolder("store");
+        // Two full segments, a few blocks of the current one and an unsealed tail
+        int rows = 2 * 64 * BLOCK_ROWS + 3 * BLOCK_ROWS + 5;
+        long[] times = new long[rows];
+        double[] values = new double[rows * CHANNELS];
+        fill(times, values, rows);
+
+        BlockStore store = new BlockStore(dir, CHANNELS, BLOCK_ROWS);
+        double[] row = new double[CHANNELS];
+        for (int r = 0; r < rows; r++) {
+            System.arraycopy(values, r * CHANNELS, row, 0, CHANNELS);
+            assertTrue(store.append(times[r], row));
+        }
+        assertFalse(store.append(times[rows - 1] - 1, row));
+        assertQueries(store, times, values);
+
+        int passes = 0;
+        BlockStore.Throttle throttle = new BlockStore.Throttle(1L << 40);
+        while (store.compact(Long.MAX_VALUE, throttle)) {
+            assertTrue("Compaction does not settle", ++passes < 10);
+        }
+        assertTrue(passes > 0);
+        assertQueries(store, times, values);
+        store.close();
+
+        store = new BlockStore(dir, CHANNELS, BLOCK_ROWS);
+        try {
+            assertEquals(times[0], store.getFirstTimeMicros());
+            assertEquals(times[rows - 1], store.getLastTimeMicros());
+            assertQueries(store, times, values);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void retentionDropsBlocksOfTheCurrentSegment() throws Exception {
+        File dir = mFolder.newFolder("retention");
+        // Ten blocks, all in the segment being appended to
+        int rows = 10 * BLOCK_ROWS;
+        long[] times = new long[rows];
+        double[] values = new double[rows * CHANNELS];
+        fill(times, values, rows);
+
+        BlockStore store = new BlockStore(dir, CHANNELS, BLOCK_ROWS);
+        double[] row = new double[CHANNELS];
+        for (int r = 0; r < rows; r++) {
+            System.arraycopy(values, r * CHANNELS, row, 0, CHANNELS);
+            store.append(times[r], row);
+        }
+        assertEquals(10, store.getBlockCount());
+
+        // Every block ending before the first row of block 4 expires
+        assertEquals(4, store.dropBefore(times[4 * BLOCK_ROWS]));
+        assertEquals(6, store.getBlockCount());
+        assertEquals(times[4 * BLOCK_ROWS], store.getFirstTimeMicros());
+
+        // The rest expires too, and the old segment file goes with it
+        assertEquals(6, store.dropBefore(times[rows - 1] + 1));
+        assertEquals(0, store.getBlockCount());
+        assertFalse(new File(dir, "seg-0").exists());
+
+        // Appending carries on in a new segment, and survives reopening
+        long time = times[rows - 1] + 1000;
+        for (int r = 0; r < BLOCK_ROWS + 2; r++) {
+            assertTrue(store.append(time + r, row));
+        }
+        store.close();
+        store = new BlockStore(dir, CHANNELS, BLOCK_ROWS);
+        try {
+            assertEquals(1, store.getBlockCount());
+            assertEquals(time, store.getFirstTimeMicros());
+            assertEquals(time + BLOCK_ROWS + 1, store.getLastTimeMicros());
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Query ranges starting and ending inside, at and across block boundaries, and compare the
+     * rows visited with the rows appended.
+     */
+    private static void assertQueries(BlockStore store, long[] times, double[] values)
+            throws IOException {
+        int rows = times.length;
+        assertRange(store, times, values, 0, rows - 1);
+        assertRange(store, times, values, BLOCK_ROWS - 1, BLOCK_ROWS);
+        assertRange(store, times, values, BLOCK_ROWS, 2 * BLOCK_ROWS - 1);
+        assertRange(store, times, values, 3, 5 * BLOCK_ROWS + 2);
+        // Across the segment boundary
+        assertRange(store, times, values, 64 * BLOCK_ROWS - 3, 64 * BLOCK_ROWS + 3);
+        // Across the last sealed block and the tail
+        assertRange(store, times, values, rows - BLOCK_ROWS - 2, rows - 1);
+    }
+
+    private static void assertRange(BlockStore store, final long[] times, final double[] values,
+                                    int first, final int last) throws IOException {
+        // Equal timestamps are visited together, so widen the expected rows to match
+        while (first > 0 && times[first - 1] == times[first]) {
+            first--;
+        }
+        int end = last;
+        while (end + 1 < times.length && times[end + 1] == times[last]) {
+            end++;
+        }
+        final int[] next = {first};
+        int visited = store.query(times[first], times[last], new BlockStore.RowVisitor() {
+            @Override
+            public boolean onRow(long timeMicros, double[] row) {
+                int r = next[0]++;
+                assertEquals("row " + r, times[r], timeMicros);
+                for (int c = 0; c < CHANNELS; c++) {
+                    assertEquals("row " + r + " channel " + c, values[r * CHANNELS + c], row[c],
+                            0);
+                }
+                return true;
+            }
+        });
+        assertEquals(end + 1 - first, visited);
+    }
+
+    /**
+     * Fill rows with what makes the PACKED encoding work hardest: jittered sampling, repeated
+     * timestamps and large jumps in time, and values which repeat, go missing or fall.
+     */
+    private static void fill(long[] times, double[] values, int rows) {
+        long time = 1500000000000000L;
+        for (int r = 0; r < rows; r++) {
+            if (r % 97 == 50) {
+                // A day offline
+                time += 86400L * 1000000;
+            } else if (r % 13 != 5) {
+                time += 1000 + (r * 7919) % 300;
+            }
+            times[r] = time;
+            values[r * CHANNELS] = Math.round(Math.sin(r / 20.0) * 1000) / 100.0;
+            values[r * CHANNELS + 1] = r % 7 == 0 ? Double.NaN : (r / 10) * 0.5;
+            values[r * CHANNELS + 2] = -r * 1.25;
+        }
+    }
+}
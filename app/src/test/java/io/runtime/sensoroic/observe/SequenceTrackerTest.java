@@ -0,0 +1,120 @@
+package io.runtime.sensoroic.observe;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests for the observe sequence number checks of SequenceTracker.
+ */
+public class SequenceTrackerTest {
+
+    @Test
+    public void countsGapsAcrossTheWraparound() {
+        SequenceTracker tracker = new SequenceTracker();
+        assertEquals(0, tracker.accept(0xFFFFFE, 0));
+        // 0xFFFFFF and 0x000000 are missing
+        assertEquals(2, tracker.accept(0x000001, 100));
+        assertEquals(0, tracker.accept(0x000002, 200));
+        assertEquals(2, tracker.getLostCount());
+        assertEquals(1, tracker.getGapCount());
+
+        tracker = new SequenceTracker();
+        assertEquals(0, tracker.accept(0xFFFFFF, 0));
+        assertEquals(1, tracker.accept(0x000001, 100));
+        assertEquals(1, tracker.getLostCount());
+    }
+
+    @Test
+    public void dropsDuplicates() {
+        SequenceTracker tracker = new SequenceTracker();
+        assertEquals(0, tracker.accept(10, 0));
+        assertEquals(SequenceTracker.DROPPED, tracker.accept(10, 100));
+        assertEquals(0, tracker.accept(11, 200));
+        assertEquals(1, tracker.getDuplicateCount());
+        assertEquals(3, tracker.getReceivedCount());
+        assertEquals(2, tracker.getDeliveredCount());
+        assertEquals(0, tracker.getLostCount());
+    }
+
+    @Test
+    public void dropsANotificationOlderByOne() {
+        SequenceTracker tracker = new SequenceTracker();
+        assertEquals(0, tracker.accept(10, 0));
+        assertEquals(1, tracker.accept(12, 100));
+        // 11 arrives late, after it was already counted as lost
+        assertEquals(SequenceTracker.DROPPED, tracker.accept(11, 200));
+        assertEquals(0, tracker.accept(13, 300));
+        assertEquals(1, tracker.getReorderedCount());
+        assertEquals(1, tracker.getLostCount());
+        assertEquals(0.25, tracker.getReorderRate(), 1e-9);
+    }
+
+    @Test
+    public void olderAcrossTheWraparoundIsStale() {
+        SequenceTracker tracker = new SequenceTracker();
+        assertEquals(0, tracker.accept(0x000001, 0));
+        assertEquals(SequenceTracker.DROPPED, tracker.accept(0xFFFFFF, 100));
+        assertEquals(1, tracker.getReorderedCount());
+    }
+
+    @Test
+    public void resyncsAfterThreeStaleNumbersInARow() {
+        SequenceTracker tracker = new SequenceTracker();
+        assertEquals(0, tracker.accept(5000, 0));
+        // The device restarted its numbering
+        assertEquals(SequenceTracker.DROPPED, tracker.accept(1, 100));
+        assertEquals(SequenceTracker.DROPPED, tracker.accept(2, 200));
+        assertEquals(0, tracker.accept(3, 300));
+        assertEquals(0, tracker.accept(4, 400));
+        assertEquals(2, tracker.getReorderedCount());
+        assertEquals(0, tracker.getLostCount());
+    }
+
+    @Test
+    public void aNewerNumberEndsAStaleRun() {
+        SequenceTracker tracker = new SequenceTracker();
+        assertEquals(0, tracker.accept(100, 0));
+        assertEquals(SequenceTracker.DROPPED, tracker.accept(98, 100));
+        assertEquals(SequenceTracker.DROPPED, tracker.accept(99, 200));
+        assertEquals(0, tracker.accept(101, 300));
+        // The run starts over, so two more stale numbers are still dropped
+        assertEquals(SequenceTracker.DROPPED, tracker.accept(98, 400));
+        assertEquals(SequenceTracker.DROPPED, tracker.accept(99, 500));
+        assertEquals(4, tracker.getReorderedCount());
+    }
+
+    @Test
+    public void acceptsAnyNumberAfterTheFreshnessWindow() {
+        SequenceTracker tracker = new SequenceTracker();
+        assertEquals(0, tracker.accept(5000, 0));
+        assertEquals(SequenceTracker.DROPPED, tracker.accept(4000, 127999));
+        assertEquals(0, tracker.accept(4000, 128000 + 127999));
+        assertEquals(0, tracker.accept(4001, 128000 + 128100));
+        // A gap is not counted across the freshness window either
+        assertEquals(0, tracker.accept(9000, 3 * 128000 + 128100));
+        assertEquals(0, tracker.getLostCount());
+    }
+
+    @Test
+    public void resetForgetsTheLastNumberButKeepsTheCounters() {
+        SequenceTracker tracker = new SequenceTracker();
+        assertEquals(0, tracker.accept(10, 0));
+        assertEquals(2, tracker.accept(13, 100));
+        tracker.reset();
+        assertEquals(0, tracker.accept(2, 200));
+        assertEquals(0, tracker.accept(3, 300));
+        assertEquals(2, tracker.getLostCount());
+        assertEquals(4, tracker.getDeliveredCount());
+        assertEquals(2.0 / 6, tracker.getLossRate(), 1e-9);
+    }
+
+    @Test
+    public void passesResponsesWithoutASequenceNumber() {
+        SequenceTracker tracker = new SequenceTracker();
+        assertEquals(0, tracker.accept(10, 0));
+        assertEquals(0, tracker.accept(-1, 100));
+        assertEquals(0, tracker.accept(11, 200));
+        assertEquals(3, tracker.getDeliveredCount());
+    }
+}
@@ -0,0 +1,125 @@
+package io.runtime.sensoroic.stream;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.runtime.sensoroic.MynewtSensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Allocation benchmark of the observe-to-display path: notifications are fed through a
+ * DecodePipeline into a SnapshotPublisher and the bytes allocated by the producer and by the
+ * decode worker are read from the JVM's per-thread allocation counters once warmed up. The
+ * representation maps are built up front, as IoTivity allocates those and not the pipeline.
+ */
+public class DecodePipelineAllocationTest {
+
+    private static final int WARMUP = 20000;
+    private static final int MEASURED = 60000;
+
+    // Allowed for one-off allocations, e.g. by the JIT replacing code mid-run, far below the
+    // 24+ bytes a single allocated object per notification would add up to
+    private static final long SLACK_BYTES = 4096;
+
+    private final com.sun.management.ThreadMXBean mThreads = threadBean();
+
+    private volatile int mConsumed = 0;
+    private volatile long mWorkerStartBytes = -1;
+    private volatile long mWorkerEndBytes = -1;
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported()) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+                return threads;
+            }
+        }
+        return null;
+    }
+
+    private long allocatedBytes() {
+        return mThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() throws InterruptedException {
+        Assume.assumeTrue("Per-thread allocation counters unavailable", mThreads != null);
+
+        final SnapshotPublisher publisher = new SnapshotPublisher(3);
+        DecodePipeline pipeline = new DecodePipeline(MynewtSensor.RT_ACCELEROMETER, 64);
+        pipeline.addConsumer(new DecodePipeline.Consumer() {
+            @Override
+            public void onSample(Sample sample) {
+                publisher.publish(sample.getTimeMicros(), sample.getValues());
+                int consumed = mConsumed + 1;
+                if (consumed == WARMUP) {
+                    mWorkerStartBytes = allocatedBytes();
+                } else if (consumed == WARMUP + MEASURED) {
+                    mWorkerEndBytes = allocatedBytes();
+                }
+                mConsumed = consumed;
+            }
+        });
+
+        // A few distinct notifications, as boxed by IoTivity before the pipeline sees them
+        Map[] notifications = new Map[16];
+        for (int i = 0; i < notifications.length; i++) {
+            Map<String, Object> values = new HashMap<>();
+            values.put("x", i * 0.5);
+            values.put("y", -i * 0.25);
+            values.put("z", 9.81);
+            values.put("ts_secs", 100 + i);
+            values.put("ts_usecs", i * 1000);
+            notifications[i] = values;
+        }
+
+        pipeline.start();
+        try {
+            offer(pipeline, notifications, WARMUP);
+            long producerStart = allocatedBytes();
+            offer(pipeline, notifications, MEASURED);
+            long producerBytes = allocatedBytes() - producerStart;
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (mConsumed < WARMUP + MEASURED && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(WARMUP + MEASURED, mConsumed);
+            long workerBytes = mWorkerEndBytes - mWorkerStartBytes;
+
+            assertTrue("Producer allocated " + producerBytes + " bytes",
+                    producerBytes < SLACK_BYTES);
+            assertTrue("Decode worker allocated " + workerBytes + " bytes",
+                    workerBytes < SLACK_BYTES);
+            // Every sample was released in time to be reused
+            assertEquals(8, pipeline.getSamplePool().getCreatedCount());
+        } finally {
+            pipeline.stop();
+        }
+    }
+
+    /**
+     * Offer notifications, waiting for room rather than dropping any so that every one of them
+     * is decoded.
+     */
+    @SuppressWarnings("unchecked")
+    private static void offer(DecodePipeline pipeline, Map[] notifications, int count) {
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> values = notifications[i % notifications.length];
+            while (pipeline.getDepth() >= pipeline.getCapacity() - 1) {
+                Thread.yield();
+            }
+            if (!pipeline.offer(values, false)) {
+                i--;
+            }
+        }
+    }
+}
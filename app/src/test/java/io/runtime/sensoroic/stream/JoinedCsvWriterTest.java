@@ -0,0 +1,33 @@
+package io.runtime.sensoroic.stream;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests for JoinedCsvWriter fed by a StreamJoin.
+ */
+public class JoinedCsvWriterTest {
+
+    @Test
+    public void writesHeaderAndRowsWithEmptyMissingValues() {
+        StringWriter out = new StringWriter();
+        JoinedCsvWriter writer = new JoinedCsvWriter(out);
+        StreamJoin join = new StreamJoin(StreamJoin.MatchMode.NEAREST, StreamJoin.EmitMode.GRID,
+                10, 0, 5, 16, writer);
+        int a = join.addStream("a", new String[] {"x", "y"});
+        int b = join.addStream("b,1", new String[] {"z"});
+        join.push(a, 0, new double[] {1, 2}, 0);
+        join.push(b, 0, new double[] {3}, 0);
+        join.push(a, 10, new double[] {4, Double.NaN}, 10);
+        join.push(b, 20, new double[] {5}, 20);
+        writer.close();
+
+        assertEquals("time_micros,a.x,a.y,\"b,1.z\"\n"
+                + "0,1.0,2.0,3.0\n"
+                + "10,4.0,,\n", out.toString());
+        assertEquals(2, writer.getRowCount());
+    }
+}
@@ -0,0 +1,200 @@
+package io.runtime.sensoroic.stream;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.runtime.sensoroic.MynewtSensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for SpscQueue and the producer/worker handshake of DecodePipeline.
+ */
+public class SpscQueueTest {
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(1, new SpscQueue<Integer>(1).capacity());
+        assertEquals(8, new SpscQueue<Integer>(5).capacity());
+        assertEquals(16, new SpscQueue<Integer>(16).capacity());
+    }
+
+    @Test
+    public void offerFailsOnceFull() {
+        SpscQueue<Integer> queue = new SpscQueue<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+        assertEquals(Integer.valueOf(0), queue.poll());
+        assertTrue(queue.offer(4));
+        assertFalse(queue.offer(5));
+    }
+
+    @Test
+    public void wrapsAroundAtCapacity() {
+        SpscQueue<Integer> queue = new SpscQueue<>(4);
+        int next = 0;
+        int expected = 0;
+        // Keep the queue partly full so head and tail cross the end of the ring many times
+        for (int round = 0; round < 100; round++) {
+            while (queue.offer(next)) {
+                next++;
+            }
+            assertEquals(4, queue.size());
+            for (int i = 0; i < 3; i++) {
+                assertEquals(Integer.valueOf(expected++), queue.poll());
+            }
+        }
+        while (!queue.isEmpty()) {
+            assertEquals(Integer.valueOf(expected++), queue.poll());
+        }
+        assertEquals(next, expected);
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void producerAndConsumerThreadsKeepOrder() throws InterruptedException {
+        final SpscQueue<Integer> queue = new SpscQueue<>(64);
+        final int count = 2000000;
+        final AtomicReference<String> failure = new AtomicReference<>();
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int expected = 0;
+                while (expected < count) {
+                    Integer element = queue.poll();
+                    if (element == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    if (element != expected) {
+                        failure.set("Expected " + expected + " but got " + element);
+                        return;
+                    }
+                    expected++;
+                }
+            }
+        });
+        consumer.start();
+        for (int i = 0; i < count; i++) {
+            while (!queue.offer(i)) {
+                Thread.yield();
+            }
+        }
+        consumer.join(30000);
+        assertFalse("Consumer did not finish", consumer.isAlive());
+        assertNull(failure.get(), failure.get());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void pipelineCountsDropsWhenFull() throws InterruptedException {
+        DecodePipeline pipeline = new DecodePipeline(MynewtSensor.RT_TEMPERATURE_SENSOR, 4);
+        final Object gate = new Object();
+        final boolean[] open = {false};
+        pipeline.addConsumer(new DecodePipeline.Consumer() {
+            @Override
+            public void onSample(Sample sample) {
+                synchronized (gate) {
+                    while (!open[0]) {
+                        try {
+                            gate.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }
+        });
+        pipeline.start();
+        try {
+            // The worker holds the first notification in the blocked consumer, the other four
+            // fill the queue and the rest are dropped
+            assertTrue(pipeline.offer(values(0), false));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (pipeline.getDepth() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            int accepted = 1;
+            for (int i = 1; i < 20; i++) {
+                if (pipeline.offer(values(i), false)) {
+                    accepted++;
+                }
+            }
+            assertEquals(5, accepted);
+            assertEquals(15, pipeline.getDropCount());
+            synchronized (gate) {
+                open[0] = true;
+                gate.notifyAll();
+            }
+            waitForDecoded(pipeline, 5);
+            assertEquals(5, pipeline.getDecodedCount());
+        } finally {
+            pipeline.stop();
+        }
+    }
+
+    @Test
+    public void pipelineLosesAndDuplicatesNothing() throws InterruptedException {
+        final int count = 200000;
+        DecodePipeline pipeline = new DecodePipeline(MynewtSensor.RT_TEMPERATURE_SENSOR, 16);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final int[] next = {0};
+        pipeline.addConsumer(new DecodePipeline.Consumer() {
+            @Override
+            public void onSample(Sample sample) {
+                int value = (int) sample.getValues()[0];
+                if (value != next[0] && failure.get() == null) {
+                    failure.set("Expected " + next[0] + " but got " + value);
+                }
+                next[0] = value + 1;
+            }
+        });
+        Map[] notifications = new Map[count];
+        for (int i = 0; i < count; i++) {
+            notifications[i] = values(i);
+        }
+        pipeline.start();
+        try {
+            // The worker keeps parking and being woken as the producer pauses now and then
+            for (int i = 0; i < count; i++) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> values = notifications[i];
+                while (!pipeline.offer(values, false)) {
+                    Thread.yield();
+                }
+                if (i % 1000 == 0) {
+                    Thread.sleep(0, 100000);
+                }
+            }
+            waitForDecoded(pipeline, count);
+            assertNull(failure.get(), failure.get());
+            assertEquals(count, pipeline.getDecodedCount());
+            assertEquals(count, next[0]);
+        } finally {
+            pipeline.stop();
+        }
+    }
+
+    private static Map<String, Object> values(int i) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("temp", i);
+        return values;
+    }
+
+    private static void waitForDecoded(DecodePipeline pipeline, long count)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (pipeline.getDecodedCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
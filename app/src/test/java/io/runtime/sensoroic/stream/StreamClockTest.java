@@ -0,0 +1,57 @@
+package io.runtime.sensoroic.stream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for the board clock mapping of StreamClock.
+ */
+public class StreamClockTest {
+
+    private static final long BASE = 1500000000000000L;
+
+    @Test
+    public void keepsTheSmallestOffset() {
+        StreamClock clock = new StreamClock();
+        // 30 ms in transport, then 10 ms: the second sample shows the offset was smaller
+        assertEquals(BASE + 31000, clock.toLocalMicros(1000, BASE + 31000));
+        assertEquals(BASE + 12000, clock.toLocalMicros(2000, BASE + 12000));
+        // 25 ms in transport leaves the offset alone
+        assertEquals(BASE + 13000, clock.toLocalMicros(3000, BASE + 38000));
+    }
+
+    @Test
+    public void aLongTransportStallDoesNotMoveTime() {
+        StreamClock clock = new StreamClock();
+        long offset = BASE;
+        assertEquals(offset + 1000000, clock.toLocalMicros(1000000, offset + 1000000));
+        // A burst of samples held back for 8 s
+        assertEquals(offset + 2000000, clock.toLocalMicros(2000000, offset + 10000000));
+        assertEquals(offset + 3000000, clock.toLocalMicros(3000000, offset + 10000100));
+        // The next sample on time follows on without going backwards
+        assertEquals(offset + 11000000, clock.toLocalMicros(11000000, offset + 11000000));
+    }
+
+    @Test
+    public void reanchorsWhenTheBoardRestarts() {
+        StreamClock clock = new StreamClock();
+        assertEquals(BASE + 50000000, clock.toLocalMicros(50000000, BASE + 50000000));
+        // The board restarted 1 s later and counts from zero again
+        long arrival = BASE + 51000000;
+        assertEquals(arrival + 400, clock.toLocalMicros(500, arrival + 400));
+        assertEquals(arrival + 1400, clock.toLocalMicros(1500, arrival + 1500));
+    }
+
+    @Test
+    public void nowNeverGoesBackwards() {
+        long last = StreamClock.nowMicros();
+        assertTrue(Math.abs(last - System.currentTimeMillis() * 1000L) < 2000000L);
+        for (int i = 0; i < 100000; i++) {
+            long now = StreamClock.nowMicros();
+            assertTrue(now >= last);
+            last = now;
+        }
+    }
+}
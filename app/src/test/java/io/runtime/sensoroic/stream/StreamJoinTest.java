@@ -0,0 +1,205 @@
+package io.runtime.sensoroic.stream;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for StreamJoin. Samples are pushed with explicit arrival times, so the tests
+ * do not depend on the clock.
+ */
+public class StreamJoinTest {
+
+    private static final String[] X = {"x"};
+
+    private final List<JoinedRecord> mRecords = new ArrayList<>();
+
+    private final StreamJoin.OnJoinedListener mListener = new StreamJoin.OnJoinedListener() {
+        @Override
+        public void onJoined(JoinedRecord record) {
+            mRecords.add(record);
+        }
+    };
+
+    private long[] times() {
+        long[] times = new long[mRecords.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = mRecords.get(i).getTimeMicros();
+        }
+        return times;
+    }
+
+    private static double[] v(double value) {
+        return new double[] {value};
+    }
+
+    @Test
+    public void watermarkFollowsTheSlowestStream() {
+        StreamJoin join = new StreamJoin(StreamJoin.MatchMode.NEAREST, StreamJoin.EmitMode.GRID,
+                10, 0, mListener);
+        int a = join.addStream("a", X);
+        int b = join.addStream("b", X);
+
+        join.push(a, 0, v(0), 0);
+        join.push(a, 10, v(1), 10);
+        join.push(a, 20, v(2), 20);
+        // Stream b has not delivered yet and is not idle, so nothing can be emitted
+        assertEquals(Long.MIN_VALUE, join.getWatermarkMicros());
+        assertEquals(0, mRecords.size());
+
+        join.push(b, 15, v(5), 21);
+        assertEquals(15, join.getWatermarkMicros());
+        assertArrayEquals(new long[] {0, 10}, times());
+
+        join.push(b, 30, v(6), 30);
+        assertEquals(20, join.getWatermarkMicros());
+        assertArrayEquals(new long[] {0, 10, 20}, times());
+
+        // Samples older than their stream's newest are late
+        assertFalse(join.push(b, 16, v(7), 31));
+        assertFalse(join.push(a, 5, v(7), 32));
+        assertEquals(2, join.getLateCount());
+        assertArrayEquals(new long[] {0, 10, 20}, times());
+    }
+
+    @Test
+    public void allowedLatenessHoldsRecordsBack() {
+        StreamJoin join = new StreamJoin(StreamJoin.MatchMode.NEAREST, StreamJoin.EmitMode.GRID,
+                10, 15, mListener);
+        int a = join.addStream("a", X);
+        for (long t = 0; t <= 40; t += 10) {
+            join.push(a, t, v(t), t);
+        }
+        assertEquals(25, join.getWatermarkMicros());
+        assertArrayEquals(new long[] {0, 10, 20}, times());
+        // A sample later than its stream's newest but within the lateness is still used
+        assertTrue(join.push(a, 45, v(45), 45));
+    }
+
+    @Test
+    public void silentStreamStopsHoldingTheJoinOnceIdle() {
+        StreamJoin join = new StreamJoin(StreamJoin.MatchMode.NEAREST, StreamJoin.EmitMode.GRID,
+                10, 0, mListener);
+        join.setIdleTimeout(100);
+        int a = join.addStream("a", X);
+        join.addStream("b", X);
+
+        for (long t = 0; t <= 50; t += 10) {
+            join.push(a, t, v(t), t);
+        }
+        assertEquals(0, mRecords.size());
+
+        // Past the idle timeout, b no longer holds the watermark back and its column is empty
+        join.push(a, 150, v(150), 150);
+        assertEquals(150, join.getWatermarkMicros());
+        assertEquals(16, mRecords.size());
+        JoinedRecord record = mRecords.get(5);
+        assertEquals(50, record.getTimeMicros());
+        assertEquals(50, record.getValue(0), 0);
+        assertTrue(Double.isNaN(record.getValue(1)));
+        assertFalse(record.isComplete());
+    }
+
+    @Test
+    public void streamWhichWentSilentIsReleased() {
+        StreamJoin join = new StreamJoin(StreamJoin.MatchMode.NEAREST, StreamJoin.EmitMode.GRID,
+                10, 0, mListener);
+        join.setIdleTimeout(100);
+        int a = join.addStream("a", X);
+        int b = join.addStream("b", X);
+        join.push(a, 0, v(0), 0);
+        join.push(b, 0, v(0), 0);
+        join.push(a, 80, v(80), 80);
+        assertEquals(0, join.getWatermarkMicros());
+
+        // b last arrived at 0, so by 101 it is idle and a alone moves the watermark
+        join.advance(101);
+        assertEquals(80, join.getWatermarkMicros());
+        assertEquals(80, mRecords.get(mRecords.size() - 1).getTimeMicros());
+    }
+
+    @Test
+    public void nearestAndLinearMatching() {
+        double[] nearest = joinAt(StreamJoin.MatchMode.NEAREST);
+        double[] linear = joinAt(StreamJoin.MatchMode.LINEAR);
+        // Records at 0, 4, 8, 12, 16 and 20 between samples at 0, 10 and 20
+        assertArrayEquals(new double[] {0, 0, 10, 10, 20, 20}, nearest, 1e-9);
+        assertArrayEquals(new double[] {0, 4, 8, 12, 16, 20}, linear, 1e-9);
+    }
+
+    private double[] joinAt(StreamJoin.MatchMode mode) {
+        mRecords.clear();
+        StreamJoin join = new StreamJoin(mode, StreamJoin.EmitMode.GRID, 4, 0, 100, 16,
+                mListener);
+        int a = join.addStream("a", X);
+        join.push(a, 0, v(0), 0);
+        join.push(a, 10, v(10), 10);
+        join.push(a, 20, v(20), 20);
+        double[] values = new double[mRecords.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = mRecords.get(i).getValue(0);
+        }
+        return values;
+    }
+
+    @Test
+    public void samplesBeyondMaxGapAreNotMatched() {
+        StreamJoin join = new StreamJoin(StreamJoin.MatchMode.LINEAR, StreamJoin.EmitMode.GRID,
+                10, 0, 5, 16, mListener);
+        int a = join.addStream("a", X);
+        join.push(a, 0, v(0), 0);
+        join.push(a, 40, v(40), 40);
+        assertArrayEquals(new long[] {0, 10, 20, 30, 40}, times());
+        assertEquals(0, mRecords.get(0).getValue(0), 0);
+        assertTrue(Double.isNaN(mRecords.get(2).getValue(0)));
+        assertEquals(40, mRecords.get(4).getValue(0), 0);
+    }
+
+    @Test
+    public void onArrivalEmitsOneRecordPerSample() {
+        StreamJoin join = new StreamJoin(StreamJoin.MatchMode.NEAREST,
+                StreamJoin.EmitMode.ON_ARRIVAL, 0, 0, 100, 16, mListener);
+        int a = join.addStream("a", X);
+        int b = join.addStream("b", X);
+        join.push(a, 0, v(1), 0);
+        join.push(b, 3, v(2), 3);
+        join.push(a, 7, v(3), 7);
+        join.push(b, 9, v(4), 9);
+        assertArrayEquals(new long[] {0, 3, 7}, times());
+        assertArrayEquals(new double[] {3, 4}, mRecords.get(2).getValues(), 0);
+        assertArrayEquals(new String[] {"a.x", "b.x"}, join.getColumnNames());
+    }
+
+    @Test
+    public void ringOverflowDropsTheOldestSamples() {
+        // The lateness keeps the watermark behind every sample, so nothing is pruned
+        StreamJoin join = new StreamJoin(StreamJoin.MatchMode.NEAREST, StreamJoin.EmitMode.GRID,
+                10, 1000, 1000, 4, mListener);
+        int a = join.addStream("a", X);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(join.push(a, i * 10, v(i), i * 10));
+        }
+        assertEquals(4, join.getBufferedCount(a));
+        assertEquals(2, join.getDroppedCount());
+        assertEquals(0, mRecords.size());
+    }
+
+    @Test
+    public void onArrivalPendingRingOverflow() {
+        StreamJoin join = new StreamJoin(StreamJoin.MatchMode.NEAREST,
+                StreamJoin.EmitMode.ON_ARRIVAL, 0, 1000, 1000, 4, mListener);
+        int a = join.addStream("a", X);
+        for (int i = 0; i < 6; i++) {
+            join.push(a, i * 10, v(i), i * 10);
+        }
+        // Both the sample ring and the ring of pending record times dropped their two oldest
+        assertEquals(4, join.getBufferedCount(a));
+        assertEquals(4, join.getDroppedCount());
+    }
+}